@@ -0,0 +1,150 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc.benchmarks;
+
+import com.ionic.jdbc.ColumnarRowSet;
+import com.ionic.jdbc.IonicColumnarResultSetHandler;
+import com.ionic.jdbc.IonicResultSetHandler;
+import com.ionic.jdbc.RowSet;
+import com.ionic.key.KeyCache;
+import com.ionic.sdk.error.IonicException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import javax.sql.rowset.CachedRowSet;
+import org.apache.commons.dbutils.handlers.ArrayListHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of {@link IonicResultSetHandler#handle(java.sql.ResultSet)}, and of the alternative
+ * handlers, over synthetic in-memory results.
+ *
+ * <p>Keys come from a stub provider through a warm {@link KeyCache}, so the results measure row
+ * building and decryption only.  {@link #plainRows()} reads the same result with no decryption,
+ * as a baseline.
+ *
+ * <p>Run with <code>java -jar target/benchmarks.jar</code>; JMH options (such as
+ * <code>-p rows=1000</code>) select a subset of the parameters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IonicResultSetHandlerBenchmark {
+
+    /**
+     * The number of rows in the result.
+     */
+    @Param({"100", "10000"})
+    private int rows;
+
+    /**
+     * The number of text columns in the result.
+     */
+    @Param({"4", "16"})
+    private int columns;
+
+    /**
+     * The fraction of the text columns that are protected.
+     */
+    @Param({"0.0", "0.5", "1.0"})
+    private double protectedRatio;
+
+    /**
+     * The result, rewound before each use.
+     */
+    private CachedRowSet resultSet;
+
+    /**
+     * Pool used by the parallel handler.
+     */
+    private ForkJoinPool pool;
+
+    private IonicResultSetHandler serialHandler;
+    private IonicResultSetHandler parallelHandler;
+    private IonicColumnarResultSetHandler columnarHandler;
+    private ArrayListHandler plainHandler;
+
+    /**
+     * Build the result, and warm the key cache.
+     *
+     * @throws SQLException on failure to build the result
+     * @throws IonicException on failure to protect a value
+     */
+    @Setup
+    public void setUp() throws SQLException, IonicException {
+        resultSet = SyntheticData.newResultSet(rows, columns, protectedRatio);
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        final KeyCache keyCache = SyntheticData.newKeyCache();
+        serialHandler = new IonicResultSetHandler(keyCache);
+        parallelHandler = new IonicResultSetHandler(keyCache, pool, 1024, true);
+        columnarHandler = new IonicColumnarResultSetHandler(keyCache);
+        plainHandler = new ArrayListHandler();
+        serialRows();
+    }
+
+    /**
+     * Release the parallel handler pool.
+     */
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    /**
+     * @return the result read and decrypted on the calling thread
+     * @throws SQLException on failure to read the result
+     */
+    @Benchmark
+    public RowSet serialRows() throws SQLException {
+        resultSet.beforeFirst();
+        return serialHandler.handle(resultSet);
+    }
+
+    /**
+     * @return the result read on the calling thread, and decrypted in parallel
+     * @throws SQLException on failure to read the result
+     */
+    @Benchmark
+    public RowSet parallelRows() throws SQLException {
+        resultSet.beforeFirst();
+        return parallelHandler.handle(resultSet);
+    }
+
+    /**
+     * @return the result read and decrypted into column vectors
+     * @throws SQLException on failure to read the result
+     */
+    @Benchmark
+    public ColumnarRowSet columnarRows() throws SQLException {
+        resultSet.beforeFirst();
+        return columnarHandler.handle(resultSet);
+    }
+
+    /**
+     * @return the result read with no decryption (baseline)
+     * @throws SQLException on failure to read the result
+     */
+    @Benchmark
+    public List<Object[]> plainRows() throws SQLException {
+        resultSet.beforeFirst();
+        return plainHandler.handle(resultSet);
+    }
+}
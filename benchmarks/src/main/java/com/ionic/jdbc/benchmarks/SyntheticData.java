@@ -0,0 +1,141 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc.benchmarks;
+
+import com.ionic.jdbc.KeyedChunkCipher;
+import com.ionic.key.KeyCache;
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+/**
+ * Synthetic, in-memory query results and key material for the benchmarks; no Machina tenant or
+ * database is needed.
+ *
+ * <p>Results are held in a {@link CachedRowSet}, a disconnected {@link java.sql.ResultSet}
+ * implementation provided by the JDK.  The first column is an integer row id; each other column is
+ * text, protected with a column-specific key when selected by the protected column ratio.
+ */
+public final class SyntheticData {
+
+    /**
+     * Prefix of the key ids generated for protected columns.
+     */
+    public static final String KEY_ID_PREFIX = "bench-key-";
+
+    /**
+     * Length of the generated plaintext values.
+     */
+    private static final int VALUE_LENGTH = 16;
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Stub key provider: every key id is released, with key bytes derived from the key id.  The
+     * fetch count is not tracked; the {@link KeyCache} returned by {@link #newKeyCache()} serves
+     * repeated requests from memory, as in a long-running process.
+     *
+     * @param request the key ids to fetch
+     * @return a response releasing all requested keys
+     */
+    public static GetKeysResponse getKeys(final GetKeysRequest request) {
+        final GetKeysResponse response = new GetKeysResponse();
+        for (String keyId : request.getKeyIds()) {
+            response.add(newKey(keyId));
+        }
+        return response;
+    }
+
+    /**
+     * @return a key cache backed by the stub key provider
+     */
+    public static KeyCache newKeyCache() {
+        return new KeyCache(SyntheticData::getKeys, 1024, TimeUnit.DAYS.toMillis(1L), 0L);
+    }
+
+    /**
+     * @param keyId the key id
+     * @return a released key, with key bytes derived from the key id
+     */
+    public static GetKeysResponse.Key newKey(final String keyId) {
+        final byte[] keyBytes = new byte[32];
+        new Random(keyId.hashCode()).nextBytes(keyBytes);
+        final GetKeysResponse.Key key = new GetKeysResponse.Key();
+        key.setId(keyId);
+        key.setKey(keyBytes);
+        return key;
+    }
+
+    /**
+     * Build a query result.
+     *
+     * @param rows the number of rows
+     * @param columns the number of text columns (in addition to the row id column)
+     * @param protectedRatio the fraction of the text columns that are protected, from 0 to 1
+     * @return the result, positioned before the first row
+     * @throws SQLException on failure to populate the result
+     * @throws IonicException on failure to protect a value
+     */
+    public static CachedRowSet newResultSet(final int rows, final int columns,
+            final double protectedRatio) throws SQLException, IonicException {
+        final int protectedColumns = (int) Math.round(columns * protectedRatio);
+        final KeyedChunkCipher[] ciphers = new KeyedChunkCipher[columns];
+        for (int i = 0; i < protectedColumns; ++i) {
+            ciphers[i] = new KeyedChunkCipher(newKey(KEY_ID_PREFIX + i));
+        }
+
+        final RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(columns + 1);
+        metaData.setColumnName(1, "id");
+        metaData.setColumnLabel(1, "id");
+        metaData.setColumnType(1, Types.INTEGER);
+        metaData.setColumnTypeName(1, "int4");
+        for (int i = 0; i < columns; ++i) {
+            metaData.setColumnName(i + 2, "c" + i);
+            metaData.setColumnLabel(i + 2, "c" + i);
+            metaData.setColumnType(i + 2, Types.VARCHAR);
+            metaData.setColumnTypeName(i + 2, "varchar");
+        }
+
+        final Random random = new Random(rows * 31L + columns);
+        final CachedRowSet rowSet = RowSetProvider.newFactory().createCachedRowSet();
+        rowSet.setMetaData(metaData);
+        rowSet.moveToInsertRow();
+        for (int row = 0; row < rows; ++row) {
+            rowSet.updateInt(1, row);
+            for (int i = 0; i < columns; ++i) {
+                final String value = newValue(random);
+                rowSet.updateString(
+                        i + 2, (ciphers[i] == null) ? value : ciphers[i].encrypt(value));
+            }
+            rowSet.insertRow();
+        }
+        rowSet.moveToCurrentRow();
+        rowSet.beforeFirst();
+        return rowSet;
+    }
+
+    /**
+     * @param random source of the value characters
+     * @return a random alphanumeric value
+     */
+    private static String newValue(final Random random) {
+        final char[] value = new char[VALUE_LENGTH];
+        for (int i = 0; i < value.length; ++i) {
+            final int c = random.nextInt(36);
+            value[i] = (char) ((c < 10) ? ('0' + c) : ('a' + c - 10));
+        }
+        return new String(value);
+    }
+}
@@ -6,17 +6,33 @@
 package com.ionic.samples.jdbc;
 
 import static java.util.Arrays.asList;
+import com.ionic.audit.AuditWriter;
+import com.ionic.jdbc.Aggregation;
+import com.ionic.jdbc.BlindIndex;
+import com.ionic.jdbc.DirectBufferPool;
+import com.ionic.jdbc.ExternalRowSorter;
+import com.ionic.jdbc.IonicAggregatingResultSetHandler;
+import com.ionic.jdbc.IonicQueryRunner;
 import com.ionic.jdbc.IonicResultSetHandler;
+import com.ionic.jdbc.IonicRowCursor;
+import com.ionic.jdbc.KeyCatalog;
+import com.ionic.jdbc.OffHeapRowSet;
+import com.ionic.jdbc.PooledDataSource;
+import com.ionic.jdbc.ProjectionPlanner;
 import com.ionic.jdbc.RowSet;
+import com.ionic.jdbc.SpillingRowSet;
+import com.ionic.key.KeyCache;
+import com.ionic.mock.FaultInjector;
+import com.ionic.mock.MockKeyService;
+import com.ionic.mock.MockMachinaServer;
 import com.ionic.policy.PolicyService;
 import com.ionic.properties.AppProperties;
 import com.ionic.sdk.agent.Agent;
 import com.ionic.sdk.agent.AgentSdk;
 import com.ionic.sdk.agent.data.MetadataMap;
+import com.ionic.sdk.agent.key.AgentKey;
 import com.ionic.sdk.agent.key.KeyAttributesMap;
 import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
-import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
-import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
 import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
 import com.ionic.sdk.agent.request.updatekey.UpdateKeysRequest;
 import com.ionic.sdk.agent.request.updatekey.UpdateKeysResponse;
@@ -31,7 +47,10 @@ import com.ionic.sdk.json.JsonIO;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -43,11 +62,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.logging.Logger;
 import javax.json.JsonArray;
 import javax.json.JsonObject;
@@ -55,6 +79,7 @@ import javax.json.JsonString;
 import javax.json.JsonValue;
 import org.apache.commons.dbutils.QueryRunner;
 import org.apache.commons.dbutils.ResultSetHandler;
+import org.apache.commons.dbutils.StatementConfiguration;
 import org.apache.commons.io.FileUtils;
 import org.owasp.encoder.Encode;
 
@@ -73,6 +98,28 @@ public class IonicJdbcDemoApp {
      */
     private final Agent agent = new Agent();
 
+    /**
+     * Process-wide cache of Machina key request results, shared by the access record and personnel
+     * table reads.
+     */
+    private static KeyCache keyCache = null;
+
+    // number of key requests made to Machina (or to the mock key service) through the key cache
+    private static final AtomicLong KEY_REQUESTS = new AtomicLong();
+
+    /**
+     * Local stand-ins for the Machina key and policy services, used in place of the tenant when
+     * enabled in the properties file (null otherwise).
+     */
+    private static MockKeyService mockKeyService = null;
+    private static MockMachinaServer mockServer = null;
+
+    /**
+     * Client of the Machina policy service, shared by all policy operations (null until first
+     * used).
+     */
+    private PolicyService policyService = null;
+
     private static String keyId = null;
 
     // database properties
@@ -80,18 +127,53 @@ public class IonicJdbcDemoApp {
     private static Class<?> driverClass = null;
     private static Driver driver = null;
 
+    // pooled database connections, shared by all operations in this process
+    private static PooledDataSource dataSource = null;
+
+    // asynchronous writer of key access events to the activity table (null: no auditing)
+    private static AuditWriter auditWriter = null;
+
+    // in-memory copy of the access table
+    private static KeyCatalog keyCatalog = null;
+
     // database connection properties
     private static String driverClassName;
     private static String dbUrl;
     private static String dbUser;
     private static String dbPassword;
 
-    // test context
-    private final int numKeyidColumns = 4;
+    // parallel decryption of fetched rows (null pool: decrypt on the reading thread)
+    private static ForkJoinPool decryptPool = null;
+    private static int decryptChunkRows;
+
+    // rows fetched per database round trip when streaming (0: read the full result at once)
+    private static int dbFetchSize;
+
+    // sorts personnel records after decryption, spilling to disk past its memory budget
+    private static long sortMemoryBytes;
+    private static Path sortDirectory;
+
+    // bounds the personnel records held on heap when reading the full result (0: no bound)
+    private static int rowSetHeapRows;
+    private static int rowSetBatchRows;
+    private static Path rowSetDirectory;
+
+    // holds decrypted values of the full result off heap, zeroed after use (null: on heap)
+    private static DirectBufferPool cellPool = null;
+
+    // rows sent per JDBC batch when writing protected personnel records
+    private static int dbBatchSize;
+
+    // SELECT statements for the personnel table, per set of readable columns
+    private static final ProjectionPlanner PERSONNEL_PLANNER = new ProjectionPlanner(
+            "personnel", Arrays.asList("first", "last", "zip", "department"));
 
     private static String dbSqlInsertPersonnel;
     private static String dbSqlSelectPersonnel;
 
+    // for each personnel column, true if its blind index is written (for equality search)
+    private static boolean[] blindIndexColumns;
+
     private static String dbSqlInsertAccess;
     private static String dbSqlSelectAccess;
     private static String dbSqlUpdateAccess;
@@ -107,6 +189,9 @@ public class IonicJdbcDemoApp {
         GETACCESSRECORD("getAccessRecord"),
         CREATEPERSONNELRECORD("createPersonnelRecord"),
         READPERSONNELRECORD("readPersonnelRecord"),
+        SORTPERSONNELRECORD("sortPersonnelRecord"),
+        COUNTPERSONNELRECORD("countPersonnelRecord"),
+        FINDPERSONNELRECORD("findPersonnelRecord"),
         LISTPOLICIES("listPolicies"),
         ADDPOLICY("addPolicy"),
         REMOVEPOLICY("removePolicy"),
@@ -115,7 +200,8 @@ public class IonicJdbcDemoApp {
         APILISTGROUPS("listGroups"),
         APIGETGROUP("getGroup"),
         APIADDUSERTOGROUP("addUserToGroup"),
-        APIREMOVEUSERFROMGROUP("removeUserFromGroup"),;
+        APIREMOVEUSERFROMGROUP("removeUserFromGroup"),
+        LOADTEST("loadTest"),;
 
         final String str;
 
@@ -133,8 +219,47 @@ public class IonicJdbcDemoApp {
      */
     public boolean setUp() {
 
+        // local stand-ins for the Machina services (offline load and latency testing)
+        if ((mockKeyService == null) && Boolean.parseBoolean(
+                appProperties.getProperty(AppProperties.IONIC_MOCK_ENABLED, "false"))) {
+            final FaultInjector faults = new FaultInjector(
+                    Long.parseLong(appProperties.getProperty(
+                            AppProperties.IONIC_MOCK_LATENCY_MILLIS, "0")),
+                    Long.parseLong(appProperties.getProperty(
+                            AppProperties.IONIC_MOCK_JITTER_MILLIS, "0")),
+                    Double.parseDouble(appProperties.getProperty(
+                            AppProperties.IONIC_MOCK_ERROR_RATE, "0")),
+                    Integer.parseInt(appProperties.getProperty(
+                            AppProperties.IONIC_MOCK_MAX_REQUESTS_PER_SECOND, "0")));
+            try {
+                mockServer = new MockMachinaServer(0, 4, faults);
+            } catch (IOException e) {
+                System.err.println("ERROR: Fail to start mock Machina server. " + e.getMessage());
+                return false;
+            }
+            mockServer.start();
+            final String keyFileName =
+                    appProperties.getProperty(AppProperties.IONIC_MOCK_KEY_FILE, "");
+            try {
+                mockKeyService = new MockKeyService(faults,
+                        appProperties.getProperty(AppProperties.IONIC_MOCK_SEED, "ionic-mock"),
+                        keyFileName.isEmpty() ? null : Paths.get(keyFileName), mockServer);
+            } catch (IOException e) {
+                System.err.println("ERROR: Fail to read mock key file. " + e.getMessage());
+                return false;
+            }
+            for (String rule : appProperties.getProperty(
+                    AppProperties.IONIC_MOCK_DENY, "").split(",")) {
+                final String[] attributeValue = rule.trim().split("=", 2);
+                if (attributeValue.length == 2) {
+                    mockKeyService.deny(attributeValue[0].trim(), attributeValue[1].trim());
+                }
+            }
+            logger.info("Using mock Machina services at " + mockServer.getUrl());
+        }
+
         // initialize Ionic agent for use
-        if (!agent.isInitialized()) {
+        if ((mockKeyService == null) && !agent.isInitialized()) {
             try {
                 String persistorPath =
                         System.getProperty("user.home") + "/.ionicsecurity/profiles.pt";
@@ -165,15 +290,124 @@ public class IonicJdbcDemoApp {
         dbProperties = new Properties();
         dbProperties.setProperty("user", dbUser);
         dbProperties.setProperty("password", dbPassword);
+        final String prepareThreshold =
+                appProperties.getProperty(AppProperties.JDBC_PREPARE_THRESHOLD);
+        if (prepareThreshold != null) {
+            dbProperties.setProperty("prepareThreshold", prepareThreshold);
+        }
+
+        // database connection pool
+        if (dataSource == null) {
+            dataSource = new PooledDataSource(driver, dbUrl, dbProperties,
+                    Integer.parseInt(appProperties.getProperty(
+                            AppProperties.JDBC_POOL_MIN_IDLE, "1")),
+                    Integer.parseInt(appProperties.getProperty(
+                            AppProperties.JDBC_POOL_MAX_IDLE, "4")),
+                    Integer.parseInt(appProperties.getProperty(
+                            AppProperties.JDBC_POOL_MAX_TOTAL, "8")),
+                    Long.parseLong(appProperties.getProperty(
+                            AppProperties.JDBC_POOL_MAX_WAIT_MILLIS, "30000")),
+                    Long.parseLong(appProperties.getProperty(
+                            AppProperties.JDBC_POOL_LEAK_THRESHOLD_MILLIS, "60000")));
+        }
+
+        // key access audit
+        if ((auditWriter == null) && Boolean.parseBoolean(
+                appProperties.getProperty(AppProperties.JDBC_AUDIT_ENABLED, "false"))) {
+            auditWriter = new AuditWriter(dataSource,
+                    appProperties.getProperty(AppProperties.JDBC_SQL_INSERT_ACTIVITY),
+                    Integer.parseInt(appProperties.getProperty(
+                            AppProperties.JDBC_AUDIT_CAPACITY, "8192")),
+                    Integer.parseInt(appProperties.getProperty(
+                            AppProperties.JDBC_AUDIT_BATCH_SIZE, "256")),
+                    Long.parseLong(appProperties.getProperty(
+                            AppProperties.JDBC_AUDIT_FLUSH_MILLIS, "1000")),
+                    Boolean.parseBoolean(appProperties.getProperty(
+                            AppProperties.JDBC_AUDIT_BLOCK_WHEN_FULL, "false")));
+        }
+
+        // key cache, shared by all key requests made in this process
+        if (keyCache == null) {
+            final KeyCache.KeyFetcher delegate =
+                    (mockKeyService != null) ? mockKeyService : agent::getKeys;
+            final KeyCache.KeyFetcher fetcher = request -> {
+                KEY_REQUESTS.incrementAndGet();
+                return delegate.getKeys(request);
+            };
+            keyCache = new KeyCache(fetcher,
+                    Integer.parseInt(appProperties.getProperty(
+                            AppProperties.IONIC_KEYCACHE_MAX_ENTRIES, "1024")),
+                    Long.parseLong(appProperties.getProperty(
+                            AppProperties.IONIC_KEYCACHE_TTL_MILLIS, "300000")),
+                    Long.parseLong(appProperties.getProperty(
+                            AppProperties.IONIC_KEYCACHE_DENIED_TTL_MILLIS, "30000")),
+                    auditWriter);
+        }
+
+        // streaming reads
+        dbFetchSize = Integer.parseInt(
+                appProperties.getProperty(AppProperties.JDBC_FETCH_SIZE, "0"));
+
+        // sorting of decrypted records
+        sortMemoryBytes = Long.parseLong(appProperties.getProperty(
+                AppProperties.JDBC_SORT_MEMORY_BYTES, "67108864"));
+        final String sortDirectoryName =
+                appProperties.getProperty(AppProperties.JDBC_SORT_DIRECTORY, "");
+        sortDirectory = sortDirectoryName.isEmpty() ? null : Paths.get(sortDirectoryName);
+
+        // spilling of large full results to disk
+        rowSetHeapRows = Integer.parseInt(
+                appProperties.getProperty(AppProperties.JDBC_ROWSET_HEAP_ROWS, "0"));
+        rowSetBatchRows = Integer.parseInt(
+                appProperties.getProperty(AppProperties.JDBC_ROWSET_BATCH_ROWS, "1024"));
+        final String rowSetDirectoryName =
+                appProperties.getProperty(AppProperties.JDBC_ROWSET_DIRECTORY, "");
+        rowSetDirectory = rowSetDirectoryName.isEmpty() ? null : Paths.get(rowSetDirectoryName);
+
+        // off-heap storage of decrypted values
+        final int cellBlockBytes = Integer.parseInt(
+                appProperties.getProperty(AppProperties.JDBC_OFFHEAP_BLOCK_BYTES, "0"));
+        if (cellBlockBytes > 0) {
+            cellPool = new DirectBufferPool(cellBlockBytes, Integer.parseInt(
+                    appProperties.getProperty(AppProperties.JDBC_OFFHEAP_MAX_POOLED, "64")));
+        }
+
+        // batched encrypt-on-write
+        dbBatchSize = Integer.parseInt(
+                appProperties.getProperty(AppProperties.JDBC_BATCH_SIZE, "500"));
+
+        // parallel decryption of fetched rows
+        final int decryptParallelism = Integer.parseInt(
+                appProperties.getProperty(AppProperties.JDBC_DECRYPT_PARALLELISM, "0"));
+        decryptChunkRows = Integer.parseInt(
+                appProperties.getProperty(AppProperties.JDBC_DECRYPT_CHUNK_ROWS, "1024"));
+        if ((decryptParallelism > 0) && (decryptPool == null)) {
+            decryptPool = new ForkJoinPool(decryptParallelism);
+        }
 
         // database SQL statements
         dbSqlInsertPersonnel = appProperties.getProperty(AppProperties.JDBC_SQL_INSERT_PERSONNEL);
         dbSqlSelectPersonnel = appProperties.getProperty(AppProperties.JDBC_SQL_SELECT_PERSONNEL);
 
+        // personnel columns written with a blind index (the insert statement must match)
+        final List<String> indexed = Arrays.asList(appProperties.getProperty(
+                AppProperties.JDBC_BLIND_INDEX_COLUMNS, "").replace(" ", "").split(","));
+        blindIndexColumns = new boolean[PERSONNEL_PLANNER.getColumns().size()];
+        for (int i = 0; i < blindIndexColumns.length; ++i) {
+            blindIndexColumns[i] = indexed.contains(PERSONNEL_PLANNER.getColumns().get(i));
+        }
+
         dbSqlInsertAccess = appProperties.getProperty(AppProperties.JDBC_SQL_INSERT_ACCESS);
         dbSqlSelectAccess = appProperties.getProperty(AppProperties.JDBC_SQL_SELECT_ACCESS);
         dbSqlUpdateAccess = appProperties.getProperty(AppProperties.JDBC_SQL_UPDATE_ACCESS);
 
+        // access table key ids
+        if (keyCatalog == null) {
+            keyCatalog = new KeyCatalog(dataSource, dbSqlSelectAccess,
+                    Long.parseLong(appProperties.getProperty(
+                            AppProperties.JDBC_ACCESS_REFRESH_MILLIS, "60000")));
+        }
+
         ionicTenant = appProperties.getProperty(AppProperties.IONIC_TENANT_ID);
         ionicUser = appProperties.getProperty(AppProperties.IONIC_BASIC_USER);
         ionicPassword = appProperties.getProperty(AppProperties.IONIC_BASIC_PASSWORD);
@@ -181,6 +415,39 @@ public class IonicJdbcDemoApp {
         return true;
     }
 
+    /**
+     * Release the resources acquired in {@link #setUp()}.
+     */
+    public final void tearDown() {
+        if (auditWriter != null) {
+            try {
+                auditWriter.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            logger.info("Audit events: written=" + auditWriter.getWritten() + ", dropped="
+                    + auditWriter.getDropped() + ", failed=" + auditWriter.getFailed());
+            auditWriter = null;
+        }
+        if (mockServer != null) {
+            final FaultInjector faults = mockServer.getFaults();
+            logger.info("Mock Machina requests: " + faults.getRequests() + ", throttled="
+                    + faults.getThrottled() + ", errors=" + faults.getErrors());
+            mockServer.close();
+            mockServer = null;
+            mockKeyService = null;
+        }
+        if (decryptPool != null) {
+            decryptPool.shutdown();
+            decryptPool = null;
+        }
+        if (dataSource != null) {
+            logger.info("Connection pool: " + dataSource.getMetrics());
+            dataSource.close();
+            dataSource = null;
+        }
+    }
+
     /**
      * Get the access table RowSet containing keyids for each data column.
      * 
@@ -189,9 +456,9 @@ public class IonicJdbcDemoApp {
     public final RowSet getAccessRowSet() {
         RowSet rowSet = null;
         // establish database connection
-        try (Connection connection = driver.connect(dbUrl, dbProperties)) {
+        try (Connection connection = dataSource.getConnection()) {
             final QueryRunner queryRunnerAccess = new QueryRunner();
-            final ResultSetHandler<RowSet> handler = new IonicResultSetHandler(agent);
+            final ResultSetHandler<RowSet> handler = new IonicResultSetHandler(keyCache);
             rowSet = queryRunnerAccess.query(connection, dbSqlSelectAccess, handler);
         } catch (SQLException e) {
             System.err.println("ERROR: Failure to access database. " + e.getMessage());
@@ -217,8 +484,15 @@ public class IonicJdbcDemoApp {
         String operationStatus = "";
 
         // Check if access table already has row with keyids
-        final RowSet accessRowSet = getAccessRowSet();
-        if ((accessRowSet != null) && (accessRowSet.size() > 0)) {
+        Map<String, String> accessKeyIds = null;
+        try {
+            accessKeyIds = keyCatalog.getKeyIds();
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failure to access database. " + e.getMessage());
+        }
+        if (accessKeyIds == null) {
+            operationStatus = "Unable to read access table";
+        } else if (accessKeyIds.size() > 0) {
             operationStatus = "Access Record already exists";
 
         } else {
@@ -270,9 +544,13 @@ public class IonicJdbcDemoApp {
             createRequest.add(columnDepartmentKey);
 
             // create keys
-            List<CreateKeysResponse.Key> keys = null;
+            List<? extends AgentKey> keys = null;
             try {
-                keys = agent.createKeys(createRequest).getKeys();
+                if (mockKeyService != null) {
+                    keys = mockKeyService.createKeys(createRequest);
+                } else {
+                    keys = agent.createKeys(createRequest).getKeys();
+                }
             } catch (IonicException e) {
                 System.err.println(e.getMessage());
                 keys = null;
@@ -286,12 +564,13 @@ public class IonicJdbcDemoApp {
                 final String departmentKeyId = keys.get(3).getId();
 
                 // establish database connection and insert keyids into access table
-                try (Connection connection = driver.connect(dbUrl, dbProperties)) {
+                try (Connection connection = dataSource.getConnection()) {
                     final QueryRunner queryRunnerAccess = new QueryRunner();
                     final int inserts = queryRunnerAccess.update(connection, dbSqlInsertAccess,
                             firstNameKeyId, lastNameKeyId, zipCodeKeyId, departmentKeyId);
                     operationStatus = "" + inserts + " access record(s) created";
                     logger.info("" + inserts);
+                    keyCatalog.invalidate();
                     operationSuccess = true;
                 } catch (SQLException e) {
                     operationStatus = "ERROR: Failure to access database. " + e.getMessage();
@@ -317,24 +596,17 @@ public class IonicJdbcDemoApp {
         List<GetKeysResponse.Key> keys = null;
 
         // Get the keyids for the keys request
-        final RowSet accessRowSet = getAccessRowSet();
-        if (accessRowSet.size() > 0) {
-            final String[] keyIds = new String[numKeyidColumns];
-            for (Object[] row : accessRowSet) {
-                for (int col = 0; col < numKeyidColumns; col++) {
-                    keyIds[col] = row[col + 1].toString();
-                }
-            }
-
-            // build the request with the set of keyids
-            GetKeysRequest request = new GetKeysRequest();
-            for (int i = 0; i < numKeyidColumns; i++) {
-                request.add(keyIds[i]);
-            }
-
-            // make the multiple keys request
+        Map<String, String> accessKeyIds = null;
+        try {
+            accessKeyIds = keyCatalog.getKeyIds();
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failure to access database. " + e.getMessage());
+        }
+        if ((accessKeyIds != null) && (accessKeyIds.size() > 0)) {
+            // make the multiple keys request (keys already in the cache are not requested)
             try {
-                keys = agent.getKeys(request).getKeys();
+                keys = new ArrayList<GetKeysResponse.Key>(
+                        keyCache.getKeys(accessKeyIds.values()).values());
             } catch (IonicException e) {
                 System.err.println(e.getMessage());
                 keys = null;
@@ -365,7 +637,7 @@ public class IonicJdbcDemoApp {
         List<GetKeysResponse.Key> keys = getAccessRecord();
 
         // Protect write access if unable to get key(s)
-        if ((keys == null) || (keys.size() < numKeyidColumns)) {
+        if ((keys == null) || (keys.size() < PERSONNEL_PLANNER.getColumns().size())) {
             operationStatus = "There were no keys or access was denied to one or more keys";
         } else {
             // get data for new personnel record
@@ -374,12 +646,14 @@ public class IonicJdbcDemoApp {
             final String zipCode = Util.getZipCode();
             final String department = Util.getDepartment();
 
-            // establish database connection and write record to personnel table
-            try (Connection connection = driver.connect(dbUrl, dbProperties)) {
+            // establish database connection and write protected record to personnel table
+            try (Connection connection = dataSource.getConnection()) {
                 // Write record to personnel table
-                final QueryRunner queryRunner = new QueryRunner();
-                final int inserts = queryRunner.update(connection, dbSqlInsertPersonnel, firstName,
-                        lastName, zipCode, department);
+                final IonicQueryRunner queryRunner = new IonicQueryRunner(dbBatchSize);
+                final List<Object[]> rows = Collections.singletonList(
+                        new Object[] {firstName, lastName, zipCode, department});
+                final int inserts = queryRunner.insertProtected(connection,
+                        dbSqlInsertPersonnel, rows, getColumnKeys(keys), blindIndexColumns);
             } catch (SQLException e) {
                 operationStatus = "ERROR: Failure to access database. " + e.getMessage();
                 System.err.println(operationStatus);
@@ -429,6 +703,43 @@ public class IonicJdbcDemoApp {
         reportOperationStatus(operationString, operationSuccess, operationStatus);
     }
 
+    /**
+     * @param keys the keys for each access table data column
+     * @return the planner bits of the personnel table columns whose key was released
+     */
+    private int getAllowedColumns(final List<GetKeysResponse.Key> keys) {
+        int allowedColumns = 0;
+        for (GetKeysResponse.Key key : keys) {
+            KeyAttributesMap fixedAttributes = new KeyAttributesMap(key.getAttributesMap());
+            if (fixedAttributes.hasKey("column_name")) {
+                String columnName = fixedAttributes.get("column_name").get(0);
+                allowedColumns |= PERSONNEL_PLANNER.getColumnBit(columnName);
+            }
+        }
+        return allowedColumns;
+    }
+
+    /**
+     * Order the access keys by the personnel table columns they protect.
+     *
+     * @param keys the keys for each access table data column
+     * @return the keys protecting the first, last, zip and department columns
+     */
+    private AgentKey[] getColumnKeys(final List<GetKeysResponse.Key> keys) {
+        final List<String> columnNames = PERSONNEL_PLANNER.getColumns();
+        final AgentKey[] columnKeys = new AgentKey[columnNames.size()];
+        for (GetKeysResponse.Key key : keys) {
+            KeyAttributesMap fixedAttributes = new KeyAttributesMap(key.getAttributesMap());
+            if (fixedAttributes.hasKey("column_name")) {
+                final int column = columnNames.indexOf(fixedAttributes.get("column_name").get(0));
+                if (column >= 0) {
+                    columnKeys[column] = key;
+                }
+            }
+        }
+        return columnKeys;
+    }
+
     /**
      * Report on success/failure status of attempted operation.
      *
@@ -442,67 +753,275 @@ public class IonicJdbcDemoApp {
      *
      */
     public final void readPersonnelRecord() {
+        readPersonnelRecord(null);
+    }
+
+    /**
+     * Read the records in the personnel table, ordered by the decrypted value of a column.  The
+     * database cannot order ciphertext, so the records are sorted as they are read.
+     *
+     * @param sortColumn the personnel column by which the records are ordered, or null to display
+     *        the records in the order of the database
+     */
+    public final void readPersonnelRecord(final String sortColumn) {
         boolean operationSuccess = false;
         final String operationString = "Read Personnel Records";
         String operationStatus = "";
 
         List<GetKeysResponse.Key> keys = getAccessRecord();
 
-        String sqlSelectString = new String("SELECT ");
-        String sqlFromString = new String(" FROM personnel ;");
-
-        // Initial Column displays if policy for that column denied access
-        String firstColString = "'RESTRICTED' as first";
-        String lastColString = "'RESTRICTED' as last";
-        String zipColString = "'RESTRICTED' as zip";
-        String deptColString = "'RESTRICTED' as department";
-
         // Protect read access of table if unable to get key(s)
         if ((keys == null) || (keys.size() == 0)) {
             operationStatus = "There were no keys or access was denied to all keys";
         } else {
-            // build SQL string based on keys allowed/denied
-            for (GetKeysResponse.Key key : keys) {
-                KeyAttributesMap fixedAttributes = new KeyAttributesMap(key.getAttributesMap());
-                if (fixedAttributes.hasKey("column_name")) {
-                    String columnName = fixedAttributes.get("column_name").get(0);
-                    if (columnName.equals("first")) {
-                        firstColString = "first";
-                    } else if (columnName.equals("last")) {
-                        lastColString = "last";
-                    } else if (columnName.equals("zip")) {
-                        zipColString = "zip";
-                    } else if (columnName.equals("department")) {
-                        deptColString = "department";
-                    }
+            // columns for which the key was denied display as 'RESTRICTED'
+            final int allowedColumns = getAllowedColumns(keys);
+            String sqlString = PERSONNEL_PLANNER.getSql(allowedColumns, keyCache.getGeneration());
+
+            final int sortIndex =
+                    (sortColumn == null) ? -1 : PERSONNEL_PLANNER.getColumns().indexOf(sortColumn);
+            if ((sortColumn != null) && (sortIndex < 0)) {
+                operationStatus = "Unknown personnel column " + sortColumn;
+            } else {
+                operationSuccess = readRecords(sqlString,
+                        (sortIndex < 0) ? null : ExternalRowSorter.byColumn(sortIndex));
+            }
+        }
+
+        reportOperationStatus(operationString, operationSuccess, operationStatus);
+    }
+
+    /**
+     * Count the records in the personnel table per value of a column (or of a prefix of a column,
+     * such as "zip:3"), and optionally the distinct values of another column per group.  The
+     * database cannot group protected values, so the records are counted as they are decrypted,
+     * in parallel when a decryption pool is configured.
+     *
+     * @param groupColumn the personnel column by which records are grouped, optionally followed
+     *        by ':' and the length of the prefix of the column values used as the group key
+     * @param distinctColumn the personnel column whose distinct values are counted in each group,
+     *        or null to count records only
+     */
+    public final void countPersonnelRecord(final String groupColumn, final String distinctColumn) {
+        boolean operationSuccess = false;
+        final String operationString = "Count Personnel Records";
+        String operationStatus = "";
+
+        final String[] groupSpec = groupColumn.split(":", 2);
+        final List<String> columns = PERSONNEL_PLANNER.getColumns();
+        final int groupIndex = columns.indexOf(groupSpec[0]);
+        final int distinctIndex = (distinctColumn == null) ? -1 : columns.indexOf(distinctColumn);
+        final int prefixLength = (groupSpec.length == 1) || !groupSpec[1].matches("[0-9]{1,4}")
+                ? -1 : Integer.parseInt(groupSpec[1]);
+        final List<GetKeysResponse.Key> keys = getAccessRecord();
+        if (groupIndex < 0) {
+            operationStatus = "Unknown personnel column " + groupSpec[0];
+        } else if ((distinctColumn != null) && (distinctIndex < 0)) {
+            operationStatus = "Unknown personnel column " + distinctColumn;
+        } else if ((groupSpec.length > 1) && (prefixLength <= 0)) {
+            operationStatus = "Invalid prefix length " + groupSpec[1];
+        } else if ((keys == null) || (keys.size() == 0)) {
+            operationStatus = "There were no keys or access was denied to all keys";
+        } else {
+            final Function<Object[], CharSequence> groupKey = (prefixLength < 0)
+                    ? Aggregation.column(groupIndex)
+                    : Aggregation.prefix(groupIndex, prefixLength);
+            final String sqlString =
+                    PERSONNEL_PLANNER.getSql(getAllowedColumns(keys), keyCache.getGeneration());
+            final IonicAggregatingResultSetHandler handler = new IonicAggregatingResultSetHandler(
+                    keyCache, decryptPool, decryptChunkRows, groupKey, distinctIndex);
+            try (Connection connection = dataSource.getConnection()) {
+                final Aggregation aggregation = queryStreaming(connection, sqlString, handler);
+                System.out.println("Rows: " + aggregation.getRows());
+                for (Aggregation.Group group : aggregation.getGroups()) {
+                    System.out.println(Encode.forHtml(String.format("| %-24s | %10d |%s",
+                            group.getKey(), group.getCount(), (distinctIndex < 0)
+                                    ? "" : String.format(" %10d |", group.getDistinct()))));
                 }
+                operationSuccess = true;
+            } catch (SQLException e) {
+                operationStatus = "ERROR: Failure to access database. " + e.getMessage();
             }
-            String sqlString = sqlSelectString + firstColString + ", " + lastColString + ", "
-                    + zipColString + ", " + deptColString + sqlFromString;
+        }
+
+        reportOperationStatus(operationString, operationSuccess, operationStatus);
+    }
+
+    /**
+     * Run a query, streaming its result to a handler in batches of the configured fetch size.
+     * Some drivers (PostgreSQL among them) only honor the fetch size inside a transaction, so
+     * auto-commit is disabled while the query runs.
+     *
+     * @param connection the database connection on which to run the query
+     * @param sql the SQL query
+     * @param handler the handler of the query result
+     * @param <T> the type of the handler result
+     * @return the handler result
+     * @throws SQLException on failure to run the query
+     */
+    private <T> T queryStreaming(final Connection connection, final String sql,
+            final ResultSetHandler<T> handler) throws SQLException {
+        if (dbFetchSize <= 0) {
+            return new QueryRunner().query(connection, sql, handler);
+        }
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            final QueryRunner queryRunner = new QueryRunner(
+                    new StatementConfiguration.Builder().fetchSize(dbFetchSize).build());
+            return queryRunner.query(connection, sql, handler);
+        } finally {
+            // the query only reads, so there is nothing to commit
+            connection.rollback();
+            connection.setAutoCommit(autoCommit);
+        }
+    }
 
-            operationSuccess = readRecords(sqlString);
+    /**
+     * Read the records in the personnel table having a given value in a protected column.  The
+     * search is made on the blind index of the column, so that the database may use an index
+     * rather than scan and decrypt the table.
+     *
+     * @param column the personnel column searched
+     * @param value the value searched for
+     */
+    public final void findPersonnelRecord(final String column, final String value) {
+        boolean operationSuccess = false;
+        final String operationString = "Find Personnel Records";
+        String operationStatus = "";
+
+        final int columnIndex = PERSONNEL_PLANNER.getColumns().indexOf(column);
+        final List<GetKeysResponse.Key> keys = getAccessRecord();
+        if ((columnIndex < 0) || !blindIndexColumns[columnIndex]) {
+            operationStatus = "Column " + column + " has no blind index";
+        } else if ((keys == null) || (keys.size() == 0)) {
+            operationStatus = "There were no keys or access was denied to all keys";
+        } else {
+            // the index key is derived from the column key, so the column key must be released
+            final AgentKey[] columnKeys = getColumnKeys(keys);
+            int allowedColumns = 0;
+            for (int i = 0; i < columnKeys.length; ++i) {
+                allowedColumns |= (columnKeys[i] == null) ? 0 : (1 << i);
+            }
+            if (columnKeys[columnIndex] == null) {
+                operationStatus = "Access was denied to the key of column " + column;
+            } else {
+                try {
+                    final String index = new BlindIndex(columnKeys[columnIndex]).compute(value);
+                    final String sqlString = PERSONNEL_PLANNER.getSql(allowedColumns,
+                            keyCache.getGeneration(), Collections.singletonList(column));
+                    operationSuccess = readRecords(sqlString, null, index);
+                } catch (IonicException e) {
+                    operationStatus = "ERROR: Failure to compute blind index. " + e.getMessage();
+                }
+            }
         }
 
         reportOperationStatus(operationString, operationSuccess, operationStatus);
     }
 
+    /**
+     * Drive concurrent personnel record reads and writes, and report the latency percentiles of
+     * the database, key and cipher work in each operation.  The summary is displayed, and written
+     * to the file named in the properties file.
+     *
+     * @param workers the number of concurrent workers
+     * @param seconds the length of the run, in seconds
+     * @param rate the target number of operations per second, across all workers (0: as many as
+     *        possible)
+     */
+    public final void loadTest(final int workers, final int seconds, final double rate) {
+        final String operationString = "Load Test";
+        // the access record must exist before the run; it is not created by the workers
+        Map<String, String> accessKeyIds = null;
+        try {
+            accessKeyIds = keyCatalog.getKeyIds();
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failure to access database. " + e.getMessage());
+        }
+        if ((accessKeyIds == null) || accessKeyIds.isEmpty()) {
+            reportOperationStatus(operationString, false, "No access record; run "
+                    + Action.CREATEACCESSRECORD.str + " first");
+            return;
+        }
+
+        final LoadTest loadTest = new LoadTest(dataSource, keyCache, keyCatalog,
+                PERSONNEL_PLANNER, dbSqlInsertPersonnel, blindIndexColumns, workers,
+                TimeUnit.SECONDS.toMillis(seconds), rate,
+                Double.parseDouble(appProperties.getProperty(
+                        AppProperties.LOADTEST_READ_RATIO, "0.8")),
+                Integer.parseInt(appProperties.getProperty(
+                        AppProperties.LOADTEST_READ_ROWS, "100")));
+        logger.info("Load test: " + workers + " workers, " + seconds + " s, "
+                + ((rate > 0.0) ? (rate + " ops/s") : "maximum throughput"));
+        final long keyRequestsBefore = KEY_REQUESTS.get();
+        final LoadTest.Result result;
+        try {
+            result = loadTest.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reportOperationStatus(operationString, false, "interrupted");
+            return;
+        }
+        final long keyRequests = KEY_REQUESTS.get() - keyRequestsBefore;
+
+        final StringWriter summary = new StringWriter();
+        try (PrintWriter out = new PrintWriter(summary)) {
+            out.printf("Workers: %d, duration: %d s, target rate: %s%n", workers, seconds,
+                    (rate > 0.0) ? (rate + " ops/s") : "maximum throughput");
+            result.print(out);
+            out.printf("Key requests: %d (%.1f/s), key cache entries: %d%n", keyRequests,
+                    keyRequests / (double) Math.max(1, seconds), keyCache.size());
+            out.println("Connection pool: " + dataSource.getMetrics());
+            if (mockServer != null) {
+                final FaultInjector faults = mockServer.getFaults();
+                out.println("Mock Machina requests: " + faults.getRequests() + ", throttled="
+                        + faults.getThrottled() + ", errors=" + faults.getErrors());
+            }
+        }
+        System.out.print(summary);
+
+        final String summaryFile = appProperties.getProperty(
+                AppProperties.LOADTEST_SUMMARY_FILE, "loadtest-summary.txt");
+        try {
+            Files.write(Paths.get(summaryFile),
+                    summary.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("ERROR: Failure to write load test summary. " + e.getMessage());
+        }
+        reportOperationStatus(operationString, result.getErrors() == 0L,
+                String.format("%.1f ops/s, summary written to %s", result.getThroughput(),
+                        summaryFile));
+    }
+
     /**
      * List the current policies for the tenant.
      */
     public final void listPolicies() {
         try {
             // policy service is used to manipulate Ionic server policies for your tenant
-            final URL url = AgentTransactionUtil.getProfileUrl(agent.getActiveProfile());
-
-            final PolicyService policyService =
-                    new PolicyService(url, ionicTenant, ionicUser, ionicPassword);
-
-            policyService.listPolicies();
+            getPolicyService().listPolicies();
         } catch (IonicException ie) {
             System.err.println("ERROR: Failure to obtain policy list. " + ie.getMessage());
         }
     }
 
+    /**
+     * @return the policy service for the tenant, created on first use and shared thereafter
+     * @throws IonicException if the agent has no active profile
+     */
+    private synchronized PolicyService getPolicyService() throws IonicException {
+        if (policyService == null) {
+            final URL url = (mockServer != null) ? mockServer.getUrl()
+                    : AgentTransactionUtil.getProfileUrl(agent.getActiveProfile());
+            final int pageSize = Integer.parseInt(appProperties.getProperty(
+                    AppProperties.IONIC_API_PAGE_SIZE,
+                    Integer.toString(PolicyService.DEFAULT_PAGE_SIZE)));
+            policyService = new PolicyService(url, ionicTenant, ionicUser, ionicPassword, pageSize);
+        }
+        return policyService;
+    }
+
     /**
      * Add the PII policy to the tenant.
      */
@@ -511,16 +1030,13 @@ public class IonicJdbcDemoApp {
         String policyResourceName = "ionic/policy." + policyName + ".json";
         try {
             // policy service is used to manipulate Ionic server policies for your tenant
-            final URL url = AgentTransactionUtil.getProfileUrl(agent.getActiveProfile());
-
-            final PolicyService policyService =
-                    new PolicyService(url, ionicTenant, ionicUser, ionicPassword);
             logger.info("APPLY POLICY " + policyResourceName);
             URL resourceUrl = Resource.resolve(policyResourceName);
             final String policyId =
-                    policyService.addPolicy(DeviceUtils.read(resourceUrl));
+                    getPolicyService().addPolicy(DeviceUtils.read(resourceUrl));
 
             logger.info("Policy: " + policyId + " has been added to tenant.");
+            keyCache.invalidateAll();
 
         } catch (IonicException ie) {
             System.err.println("ERROR: Failure to apply policy. " + ie.getMessage());
@@ -536,13 +1052,9 @@ public class IonicJdbcDemoApp {
     public final void removePolicy(String policyId) {
 
         try {
-            final URL url = AgentTransactionUtil.getProfileUrl(agent.getActiveProfile());
-
-            final PolicyService policyService =
-                    new PolicyService(url, ionicTenant, ionicUser, ionicPassword);
-
-            policyService.deletePolicy(policyId);
+            getPolicyService().deletePolicy(policyId);
             logger.info("Policy " + policyId + " removed from tenant.");
+            keyCache.invalidateAll();
         } catch (IonicException ie) {
             System.err.println("ERROR: Failure to remove policy " + policyId + " from tenant. "
                     + ie.getMessage());
@@ -553,46 +1065,118 @@ public class IonicJdbcDemoApp {
     /**
      * Read records from personnel table, based on SQL select statement built based on key
      * access/denial.
-     * 
+     *
+     * @param dbSqlSelectPersonnel the SELECT statement
+     * @param order the order in which to display the records, or null for the database order
+     * @param params the statement parameters
+     * @return true if the records were read
      */
-    private boolean readRecords(final String dbSqlSelectPersonnel) {
+    private boolean readRecords(final String dbSqlSelectPersonnel,
+            final Comparator<Object[]> order, final Object... params) {
         boolean readSuccess = false;
-        final QueryRunner queryRunner = new QueryRunner();
-        final ResultSetHandler<RowSet> handler = new IonicResultSetHandler(agent);
         // establish database connection and read data from personnel table
-        try (Connection connection = driver.connect(dbUrl, dbProperties)) {
-            final RowSet rowSet = queryRunner.query(connection, dbSqlSelectPersonnel, handler);
-            System.out.println("Rows: " + rowSet.size());
-
-            System.out.println(
-                    "|------------|--------------|--------------|--------------|--------------|");
-            System.out.println(
-                    "| Personnel  | First        | Last         | Zip          | Department   |");
-            System.out.println(
-                    "|------------|--------------|--------------|--------------|--------------|");
-            for (Object[] row : rowSet) {
-                final StringBuilder buffer = new StringBuilder();
-                buffer.append("| ");
-                for (Object cell : row) {
-                    String cellString = cell.toString();
-                    int fillLen = Math.max(0, 12 - cellString.length());
-                    buffer.append(cell);
-                    for (int i = 0; i < fillLen; i++) {
-                        buffer.append(" ");
+        try (Connection connection = dataSource.getConnection()) {
+            if (dbFetchSize > 0) {
+                // stream rows from the database, decrypting each row as it is displayed
+                try (IonicRowCursor cursor = IonicRowCursor.open(
+                        connection, dbSqlSelectPersonnel, keyCache, dbFetchSize, params)) {
+                    final int rows = printRecords(cursor, order);
+                    System.out.println("Rows: " + rows);
+                }
+            } else {
+                final QueryRunner queryRunner = new QueryRunner();
+                final ResultSetHandler<RowSet> handler;
+                if (cellPool != null) {
+                    handler = new IonicResultSetHandler(keyCache, decryptPool, decryptChunkRows,
+                            true, () -> new OffHeapRowSet(cellPool));
+                } else if (rowSetHeapRows > 0) {
+                    handler = new IonicResultSetHandler(keyCache, decryptPool, decryptChunkRows,
+                            true, () -> new SpillingRowSet(
+                                    rowSetHeapRows, rowSetBatchRows, rowSetDirectory));
+                } else {
+                    handler = new IonicResultSetHandler(
+                            keyCache, decryptPool, decryptChunkRows, true);
+                }
+                final RowSet rowSet =
+                        queryRunner.query(connection, dbSqlSelectPersonnel, handler, params);
+                try {
+                    System.out.println("Rows: " + rowSet.size());
+                    printRecords(rowSet.iterator(), order);
+                } finally {
+                    if (rowSet instanceof SpillingRowSet) {
+                        ((SpillingRowSet) rowSet).close();
+                    } else if (rowSet instanceof OffHeapRowSet) {
+                        // zero the decrypted values
+                        ((OffHeapRowSet) rowSet).close();
                     }
-                    buffer.append(" | ");
                 }
-                System.out.println("|            " + Encode.forHtml(buffer.toString()));
             }
-            System.out.println(
-                    "|------------|--------------|--------------|--------------|--------------|");
             readSuccess = true;
         } catch (SQLException e) {
             System.err.println("ERROR: Failure to access database. " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("ERROR: Failure to sort records. " + e.getMessage());
+        } catch (IllegalStateException e) {
+            System.err.println("ERROR: Failure to read from database. " + e.getMessage());
         }
         return readSuccess;
     }
 
+    /**
+     * Display records read from personnel table, sorted if requested.
+     *
+     * @param rows the records to display
+     * @param order the order in which to display the records, or null for the order read
+     * @return the number of records displayed
+     * @throws IOException on failure to spill sorted records to disk
+     */
+    private int printRecords(final Iterator<Object[]> rows, final Comparator<Object[]> order)
+            throws IOException {
+        if (order == null) {
+            return printRecords(rows);
+        }
+        final ExternalRowSorter sorter =
+                new ExternalRowSorter(order, sortMemoryBytes, sortDirectory);
+        try (ExternalRowSorter.SortedRows sorted = sorter.sort(rows)) {
+            return printRecords(sorted);
+        }
+    }
+
+    /**
+     * Display records read from personnel table.
+     *
+     * @param rows the records to display
+     * @return the number of records displayed
+     */
+    private int printRecords(final Iterator<Object[]> rows) {
+        int count = 0;
+        System.out.println(
+                "|------------|--------------|--------------|--------------|--------------|");
+        System.out.println(
+                "| Personnel  | First        | Last         | Zip          | Department   |");
+        System.out.println(
+                "|------------|--------------|--------------|--------------|--------------|");
+        while (rows.hasNext()) {
+            final Object[] row = rows.next();
+            final StringBuilder buffer = new StringBuilder();
+            buffer.append("| ");
+            for (Object cell : row) {
+                String cellString = String.valueOf(cell);
+                int fillLen = Math.max(0, 12 - cellString.length());
+                buffer.append(cellString);
+                for (int i = 0; i < fillLen; i++) {
+                    buffer.append(" ");
+                }
+                buffer.append(" | ");
+            }
+            System.out.println("|            " + Encode.forHtml(buffer.toString()));
+            ++count;
+        }
+        System.out.println(
+                "|------------|--------------|--------------|--------------|--------------|");
+        return count;
+    }
+
 
     private static class Util {
 
@@ -694,8 +1278,16 @@ public class IonicJdbcDemoApp {
         demoApp.setUp();
 
         final int policyArg = 1;
+        final int sortColumnArg = 1;
+        final int groupColumnArg = 1;
+        final int distinctColumnArg = 2;
+        final int findColumnArg = 1;
+        final int findValueArg = 2;
         final int userArg = 1;
         int groupArg = 1;
+        final int workersArg = 1;
+        final int secondsArg = 2;
+        final int rateArg = 3;
 
         switch (action) {
             case TESTSETUP:
@@ -712,6 +1304,31 @@ public class IonicJdbcDemoApp {
             case READPERSONNELRECORD:
                 demoApp.readPersonnelRecord();
                 break;
+            case SORTPERSONNELRECORD:
+                if (args.length <= sortColumnArg) {
+                    System.err.println("ERROR: missing column by which to sort.");
+                    usage();
+                } else {
+                    demoApp.readPersonnelRecord(args[sortColumnArg]);
+                }
+                break;
+            case COUNTPERSONNELRECORD:
+                if (args.length <= groupColumnArg) {
+                    System.err.println("ERROR: missing column by which to group.");
+                    usage();
+                } else {
+                    demoApp.countPersonnelRecord(args[groupColumnArg],
+                            (args.length > distinctColumnArg) ? args[distinctColumnArg] : null);
+                }
+                break;
+            case FINDPERSONNELRECORD:
+                if (args.length <= findValueArg) {
+                    System.err.println("ERROR: missing column and value to search for.");
+                    usage();
+                } else {
+                    demoApp.findPersonnelRecord(args[findColumnArg], args[findValueArg]);
+                }
+                break;
             case LISTPOLICIES:
                 demoApp.listPolicies();
                 break;
@@ -771,10 +1388,27 @@ public class IonicJdbcDemoApp {
                 }
                 scimApi.removeUserFromGroup();
                 break;
+            case LOADTEST:
+                try {
+                    demoApp.loadTest(
+                            Integer.parseInt((args.length > workersArg) ? args[workersArg]
+                                    : appProperties.getProperty(
+                                            AppProperties.LOADTEST_WORKERS, "8")),
+                            Integer.parseInt((args.length > secondsArg) ? args[secondsArg]
+                                    : appProperties.getProperty(
+                                            AppProperties.LOADTEST_DURATION_SECONDS, "60")),
+                            Double.parseDouble((args.length > rateArg) ? args[rateArg]
+                                    : appProperties.getProperty(AppProperties.LOADTEST_RATE, "0")));
+                } catch (NumberFormatException e) {
+                    System.err.println("ERROR: invalid load test argument. " + e.getMessage());
+                    usage();
+                }
+                break;
             default:
                 usage();
         }
 
+        demoApp.tearDown();
     }
 
     private static void usage() {
@@ -783,6 +1417,9 @@ public class IonicJdbcDemoApp {
         System.out.println("\t" + "getAccessRecord");
         System.out.println("\t" + "createPersonnelRecord");
         System.out.println("\t" + "readPersonnelRecord");
+        System.out.println("\t" + "sortPersonnelRecord column");
+        System.out.println("\t" + "countPersonnelRecord column[:prefixLength] [distinctColumn]");
+        System.out.println("\t" + "findPersonnelRecord column value");
         System.out.println("\t" + "listPolicies");
         System.out.println("\t" + "addPolicy policy-name");
         System.out.println("\t" + "removePolicy policy-id");
@@ -790,6 +1427,7 @@ public class IonicJdbcDemoApp {
         System.out.println("\t" + "getUser [userId]");
         System.out.println("\t" + "listGroups");
         System.out.println("\t" + "getGroup [groupId]");
+        System.out.println("\t" + "loadTest [workers [seconds [ops-per-second]]]");
     }
 
 }
@@ -0,0 +1,150 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.samples.jdbc;
+
+/**
+ * Fixed-size, log-linear histogram of latencies, in nanoseconds.
+ *
+ * <p>Values below 256 are counted exactly.  Above that, each power of two range is divided into
+ * 128 equal buckets, so a recorded value is reported within 1% of its true value, whatever its
+ * magnitude (the layout used by HdrHistogram).  Recording is a shift and an array increment, with
+ * no allocation.
+ *
+ * <p>Instances are not thread-safe; each load test worker records into its own histograms, which
+ * are combined with {@link #add(LatencyHistogram)} when the run completes.
+ */
+final class LatencyHistogram {
+
+    /**
+     * The number of bits of precision kept for each value.
+     */
+    private static final int SUB_BUCKET_BITS = 8;
+
+    /**
+     * Values below this are counted exactly.
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of buckets in each power of two range above {@link #SUB_BUCKET_COUNT}.
+     */
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+    /**
+     * The number of power of two ranges above {@link #SUB_BUCKET_COUNT}; larger values (beyond
+     * about 4.8 hours) are counted in the last bucket.
+     */
+    private static final int RANGES = 36;
+
+    private final long[] counts = new long[SUB_BUCKET_COUNT + RANGES * SUB_BUCKET_HALF];
+    private long count = 0L;
+    private long total = 0L;
+    private long min = Long.MAX_VALUE;
+    private long max = 0L;
+
+    /**
+     * Count a value.
+     *
+     * @param nanos the latency, in nanoseconds; negative values are counted as zero
+     */
+    void record(final long nanos) {
+        final long value = Math.max(0L, nanos);
+        ++counts[Math.min(indexOf(value), counts.length - 1)];
+        ++count;
+        total += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Add the values counted by another histogram to this one.
+     *
+     * @param other the histogram to add
+     */
+    void add(final LatencyHistogram other) {
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return the number of values counted
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the smallest value counted, or 0 if none
+     */
+    long getMin() {
+        return (count == 0L) ? 0L : min;
+    }
+
+    /**
+     * @return the largest value counted, or 0 if none
+     */
+    long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the mean of the values counted, or 0 if none
+     */
+    double getMean() {
+        return (count == 0L) ? 0.0 : ((double) total / count);
+    }
+
+    /**
+     * @param percentile the percentile, from 0 to 100
+     * @return the largest value in the bucket containing the percentile (never more than the
+     *         largest value counted), or 0 if no values were counted
+     */
+    long getValueAtPercentile(final double percentile) {
+        if (count == 0L) {
+            return 0L;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(Math.min(100.0, percentile) * count / 100));
+        long seen = 0L;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValueIn(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @param value a non-negative value
+     * @return the index of the bucket counting the value
+     */
+    private static int indexOf(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        final int top = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (top - SUB_BUCKET_HALF);
+    }
+
+    /**
+     * @param index the index of a bucket
+     * @return the largest value counted in the bucket
+     */
+    private static long highestValueIn(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        final long top = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((top + 1) << shift) - 1;
+    }
+}
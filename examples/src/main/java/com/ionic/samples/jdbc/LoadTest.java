@@ -0,0 +1,428 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.samples.jdbc;
+
+import com.ionic.jdbc.BlindIndex;
+import com.ionic.jdbc.KeyCatalog;
+import com.ionic.jdbc.KeyedChunkCipher;
+import com.ionic.jdbc.ProjectionPlanner;
+import com.ionic.key.KeyCache;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import javax.sql.DataSource;
+
+/**
+ * Drives concurrent personnel table reads and writes, recording the latency of each operation.
+ *
+ * <p>Each worker thread repeatedly performs either a write (as
+ * {@link IonicJdbcDemoApp#createPersonnelRecord()}: get the column keys, encrypt, insert) or a
+ * read (as {@link IonicJdbcDemoApp#readPersonnelRecord()}: get the column keys, select, decrypt),
+ * chosen at random in the configured proportion.  The time of each operation is split into
+ * database time (including the wait for a pooled connection), key time (the {@link KeyCache}
+ * lookup, with any Machina request it makes), and cipher time (encryption or decryption).
+ *
+ * <p>With a target rate, operations are scheduled at fixed intervals, and the total latency of
+ * each operation is measured from its scheduled start; an operation delayed by a slow predecessor
+ * is charged for the delay, so that stalls are not hidden from the percentiles.  With no target
+ * rate, each worker starts its next operation as soon as the previous one completes (maximum
+ * throughput).
+ *
+ * <p>The total latency of operations that fail with an error is recorded apart, in the
+ * {@link Phase#ERROR} histogram, so that a slow (for example, timed out) failure is reported,
+ * while fast failures do not flatter the latency of the completed operations.
+ */
+final class LoadTest {
+
+    /**
+     * The components of each operation for which latency is recorded, and the total latency of
+     * failed operations.
+     */
+    enum Phase {
+        TOTAL, DB, KEY, CIPHER, ERROR
+    }
+
+    private final DataSource dataSource;
+    private final KeyCache keyCache;
+    private final KeyCatalog keyCatalog;
+    private final ProjectionPlanner planner;
+    private final String insertSql;
+    private final boolean[] indexedColumns;
+    private final int workers;
+    private final long durationMillis;
+    private final double ratePerSecond;
+    private final double readRatio;
+    private final int readRows;
+
+    /**
+     * Constructor.
+     *
+     * @param dataSource source of database connections
+     * @param keyCache source of the column keys
+     * @param keyCatalog source of the column key ids
+     * @param planner the personnel table SELECT statements
+     * @param insertSql the personnel table INSERT statement
+     * @param indexedColumns for each planner column, true if the statement writes its blind
+     *        index (after the column values)
+     * @param workers the number of concurrent worker threads
+     * @param durationMillis the length of the run, in milliseconds
+     * @param ratePerSecond the target number of operations per second, across all workers (0: as
+     *        many as possible)
+     * @param readRatio the fraction of operations that are reads, from 0 to 1
+     * @param readRows the maximum number of rows fetched by each read
+     */
+    LoadTest(final DataSource dataSource, final KeyCache keyCache, final KeyCatalog keyCatalog,
+            final ProjectionPlanner planner, final String insertSql,
+            final boolean[] indexedColumns, final int workers, final long durationMillis,
+            final double ratePerSecond, final double readRatio, final int readRows) {
+        this.dataSource = dataSource;
+        this.keyCache = keyCache;
+        this.keyCatalog = keyCatalog;
+        this.planner = planner;
+        this.insertSql = insertSql;
+        this.indexedColumns = indexedColumns.clone();
+        this.workers = Math.max(1, workers);
+        this.durationMillis = durationMillis;
+        this.ratePerSecond = ratePerSecond;
+        this.readRatio = readRatio;
+        this.readRows = readRows;
+    }
+
+    /**
+     * Run the workers to completion.
+     *
+     * @return the combined results of all workers
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    Result run() throws InterruptedException {
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        // each worker runs at an equal share of the target rate, staggered across the interval
+        final long intervalNanos = (ratePerSecond > 0.0)
+                ? (long) (TimeUnit.SECONDS.toNanos(1L) * workers / ratePerSecond) : 0L;
+        final List<Worker> running = new ArrayList<Worker>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < workers; ++i) {
+            final Worker worker =
+                    new Worker(start + intervalNanos * i / workers, intervalNanos, deadline);
+            final Thread thread = new Thread(worker, "LoadTest-" + i);
+            running.add(worker);
+            threads.add(thread);
+            thread.start();
+        }
+        final Result result = new Result();
+        for (int i = 0; i < workers; ++i) {
+            threads.get(i).join();
+            result.add(running.get(i));
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Performs operations on its own thread until the end of the run.
+     */
+    private final class Worker implements Runnable {
+
+        private final LatencyHistogram[] histograms = newHistograms();
+        private final long intervalNanos;
+        private final long deadline;
+        private long scheduled;
+        private long reads = 0L;
+        private long writes = 0L;
+        private long denied = 0L;
+        private long errors = 0L;
+        private String lastError = null;
+
+        /**
+         * Constructor.
+         *
+         * @param firstStart the scheduled start of the first operation
+         * @param intervalNanos the interval between scheduled operations (0: no schedule)
+         * @param deadline the end of the run
+         */
+        private Worker(final long firstStart, final long intervalNanos, final long deadline) {
+            this.scheduled = firstStart;
+            this.intervalNanos = intervalNanos;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            final long[] phaseNanos = new long[Phase.values().length];
+            while (true) {
+                if (intervalNanos == 0L) {
+                    scheduled = System.nanoTime();
+                }
+                if ((scheduled - deadline >= 0L) || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                for (long wait = scheduled - System.nanoTime(); wait > 0L;
+                        wait = scheduled - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+                Arrays.fill(phaseNanos, 0L);
+                final boolean read = ThreadLocalRandom.current().nextDouble() < readRatio;
+                try {
+                    final boolean completed = read ? read(phaseNanos) : write(phaseNanos);
+                    if (!completed) {
+                        ++denied;
+                    } else if (read) {
+                        ++reads;
+                    } else {
+                        ++writes;
+                    }
+                    phaseNanos[Phase.TOTAL.ordinal()] = System.nanoTime() - scheduled;
+                    for (Phase phase : Phase.values()) {
+                        if (phase != Phase.ERROR) {
+                            histograms[phase.ordinal()].record(phaseNanos[phase.ordinal()]);
+                        }
+                    }
+                } catch (SQLException | IonicException e) {
+                    ++errors;
+                    lastError = e.getMessage();
+                    histograms[Phase.ERROR.ordinal()].record(System.nanoTime() - scheduled);
+                }
+                scheduled += intervalNanos;
+            }
+        }
+
+        /**
+         * Insert a personnel record with random content.
+         *
+         * @param phaseNanos the time spent in each phase; updated
+         * @return true if the record was written, false if a column key was denied
+         * @throws SQLException on failure to access the database
+         * @throws IonicException on failure of the key request or encryption
+         */
+        private boolean write(final long[] phaseNanos) throws SQLException, IonicException {
+            long mark = System.nanoTime();
+            final Map<String, String> columnKeyIds = keyCatalog.getKeyIds();
+            mark = lap(phaseNanos, Phase.DB, mark);
+            final Map<String, GetKeysResponse.Key> keys = keyCache.getKeys(columnKeyIds.values());
+            mark = lap(phaseNanos, Phase.KEY, mark);
+
+            final List<String> columns = planner.getColumns();
+            final List<Object> values = new ArrayList<Object>();
+            final List<Object> indexes = new ArrayList<Object>();
+            for (int i = 0; i < columns.size(); ++i) {
+                final GetKeysResponse.Key key = keys.get(columnKeyIds.get(columns.get(i)));
+                if (key == null) {
+                    return false;
+                }
+                final String value = randomValue();
+                values.add(new KeyedChunkCipher(key).encrypt(value));
+                if ((i < indexedColumns.length) && indexedColumns[i]) {
+                    indexes.add(new BlindIndex(key).compute(value));
+                }
+            }
+            // blind indexes follow the column values
+            values.addAll(indexes);
+            mark = lap(phaseNanos, Phase.CIPHER, mark);
+
+            try (Connection connection = dataSource.getConnection();
+                    PreparedStatement statement = connection.prepareStatement(insertSql)) {
+                for (int i = 0; i < values.size(); ++i) {
+                    statement.setObject(i + 1, values.get(i));
+                }
+                statement.executeUpdate();
+            }
+            lap(phaseNanos, Phase.DB, mark);
+            return true;
+        }
+
+        /**
+         * Read personnel records, showing the columns whose key is denied as restricted.
+         *
+         * @param phaseNanos the time spent in each phase; updated
+         * @return true if the records were read, false if all column keys were denied
+         * @throws SQLException on failure to access the database
+         * @throws IonicException on failure of the key request or decryption
+         */
+        private boolean read(final long[] phaseNanos) throws SQLException, IonicException {
+            long mark = System.nanoTime();
+            final Map<String, String> columnKeyIds = keyCatalog.getKeyIds();
+            mark = lap(phaseNanos, Phase.DB, mark);
+            final Map<String, GetKeysResponse.Key> keys = keyCache.getKeys(columnKeyIds.values());
+            mark = lap(phaseNanos, Phase.KEY, mark);
+            if (keys.isEmpty()) {
+                return false;
+            }
+            int allowedColumns = 0;
+            for (Map.Entry<String, String> entry : columnKeyIds.entrySet()) {
+                if (keys.containsKey(entry.getValue())) {
+                    allowedColumns |= planner.getColumnBit(entry.getKey());
+                }
+            }
+            final String sql = planner.getSql(allowedColumns, keyCache.getGeneration());
+
+            final List<String[]> rowsText = new ArrayList<String[]>();
+            try (Connection connection = dataSource.getConnection();
+                    PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setMaxRows(readRows);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    final int columnCount = resultSet.getMetaData().getColumnCount();
+                    while (resultSet.next()) {
+                        final String[] rowText = new String[columnCount];
+                        for (int i = 0; i < columnCount; ++i) {
+                            rowText[i] = resultSet.getString(i + 1);
+                        }
+                        rowsText.add(rowText);
+                    }
+                }
+            }
+            mark = lap(phaseNanos, Phase.DB, mark);
+
+            final Map<String, KeyedChunkCipher> ciphers = new HashMap<String, KeyedChunkCipher>();
+            for (GetKeysResponse.Key key : keys.values()) {
+                ciphers.put(key.getId(), new KeyedChunkCipher(key));
+            }
+            for (String[] rowText : rowsText) {
+                for (String valueText : rowText) {
+                    final KeyedChunkCipher cipher =
+                            ciphers.get(KeyedChunkCipher.getKeyId(valueText));
+                    if (cipher != null) {
+                        cipher.decrypt(valueText);
+                    }
+                }
+            }
+            lap(phaseNanos, Phase.CIPHER, mark);
+            return true;
+        }
+    }
+
+    /**
+     * Charge the time since a mark to a phase.
+     *
+     * @param phaseNanos the time spent in each phase; updated
+     * @param phase the phase to charge
+     * @param mark the start of the period, from {@link System#nanoTime()}
+     * @return the end of the period, from {@link System#nanoTime()}
+     */
+    private static long lap(final long[] phaseNanos, final Phase phase, final long mark) {
+        final long now = System.nanoTime();
+        phaseNanos[phase.ordinal()] += now - mark;
+        return now;
+    }
+
+    /**
+     * @return a random personnel table cell value
+     */
+    private static String randomValue() {
+        return Long.toString(ThreadLocalRandom.current().nextLong(Long.MAX_VALUE), 36);
+    }
+
+    /**
+     * @return an empty histogram for each phase
+     */
+    private static LatencyHistogram[] newHistograms() {
+        final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+        for (int i = 0; i < histograms.length; ++i) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    /**
+     * The combined results of all workers.
+     */
+    static final class Result {
+
+        /**
+         * Percentiles reported in the summary.
+         */
+        private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9, 99.99};
+
+        private final LatencyHistogram[] histograms = newHistograms();
+        private long elapsedNanos = 0L;
+        private long reads = 0L;
+        private long writes = 0L;
+        private long denied = 0L;
+        private long errors = 0L;
+        private String lastError = null;
+
+        private Result() {
+        }
+
+        private void add(final Worker worker) {
+            for (int i = 0; i < histograms.length; ++i) {
+                histograms[i].add(worker.histograms[i]);
+            }
+            reads += worker.reads;
+            writes += worker.writes;
+            denied += worker.denied;
+            errors += worker.errors;
+            if (worker.lastError != null) {
+                lastError = worker.lastError;
+            }
+        }
+
+        /**
+         * @param phase an operation phase
+         * @return the latencies recorded for the phase, in nanoseconds
+         */
+        LatencyHistogram getHistogram(final Phase phase) {
+            return histograms[phase.ordinal()];
+        }
+
+        /**
+         * @return the number of operations completed (including those denied a key), per second
+         */
+        double getThroughput() {
+            final long operations = reads + writes + denied;
+            return (elapsedNanos == 0L) ? 0.0 : operations * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return the number of operations that failed with an error
+         */
+        long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Write the summary of the run.
+         *
+         * @param out the destination of the summary
+         */
+        void print(final PrintWriter out) {
+            out.printf("Elapsed: %.1f s, throughput: %.1f ops/s%n",
+                    elapsedNanos / 1e9, getThroughput());
+            out.printf("Reads: %d, writes: %d, denied: %d, errors: %d%n",
+                    reads, writes, denied, errors);
+            if (lastError != null) {
+                out.println("Last error: " + lastError);
+            }
+            out.printf("%-8s %10s %10s", "Latency", "count", "mean");
+            for (double percentile : PERCENTILES) {
+                out.printf(" %10s", "p" + percentile);
+            }
+            out.printf(" %10s   (ms)%n", "max");
+            for (Phase phase : Phase.values()) {
+                final LatencyHistogram histogram = histograms[phase.ordinal()];
+                out.printf("%-8s %10d %10.3f", phase, histogram.getCount(),
+                        histogram.getMean() / 1e6);
+                for (double percentile : PERCENTILES) {
+                    out.printf(" %10.3f", histogram.getValueAtPercentile(percentile) / 1e6);
+                }
+                out.printf(" %10.3f%n", histogram.getMax() / 1e6);
+            }
+            out.flush();
+        }
+    }
+}
@@ -6,14 +6,24 @@
 package com.ionic.samples.jdbc;
 
 import com.ionic.http.HttpPorter;
+import com.ionic.http.PagedIterator;
 import com.ionic.properties.AppProperties;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
 import javax.json.Json;
 import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonString;
+import org.owasp.encoder.Encode;
 
 /*
  * 
@@ -21,8 +31,20 @@ import javax.json.JsonString;
 */
 public class ScimApi {
 
+    // group membership is changed with SCIM PATCH operations on this attribute
+    private static final String SCIM_MEMBERS = "members";
+    private static final String SCIM_PATCH_OP = "urn:ietf:params:scim:api:messages:2.0:PatchOp";
+
     private AppProperties appProperties;
 
+    private final HttpPorter httpPorter;
+
+    // number of users or groups requested per page when listing
+    private final int pageSize;
+
+    // users and groups (with their members) fetched from the tenant; all lookups go through it
+    private final ScimDirectoryCache directoryCache;
+
     /**
      * Default constructor for ScimApi.
      */
@@ -42,6 +64,49 @@ public class ScimApi {
         authPassword.setValue(appProperties.getProperty(AppProperties.IONIC_BASIC_PASSWORD));
         apiToken.setValue(appProperties.getProperty(AppProperties.IONIC_BEARER_API_TOKEN));
 
+        // transport shared by all requests, keeping connections to the tenant alive; independent
+        // requests run concurrently on the async threads
+        final int asyncThreads = Integer.parseInt(
+                appProperties.getProperty(AppProperties.IONIC_HTTP_ASYNC_THREADS, "4"));
+        final int maxConnectionsPerHost = Integer.parseInt(appProperties.getProperty(
+                AppProperties.IONIC_HTTP_MAX_CONNECTIONS_PER_HOST,
+                Integer.toString(HttpPorter.DEFAULT_MAX_CONNECTIONS_PER_HOST)));
+        // the JDK keeps up to http.maxConnections idle connections per host, for the whole
+        // process; unless set on the command line, keep one for each concurrent request
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", Integer.toString(
+                    Math.max(HttpPorter.DEFAULT_MAX_CONNECTIONS_PER_HOST, maxConnectionsPerHost)));
+        }
+        httpPorter = new HttpPorter(
+                Integer.parseInt(appProperties.getProperty(
+                        AppProperties.IONIC_HTTP_CONNECT_TIMEOUT_MILLIS,
+                        Integer.toString(HttpPorter.DEFAULT_CONNECT_TIMEOUT_MILLIS))),
+                Integer.parseInt(appProperties.getProperty(
+                        AppProperties.IONIC_HTTP_READ_TIMEOUT_MILLIS,
+                        Integer.toString(HttpPorter.DEFAULT_READ_TIMEOUT_MILLIS))),
+                maxConnectionsPerHost,
+                Executors.newFixedThreadPool(Math.max(1, asyncThreads), runnable -> {
+                    final Thread thread = new Thread(runnable, "ScimApi");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+        pageSize = Integer.parseInt(
+                appProperties.getProperty(AppProperties.IONIC_API_PAGE_SIZE, "100"));
+        directoryCache = new ScimDirectoryCache(this::requestResourceAsync,
+                this::iterateModifiedSince,
+                Integer.parseInt(appProperties.getProperty(
+                        AppProperties.IONIC_SCIM_CACHE_MAX_ENTRIES, "10000")),
+                Long.parseLong(appProperties.getProperty(
+                        AppProperties.IONIC_SCIM_CACHE_TTL_MILLIS, "60000")),
+                Long.parseLong(appProperties.getProperty(
+                        AppProperties.IONIC_SCIM_CACHE_MAX_AGE_MILLIS, "3600000")),
+                // a refresh waits for pages requested on the transport executor, so it must not
+                // take one of its threads
+                Executors.newCachedThreadPool(runnable -> {
+                    final Thread thread = new Thread(runnable, "ScimDirectoryCache");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
     }
 
     private AppProperty apiUrl = new AppProperty(); // API URL for tenant used in demo
@@ -135,6 +200,57 @@ public class ScimApi {
     }
 
 
+    /**
+     * Display a user.  Values from the server are encoded for display.
+     *
+     * @param user - SCIM user resource
+     */
+    private void printUser(JsonObject user) {
+        System.out.println("\t" + Encode.forHtml(user.getString("id")) + " : "
+                + Encode.forHtml(user.getJsonObject("name").getString("formatted")));
+    }
+
+    /**
+     * Display a group.  Values from the server are encoded for display.
+     *
+     * @param group - SCIM group resource
+     */
+    private void printGroup(JsonObject group) {
+        System.out.println("\t" + Encode.forHtml(group.getString("id")) + " : "
+                + Encode.forHtml(group.getString("displayName")));
+    }
+
+    /**
+     * Display the outcome of a group membership update.  The server may return the updated group
+     * (200), or no content (204).
+     *
+     * @param response - JsonObject containing HTTP response code and content
+     */
+    private void printGroupUpdate(JsonObject response) {
+        final int statusCode = response.getInt(HttpPorter.HTTP_STATUS_CODE);
+        if (statusCode == 200) {
+            JsonObject group = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
+            System.out.println("Updated group with ID: " + Encode.forHtml(group.getString("id"))
+                    + " and Name: " + Encode.forHtml(group.getString("displayName")));
+        } else if (statusCode == 204) {
+            System.out.println("Updated group with ID: " + Encode.forHtml(groupId.getValue()));
+        } else {
+            printError("Failed to update group.", response);
+        }
+    }
+
+    /**
+     * Display the error returned by a failed request.
+     *
+     * @param message - description of the failed operation
+     * @param response - JsonObject containing HTTP response code and content
+     */
+    private static void printError(String message, JsonObject response) {
+        JsonObject error = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
+        System.err.println(message + " Error: " + response.getInt(HttpPorter.HTTP_STATUS_CODE)
+                + ", " + Encode.forHtml(error.getString("error", "")));
+    }
+
     /**
      * Display User name for given Id.
      */
@@ -150,13 +266,9 @@ public class ScimApi {
         if (response.getInt(HttpPorter.HTTP_STATUS_CODE) == 200) {
             JsonObject user = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
             System.out.println("\tUser Id                  : User Name");
-            System.out.println("\t" + user.getString("id") + " : "
-                    + user.getJsonObject("name").getString("formatted"));
+            printUser(user);
         } else {
-            JsonObject error = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-            System.err.println(
-                    "Failed to fetch user. Error: " + response.getInt(HttpPorter.HTTP_STATUS_CODE)
-                            + ", " + error.getString("error"));
+            printError("Failed to fetch user.", response);
         }
     }
 
@@ -170,23 +282,16 @@ public class ScimApi {
             return;
         }
 
-        JsonObject response = requestListUsers(null); // "?userName=USER_NAME");
-        if (response.getInt(HttpPorter.HTTP_STATUS_CODE) == 200) {
-            JsonObject content = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-
-            System.out.println("\t" + content.getInt("totalResults") + " Users:");
-            JsonArray userList = content.getJsonArray("Resources");
-            System.out.println("\tUser Id                  : User Name");
-            for (Object userObj : userList) {
-                JsonObject user = (JsonObject) userObj;
-                System.out.println("\t" + user.getString("id") + " : "
-                        + user.getJsonObject("name").getString("formatted"));
+        // users are displayed a page at a time, the next page being fetched meanwhile
+        System.out.println("\tUser Id                  : User Name");
+        // "?userName=USER_NAME"
+        try (PagedIterator users = iterateUsers(null)) {
+            while (users.hasNext()) {
+                printUser(users.next());
             }
-        } else {
-            JsonObject error = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-            System.err.println(
-                    "Failed to fetch users. Error: " + response.getInt(HttpPorter.HTTP_STATUS_CODE)
-                            + ", " + error.getString("error"));
+            System.out.println("\t" + users.getTotalResults() + " Users");
+        } catch (IllegalStateException e) {
+            System.err.println("Failed to fetch users. " + Encode.forHtml(e.getMessage()));
         }
     }
 
@@ -200,23 +305,16 @@ public class ScimApi {
             return;
         }
 
-        JsonObject response = requestListGroups(null); // "?displayName=GROUP_NAME");
-        if (response.getInt(HttpPorter.HTTP_STATUS_CODE) == 200) {
-            JsonObject content = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-
-            System.out.println("\t" + content.getInt("totalResults") + " Groups:");
-            JsonArray groupList = content.getJsonArray("Resources");
-            System.out.println("\tGroup Id                 : Group Name");
-            for (Object groupObj : groupList) {
-                JsonObject group = (JsonObject) groupObj;
-                System.out.println(
-                        "\t" + group.getString("id") + " : " + group.getString("displayName"));
+        // groups are displayed a page at a time, the next page being fetched meanwhile
+        System.out.println("\tGroup Id                 : Group Name");
+        // "?displayName=GROUP_NAME"
+        try (PagedIterator groups = iterateGroups(null)) {
+            while (groups.hasNext()) {
+                printGroup(groups.next());
             }
-        } else {
-            JsonObject error = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-            System.err.println(
-                    "Failed to fetch groups. Error: " + response.getInt(HttpPorter.HTTP_STATUS_CODE)
-                            + ", " + error.getString("error"));
+            System.out.println("\t" + groups.getTotalResults() + " Groups");
+        } catch (IllegalStateException e) {
+            System.err.println("Failed to fetch groups. " + Encode.forHtml(e.getMessage()));
         }
     }
 
@@ -236,23 +334,20 @@ public class ScimApi {
             JsonObject group = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
 
             System.out.println("\tGroup Id                 : Group Name");
-            System.out
-                    .println("\t" + group.getString("id") + " : " + group.getString("displayName"));
+            printGroup(group);
 
             if (!group.isNull("members")) {
                 JsonArray groupMemberList = group.getJsonArray("members");
                 System.out.println("\tMembers:");
                 for (Object memberObj : groupMemberList) {
                     JsonObject member = (JsonObject) memberObj;
-                    System.out.println("\t\t" + member.getString("type") + " > "
-                            + member.getString("value") + " : " + member.getString("display"));
+                    System.out.println("\t\t" + Encode.forHtml(member.getString("type")) + " > "
+                            + Encode.forHtml(member.getString("value")) + " : "
+                            + Encode.forHtml(member.getString("display")));
                 }
             }
         } else {
-            JsonObject error = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-            System.err.println(
-                    "Failed to fetch group. Error: " + response.getInt(HttpPorter.HTTP_STATUS_CODE)
-                            + ", " + error.getString("error"));
+            printError("Failed to fetch group.", response);
         }
     }
 
@@ -267,17 +362,10 @@ public class ScimApi {
             return;
         }
 
-        JsonObject response = requestAddUserToGroup(groupId.getValue(), userId.getValue());
-        if (response.getInt(HttpPorter.HTTP_STATUS_CODE) == 200) {
-            JsonObject group = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-            System.out.println("Updated group with ID: " + group.getString("id") + " and Name: "
-                    + group.getString("displayName"));
-        } else {
-            JsonObject error = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-            System.err.println(
-                    "Failed to update group. Error: " + response.getInt(HttpPorter.HTTP_STATUS_CODE)
-                            + ", " + error.getString("error"));
-        }
+        // the user id may be a comma separated list, to add several users at once
+        JsonObject response = requestAddUsersToGroup(groupId.getValue(),
+                Arrays.asList(userId.getValue().split(",")));
+        printGroupUpdate(response);
     }
 
     /**
@@ -291,73 +379,151 @@ public class ScimApi {
             return;
         }
 
-        JsonObject response = requestRemoveUserFromGroup(groupId.getValue(), userId.getValue());
-        if (response.getInt(HttpPorter.HTTP_STATUS_CODE) == 200) {
-            JsonObject group = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-            System.out.println("Updated group with ID: " + group.getString("id") + " and Name: "
-                    + group.getString("displayName"));
-        } else {
-            JsonObject error = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-            System.err.println(
-                    "Failed to update group. Error: " + response.getInt(HttpPorter.HTTP_STATUS_CODE)
-                            + ", " + error.getString("error"));
-        }
+        // the user id may be a comma separated list, to remove several users at once
+        JsonObject response = requestRemoveUsersFromGroup(groupId.getValue(),
+                Arrays.asList(userId.getValue().split(",")));
+        printGroupUpdate(response);
     }
 
     /**
-     * Send request to get User information from Machina API.
+     * Send request to get User information from Machina API, unless the user is in the
+     * directory cache, and current.
      * 
      * @param userId - user Id for requested user
      * @return - JsonObject containing user info
      */
     public JsonObject requestGetUser(String userId) {
+        return requestGetUserAsync(userId).join();
+    }
 
-        // https://{api_url}/v2/{tenant_id}/scim/{section}/{userId}
-        String url = apiUrl.getValue() + HttpPorter.IDC_V2 + "/" + tenantId.getValue()
-                + HttpPorter.IDC_SCIM_USERS + "/" + userId;
-        return HttpPorter.send(HttpPorter.HTTP_GET, url, authHeader.getValue());
+    /**
+     * Send request to get User information from Machina API, unless the user is in the
+     * directory cache, and current, without waiting for the response.
+     *
+     * @param userId - user Id for requested user
+     * @return - completes with the JsonObject containing user info
+     */
+    public CompletableFuture<JsonObject> requestGetUserAsync(String userId) {
+        return directoryCache.get(HttpPorter.IDC_SCIM_USERS, userId);
     }
 
     /**
-     * Send request to get list of users from Machina API.
-     * 
+     * Iterate over the users of the tenant, a page at a time.  Each page is requested in the
+     * background while the caller processes the previous one.
+     *
      * @param searchParameter - search parameter to limit set of users in list
-     * @return - JsonObject containing user list
+     * @return - lazy iterator over the users; a failed request surfaces as an
+     *         IllegalStateException from hasNext()
      */
-    public JsonObject requestListUsers(String searchParameter) {
-
-        // https://{api_url}/v2/{tenant_id}/scim/{section}{searchParameter}
-        String url = apiUrl.getValue() + HttpPorter.IDC_V2 + "/" + tenantId.getValue()
-                + HttpPorter.IDC_SCIM_USERS + (searchParameter != null ? searchParameter : "");
-        return HttpPorter.send(HttpPorter.HTTP_GET, url, authHeader.getValue());
+    public PagedIterator iterateUsers(String searchParameter) {
+        return new PagedIterator((startIndex, count) -> requestPageAsync(
+                HttpPorter.IDC_SCIM_USERS, searchParameter, startIndex, count), pageSize);
     }
 
     /**
-     * Send request to get Group information from Machina API.
+     * Send request to get Group information (with its members) from Machina API, unless the group
+     * is in the directory cache, and current.
      * 
      * @param groupId - group Id for requested group
      * @return - JsonObject containing group info
      */
     public JsonObject requestGetGroup(String groupId) {
+        return requestGetGroupAsync(groupId).join();
+    }
 
-        // https://{api_url}/v2/{tenant_id}/scim/{section}/{groupId}
-        String url = apiUrl.getValue() + HttpPorter.IDC_V2 + "/" + tenantId.getValue()
-                + HttpPorter.IDC_SCIM_GROUPS + "/" + groupId;
-        return HttpPorter.send(HttpPorter.HTTP_GET, url, authHeader.getValue());
+    /**
+     * Send request to get Group information (with its members) from Machina API, unless the group
+     * is in the directory cache, and current, without waiting for the response.
+     *
+     * @param groupId - group Id for requested group
+     * @return - completes with the JsonObject containing group info
+     */
+    public CompletableFuture<JsonObject> requestGetGroupAsync(String groupId) {
+        return directoryCache.get(HttpPorter.IDC_SCIM_GROUPS, groupId);
     }
 
     /**
-     * Send request to get list of groups from Machina API.
-     * 
+     * Iterate over the groups of the tenant, a page at a time.  Each page is requested in the
+     * background while the caller processes the previous one.
+     *
      * @param searchParameter - search parameter to limit set of groups in list
-     * @return - JsonObject containing group list
+     * @return - lazy iterator over the groups; a failed request surfaces as an
+     *         IllegalStateException from hasNext()
      */
-    public JsonObject requestListGroups(String searchParameter) {
+    public PagedIterator iterateGroups(String searchParameter) {
+        return new PagedIterator((startIndex, count) -> requestPageAsync(
+                HttpPorter.IDC_SCIM_GROUPS, searchParameter, startIndex, count), pageSize);
+    }
 
-        // https://{api_url}/v2/{tenant_id}/scim/{section}{searchParameter}
-        String url = apiUrl.getValue() + HttpPorter.IDC_V2 + "/" + tenantId.getValue()
-                + HttpPorter.IDC_SCIM_GROUPS + (searchParameter != null ? searchParameter : "");
-        return HttpPorter.send(HttpPorter.HTTP_GET, url, authHeader.getValue());
+    /**
+     * Send request to get one page of a SCIM list from Machina API, without waiting for the
+     * response.
+     *
+     * @param section - SCIM resource section (users or groups)
+     * @param searchParameter - search parameter to limit set of resources in list
+     * @param startIndex - 1-based index of the first resource of the page
+     * @param count - maximum number of resources in the page
+     * @return - completes with the SCIM list response, or exceptionally (with an
+     *         IllegalStateException) if the request fails
+     */
+    private CompletableFuture<JsonObject> requestPageAsync(String section,
+            String searchParameter, int startIndex, int count) {
+
+        // https://{api_url}/v2/{tenant_id}/scim/{section}{searchParameter}&startIndex=..&count=..
+        final String search = (searchParameter != null) ? searchParameter : "";
+        String url = apiUrl.getValue() + HttpPorter.IDC_V2 + "/" + tenantId.getValue() + section
+                + search + (search.startsWith("?") ? "&" : "?")
+                + "startIndex=" + startIndex + "&count=" + count;
+        return httpPorter.sendAsync(HttpPorter.HTTP_GET, url, authHeader.getValue())
+                .thenApply(response -> {
+                    final JsonObject content = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
+                    final int statusCode = response.getInt(HttpPorter.HTTP_STATUS_CODE);
+                    if (statusCode != 200) {
+                        throw new ScimDirectoryCache.StatusException(statusCode, "Error: "
+                                + statusCode + ", " + content.getString("error", ""));
+                    }
+                    return content;
+                });
+    }
+
+    /**
+     * Send request to get a user or group from Machina API, without waiting for the response.
+     * Used by the directory cache.
+     *
+     * @param section - SCIM resource section (users or groups)
+     * @param id - Id of the requested resource
+     * @param etag - entity tag of the cached resource, for a conditional request, or null
+     * @return - completes with the JsonObject containing the resource (or, for a conditional
+     *         request, status 304 if the cached resource is current)
+     */
+    private CompletableFuture<JsonObject> requestResourceAsync(String section, String id,
+            String etag) {
+
+        // https://{api_url}/v2/{tenant_id}/scim/{section}/{id}
+        String url = apiUrl.getValue() + HttpPorter.IDC_V2 + "/" + tenantId.getValue() + section
+                + "/" + id;
+        return httpPorter.sendAsync(HttpPorter.HTTP_GET, url, authHeader.getValue(), null,
+                (etag != null) ? Collections.singletonMap(HttpPorter.HTTP_IF_NONE_MATCH, etag)
+                        : null);
+    }
+
+    /**
+     * Iterate over the users or groups modified since a point in time.  Used by the directory
+     * cache, for incremental refresh.
+     *
+     * @param section - SCIM resource section (users or groups)
+     * @param since - earliest modification time listed
+     * @return - lazy iterator over the modified resources
+     */
+    private PagedIterator iterateModifiedSince(String section, Instant since) {
+        final String filter = "meta.lastModified ge \"" + since + "\"";
+        try {
+            final String search = "?filter=" + URLEncoder.encode(filter, "UTF-8");
+            return new PagedIterator((startIndex, count) -> requestPageAsync(
+                    section, search, startIndex, count), pageSize);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
     }
 
     /**
@@ -368,83 +534,94 @@ public class ScimApi {
      * @return - JsonObject containing status of request
      */
     public JsonObject requestAddUserToGroup(String groupId, String userId) {
+        return requestAddUsersToGroup(groupId, Collections.singletonList(userId));
+    }
 
-        // Get user details
-        JsonObject response = requestGetUser(userId);
-        if (response.getInt(HttpPorter.HTTP_STATUS_CODE) == 200) {
-            JsonObject user = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-
-            // Get group details
-            response = requestGetGroup(groupId);
-            if (response.getInt(HttpPorter.HTTP_STATUS_CODE) == 200) {
-                JsonObject group = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-
-                // Add members in case it is not present
-                if (group.isNull("members")) {
-                    group.put("members", Json.createArrayBuilder().build());
-                }
-
-                // Add user details to group
-                JsonObject groupMember = Json.createObjectBuilder().add("type", "user")
-                        .add("value", user.getString("id"))
-                        .add("display", user.getJsonObject("name").getString("formatted")).build();
-                // Check if already a member???
-                if (!group.getJsonArray("members").equals(groupMember)) {
-                    JsonArray myJArray = group.getJsonArray("members");
-                    myJArray.add(groupMember);
-                    // group.getJsonArray("members").add(groupMember);
-                }
-
-                // https://{api_url}/v2/{tenant_id}/scim/{section}/{groupId}
-                String url = apiUrl + HttpPorter.IDC_V2 + "/" + tenantId
-                        + HttpPorter.IDC_SCIM_GROUPS + "/" + groupId;
-                return HttpPorter.send(HttpPorter.HTTP_PUT, url, authHeader.getValue(),
-                        group.toString());
-            } else { // else failed to get group
-                JsonObject error = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-                System.err.println("Unable to update group. Failed to obtain group info. Error: "
-                        + response.getInt(HttpPorter.HTTP_STATUS_CODE) + ", "
-                        + error.getString("error"));
-            }
-        } else { // else failed to get user
-            JsonObject error = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-            System.err.println("Unable to update group. Failed to obtain user info. Error: "
-                    + response.getInt(HttpPorter.HTTP_STATUS_CODE) + ", "
-                    + error.getString("error"));
+    /**
+     * Send request to add users to a group via Machina API.  A single SCIM PATCH "add" operation
+     * carries just the new members, so the cost does not depend on the size of the group, and
+     * concurrent membership changes are not overwritten.  Users already in the group are left
+     * as they are.
+     *
+     * @param groupId - group Id for group users will be added to
+     * @param userIds - user Ids for users to be added to group
+     * @return - JsonObject containing status of request (200 with the group, or 204)
+     */
+    public JsonObject requestAddUsersToGroup(String groupId, Collection<String> userIds) {
+        final JsonArrayBuilder members = Json.createArrayBuilder();
+        for (String userId : userIds) {
+            members.add(Json.createObjectBuilder().add("value", userId).add("type", "user"));
         }
-        return response;
+        final JsonArrayBuilder operations = Json.createArrayBuilder().add(
+                Json.createObjectBuilder().add("op", "add").add("path", SCIM_MEMBERS)
+                        .add("value", members));
+        return requestPatchGroup(groupId, userIds, operations);
     }
 
     /**
      * Send request to remove a user from a group via Machina API.
      * 
      * @param groupId - group Id for group user will be removed from
-     * @param userId - user Id for user to be removed fromroup
+     * @param userId - user Id for user to be removed from group
      * @return - JsonObject containing status of request
      */
     public JsonObject requestRemoveUserFromGroup(String groupId, String userId) {
+        return requestRemoveUsersFromGroup(groupId, Collections.singletonList(userId));
+    }
 
-        // Get group details
-        JsonObject response = requestGetGroup(groupId);
-        if (response.getInt(HttpPorter.HTTP_STATUS_CODE) == 200) {
-            JsonObject group = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
+    /**
+     * Send request to remove users from a group via Machina API.  A single SCIM PATCH request
+     * carries a "remove" operation for each user, selecting the member by value; other members
+     * are not sent, or changed.
+     *
+     * @param groupId - group Id for group users will be removed from
+     * @param userIds - user Ids for users to be removed from group
+     * @return - JsonObject containing status of request (200 with the group, or 204)
+     */
+    public JsonObject requestRemoveUsersFromGroup(String groupId, Collection<String> userIds) {
+        final JsonArrayBuilder operations = Json.createArrayBuilder();
+        for (String userId : userIds) {
+            // members[value eq "{userId}"], with the id quoted as a SCIM filter string
+            final String value = userId.replace("\\", "\\\\").replace("\"", "\\\"");
+            operations.add(Json.createObjectBuilder().add("op", "remove")
+                    .add("path", SCIM_MEMBERS + "[value eq \"" + value + "\"]"));
+        }
+        return requestPatchGroup(groupId, userIds, operations);
+    }
 
-            // Quick removal of all members of group
-            if (!group.isNull("members")) {
-                group.remove("members");
-                group.put("members", Json.createArrayBuilder().build());
-            }
+    /**
+     * Send SCIM PATCH request for a group membership change to Machina API.  The directory cache
+     * is updated with the changed group, if returned; otherwise the group is removed from it.
+     * The users, whose group lists have changed, are removed from it.
+     *
+     * <p>The request is sent as a POST with <code>X-HTTP-Method-Override: PATCH</code>; a server
+     * ignoring the header rejects a POST to the group, rather than replacing its members.
+     *
+     * @param groupId - group Id for group to be modified
+     * @param userIds - user Ids for users whose membership is changed
+     * @param operations - the SCIM PATCH operations to apply to the group
+     * @return - JsonObject containing status of request
+     */
+    private JsonObject requestPatchGroup(String groupId, Collection<String> userIds,
+            JsonArrayBuilder operations) {
+        final JsonObject patch = Json.createObjectBuilder()
+                .add("schemas", Json.createArrayBuilder().add(SCIM_PATCH_OP))
+                .add("Operations", operations)
+                .build();
 
-            // https://{api_url}/v2/{tenant_id}/scim/{section}/{groupId}
-            String url = apiUrl.getValue() + HttpPorter.IDC_V2 + "/" + tenantId.getValue()
-                    + HttpPorter.IDC_SCIM_GROUPS + "/" + groupId;
-            return HttpPorter.send(HttpPorter.HTTP_PUT, url, authHeader.getValue(),
-                    group.toString());
-        } else { // else failed to get group
-            JsonObject error = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
-            System.err.println("Unable to update group. Failed to obtain group info. Error: "
-                    + response.getInt(HttpPorter.HTTP_STATUS_CODE) + ", "
-                    + error.getString("error"));
+        // https://{api_url}/v2/{tenant_id}/scim/{section}/{groupId}
+        String url = apiUrl.getValue() + HttpPorter.IDC_V2 + "/" + tenantId.getValue()
+                + HttpPorter.IDC_SCIM_GROUPS + "/" + groupId;
+        final JsonObject response = httpPorter.request(HttpPorter.HTTP_PATCH, url,
+                authHeader.getValue(), patch.toString());
+        final JsonObject group = response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
+        if ((response.getInt(HttpPorter.HTTP_STATUS_CODE) == 200) && group.containsKey("id")) {
+            directoryCache.put(HttpPorter.IDC_SCIM_GROUPS, group);
+        } else {
+            directoryCache.invalidate(HttpPorter.IDC_SCIM_GROUPS, groupId);
+        }
+        for (String userId : userIds) {
+            directoryCache.invalidate(HttpPorter.IDC_SCIM_USERS, userId);
         }
         return response;
     }
@@ -0,0 +1,602 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.samples.jdbc;
+
+import com.ionic.http.HttpPorter;
+import com.ionic.http.PagedIterator;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+
+/**
+ * Thread-safe, read-through cache of SCIM directory resources (users, and groups with their
+ * members), keyed by section and id.
+ *
+ * <p>A cached resource is served without a request for the configured time to live.  After that
+ * it is revalidated, in one of two ways:
+ * <ul>
+ * <li>incrementally, for a whole section: resources modified since the section was last known
+ * to be current (by <code>meta.lastModified</code>) are listed, updating those that are cached,
+ * after which every cached resource of the section is current again;</li>
+ * <li>for a single resource, when the section cannot be listed incrementally: with a conditional
+ * request, which the server answers with 304 (and no content) if the resource still matches its
+ * entity tag.</li>
+ * </ul>
+ * An incremental refresh does not reveal deleted resources, so each resource is also revalidated
+ * individually once it reaches the maximum age.  A listed resource does not replace a cached one
+ * with a later <code>meta.lastModified</code> (for example, the result of a change made through
+ * this client while the list was being paged).  The number of cached resources is bounded; the
+ * least recently used resource is evicted first.  Failed requests are not cached, nor are
+ * responses to requests made before the resource was invalidated.
+ */
+final class ScimDirectoryCache {
+
+    /**
+     * Requests a single resource.
+     */
+    interface Fetcher {
+
+        /**
+         * @param section the SCIM section of the resource (for example, users)
+         * @param id the id of the resource
+         * @param etag the entity tag of the cached resource, for a conditional request, or null
+         * @return completes with the JsonObject containing HTTP response code and content
+         */
+        CompletableFuture<JsonObject> fetch(String section, String id, String etag);
+    }
+
+    /**
+     * Lists the resources of a section modified since a point in time.
+     */
+    interface Lister {
+
+        /**
+         * @param section the SCIM section to list
+         * @param since the earliest modification time listed
+         * @return the modified resources; a failed request surfaces as an IllegalStateException,
+         *         which is a {@link StatusException} if the server answered with an error status
+         */
+        PagedIterator listModifiedSince(String section, Instant since);
+    }
+
+    /**
+     * A request answered by the server with an error status.
+     */
+    static final class StatusException extends IllegalStateException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int statusCode;
+
+        /**
+         * Constructor.
+         *
+         * @param statusCode the HTTP status of the response
+         * @param message the detail message
+         */
+        StatusException(final int statusCode, final String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        /**
+         * @return the HTTP status of the response
+         */
+        int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    /**
+     * Each incremental refresh lists again the changes made this long before the latest change
+     * listed by the previous one.
+     */
+    private static final Duration REFRESH_OVERLAP = Duration.ofMinutes(1L);
+
+    /**
+     * Status of a list request whose filter the server does not support.
+     */
+    private static final int HTTP_BAD_REQUEST = 400;
+
+    private final Fetcher fetcher;
+    private final Lister lister;
+
+    /**
+     * Runs incremental refreshes, which block on list requests.
+     */
+    private final Executor executor;
+
+    /**
+     * The maximum number of resources retained by the cache.
+     */
+    private final int maxEntries;
+
+    /**
+     * Time for which a resource is served without revalidation, in nanoseconds.
+     */
+    private final long ttlNanos;
+
+    /**
+     * Time after which a resource is revalidated individually, in nanoseconds.
+     */
+    private final long maxAgeNanos;
+
+    /**
+     * Cached resources, keyed by section and id, in least recently used order.  Guarded by
+     * <code>this</code>.
+     */
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Incremented on each invalidation.  Guarded by <code>this</code>.
+     */
+    private long generation = 0L;
+
+    /**
+     * Incremental refresh state of each section.
+     */
+    private final Map<String, Section> sections = new ConcurrentHashMap<String, Section>();
+
+    /**
+     * Constructor.
+     *
+     * @param fetcher requests single resources
+     * @param lister lists modified resources, for incremental refresh
+     * @param maxEntries the maximum number of resources retained by the cache
+     * @param ttlMillis the time for which a resource is served without revalidation, in
+     *        milliseconds
+     * @param maxAgeMillis the time after which a resource is revalidated individually, in
+     *        milliseconds
+     * @param executor runs incremental refreshes
+     */
+    ScimDirectoryCache(final Fetcher fetcher, final Lister lister, final int maxEntries,
+            final long ttlMillis, final long maxAgeMillis, final Executor executor) {
+        this.fetcher = fetcher;
+        this.lister = lister;
+        this.executor = executor;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(ttlMillis, maxAgeMillis));
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return size() > ScimDirectoryCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get a resource, from the cache if it is current, or else from the server.
+     *
+     * <p>An incremental refresh of the section, when one is due, is made on the executor.
+     *
+     * @param section the SCIM section of the resource
+     * @param id the id of the resource
+     * @return completes with the JsonObject containing HTTP response code and content
+     */
+    CompletableFuture<JsonObject> get(final String section, final String id) {
+        final String key = section + "/" + id;
+        final Section state = getSection(section);
+        final Entry entry = getEntry(key);
+        if ((entry != null) && isCurrent(entry, state, System.nanoTime())) {
+            return CompletableFuture.completedFuture(entry.response);
+        }
+        if ((entry == null) || !state.incremental) {
+            return fetch(section, id, state, entry);
+        }
+        return refreshAsync(section, state)
+                .thenCompose(refreshed -> {
+                    final Entry current = getEntry(key);
+                    if (refreshed && (current != null)
+                            && isCurrent(current, state, System.nanoTime())) {
+                        return CompletableFuture.completedFuture(current.response);
+                    }
+                    return fetch(section, id, state, current);
+                });
+    }
+
+    /**
+     * Refresh a section on the executor, sharing the refresh already in progress, if any, so that
+     * lookups waiting for it do not each hold an executor thread.
+     *
+     * @param section the SCIM section
+     * @param state the refresh state of the section
+     * @return completes with true if the section is current (see
+     *         {@link #refresh(String, Section)})
+     */
+    private CompletableFuture<Boolean> refreshAsync(final String section, final Section state) {
+        while (true) {
+            final CompletableFuture<Boolean> inProgress = state.refreshing.get();
+            if (inProgress != null) {
+                return inProgress;
+            }
+            final CompletableFuture<Boolean> started = new CompletableFuture<Boolean>();
+            if (state.refreshing.compareAndSet(null, started)) {
+                try {
+                    executor.execute(() -> {
+                        boolean current = false;
+                        try {
+                            current = refresh(section, state);
+                        } catch (RuntimeException e) {
+                            System.err.println("ERROR: Incremental refresh of " + section
+                                    + " failed. " + e.getMessage());
+                        } finally {
+                            state.refreshing.compareAndSet(started, null);
+                        }
+                        started.complete(current);
+                    });
+                } catch (RejectedExecutionException e) {
+                    state.refreshing.compareAndSet(started, null);
+                    started.complete(false);
+                }
+                return started;
+            }
+        }
+    }
+
+    /**
+     * Request a resource from the server, caching the response.
+     *
+     * @param section the SCIM section of the resource
+     * @param id the id of the resource
+     * @param state the refresh state of the section
+     * @param cached the cached resource, to be revalidated, or null
+     * @return completes with the JsonObject containing HTTP response code and content
+     */
+    private CompletableFuture<JsonObject> fetch(final String section, final String id,
+            final Section state, final Entry cached) {
+        final String key = section + "/" + id;
+        final long requested = System.nanoTime();
+        final long requestGeneration = getGeneration();
+        return fetcher.fetch(section, id, (cached == null) ? null : cached.etag)
+                .thenApply(response -> {
+                    final int statusCode = response.getInt(HttpPorter.HTTP_STATUS_CODE);
+                    if ((statusCode == 304) && (cached != null)) {
+                        putEntry(key, new Entry(cached.response, cached.etag,
+                                cached.lastModified, requested), requestGeneration);
+                        return cached.response;
+                    } else if (statusCode == 200) {
+                        final JsonObject resource =
+                                response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE);
+                        if (putEntry(key, new Entry(response, etagOf(response, resource),
+                                lastModifiedOf(resource), requested), requestGeneration)) {
+                            state.lower(dateOf(response, resource));
+                        }
+                    } else if (statusCode == 404) {
+                        invalidate(section, id);
+                    }
+                    return response;
+                });
+    }
+
+    /**
+     * Replace a cached resource with its updated value (for example, the response to a change
+     * made through this client).
+     *
+     * @param section the SCIM section of the resource
+     * @param resource the resource, as returned by the server
+     */
+    void put(final String section, final JsonObject resource) {
+        final String id = resource.getString("id", null);
+        if (id == null) {
+            return;
+        }
+        final String etag = etagOf(null, resource);
+        final Instant lastModified = lastModifiedOf(resource);
+        final Entry entry = new Entry(
+                buildResponse(resource, etag), etag, lastModified, System.nanoTime());
+        synchronized (this) {
+            entries.put(section + "/" + id, entry);
+        }
+        getSection(section).lower(lastModified);
+    }
+
+    /**
+     * Remove a resource from the cache, so that the next lookup is made to the server.
+     *
+     * @param section the SCIM section of the resource
+     * @param id the id of the resource
+     */
+    synchronized void invalidate(final String section, final String id) {
+        entries.remove(section + "/" + id);
+        ++generation;
+    }
+
+    /**
+     * Remove all resources from the cache.
+     */
+    synchronized void invalidateAll() {
+        entries.clear();
+        sections.clear();
+        ++generation;
+    }
+
+    /**
+     * @return the number of resources in the cache
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Refresh the cached resources of a section from the resources modified since the last
+     * refresh, if the section has not been refreshed within the time to live.
+     *
+     * @param section the SCIM section
+     * @param state the refresh state of the section
+     * @return true if the section is current (refreshed now, or by another thread meanwhile)
+     */
+    private boolean refresh(final String section, final Section state) {
+        synchronized (state) {
+            final long started = System.nanoTime();
+            if (state.refreshed && (started - state.refreshedNanos < ttlNanos)) {
+                return true;
+            }
+            if (!state.incremental || (state.highWaterMark == null)
+                    || (state.failed && (started - state.failedNanos < ttlNanos))) {
+                return false;
+            }
+            Instant latest = state.highWaterMark;
+            try (PagedIterator modified = lister.listModifiedSince(section, latest)) {
+                while (modified.hasNext()) {
+                    final JsonObject resource = modified.next();
+                    final String key = section + "/" + resource.getString("id", "");
+                    final Instant lastModified = lastModifiedOf(resource);
+                    synchronized (this) {
+                        // only resources already cached are updated, leaving the others cached,
+                        // and a resource cached since the list was requested may be newer
+                        final Entry cached = entries.get(key);
+                        if ((cached != null) && !isNewer(cached.lastModified, lastModified)) {
+                            final String etag = etagOf(null, resource);
+                            entries.put(key, new Entry(
+                                    buildResponse(resource, etag), etag, lastModified, started));
+                        }
+                    }
+                    if ((lastModified != null) && lastModified.isAfter(latest)) {
+                        latest = lastModified;
+                    }
+                }
+            } catch (IllegalStateException e) {
+                if ((e instanceof StatusException)
+                        && (((StatusException) e).getStatusCode() == HTTP_BAD_REQUEST)) {
+                    // the server cannot filter on meta.lastModified; revalidate resources one by
+                    // one from now on
+                    System.err.println("ERROR: Incremental refresh of " + section
+                            + " rejected, revalidating resources individually. " + e.getMessage());
+                    state.incremental = false;
+                } else {
+                    // transient failure; revalidate resources one by one until the next attempt
+                    System.err.println("ERROR: Incremental refresh of " + section
+                            + " failed, retrying after the time to live. " + e.getMessage());
+                    state.failedNanos = started;
+                    state.failed = true;
+                }
+                return false;
+            }
+            // changes made while the list was being paged may be missing from it; list them again
+            final Instant highWaterMark = latest.minus(REFRESH_OVERLAP);
+            if (highWaterMark.isAfter(state.highWaterMark)) {
+                state.highWaterMark = highWaterMark;
+            }
+            state.refreshedNanos = started;
+            state.refreshed = true;
+            state.failed = false;
+            return true;
+        }
+    }
+
+    /**
+     * @param entry a cached resource
+     * @param state the refresh state of the section of the resource
+     * @param now the current time, in nanoseconds
+     * @return true if the resource may be served without revalidation
+     */
+    private boolean isCurrent(final Entry entry, final Section state, final long now) {
+        if (now - entry.validatedNanos >= maxAgeNanos) {
+            return false;
+        }
+        long validated = entry.validatedNanos;
+        if (state.refreshed && (state.refreshedNanos - validated > 0)) {
+            validated = state.refreshedNanos;
+        }
+        return (now - validated < ttlNanos);
+    }
+
+    /**
+     * @param cached the <code>meta.lastModified</code> of a cached resource, or null
+     * @param listed the <code>meta.lastModified</code> of the same resource, as listed, or null
+     * @return true if the cached resource is known to be newer than the listed one
+     */
+    private static boolean isNewer(final Instant cached, final Instant listed) {
+        return (cached != null) && (listed != null) && cached.isAfter(listed);
+    }
+
+    private synchronized Entry getEntry(final String key) {
+        return entries.get(key);
+    }
+
+    private synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache a resource fetched from the server, unless resources were invalidated since the
+     * request was made (the response may then predate a change).
+     *
+     * @param key the section and id of the resource
+     * @param entry the resource
+     * @param requestGeneration the generation when the request was made
+     * @return true if the resource was cached
+     */
+    private synchronized boolean putEntry(final String key, final Entry entry,
+            final long requestGeneration) {
+        if (generation != requestGeneration) {
+            return false;
+        }
+        entries.put(key, entry);
+        return true;
+    }
+
+    private Section getSection(final String section) {
+        return sections.computeIfAbsent(section, name -> new Section());
+    }
+
+    /**
+     * @param response the response holding the resource, or null
+     * @param resource the resource
+     * @return the entity tag of the response, else the <code>meta.version</code> of the resource,
+     *         or null if neither is known
+     */
+    private static String etagOf(final JsonObject response, final JsonObject resource) {
+        final String etag = (response == null) ? null
+                : response.getString(HttpPorter.HTTP_ETAG, null);
+        if (etag != null) {
+            return etag;
+        }
+        final JsonValue meta = resource.get("meta");
+        return (meta instanceof JsonObject) ? ((JsonObject) meta).getString("version", null) : null;
+    }
+
+    /**
+     * @param response the response holding the resource
+     * @param resource the resource
+     * @return the server time at which the resource was current: the date of the response, else
+     *         the <code>meta.lastModified</code> of the resource, or null if neither is known
+     */
+    private static Instant dateOf(final JsonObject response, final JsonObject resource) {
+        final String date = response.getString(HttpPorter.HTTP_DATE, null);
+        if (date != null) {
+            try {
+                return OffsetDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant();
+            } catch (DateTimeParseException e) {
+                // fall back to the modification time of the resource
+            }
+        }
+        return lastModifiedOf(resource);
+    }
+
+    /**
+     * @param resource a resource
+     * @return the <code>meta.lastModified</code> of the resource, or null if not known
+     */
+    private static Instant lastModifiedOf(final JsonObject resource) {
+        final JsonValue meta = resource.get("meta");
+        final String lastModified = (meta instanceof JsonObject)
+                ? ((JsonObject) meta).getString("lastModified", null) : null;
+        if (lastModified == null) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(lastModified).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param resource a resource
+     * @param etag the entity tag of the resource, or null
+     * @return the JsonObject containing HTTP response code and content, as returned for a
+     *         successful request for the resource
+     */
+    private static JsonObject buildResponse(final JsonObject resource, final String etag) {
+        final JsonObjectBuilder response = Json.createObjectBuilder()
+                .add(HttpPorter.HTTP_STATUS_CODE, 200)
+                .add(HttpPorter.HTTP_RETURN_VALUE, resource);
+        if (etag != null) {
+            response.add(HttpPorter.HTTP_ETAG, etag);
+        }
+        return response.build();
+    }
+
+    /**
+     * A cached resource, with its modification time (or null if not known), and the time it was
+     * last known to be current.
+     */
+    private static final class Entry {
+
+        private final JsonObject response;
+        private final String etag;
+        private final Instant lastModified;
+        private final long validatedNanos;
+
+        private Entry(final JsonObject response, final String etag, final Instant lastModified,
+                final long validatedNanos) {
+            this.response = response;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validatedNanos = validatedNanos;
+        }
+    }
+
+    /**
+     * The incremental refresh state of a section.  Updates are guarded by the instance; the
+     * time of the latest refresh may also be read without the lock.
+     *
+     * <p>Every change to a cached resource of the section made after the high-water mark has a
+     * <code>meta.lastModified</code> at or after it (server clock).  Until the first refresh, the
+     * mark is the earliest time at which a cached resource was known to be current; a refresh
+     * raises it towards the latest modification it lists.
+     */
+    private static final class Section {
+
+        /**
+         * The high-water mark, or null if not known.
+         */
+        private Instant highWaterMark = null;
+
+        /**
+         * The start of the latest incremental refresh, in nanoseconds, if there has been one.
+         */
+        private volatile long refreshedNanos = 0L;
+        private volatile boolean refreshed = false;
+
+        /**
+         * The incremental refresh in progress, if any.
+         */
+        private final AtomicReference<CompletableFuture<Boolean>> refreshing =
+                new AtomicReference<CompletableFuture<Boolean>>();
+
+        /**
+         * False once the server has rejected an incremental refresh.
+         */
+        private volatile boolean incremental = true;
+
+        /**
+         * The start of the latest failed incremental refresh, in nanoseconds, if the latest
+         * attempt failed.
+         */
+        private long failedNanos = 0L;
+        private boolean failed = false;
+
+        /**
+         * Account for a resource cached before the first refresh.
+         *
+         * @param current the server time at which the resource was current, or null
+         */
+        private synchronized void lower(final Instant current) {
+            if (!refreshed && (current != null)
+                    && ((highWaterMark == null) || current.isBefore(highWaterMark))) {
+                highWaterMark = current;
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * (c) 2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.samples.jdbc;
+
+import com.ionic.http.HttpPorter;
+import com.ionic.http.PagedIterator;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Revalidation of cached SCIM resources by {@link ScimDirectoryCache}: conditional requests,
+ * incremental refresh, and resources changed while a refresh was listing them.
+ */
+public class ScimDirectoryCacheTest {
+
+    private static final String USERS = "users";
+    private static final long TTL_MILLIS = 50L;
+    private static final long MAX_AGE_MILLIS = 60000L;
+
+    private static final Instant T0 = Instant.parse("2020-06-01T10:00:00Z");
+    private static final Instant T1 = Instant.parse("2020-06-01T11:00:00Z");
+    private static final Instant T2 = Instant.parse("2020-06-01T12:00:00Z");
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The responses of the fetcher, in order, and the entity tag of each request made.
+     */
+    private final Queue<JsonObject> responses = new ArrayDeque<JsonObject>();
+    private final List<String> fetchedEtags = new ArrayList<String>();
+
+    /**
+     * The resources listed by the lister, and the arguments of each list request.
+     */
+    private List<JsonObject> listed = Collections.emptyList();
+    private final List<Instant> listedSince = new ArrayList<Instant>();
+    private final List<String> listThreads = new ArrayList<String>();
+
+    private final ScimDirectoryCache.Fetcher fetcher = (section, id, etag) -> {
+        fetchedEtags.add(etag);
+        return CompletableFuture.completedFuture(responses.remove());
+    };
+
+    private final ScimDirectoryCache.Lister lister = (section, since) -> {
+        listedSince.add(since);
+        listThreads.add(Thread.currentThread().getName());
+        final JsonArrayBuilder resources = Json.createArrayBuilder();
+        for (JsonObject resource : listed) {
+            resources.add(resource);
+        }
+        final JsonObject page = Json.createObjectBuilder().add("Resources", resources).build();
+        return new PagedIterator(
+                (startIndex, count) -> CompletableFuture.completedFuture(page), 100);
+    };
+
+    private final ScimDirectoryCache cache =
+            new ScimDirectoryCache(fetcher, lister, 100, TTL_MILLIS, MAX_AGE_MILLIS, executor);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConditionalGet() throws Exception {
+        // without a modification time, resources are revalidated one by one
+        final JsonObject resource = Json.createObjectBuilder().add("id", "u1").build();
+        responses.add(response(200, resource, "W/\"1\""));
+        final JsonObject first = get("u1");
+        Assert.assertEquals(200, first.getInt(HttpPorter.HTTP_STATUS_CODE));
+        Assert.assertSame(first, get("u1"));
+        Assert.assertEquals(1, fetchedEtags.size());
+
+        Thread.sleep(2 * TTL_MILLIS);
+        responses.add(Json.createObjectBuilder().add(HttpPorter.HTTP_STATUS_CODE, 304).build());
+        Assert.assertSame(first, get("u1"));
+        Assert.assertEquals(Arrays.asList(null, "W/\"1\""), fetchedEtags);
+        // revalidated by the 304
+        Assert.assertSame(first, get("u1"));
+        Assert.assertEquals(2, fetchedEtags.size());
+        Assert.assertTrue(listedSince.isEmpty());
+    }
+
+    @Test
+    public void testNotFoundInvalidates() throws Exception {
+        responses.add(response(200, user("u1", "Ann", T0), null));
+        get("u1");
+        cache.invalidateAll();
+        responses.add(Json.createObjectBuilder().add(HttpPorter.HTTP_STATUS_CODE, 404).build());
+        Assert.assertEquals(404, get("u1").getInt(HttpPorter.HTTP_STATUS_CODE));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testIncrementalRefresh() throws Exception {
+        responses.add(response(200, user("u1", "Ann", T0), null));
+        responses.add(response(200, user("u2", "Bob", T0), null));
+        get("u1");
+        get("u2");
+        Thread.sleep(2 * TTL_MILLIS);
+
+        listed = Arrays.asList(user("u1", "Anne", T1));
+        Assert.assertEquals("Anne", nameOf(get("u1")));
+        // one list request, made on the executor, refreshes the whole section
+        Assert.assertEquals(Arrays.asList(T0), listedSince);
+        Assert.assertEquals(Arrays.asList("refresh"), listThreads);
+        Assert.assertEquals("Bob", nameOf(get("u2")));
+        Assert.assertEquals(2, fetchedEtags.size());
+
+        Thread.sleep(2 * TTL_MILLIS);
+        listed = Collections.emptyList();
+        get("u2");
+        // the next refresh lists the changes since the latest one listed, with some overlap
+        Assert.assertEquals(2, listedSince.size());
+        Assert.assertTrue(listedSince.get(1).isAfter(T0));
+        Assert.assertTrue(listedSince.get(1).isBefore(T1));
+        Assert.assertEquals(2, fetchedEtags.size());
+    }
+
+    @Test
+    public void testRefreshKeepsNewerEntry() throws Exception {
+        responses.add(response(200, user("u1", "Ann", T0), null));
+        get("u1");
+        // a change made through this client, and a list that predates it
+        cache.put(USERS, user("u1", "Annie", T2));
+        listed = Arrays.asList(user("u1", "Anne", T1));
+        Thread.sleep(2 * TTL_MILLIS);
+        Assert.assertEquals("Annie", nameOf(get("u1")));
+        Assert.assertEquals(1, listedSince.size());
+        Assert.assertEquals(1, fetchedEtags.size());
+    }
+
+    @Test
+    public void testRejectedRefreshFallsBackToConditionalGet() throws Exception {
+        final ScimDirectoryCache rejecting = new ScimDirectoryCache(fetcher, (section, since) -> {
+            listedSince.add(since);
+            throw new ScimDirectoryCache.StatusException(400, "unsupported filter");
+        }, 100, TTL_MILLIS, MAX_AGE_MILLIS, executor);
+        responses.add(response(200, user("u1", "Ann", T0), "W/\"1\""));
+        rejecting.get(USERS, "u1").get(5, TimeUnit.SECONDS);
+        Thread.sleep(2 * TTL_MILLIS);
+        responses.add(Json.createObjectBuilder().add(HttpPorter.HTTP_STATUS_CODE, 304).build());
+        rejecting.get(USERS, "u1").get(5, TimeUnit.SECONDS);
+        Thread.sleep(2 * TTL_MILLIS);
+        responses.add(Json.createObjectBuilder().add(HttpPorter.HTTP_STATUS_CODE, 304).build());
+        rejecting.get(USERS, "u1").get(5, TimeUnit.SECONDS);
+        // incremental refresh is not attempted again once rejected
+        Assert.assertEquals(1, listedSince.size());
+        Assert.assertEquals(Arrays.asList(null, "W/\"1\"", "W/\"1\""), fetchedEtags);
+    }
+
+    private JsonObject get(final String id) throws Exception {
+        return cache.get(USERS, id).get(5, TimeUnit.SECONDS);
+    }
+
+    private static JsonObject user(final String id, final String name, final Instant modified) {
+        return Json.createObjectBuilder()
+                .add("id", id)
+                .add("name", name)
+                .add("meta", Json.createObjectBuilder().add("lastModified", modified.toString()))
+                .build();
+    }
+
+    private static JsonObject response(final int statusCode, final JsonObject resource,
+            final String etag) {
+        final JsonObjectBuilder response = Json.createObjectBuilder()
+                .add(HttpPorter.HTTP_STATUS_CODE, statusCode)
+                .add(HttpPorter.HTTP_RETURN_VALUE, resource);
+        if (etag != null) {
+            response.add(HttpPorter.HTTP_ETAG, etag);
+        }
+        return response.build();
+    }
+
+    private static String nameOf(final JsonObject response) {
+        return response.getJsonObject(HttpPorter.HTTP_RETURN_VALUE).getString("name");
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.audit;
+
+/**
+ * A record of one Machina key lookup, and the access decision made for it.
+ */
+public final class AuditEvent {
+
+    /**
+     * Decision recorded when a key is released.
+     */
+    public static final String RELEASED = "RELEASED";
+
+    /**
+     * Decision recorded when a key is denied.
+     */
+    public static final String DENIED = "DENIED";
+
+    /**
+     * The key id looked up.
+     */
+    private final String keyId;
+
+    /**
+     * The access decision ({@link #RELEASED} or {@link #DENIED}).
+     */
+    private final String decision;
+
+    /**
+     * The time of the lookup, in milliseconds since the epoch.
+     */
+    private final long timeMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param keyId the key id looked up
+     * @param released true if the key was released, false if it was denied
+     * @param timeMillis the time of the lookup, in milliseconds since the epoch
+     */
+    public AuditEvent(final String keyId, final boolean released, final long timeMillis) {
+        this.keyId = keyId;
+        this.decision = released ? RELEASED : DENIED;
+        this.timeMillis = timeMillis;
+    }
+
+    /**
+     * @return the key id looked up
+     */
+    public String getKeyId() {
+        return keyId;
+    }
+
+    /**
+     * @return the access decision ({@link #RELEASED} or {@link #DENIED})
+     */
+    public String getDecision() {
+        return decision;
+    }
+
+    /**
+     * @return the time of the lookup, in milliseconds since the epoch
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+}
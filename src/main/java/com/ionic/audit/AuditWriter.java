@@ -0,0 +1,224 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.audit;
+
+import com.ionic.key.KeyCache;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.sql.DataSource;
+
+/**
+ * Asynchronous writer of {@link AuditEvent} records to the <code>activity</code> table.
+ *
+ * <p>Events are queued in a bounded, lock-free {@link RingBuffer}, so that recording an event does
+ * not add a database round trip to the caller.  A background thread drains the buffer and writes
+ * the events with batched inserts, each batch in its own transaction.  When the buffer is full,
+ * new events are either dropped (and counted), or the recording thread waits for room, as
+ * configured.
+ *
+ * <p>As a {@link KeyCache.AccessListener}, the writer records the outcome of every key lookup made
+ * through a {@link KeyCache}.
+ */
+public class AuditWriter implements KeyCache.AccessListener, AutoCloseable {
+
+    /**
+     * Time a recording thread waits between attempts to queue an event into a full buffer.
+     */
+    private static final long BLOCKED_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100L);
+
+    /**
+     * Source of database connections.
+     */
+    private final DataSource dataSource;
+
+    /**
+     * The SQL statement inserting one event (parameters: key id, decision, timestamp).
+     */
+    private final String insertSql;
+
+    /**
+     * The maximum number of events written per batch.
+     */
+    private final int batchSize;
+
+    /**
+     * The time the writer thread waits for events when the buffer is empty, in nanoseconds.
+     */
+    private final long flushNanos;
+
+    /**
+     * True to wait for room in a full buffer, false to drop the event.
+     */
+    private final boolean blockWhenFull;
+
+    /**
+     * Events waiting to be written.
+     */
+    private final RingBuffer<AuditEvent> buffer;
+
+    /**
+     * The background thread writing events.
+     */
+    private final Thread writer;
+
+    /**
+     * Counters of events written, dropped (buffer full or writer closed) and failed (database
+     * error).
+     */
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * False once the writer has been closed.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Constructor.  Starts the background thread.
+     *
+     * @param dataSource source of database connections
+     * @param insertSql the SQL statement inserting one event (parameters: key id, decision,
+     *        timestamp)
+     * @param capacity the number of events the buffer can hold
+     * @param batchSize the maximum number of events written per batch
+     * @param flushMillis the time the writer thread waits for events when the buffer is empty
+     * @param blockWhenFull true to wait for room in a full buffer, false to drop the event
+     */
+    public AuditWriter(final DataSource dataSource, final String insertSql, final int capacity,
+            final int batchSize, final long flushMillis, final boolean blockWhenFull) {
+        this.dataSource = dataSource;
+        this.insertSql = insertSql;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, flushMillis));
+        this.blockWhenFull = blockWhenFull;
+        this.buffer = new RingBuffer<AuditEvent>(capacity);
+        this.writer = new Thread(this::run, "AuditWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void keyAccessed(final String keyId, final boolean released) {
+        record(new AuditEvent(keyId, released, System.currentTimeMillis()));
+    }
+
+    /**
+     * Queue an event for writing.
+     *
+     * @param event the event to record
+     * @return true if the event was queued, false if it was dropped
+     */
+    public boolean record(final AuditEvent event) {
+        while (running) {
+            if (buffer.offer(event)) {
+                if (buffer.size() >= batchSize) {
+                    LockSupport.unpark(writer);
+                }
+                return true;
+            } else if (!blockWhenFull) {
+                break;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(BLOCKED_WAIT_NANOS);
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return the number of events written to the database
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return the number of events dropped because the buffer was full, or the writer was closed
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of events lost to database errors
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Stop accepting events, write the events already queued, and stop the background thread.
+     * Events recorded concurrently with the call may not be written.
+     *
+     * @throws InterruptedException if interrupted while waiting for the background thread
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join();
+    }
+
+    /**
+     * Body of the background thread: write events in batches until closed and drained.
+     */
+    private void run() {
+        final List<AuditEvent> batch = new ArrayList<AuditEvent>(batchSize);
+        while (true) {
+            AuditEvent event;
+            while ((batch.size() < batchSize) && ((event = buffer.poll()) != null)) {
+                batch.add(event);
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            } else if (running) {
+                LockSupport.parkNanos(this, flushNanos);
+            } else if (buffer.size() == 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Write a batch of events in one transaction.
+     *
+     * @param batch the events to write
+     */
+    private void write(final List<AuditEvent> batch) {
+        try (Connection connection = dataSource.getConnection()) {
+            final boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(insertSql)) {
+                for (AuditEvent event : batch) {
+                    statement.setString(1, event.getKeyId());
+                    statement.setString(2, event.getDecision());
+                    statement.setTimestamp(3, new Timestamp(event.getTimeMillis()));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                connection.commit();
+                written.addAndGet(batch.size());
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            failed.addAndGet(batch.size());
+            System.err.println("ERROR: Failure to write audit events. " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue for many producer threads and a single consumer thread.
+ *
+ * <p>Each slot carries a sequence number.  A producer claims the next slot with a compare and set
+ * on the tail counter, stores its element, then publishes the slot by advancing its sequence; the
+ * consumer takes a slot once its sequence shows it has been published, and frees it for the next
+ * lap of the ring by advancing the sequence again.  Producers never wait for each other, and an
+ * offer to a full buffer fails immediately.
+ *
+ * @param <E> the element type
+ */
+final class RingBuffer<E> {
+
+    /**
+     * Capacity minus one; the capacity is a power of two.
+     */
+    private final int mask;
+
+    /**
+     * The elements of the buffer.
+     */
+    private final AtomicReferenceArray<E> elements;
+
+    /**
+     * The sequence number of each slot.  A slot is free for position <code>p</code> when its
+     * sequence is <code>p</code>, and holds the element for position <code>p</code> when its
+     * sequence is <code>p + 1</code>.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * The next position to be claimed by a producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The next position to be taken by the consumer.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the minimum capacity of the buffer (rounded up to a power of two)
+     */
+    RingBuffer(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<E>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return the number of elements the buffer can hold
+     */
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Add an element, if there is room.  May be called from any thread.
+     *
+     * @param element the element to add
+     * @return true if the element was added, false if the buffer is full
+     */
+    boolean offer(final E element) {
+        long position = tail.get();
+        while (true) {
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - position;
+            if (difference == 0L) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0L) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Take the oldest element.  Must only be called from the consumer thread.
+     *
+     * @return the oldest element, or null if the buffer is empty
+     */
+    E poll() {
+        final long position = head.get();
+        final int index = (int) (position & mask);
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        final E element = elements.get(index);
+        elements.lazySet(index, null);
+        sequences.lazySet(index, position + mask + 1);
+        head.lazySet(position + 1);
+        return element;
+    }
+
+    /**
+     * @return the approximate number of elements in the buffer
+     */
+    int size() {
+        return (int) Math.max(0L, tail.get() - head.get());
+    }
+}
@@ -5,25 +5,43 @@
 
 package com.ionic.http;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.StringBufferInputStream;
-import java.io.StringReader;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import javax.json.Json;
 import javax.json.JsonException;
 import javax.json.JsonObject;
-import javax.json.JsonReader;
-import javax.net.ssl.HttpsURLConnection;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
 import org.apache.commons.io.IOUtils;
-import org.owasp.encoder.Encode;
 
 /**
  * Class handling Https communication (request/response) for Machina API links.
  *
+ * <p>An instance is a reusable transport, with its own timeouts and per-host connection limit;
+ * connections are kept alive between requests.  Instances are thread-safe, and should be shared
+ * by all requests to a tenant.  Requests may be made synchronously, or asynchronously with
+ * <code>sendAsync</code>, subject to the same per-host limit.  The static <code>send</code>
+ * methods use a shared instance with default settings.
  */
 public class HttpPorter {
 
@@ -39,6 +57,10 @@ public class HttpPorter {
 
     public static final String HTTP_STATUS_CODE = "statusCode";
     public static final String HTTP_RETURN_VALUE = "returnValue";
+    public static final String HTTP_ETAG = "etag";
+    public static final String HTTP_DATE = "date";
+
+    public static final String HTTP_IF_NONE_MATCH = "If-None-Match";
 
     public static final String IDC_V2 = "/v2";
     public static final String IDC_SCIM_USERS = "/scim/Users";
@@ -48,8 +70,88 @@ public class HttpPorter {
     public static final String IDC_SCIM_DEVICES = "/scim/Devices";
 
     private static final int GENERIC_ERROR_VALUE = -1;
-    
-    
+
+    /**
+     * Default transport settings, used by the static {@link #send(String, String, String)}
+     * methods.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 30000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 60000;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 5;
+
+    /**
+     * Transport shared by the static {@link #send(String, String, String)} methods.
+     */
+    private static final HttpPorter DEFAULT = new HttpPorter(DEFAULT_CONNECT_TIMEOUT_MILLIS,
+            DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+
+    /**
+     * Factory of response parsers (thread-safe, and shared).
+     */
+    private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(null);
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final int maxConnectionsPerHost;
+
+    /**
+     * Runs asynchronous requests (null: a shared pool of daemon threads, created on first use).
+     */
+    private final Executor executor;
+
+    /**
+     * Connection permits, and queued asynchronous requests, for each host (scheme, host and port).
+     */
+    private final ConcurrentMap<String, HostLimiter> hostLimiters =
+            new ConcurrentHashMap<String, HostLimiter>();
+
+    /**
+     * Constructor.
+     *
+     * <p>Connections are kept alive and reused by the JDK connection cache, which holds idle
+     * connections (with their TLS sessions) for each host.  A connection returns to the cache only
+     * once its response has been read to the end and closed, which every request made through this
+     * object does, for success and error responses alike.  At most
+     * <code>maxConnectionsPerHost</code> requests to a host are in progress at once; further
+     * requests wait for a connection, for up to the connect timeout.
+     *
+     * <p>The JDK cache keeps up to <code>http.maxConnections</code> idle connections per host
+     * (default 5).  That system property applies to every <code>HttpURLConnection</code> in the
+     * process, and is read once, when the first connection is made; it is left to the application
+     * to raise it (at startup) to <code>maxConnectionsPerHost</code>, so that each connection in
+     * use may be kept for reuse.
+     *
+     * @param connectTimeoutMillis the timeout to establish a connection, and to wait for a free
+     *        connection to the host, in milliseconds
+     * @param readTimeoutMillis the timeout waiting for response data, in milliseconds
+     * @param maxConnectionsPerHost the maximum number of concurrent requests to each host
+     */
+    public HttpPorter(final int connectTimeoutMillis, final int readTimeoutMillis,
+            final int maxConnectionsPerHost) {
+        this(connectTimeoutMillis, readTimeoutMillis, maxConnectionsPerHost, null);
+    }
+
+    /**
+     * Constructor, with the executor running asynchronous requests.
+     *
+     * <p>Asynchronous requests to a host beyond <code>maxConnectionsPerHost</code> are queued,
+     * without occupying an executor thread, and are started in order as earlier requests to the
+     * host complete.  The executor thread is blocked for the duration of each request it runs.
+     *
+     * @param connectTimeoutMillis the timeout to establish a connection, and for a synchronous
+     *        request to wait for a free connection to the host, in milliseconds
+     * @param readTimeoutMillis the timeout waiting for response data, in milliseconds
+     * @param maxConnectionsPerHost the maximum number of concurrent requests to each host
+     * @param executor runs asynchronous requests (null: a shared pool of daemon threads)
+     */
+    public HttpPorter(final int connectTimeoutMillis, final int readTimeoutMillis,
+            final int maxConnectionsPerHost, final Executor executor) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+        this.executor = executor;
+    }
+
     /**
      * Send HTTP request with null body to Machina API link.
      * 
@@ -64,7 +166,7 @@ public class HttpPorter {
     }
 
     /**
-     * Send HTTP request to Machina API link.
+     * Send HTTP request to Machina API link, using the default transport settings.
      * 
      * @param requestMethod HTTP request type (GET, POST, PUT, PATCH, DELETE)
      * @param url Url to handle API request
@@ -74,50 +176,210 @@ public class HttpPorter {
      */
     public static JsonObject send(String requestMethod, String url, String authorization,
             String body) {
+        return DEFAULT.request(requestMethod, url, authorization, body);
+    }
+
+    /**
+     * Send HTTP request with null body to Machina API link.
+     *
+     * @param requestMethod HTTP request type (GET, POST, PUT, PATCH, DELETE)
+     * @param url Url to handle API request
+     * @param authorization Authorization info based on Auth type (Basic, Bearer)
+     * @return the JsonObject containing HTTP response code and content
+     */
+    public JsonObject request(String requestMethod, String url, String authorization) {
+        return request(requestMethod, url, authorization, null);
+    }
 
+    /**
+     * Send HTTP request to Machina API link, over a kept-alive connection when one is available.
+     *
+     * @param requestMethod HTTP request type (GET, POST, PUT, PATCH, DELETE)
+     * @param url Url to handle API request
+     * @param authorization Authorization info based on Auth type (Basic, Bearer)
+     * @param body content required to complete request
+     * @return the JsonObject containing HTTP response code and content
+     */
+    public JsonObject request(String requestMethod, String url, String authorization,
+            String body) {
+        return request(requestMethod, url, authorization, body, null);
+    }
+
+    /**
+     * Send HTTP request to Machina API link, with additional request headers (for example,
+     * {@link #HTTP_IF_NONE_MATCH}, for a conditional request).
+     *
+     * @param requestMethod HTTP request type (GET, POST, PUT, PATCH, DELETE)
+     * @param url Url to handle API request
+     * @param authorization Authorization info based on Auth type (Basic, Bearer)
+     * @param body content required to complete request
+     * @param headers additional request headers, or null
+     * @return the JsonObject containing HTTP response code and content, with the entity tag
+     *         ({@link #HTTP_ETAG}) and date ({@link #HTTP_DATE}) of the response if the server
+     *         sent them
+     */
+    public JsonObject request(String requestMethod, String url, String authorization,
+            String body, Map<String, String> headers) {
         URL serverUri;
         try {
             serverUri = new URL(url);
         } catch (MalformedURLException e) {
             System.err.println("ERROR: Failed to set url " + url + " " + e.getMessage());
-            return buildResponse(GENERIC_ERROR_VALUE, e.getMessage());
+            return buildErrorResponse(e.getMessage());
+        }
+
+        final HostLimiter limiter = getHostLimiter(serverUri);
+        try {
+            if (!limiter.permits.tryAcquire(connectTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                System.err.println("ERROR: Timed out waiting for a connection to " + url);
+                return buildErrorResponse("connection wait timed out");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return buildErrorResponse("interrupted");
+        }
+        try {
+            return request(serverUri, requestMethod, authorization, body, headers);
+        } finally {
+            limiter.release();
+        }
+    }
+
+    /**
+     * Send HTTP request with null body to Machina API link, without waiting for the response.
+     *
+     * @param requestMethod HTTP request type (GET, POST, PUT, PATCH, DELETE)
+     * @param url Url to handle API request
+     * @param authorization Authorization info based on Auth type (Basic, Bearer)
+     * @return completes with the JsonObject containing HTTP response code and content
+     */
+    public CompletableFuture<JsonObject> sendAsync(String requestMethod, String url,
+            String authorization) {
+        return sendAsync(requestMethod, url, authorization, null);
+    }
+
+    /**
+     * Send HTTP request to Machina API link, without waiting for the response.  The request is
+     * made on the executor, once a connection to the host is available.
+     *
+     * @param requestMethod HTTP request type (GET, POST, PUT, PATCH, DELETE)
+     * @param url Url to handle API request
+     * @param authorization Authorization info based on Auth type (Basic, Bearer)
+     * @param body content required to complete request
+     * @return completes with the JsonObject containing HTTP response code and content; failures
+     *         are reported in the response, as for {@link #request(String, String, String)}
+     */
+    public CompletableFuture<JsonObject> sendAsync(String requestMethod, String url,
+            String authorization, String body) {
+        return sendAsync(requestMethod, url, authorization, body, null);
+    }
+
+    /**
+     * Send HTTP request to Machina API link, with additional request headers, without waiting
+     * for the response.
+     *
+     * @param requestMethod HTTP request type (GET, POST, PUT, PATCH, DELETE)
+     * @param url Url to handle API request
+     * @param authorization Authorization info based on Auth type (Basic, Bearer)
+     * @param body content required to complete request
+     * @param headers additional request headers, or null
+     * @return completes with the JsonObject containing HTTP response code and content, as for
+     *         {@link #request(String, String, String, String, Map)}
+     */
+    public CompletableFuture<JsonObject> sendAsync(String requestMethod, String url,
+            String authorization, String body, Map<String, String> headers) {
+        final CompletableFuture<JsonObject> future = new CompletableFuture<JsonObject>();
+        final URL serverUri;
+        try {
+            serverUri = new URL(url);
+        } catch (MalformedURLException e) {
+            System.err.println("ERROR: Failed to set url " + url + " " + e.getMessage());
+            future.complete(buildErrorResponse(e.getMessage()));
+            return future;
         }
+        final HostLimiter limiter = getHostLimiter(serverUri);
+        limiter.submit(() -> {
+            try {
+                future.complete(request(
+                        serverUri, requestMethod, authorization, body, headers));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            } finally {
+                limiter.release();
+            }
+        }, future);
+        return future;
+    }
+
+    /**
+     * @param serverUri Url of a request
+     * @return the connection limiter for the host of the request
+     */
+    private HostLimiter getHostLimiter(URL serverUri) {
+        return hostLimiters.computeIfAbsent(
+                serverUri.getProtocol() + "://" + serverUri.getAuthority(),
+                host -> new HostLimiter(maxConnectionsPerHost,
+                        (executor == null) ? AsyncHolder.EXECUTOR : executor));
+    }
+
+    /**
+     * Send HTTP request, holding a connection permit for the host.
+     *
+     * @param serverUri Url to handle API request
+     * @param requestMethod HTTP request type (GET, POST, PUT, PATCH, DELETE)
+     * @param authorization Authorization info based on Auth type (Basic, Bearer)
+     * @param body content required to complete request
+     * @param headers additional request headers, or null
+     * @return the JsonObject containing HTTP response code and content
+     */
+    private JsonObject request(URL serverUri, String requestMethod, String authorization,
+            String body, Map<String, String> headers) {
+        final String url = serverUri.toString();
 
-        HttpsURLConnection uc;
+        HttpURLConnection uc;
         try {
-            uc = (HttpsURLConnection) serverUri.openConnection();
+            uc = (HttpURLConnection) serverUri.openConnection();
         } catch (IOException e) {
             System.err.println("ERROR: Failed to connect to " + url + " " + e.getMessage());
-            return buildResponse(GENERIC_ERROR_VALUE, e.getMessage());
+            return buildErrorResponse(e.getMessage());
         }
 
         uc.setUseCaches(false);
+        uc.setConnectTimeout(connectTimeoutMillis);
+        uc.setReadTimeout(readTimeoutMillis);
         try {
             if (requestMethod.equals(HTTP_PATCH)) {
-                requestMethod = HTTP_PUT;
+                // HttpURLConnection does not support PATCH; tunnel it through POST, which (unlike
+                // PUT) a server ignoring the override header does not apply as a replacement
+                requestMethod = HTTP_POST;
                 uc.setRequestProperty("X-HTTP-Method-Override", HTTP_PATCH);
             }
             uc.setRequestMethod(requestMethod);
         } catch (ProtocolException e) {
             System.err.println("ERROR: Failed to set request method " + e.getMessage());
-            return buildResponse(GENERIC_ERROR_VALUE, e.getMessage());
+            return buildErrorResponse(e.getMessage());
         }
 
         if (authorization != null && authorization.length() > 0) {
             uc.setRequestProperty(HTTP_AUTHORIZATION, authorization);
         }
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                uc.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
 
         if (body != null && body.length() > 0) {
+            final byte[] entity = body.getBytes(StandardCharsets.UTF_8);
             uc.setRequestProperty(HTTP_CONTENT_TYPE, HTTP_CONTENT_JSON);
             uc.setDoOutput(true);
-            try {
-                OutputStream outputStream;
-                outputStream = uc.getOutputStream();
-                outputStream.write(body.getBytes());
-                IOUtils.closeQuietly(outputStream);
+            uc.setFixedLengthStreamingMode(entity.length);
+            try (OutputStream outputStream = uc.getOutputStream()) {
+                outputStream.write(entity);
             } catch (IOException e) {
                 System.err.println("ERROR: Failed to write request body. " + e.getMessage());
-                return buildResponse(GENERIC_ERROR_VALUE, e.getMessage());
+                uc.disconnect();
+                return buildErrorResponse(e.getMessage());
             }
         } else {
             uc.setDoOutput(false);
@@ -128,13 +390,15 @@ public class HttpPorter {
             statusCode = uc.getResponseCode();
         } catch (IOException e) {
             System.err.println("ERROR: Failed to get the response code." + e.getMessage());
-            return buildResponse(GENERIC_ERROR_VALUE, e.getMessage());
+            uc.disconnect();
+            return buildErrorResponse(e.getMessage());
         }
         /*
          * Status Codes and Errors: 
          *    200 OK - The request has been fulfilled.
          *    201 Created - Successfully created.
          *    204 No Content - Successfully deleted.
+         *    304 Not Modified - The resource matches the If-None-Match entity tag.
          *    400 Bad Request - Invalid JSON or extra fields included in the request body that are
          *        not expected.
          *    401 Unauthorized - Missing or invalid Authorization header.
@@ -143,48 +407,188 @@ public class HttpPorter {
          *    405 Method Not Allowed
          */
 
-        // Empty response
-        String responseString = "{}";
-        // Try to get the input stream first.
-        try {
-            InputStream responseStream = uc.getInputStream();
-            responseString = Encode.forHtml(IOUtils.toString(responseStream, "UTF-8"));
-            IOUtils.closeQuietly(responseStream);
+        // The response (or error) body is parsed as it is read, then read to the end and closed,
+        // so that the connection returns to the keep-alive cache for reuse.
+        final boolean isError = (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST);
+        JsonObject returnValue = JsonValue.EMPTY_JSON_OBJECT;
+        try (InputStream responseStream = isError ? uc.getErrorStream() : uc.getInputStream()) {
+            if (responseStream != null) {
+                returnValue = readResponse(responseStream);
+            }
         } catch (IOException e) {
-            // If it fails to get the input stream, try to get the error stream.
-            try {
-                InputStream responseStream = uc.getErrorStream();
-                responseString = Encode.forHtml(IOUtils.toString(responseStream, "UTF-8"));
-                IOUtils.closeQuietly(responseStream);
-            } catch (IOException e2) {
-                /* empty on purpose */
+            // the connection is not reusable after a failed read; the response is incomplete,
+            // and must not pass for a success
+            System.err.println("ERROR: Failed to read the response. " + e.getMessage());
+            uc.disconnect();
+            return buildErrorResponse(e.getMessage());
+        } catch (JsonException e) {
+            uc.disconnect();
+            if (e.getCause() instanceof IOException) {
+                // the parser failed to read the response, as above
+                System.err.println("ERROR: Failed to read the response. " + e.getMessage());
+                return buildErrorResponse(e.getMessage());
+            }
+            // the response is not JSON (for example, an HTML error page)
+            returnValue = buildError(e.getMessage());
+        }
+        return buildResponse(statusCode, returnValue, uc.getHeaderField("ETag"),
+                uc.getHeaderField("Date"));
+    }
+
+    /**
+     * Parse a response body.
+     *
+     * <p>The text is not HTML-encoded here; callers displaying response values are responsible
+     * for output encoding.
+     *
+     * @param responseStream the response body
+     * @return the response object; an empty object if the body is empty
+     * @throws IOException on failure to read the response
+     */
+    private static JsonObject readResponse(InputStream responseStream) throws IOException {
+        final InputStream is = new BufferedInputStream(responseStream);
+        is.mark(1);
+        if (is.read() < 0) {
+            return JsonValue.EMPTY_JSON_OBJECT;
+        }
+        is.reset();
+
+        final JsonParser parser = PARSER_FACTORY.createParser(is, StandardCharsets.UTF_8);
+        try {
+            if (parser.next() != JsonParser.Event.START_OBJECT) {
+                throw new JsonException("Response is not a JSON object");
             }
+            return parser.getObject();
+        } finally {
+            // consume any trailing content, before the parser closes the stream
+            IOUtils.consume(is);
+            parser.close();
         }
-        return buildResponse(statusCode, responseString.equals("") ? "{}" : responseString);
     }
     
     
+    /**
+     * Build JSON object describing a request that failed without a server response.
+     *
+     * @param message the reason for the failure
+     * @return JsonObject containing the generic error code and the message
+     */
+    private static JsonObject buildErrorResponse(String message) {
+        return buildResponse(GENERIC_ERROR_VALUE, buildError(message));
+    }
+
+    /**
+     * @param message the reason for a failure
+     * @return JsonObject containing the message, in the form of a Machina API error response
+     */
+    private static JsonObject buildError(String message) {
+        return Json.createObjectBuilder()
+                .add("error", String.valueOf(message))
+                .build();
+    }
+
     /**
      * Build JSON object from Http Response.
      * 
      * @param statusCode Response status code for given request
-     * @param returnString String containing Response message
+     * @param returnValueObject the parsed Response message
      * @return JsonObject containing HTTP response code and message
      */
-    private static JsonObject buildResponse(int statusCode, String returnString) {
-        
-        // convert returnString into a JsonObject
-        InputStream is;
-        is = new StringBufferInputStream(returnString);
-        JsonReader jsonReader = Json.createReader(is);
-        JsonObject returnValueObject = jsonReader.readObject();
-        jsonReader.close();
+    private static JsonObject buildResponse(int statusCode, JsonObject returnValueObject) {
+        return buildResponse(statusCode, returnValueObject, null, null);
+    }
+
+    /**
+     * Build JSON object from Http Response.
+     *
+     * @param statusCode Response status code for given request
+     * @param returnValueObject the parsed Response message
+     * @param etag the entity tag of the response, or null
+     * @param date the date of the response (RFC 1123 format), or null
+     * @return JsonObject containing HTTP response code, message, and entity tag and date (if any)
+     */
+    private static JsonObject buildResponse(int statusCode, JsonObject returnValueObject,
+            String etag, String date) {
 
-        JsonObject response = Json.createObjectBuilder()
+        JsonObjectBuilder response = Json.createObjectBuilder()
                 .add(HTTP_STATUS_CODE, statusCode)
-                .add(HTTP_RETURN_VALUE, returnValueObject)
-                .build();
-        return response;
+                .add(HTTP_RETURN_VALUE, returnValueObject);
+        if (etag != null) {
+            response.add(HTTP_ETAG, etag);
+        }
+        if (date != null) {
+            response.add(HTTP_DATE, date);
+        }
+        return response.build();
+    }
+
+    /**
+     * Bounds the requests in progress to one host.  Synchronous requests wait for a permit;
+     * asynchronous requests are queued, and handed to the executor as permits become free.
+     */
+    private static final class HostLimiter {
+
+        private final Semaphore permits;
+        private final Executor executor;
+        private final Queue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+
+        private HostLimiter(final int maxConnections, final Executor executor) {
+            this.permits = new Semaphore(maxConnections, true);
+            this.executor = executor;
+        }
+
+        /**
+         * Queue an asynchronous request.  The request runs holding a permit, which it releases
+         * with {@link #release()} when done.
+         *
+         * @param task the request
+         * @param future completed exceptionally if the executor rejects the request
+         */
+        private void submit(final Runnable task, final CompletableFuture<JsonObject> future) {
+            pending.add(() -> {
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    release();
+                    future.completeExceptionally(e);
+                }
+            });
+            dispatch();
+        }
+
+        /**
+         * Return a permit, starting a queued asynchronous request if there is one.
+         */
+        private void release() {
+            permits.release();
+            dispatch();
+        }
+
+        /**
+         * Start queued asynchronous requests while permits are free.
+         */
+        private void dispatch() {
+            while (!pending.isEmpty() && permits.tryAcquire()) {
+                final Runnable start = pending.poll();
+                if (start == null) {
+                    // another thread took the request; check the queue again
+                    permits.release();
+                } else {
+                    start.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * The executor of asynchronous requests for instances created without one.
+     */
+    private static final class AsyncHolder {
+
+        private static final Executor EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "HttpPorter");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
-    
 }
@@ -0,0 +1,175 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.http;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+/**
+ * Lazy iterator over the resources of a Machina list endpoint, paged with the SCIM
+ * <code>startIndex</code> and <code>count</code> query parameters.
+ *
+ * <p>The first page is requested on the first call to {@link #hasNext()}.  As soon as a page is
+ * received, the next page is requested in the background, so that it is (usually) ready by the
+ * time the caller has processed the current one.  At most two pages are held at once, whatever
+ * the size of the collection.
+ *
+ * <p>Paging stops after <code>totalResults</code> resources, or at an empty page.  If a response
+ * does not report <code>totalResults</code>, a page shorter than requested is the last one; a
+ * page longer than requested (the server ignored <code>count</code>) is taken to hold the whole
+ * collection.
+ *
+ * <p>Instances are not thread-safe.  A page that cannot be fetched surfaces as an
+ * {@link IllegalStateException} from {@link #hasNext()}.  Callers abandoning the iteration early
+ * should {@link #close()} it, to discard the prefetched page.
+ */
+public class PagedIterator implements Iterator<JsonObject>, AutoCloseable {
+
+    /**
+     * Requests one page of a list endpoint.
+     */
+    @FunctionalInterface
+    public interface PageFetcher {
+
+        /**
+         * @param startIndex the 1-based index of the first resource of the page
+         * @param count the maximum number of resources in the page
+         * @return completes with the list response (holding <code>Resources</code>, and usually
+         *         <code>totalResults</code>), or exceptionally on failure
+         */
+        CompletableFuture<JsonObject> fetch(int startIndex, int count);
+    }
+
+    /**
+     * SCIM list response fields.
+     */
+    private static final String RESOURCES = "Resources";
+    private static final String TOTAL_RESULTS = "totalResults";
+
+    private final PageFetcher fetcher;
+    private final int pageSize;
+
+    /**
+     * The resources of the current page, and the position of the next one to return.
+     */
+    private List<JsonObject> page = null;
+    private int position = 0;
+
+    /**
+     * The request for the next page, or null if there is none.
+     */
+    private CompletableFuture<JsonObject> next = null;
+
+    /**
+     * The 1-based index of the first resource of the next page.
+     */
+    private int nextStartIndex = 1;
+
+    /**
+     * The size of the collection, as reported by the server, or -1 if not known.
+     */
+    private int totalResults = -1;
+
+    private boolean started = false;
+    private boolean closed = false;
+
+    /**
+     * Constructor.  No request is made until the iteration starts.
+     *
+     * @param fetcher requests each page
+     * @param pageSize the number of resources requested per page
+     */
+    public PagedIterator(final PageFetcher fetcher, final int pageSize) {
+        this.fetcher = fetcher;
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!started) {
+            started = true;
+            next = fetcher.fetch(nextStartIndex, pageSize);
+        }
+        while (!closed && ((page == null) || (position >= page.size()))) {
+            if (next == null) {
+                return false;
+            }
+            nextPage();
+        }
+        return !closed;
+    }
+
+    @Override
+    public JsonObject next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.get(position++);
+    }
+
+    /**
+     * @return the size of the collection reported by the server, or -1 if no page has been
+     *         received yet, or the server does not report it
+     */
+    public int getTotalResults() {
+        return totalResults;
+    }
+
+    /**
+     * Stop the iteration, discarding the prefetched page.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        page = null;
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+    }
+
+    /**
+     * Wait for the requested page, making it current, then request the page after it.
+     */
+    private void nextPage() {
+        final int requested = nextStartIndex;
+        final JsonObject response;
+        try {
+            response = next.join();
+        } catch (CompletionException | CancellationException e) {
+            next = null;
+            final Throwable cause = (e.getCause() == null) ? e : e.getCause();
+            if (cause instanceof IllegalStateException) {
+                throw (IllegalStateException) cause;
+            }
+            throw new IllegalStateException("Failed to fetch page at index " + requested + ": "
+                    + cause.getMessage(), cause);
+        }
+        final JsonValue resources = response.get(RESOURCES);
+        page = (resources instanceof JsonArray)
+                ? ((JsonArray) resources).getValuesAs(JsonObject.class) : null;
+        position = 0;
+        final int size = (page == null) ? 0 : page.size();
+
+        final JsonNumber total = response.getJsonNumber(TOTAL_RESULTS);
+        if (total != null) {
+            totalResults = total.intValue();
+        }
+        nextStartIndex = requested + size;
+        final boolean last = (size == 0)
+                || ((total != null) ? (nextStartIndex > totalResults) : (size != pageSize));
+        // start fetching the next page while the caller processes this one
+        next = last ? null : fetcher.fetch(nextStartIndex, pageSize);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The result of a group-by aggregation of decrypted rows: the number of rows in each group and,
+ * optionally, the number of distinct values of a column in each group (nulls are not counted,
+ * as in SQL <code>COUNT(DISTINCT column)</code>).
+ *
+ * <p>Protected columns hold randomized ciphertext, so the database cannot group rows by their
+ * values.  An aggregation consumes rows as they are decrypted, holding one entry per group (and
+ * per distinct value), rather than the rows themselves.  Rows are aggregated either on the calling
+ * thread, from a row iterator such as {@link IonicRowCursor} (see
+ * {@link #of(Iterator, Function, int)}), or in parallel, as they are read from a
+ * {@link java.sql.ResultSet} (see {@link IonicAggregatingResultSetHandler}).
+ */
+public final class Aggregation {
+
+    /**
+     * The aggregate of the rows sharing a group key.
+     */
+    public static final class Group {
+
+        private final String key;
+        private final long count;
+        private final long distinct;
+
+        private Group(final String key, final long count, final long distinct) {
+            this.key = key;
+            this.count = count;
+            this.distinct = distinct;
+        }
+
+        /**
+         * @return the group key, or null for the rows without one
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the number of rows in the group
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the number of distinct (non-null) values of the distinct column in the group, or
+         *         -1 if distinct values were not counted
+         */
+        public long getDistinct() {
+            return distinct;
+        }
+    }
+
+    private final long rows;
+    private final List<Group> groups;
+
+    private Aggregation(final long rows, final List<Group> groups) {
+        this.rows = rows;
+        this.groups = groups;
+    }
+
+    /**
+     * @return the number of rows aggregated
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the groups, ordered by key (the null key first)
+     */
+    public List<Group> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Group rows by the value of a column.
+     *
+     * @param column the index of the column
+     * @return the group key function
+     */
+    public static Function<Object[], CharSequence> column(final int column) {
+        return row -> (row[column] == null) ? null : row[column].toString();
+    }
+
+    /**
+     * Group rows by the leading characters of the value of a column (such as a zip code prefix).
+     * Values shorter than the prefix are their own group.
+     *
+     * @param column the index of the column
+     * @param length the number of leading characters
+     * @return the group key function
+     */
+    public static Function<Object[], CharSequence> prefix(final int column, final int length) {
+        return row -> {
+            final Object value = row[column];
+            if (value == null) {
+                return null;
+            }
+            final CharSequence text = (value instanceof CharSequence)
+                    ? (CharSequence) value : value.toString();
+            // a view of the prefix; it is copied only if it starts a new group
+            return (text.length() <= length) ? text : CharBuffer.wrap(text, 0, length);
+        };
+    }
+
+    /**
+     * Aggregate rows on the calling thread.
+     *
+     * @param rows the rows to aggregate, consumed in full
+     * @param groupKey the group key of a row
+     * @param distinctColumn the index of the column whose distinct values are counted in each
+     *        group, or -1 to count rows only
+     * @return the aggregation of the rows
+     */
+    public static Aggregation of(final Iterator<Object[]> rows,
+            final Function<Object[], ? extends CharSequence> groupKey, final int distinctColumn) {
+        final GroupTable table = new GroupTable(distinctColumn >= 0);
+        while (rows.hasNext()) {
+            add(table, rows.next(), groupKey, distinctColumn);
+        }
+        return merge(Collections.singletonList(table), distinctColumn >= 0);
+    }
+
+    /**
+     * Count a row in a partial aggregate.
+     *
+     * @param table the partial aggregate
+     * @param row the row
+     * @param groupKey the group key of a row
+     * @param distinctColumn the index of the column whose distinct values are counted, or -1
+     */
+    static void add(final GroupTable table, final Object[] row,
+            final Function<Object[], ? extends CharSequence> groupKey, final int distinctColumn) {
+        final Object value = (distinctColumn < 0) ? null : row[distinctColumn];
+        table.add(groupKey.apply(row), (value == null) ? null
+                : ((value instanceof CharSequence) ? (CharSequence) value : value.toString()));
+    }
+
+    /**
+     * Combine partial aggregates.
+     *
+     * @param partials the partial aggregates
+     * @param distinct true if distinct values were tracked
+     * @return the aggregation of all the rows counted in the partial aggregates
+     */
+    static Aggregation merge(final Collection<GroupTable> partials, final boolean distinct) {
+        GroupTable total = null;
+        for (GroupTable partial : partials) {
+            if (total == null) {
+                total = partial;
+            } else {
+                total.merge(partial);
+            }
+        }
+        if (total == null) {
+            total = new GroupTable(distinct);
+        }
+        long rows = 0L;
+        final List<Group> groups = new ArrayList<Group>(total.size());
+        for (int i = 0; i < total.capacity(); ++i) {
+            if (total.isUsed(i)) {
+                rows += total.getCount(i);
+                groups.add(new Group(total.getKey(i), total.getCount(i), total.getDistinct(i)));
+            }
+        }
+        groups.sort(Comparator.comparing(
+                Group::getKey, Comparator.nullsFirst(Comparator.<String>naturalOrder())));
+        return new Aggregation(rows, Collections.unmodifiableList(groups));
+    }
+}
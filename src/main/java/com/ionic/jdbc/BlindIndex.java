@@ -0,0 +1,107 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import com.ionic.sdk.agent.key.AgentKey;
+import com.ionic.sdk.core.codec.Transcoder;
+import com.ionic.sdk.error.IonicException;
+import com.ionic.sdk.error.SdkError;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keyed hash (HMAC-SHA256) of the plaintext of a protected column, stored in a companion column
+ * next to the ciphertext, so that equality predicates on the column can be answered by a
+ * database index.
+ *
+ * <p>ChunkCipherV2 ciphertext is randomized, so the same value encrypts differently in each row,
+ * and a <code>WHERE last = ?</code> predicate cannot match it.  The blind index of a value is
+ * deterministic: a lookup computes the index of the search value, and matches it against the
+ * (indexed) companion column, <code>{column}_bidx</code>.
+ *
+ * <p>The HMAC key is derived from the Machina key protecting the column, so only users to whom
+ * that key is released can compute (and so search by) the index of a value.  Values are hashed
+ * exactly as stored; callers wanting case-insensitive search should normalize values before both
+ * writing and searching.  An index reveals which rows share a value (and so, for low cardinality
+ * columns, the frequency of each value), though not the value itself.
+ *
+ * <p>The index key follows the Machina key, not the column: values written under a column key
+ * are only found by searches computed with that same key.  Where new column keys are created
+ * (for example, by a new access record), rows written under the earlier keys are not found by
+ * searches made with the new ones, unless their indexes are rewritten.  Searches across key
+ * changes need a stable key per column, or one search per key in use.
+ *
+ * <p>Instances are not thread-safe; each thread should use its own instance.
+ */
+public final class BlindIndex {
+
+    /**
+     * Suffix of the name of the companion column holding the blind index of a column.
+     */
+    public static final String COLUMN_SUFFIX = "_bidx";
+
+    /**
+     * The keyed hash algorithm, used both to derive the index key and to compute the index.
+     */
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /**
+     * Context of the index key derivation, separating the index key from the column cipher key.
+     */
+    private static final String DERIVATION_LABEL = "ionic-jdbc-blind-index:";
+
+    /**
+     * The keyed hash, initialized with the index key.
+     */
+    private final Mac mac;
+
+    /**
+     * Constructor.
+     *
+     * @param key the Machina key protecting the column
+     * @throws IonicException on failure to initialize the keyed hash
+     */
+    public BlindIndex(final AgentKey key) throws IonicException {
+        byte[] indexKey = null;
+        try {
+            // index key = HMAC(column key, label || key id)
+            final Mac kdf = Mac.getInstance(ALGORITHM);
+            kdf.init(new SecretKeySpec(key.getKey(), ALGORITHM));
+            indexKey = kdf.doFinal(Transcoder.utf8().decode(DERIVATION_LABEL + key.getId()));
+            mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(indexKey, ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IonicException(SdkError.ISCRYPTO_ERROR, e);
+        } finally {
+            if (indexKey != null) {
+                Arrays.fill(indexKey, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * @param column the name of a protected column
+     * @return the name of the companion column holding the blind index of the column
+     */
+    public static String getColumn(final String column) {
+        return column + COLUMN_SUFFIX;
+    }
+
+    /**
+     * Compute the blind index of a value.
+     *
+     * @param plainText the value, as stored (before encryption)
+     * @return the base64 encoded index (44 characters), or null if the value is null
+     */
+    public String compute(final String plainText) {
+        if (plainText == null) {
+            return null;
+        }
+        return Transcoder.base64().encode(mac.doFinal(Transcoder.utf8().decode(plainText)));
+    }
+}
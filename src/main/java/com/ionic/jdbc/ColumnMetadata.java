@@ -0,0 +1,78 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Description of a {@link java.sql.ResultSet} column, captured once from
+ * {@link ResultSetMetaData}.
+ */
+public final class ColumnMetadata {
+
+    /**
+     * The column name.
+     */
+    private final String name;
+
+    /**
+     * The column label (the name, or the alias given by the query).
+     */
+    private final String label;
+
+    /**
+     * The column type, from {@link java.sql.Types}.
+     */
+    private final int sqlType;
+
+    /**
+     * The database-specific type name.
+     */
+    private final String typeName;
+
+    /**
+     * Constructor.
+     *
+     * @param metaData the metadata of the {@link java.sql.ResultSet}
+     * @param column the one-based index of the column
+     * @throws SQLException on failure to read the metadata
+     */
+    public ColumnMetadata(final ResultSetMetaData metaData, final int column) throws SQLException {
+        this.name = metaData.getColumnName(column);
+        this.label = metaData.getColumnLabel(column);
+        this.sqlType = metaData.getColumnType(column);
+        this.typeName = metaData.getColumnTypeName(column);
+    }
+
+    /**
+     * @return the column name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the column label (the name, or the alias given by the query)
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return the column type, from {@link java.sql.Types}
+     */
+    public int getSqlType() {
+        return sqlType;
+    }
+
+    /**
+     * @return the database-specific type name
+     */
+    public String getTypeName() {
+        return typeName;
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Typed storage for the values of one column of a {@link ColumnarRowSet}.
+ *
+ * <p>Numeric columns are held in primitive arrays, and text columns in a single shared character
+ * array, so that no per-cell object is allocated while loading.  Null values are tracked in a
+ * bitmap.
+ */
+public abstract class ColumnVector {
+
+    /**
+     * Initial capacity (in values) of a vector.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The null values of the column.
+     */
+    private final BitSet nulls = new BitSet();
+
+    /**
+     * The number of values in the vector.
+     */
+    private int size = 0;
+
+    /**
+     * @return the number of values in the vector
+     */
+    public final int size() {
+        return size;
+    }
+
+    /**
+     * @param row the zero-based row index
+     * @return true if the value in the given row is SQL NULL
+     */
+    public final boolean isNull(final int row) {
+        return nulls.get(checkIndex(row));
+    }
+
+    /**
+     * Get a value as an object; used by the row-oriented view of a {@link ColumnarRowSet}.
+     *
+     * @param row the zero-based row index
+     * @return the value in the given row, or null if the value is SQL NULL
+     */
+    public final Object get(final int row) {
+        return isNull(row) ? null : getObject(row);
+    }
+
+    /**
+     * Append an SQL NULL value.
+     */
+    final void addNull() {
+        ensureCapacity(size + 1);
+        nulls.set(size++);
+    }
+
+    /**
+     * Mark the addition of a non-null value, stored by the subclass at index {@link #size()}.
+     */
+    final void added() {
+        ++size;
+    }
+
+    /**
+     * Check a row index against the size of the vector.
+     *
+     * @param row the zero-based row index
+     * @return the row index
+     */
+    final int checkIndex(final int row) {
+        if ((row < 0) || (row >= size)) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + size);
+        }
+        return row;
+    }
+
+    /**
+     * @param current the current capacity
+     * @param required the required capacity
+     * @return the new capacity
+     */
+    static int grow(final int current, final int required) {
+        return Math.max(required, Math.max(INITIAL_CAPACITY, current + (current >> 1)));
+    }
+
+    /**
+     * Ensure the vector can hold the given number of values.
+     *
+     * @param capacity the required capacity
+     */
+    abstract void ensureCapacity(int capacity);
+
+    /**
+     * @param row the zero-based row index of a non-null value
+     * @return the value, boxed
+     */
+    abstract Object getObject(int row);
+
+    /**
+     * Append the value of this column in the current row of a {@link ResultSet}.
+     *
+     * @param resultSet the query result, positioned on a row
+     * @param column the one-based column index
+     * @throws SQLException on failure to read the value
+     */
+    abstract void read(ResultSet resultSet, int column) throws SQLException;
+
+    /**
+     * Choose a vector implementation suitable for a column.
+     *
+     * @param metadata the description of the column
+     * @return an empty vector for values of the column
+     */
+    static ColumnVector forColumn(final ColumnMetadata metadata) {
+        switch (metadata.getSqlType()) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return new IntVector();
+            case Types.BIGINT:
+                return new LongVector();
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return new DoubleVector();
+            default:
+                return new StringVector();
+        }
+    }
+
+    /**
+     * Column of <code>int</code> values.
+     */
+    public static final class IntVector extends ColumnVector {
+
+        private int[] values = new int[0];
+
+        /**
+         * @param row the zero-based row index
+         * @return the value in the given row (0 if the value is SQL NULL)
+         */
+        public int getInt(final int row) {
+            return values[checkIndex(row)];
+        }
+
+        @Override
+        void ensureCapacity(final int capacity) {
+            if (capacity > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, capacity));
+            }
+        }
+
+        @Override
+        Object getObject(final int row) {
+            return values[row];
+        }
+
+        @Override
+        void read(final ResultSet resultSet, final int column) throws SQLException {
+            final int value = resultSet.getInt(column);
+            if (resultSet.wasNull()) {
+                addNull();
+            } else {
+                ensureCapacity(size() + 1);
+                values[size()] = value;
+                added();
+            }
+        }
+    }
+
+    /**
+     * Column of <code>long</code> values.
+     */
+    public static final class LongVector extends ColumnVector {
+
+        private long[] values = new long[0];
+
+        /**
+         * @param row the zero-based row index
+         * @return the value in the given row (0 if the value is SQL NULL)
+         */
+        public long getLong(final int row) {
+            return values[checkIndex(row)];
+        }
+
+        @Override
+        void ensureCapacity(final int capacity) {
+            if (capacity > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, capacity));
+            }
+        }
+
+        @Override
+        Object getObject(final int row) {
+            return values[row];
+        }
+
+        @Override
+        void read(final ResultSet resultSet, final int column) throws SQLException {
+            final long value = resultSet.getLong(column);
+            if (resultSet.wasNull()) {
+                addNull();
+            } else {
+                ensureCapacity(size() + 1);
+                values[size()] = value;
+                added();
+            }
+        }
+    }
+
+    /**
+     * Column of <code>double</code> values.
+     */
+    public static final class DoubleVector extends ColumnVector {
+
+        private double[] values = new double[0];
+
+        /**
+         * @param row the zero-based row index
+         * @return the value in the given row (0 if the value is SQL NULL)
+         */
+        public double getDouble(final int row) {
+            return values[checkIndex(row)];
+        }
+
+        @Override
+        void ensureCapacity(final int capacity) {
+            if (capacity > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, capacity));
+            }
+        }
+
+        @Override
+        Object getObject(final int row) {
+            return values[row];
+        }
+
+        @Override
+        void read(final ResultSet resultSet, final int column) throws SQLException {
+            final double value = resultSet.getDouble(column);
+            if (resultSet.wasNull()) {
+                addNull();
+            } else {
+                ensureCapacity(size() + 1);
+                values[size()] = value;
+                added();
+            }
+        }
+    }
+
+    /**
+     * Column of text values.  The characters of all values are stored end to end in one array;
+     * <code>offsets[i]</code> is the end of value <code>i</code> in that array.
+     */
+    public static final class StringVector extends ColumnVector {
+
+        private char[] chars = new char[0];
+        private int length = 0;
+        private int[] offsets = new int[0];
+
+        /**
+         * @param row the zero-based row index
+         * @return the value in the given row, or null if the value is SQL NULL
+         */
+        public String getString(final int row) {
+            if (isNull(row)) {
+                return null;
+            }
+            final int start = (row == 0) ? 0 : offsets[row - 1];
+            return new String(chars, start, offsets[row] - start);
+        }
+
+        /**
+         * @param row the zero-based row index
+         * @return the length of the value in the given row (0 if the value is SQL NULL)
+         */
+        public int getLength(final int row) {
+            checkIndex(row);
+            final int start = (row == 0) ? 0 : offsets[row - 1];
+            return offsets[row] - start;
+        }
+
+        @Override
+        void ensureCapacity(final int capacity) {
+            if (capacity > offsets.length) {
+                offsets = Arrays.copyOf(offsets, grow(offsets.length, capacity));
+            }
+        }
+
+        @Override
+        Object getObject(final int row) {
+            return getString(row);
+        }
+
+        @Override
+        void read(final ResultSet resultSet, final int column) throws SQLException {
+            add(resultSet.getString(column));
+        }
+
+        /**
+         * Append a text value.
+         *
+         * @param value the value, or null for SQL NULL
+         */
+        void add(final String value) {
+            final int row = size();
+            if (value == null) {
+                addNull();
+            } else {
+                ensureCapacity(row + 1);
+                if (length + value.length() > chars.length) {
+                    chars = Arrays.copyOf(chars, grow(chars.length, length + value.length()));
+                }
+                value.getChars(0, value.length(), chars, length);
+                length += value.length();
+                added();
+            }
+            offsets[row] = length;
+        }
+    }
+}
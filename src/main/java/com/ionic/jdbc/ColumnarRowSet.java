@@ -0,0 +1,125 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Column-oriented container for data loaded from a {@link java.sql.ResultSet}.  Each column is held
+ * in a {@link ColumnVector} suited to its SQL type, which avoids the per-row and per-cell objects
+ * of {@link RowSet} for large, wide results.
+ *
+ * <p>{@link #asRows()} provides the row-oriented view used by {@link RowSet} consumers; its rows
+ * are built on access.
+ */
+public class ColumnarRowSet {
+
+    /**
+     * The description of each column.
+     */
+    private final ColumnMetadata[] metadata;
+
+    /**
+     * The values of each column.
+     */
+    private final ColumnVector[] columns;
+
+    /**
+     * The number of rows in the set.
+     */
+    private int rowCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param metadata the description of each column, captured from the
+     *        {@link java.sql.ResultSetMetaData}
+     */
+    public ColumnarRowSet(final ColumnMetadata[] metadata) {
+        this.metadata = metadata.clone();
+        this.columns = new ColumnVector[metadata.length];
+        for (int i = 0; i < metadata.length; ++i) {
+            columns[i] = ColumnVector.forColumn(metadata[i]);
+        }
+    }
+
+    /**
+     * @return the number of rows in the set
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the number of columns in the set
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * @param column the zero-based column index
+     * @return the description of the column
+     */
+    public ColumnMetadata getMetadata(final int column) {
+        return metadata[column];
+    }
+
+    /**
+     * @param column the zero-based column index
+     * @return the values of the column
+     */
+    public ColumnVector getColumn(final int column) {
+        return columns[column];
+    }
+
+    /**
+     * @param row the zero-based row index
+     * @return the values of the row, as in a {@link RowSet}
+     */
+    public Object[] getRow(final int row) {
+        final Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; ++i) {
+            values[i] = columns[i].get(row);
+        }
+        return values;
+    }
+
+    /**
+     * @return a read-only, row-oriented view of the set
+     */
+    public List<Object[]> asRows() {
+        return new RowView();
+    }
+
+    /**
+     * Record the completion of a row, once a value has been appended to each column.
+     */
+    void endRow() {
+        ++rowCount;
+    }
+
+    /**
+     * Row-oriented view of the set.
+     */
+    private final class RowView extends AbstractList<Object[]> implements RandomAccess {
+
+        @Override
+        public Object[] get(final int index) {
+            if ((index < 0) || (index >= rowCount)) {
+                throw new IndexOutOfBoundsException("row " + index + ", size " + rowCount);
+            }
+            return getRow(index);
+        }
+
+        @Override
+        public int size() {
+            return rowCount;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed-size direct {@link ByteBuffer} blocks, holding decrypted values outside the Java
+ * heap (see {@link OffHeapCellStore}).
+ *
+ * <p>Allocating direct memory is slow, and it is only freed when its buffer is garbage collected,
+ * so blocks are reused across queries.  Each block is zeroed when it is released, before it is
+ * pooled (or dropped, if the pool is full), so no plaintext outlives its query in a pooled block.
+ *
+ * <p>Instances are thread-safe, and are meant to be shared process-wide.
+ */
+public final class DirectBufferPool {
+
+    private final int blockBytes;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> pooled = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param blockBytes the size of each block, in bytes
+     * @param maxPooled the largest number of released blocks kept for reuse
+     */
+    public DirectBufferPool(final int blockBytes, final int maxPooled) {
+        this.blockBytes = Math.max(Long.BYTES, blockBytes & ~(Long.BYTES - 1));
+        this.maxPooled = Math.max(0, maxPooled);
+    }
+
+    /**
+     * @return the size of each block, in bytes
+     */
+    public int getBlockBytes() {
+        return blockBytes;
+    }
+
+    /**
+     * @return the number of released blocks held for reuse
+     */
+    public int getPooled() {
+        return pooledCount.get();
+    }
+
+    /**
+     * Take a block from the pool, or allocate one if the pool is empty.
+     *
+     * @return a zeroed block, with position 0 and limit at its capacity
+     */
+    ByteBuffer acquire() {
+        final ByteBuffer block = pooled.poll();
+        if (block == null) {
+            return ByteBuffer.allocateDirect(blockBytes);
+        }
+        pooledCount.decrementAndGet();
+        return block;
+    }
+
+    /**
+     * Zero a block, and return it to the pool.  Blocks not allocated by the pool (of another size)
+     * are zeroed, but not pooled.
+     *
+     * @param block a block acquired from the pool; it must not be used by the caller afterwards
+     */
+    void release(final ByteBuffer block) {
+        zero(block);
+        if ((block.capacity() == blockBytes) && (pooledCount.incrementAndGet() <= maxPooled)) {
+            pooled.add(block);
+        } else if (block.capacity() == blockBytes) {
+            pooledCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Overwrite the whole content of a buffer with zeros.
+     *
+     * @param buffer the buffer
+     */
+    static void zero(final ByteBuffer buffer) {
+        buffer.clear();
+        while (buffer.remaining() >= Long.BYTES) {
+            buffer.putLong(0L);
+        }
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer.clear();
+    }
+}
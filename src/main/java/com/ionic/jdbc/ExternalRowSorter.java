@@ -0,0 +1,478 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts decrypted rows that may not fit on the heap.
+ *
+ * <p>Protected columns hold randomized ciphertext, so the database cannot order rows by their
+ * values; a sorted report must be sorted after decryption.  Rows are read from an iterator (an
+ * {@link IonicRowCursor}, for an unbounded query result, or a {@link RowSet}), and sorted in
+ * memory until their (estimated) size reaches the memory budget.  Each full sorted run is then
+ * written to a temporary file through a {@link FileChannel}, in the encoding of
+ * {@link RowCodec}, and the runs are merged as the sorted rows are consumed.  If the input fits
+ * in the budget, nothing is written to disk.
+ *
+ * <p>The sort is stable.  At most {@link #MAX_FAN_IN} runs are merged at once, each through a
+ * {@value #BLOCK_BYTES} byte read buffer; with more runs, groups of runs are first merged into
+ * longer runs.  Spilled rows hold only strings (see {@link RowCodec}).
+ *
+ * <p>Spilled values are decrypted plaintext; the temporary files are deleted when the sorted rows
+ * are closed, and should be placed on storage trusted with that data.
+ *
+ * <p>Instances hold only configuration, and may be shared between threads.
+ */
+public final class ExternalRowSorter {
+
+    /**
+     * The largest number of runs merged at once.
+     */
+    public static final int MAX_FAN_IN = 64;
+
+    /**
+     * The size of the buffer used to read or write each run file.
+     */
+    static final int BLOCK_BYTES = 64 * 1024;
+
+    /**
+     * Approximate heap cost of a row array, and of each of its cells.
+     */
+    private static final long ROW_OVERHEAD_BYTES = 16L;
+    private static final long CELL_OVERHEAD_BYTES = 48L;
+
+    private static final String FILE_PREFIX = "ionic-sort-";
+    private static final String FILE_SUFFIX = ".run";
+
+    private final Comparator<? super Object[]> comparator;
+    private final long memoryBytes;
+    private final Path directory;
+
+    /**
+     * Constructor.
+     *
+     * @param comparator the order of the sorted rows
+     * @param memoryBytes the approximate heap size of the rows sorted in memory, before a run is
+     *        written to disk
+     * @param directory the directory of the temporary run files, or null for the default
+     *        temporary file directory
+     */
+    public ExternalRowSorter(final Comparator<? super Object[]> comparator,
+            final long memoryBytes, final Path directory) {
+        this.comparator = comparator;
+        this.memoryBytes = Math.max(1L, memoryBytes);
+        this.directory = directory;
+    }
+
+    /**
+     * Order rows by the value of a column, with nulls last.  The values of the column must be
+     * mutually comparable (the rows read by this package hold only strings).
+     *
+     * @param column the index of the column
+     * @return a comparator of rows
+     */
+    public static Comparator<Object[]> byColumn(final int column) {
+        final Comparator<Object> values = Comparator.nullsLast(ExternalRowSorter::compareValues);
+        return (left, right) -> values.compare(left[column], right[column]);
+    }
+
+    /**
+     * Sort rows.  The input is read in full before this method returns.
+     *
+     * @param rows the rows to sort
+     * @return the sorted rows, which must be closed by the caller to delete any run files
+     * @throws IOException on failure to write the run files
+     */
+    public SortedRows sort(final Iterator<Object[]> rows) throws IOException {
+        List<Path> runs = new ArrayList<Path>();
+        final RowCodec codec = new RowCodec();
+        final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_BYTES);
+        try {
+            final List<Object[]> chunk = new ArrayList<Object[]>();
+            long chunkBytes = 0L;
+            while (rows.hasNext()) {
+                final Object[] row = rows.next();
+                chunk.add(row);
+                chunkBytes += estimateSize(row);
+                if (chunkBytes >= memoryBytes) {
+                    chunk.sort(comparator);
+                    runs.add(writeRun(chunk.iterator(), codec, block));
+                    chunk.clear();
+                    chunkBytes = 0L;
+                }
+            }
+            chunk.sort(comparator);
+            // the last run stays in memory, and is merged with at most MAX_FAN_IN - 1 files
+            while (runs.size() >= MAX_FAN_IN) {
+                runs = mergePass(runs, codec, block);
+            }
+            return new SortedRows(chunk, runs, comparator);
+        } catch (IOException | RuntimeException e) {
+            deleteAll(runs);
+            throw e;
+        }
+    }
+
+    /**
+     * Merge each group of {@link #MAX_FAN_IN} consecutive runs into a single run, preserving the
+     * order of the runs.  The input runs are deleted once merged.
+     *
+     * @param runs the run files
+     * @param codec the row encoding
+     * @param block the write buffer
+     * @return the merged run files
+     * @throws IOException on failure to read or write the run files
+     */
+    private List<Path> mergePass(final List<Path> runs, final RowCodec codec,
+            final ByteBuffer block) throws IOException {
+        final List<Path> merged = new ArrayList<Path>();
+        try {
+            for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                final List<RunSource> sources = new ArrayList<RunSource>();
+                try {
+                    for (Path run : runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN))) {
+                        sources.add(new FileRun(run, sources.size()));
+                    }
+                    merged.add(writeRun(new MergeIterator(sources, comparator), codec, block));
+                } finally {
+                    for (RunSource source : sources) {
+                        source.close();
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteAll(merged);
+            throw e;
+        }
+        deleteAll(runs);
+        return merged;
+    }
+
+    /**
+     * Write a sorted run to a new temporary file.
+     *
+     * @param rows the rows of the run, in order
+     * @param codec the row encoding
+     * @param block the write buffer
+     * @return the run file
+     * @throws IOException on failure to write the file
+     */
+    private Path writeRun(final Iterator<Object[]> rows, final RowCodec codec,
+            final ByteBuffer block) throws IOException {
+        final Path run = (directory == null)
+                ? Files.createTempFile(FILE_PREFIX, FILE_SUFFIX)
+                : Files.createTempFile(directory, FILE_PREFIX, FILE_SUFFIX);
+        try (FileChannel channel = FileChannel.open(run, StandardOpenOption.WRITE)) {
+            block.clear();
+            while (rows.hasNext()) {
+                final ByteBuffer record = codec.encode(rows.next());
+                if (record.remaining() > block.remaining()) {
+                    writeFully(channel, block);
+                }
+                if (record.remaining() > block.remaining()) {
+                    // larger than a block; write it directly
+                    while (record.hasRemaining()) {
+                        channel.write(record);
+                    }
+                } else {
+                    block.put(record);
+                }
+            }
+            writeFully(channel, block);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(run);
+            throw e;
+        }
+        return run;
+    }
+
+    /**
+     * Write the content of a buffer, and clear it.
+     *
+     * @param channel the destination
+     * @param block the buffer, filled up to its position
+     * @throws IOException on failure to write
+     */
+    private static void writeFully(final FileChannel channel, final ByteBuffer block)
+            throws IOException {
+        block.flip();
+        while (block.hasRemaining()) {
+            channel.write(block);
+        }
+        block.clear();
+    }
+
+    /**
+     * Delete run files, ignoring failures.
+     *
+     * @param runs the files to delete
+     */
+    private static void deleteAll(final List<Path> runs) {
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                System.err.println("ERROR: Failure to delete sort run " + run + ". "
+                        + e.getMessage());
+            }
+        }
+        runs.clear();
+    }
+
+    /**
+     * @param row a row
+     * @return the approximate heap size of the row, assuming string cells
+     */
+    private static long estimateSize(final Object[] row) {
+        long size = ROW_OVERHEAD_BYTES;
+        for (Object cell : row) {
+            size += Integer.BYTES;
+            if (cell instanceof CharSequence) {
+                size += CELL_OVERHEAD_BYTES + 2L * ((CharSequence) cell).length();
+            } else if (cell != null) {
+                size += CELL_OVERHEAD_BYTES;
+            }
+        }
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareValues(final Object left, final Object right) {
+        if ((left instanceof CharSequence) && (right instanceof CharSequence)
+                && !((left instanceof String) && (right instanceof String))) {
+            // decrypted values held off the heap (see OffHeapCell) mix with strings
+            final CharSequence leftChars = (CharSequence) left;
+            final CharSequence rightChars = (CharSequence) right;
+            final int common = Math.min(leftChars.length(), rightChars.length());
+            for (int i = 0; i < common; ++i) {
+                final int compare = Character.compare(leftChars.charAt(i), rightChars.charAt(i));
+                if (compare != 0) {
+                    return compare;
+                }
+            }
+            return Integer.compare(leftChars.length(), rightChars.length());
+        }
+        return ((Comparable<Object>) left).compareTo(right);
+    }
+
+    /**
+     * The sorted rows.  Reading a run file may fail while iterating, which surfaces as an
+     * {@link IllegalStateException} with the {@link IOException} as the cause.  Closing the rows
+     * deletes the run files.  Instances are not thread-safe.
+     */
+    public static final class SortedRows implements Iterator<Object[]>, AutoCloseable {
+
+        private final List<Path> runs;
+        private final List<RunSource> sources = new ArrayList<RunSource>();
+        private final Iterator<Object[]> merged;
+
+        private SortedRows(final List<Object[]> chunk, final List<Path> runs,
+                final Comparator<? super Object[]> comparator) throws IOException {
+            this.runs = runs;
+            if (runs.isEmpty()) {
+                merged = chunk.iterator();
+                return;
+            }
+            try {
+                for (Path run : runs) {
+                    sources.add(new FileRun(run, sources.size()));
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            // the in-memory run holds the last rows read, so it merges last among equals
+            sources.add(new MemoryRun(chunk.iterator(), sources.size()));
+            merged = new MergeIterator(sources, comparator);
+        }
+
+        /**
+         * @return the number of sorted runs written to disk, once merged down to
+         *         {@link #MAX_FAN_IN}; 0 if the rows were sorted in memory
+         */
+        public int getSpilledRuns() {
+            return runs.size();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return merged.hasNext();
+        }
+
+        @Override
+        public Object[] next() {
+            return merged.next();
+        }
+
+        /**
+         * Close and delete the run files.
+         */
+        @Override
+        public void close() {
+            for (RunSource source : sources) {
+                source.close();
+            }
+            sources.clear();
+            deleteAll(runs);
+        }
+    }
+
+    /**
+     * A sorted run being merged.
+     */
+    private abstract static class RunSource {
+
+        /**
+         * The position of the run in the input, breaking ties between equal rows.
+         */
+        private final int order;
+
+        /**
+         * The next row of the run, or null if the run is exhausted.
+         */
+        private Object[] head = null;
+
+        RunSource(final int order) {
+            this.order = order;
+        }
+
+        /**
+         * @return the next row of the run, or null at its end
+         * @throws IOException on failure to read the run
+         */
+        abstract Object[] read() throws IOException;
+
+        void close() {
+        }
+    }
+
+    /**
+     * The rows of a run held in memory.
+     */
+    private static final class MemoryRun extends RunSource {
+
+        private final Iterator<Object[]> rows;
+
+        MemoryRun(final Iterator<Object[]> rows, final int order) {
+            super(order);
+            this.rows = rows;
+        }
+
+        @Override
+        Object[] read() {
+            return rows.hasNext() ? rows.next() : null;
+        }
+    }
+
+    /**
+     * The rows of a run file, read a block at a time.
+     */
+    private static final class FileRun extends RunSource {
+
+        private final FileChannel channel;
+        private final RowCodec codec = new RowCodec();
+        private ByteBuffer block = ByteBuffer.allocate(BLOCK_BYTES);
+        private boolean endOfFile = false;
+
+        FileRun(final Path run, final int order) throws IOException {
+            super(order);
+            this.channel = FileChannel.open(run, StandardOpenOption.READ);
+            block.flip();
+        }
+
+        @Override
+        Object[] read() throws IOException {
+            int length = RowCodec.recordLength(block);
+            while ((length < 0) || (block.remaining() < length)) {
+                if (endOfFile) {
+                    if (block.hasRemaining()) {
+                        throw new IOException("Truncated sort run");
+                    }
+                    return null;
+                }
+                if (length > block.capacity()) {
+                    // a record larger than a block
+                    final ByteBuffer larger = ByteBuffer.allocate(length);
+                    larger.put(block);
+                    block = larger;
+                } else {
+                    block.compact();
+                }
+                endOfFile = (channel.read(block) < 0);
+                block.flip();
+                length = RowCodec.recordLength(block);
+            }
+            return codec.decode(block);
+        }
+
+        @Override
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("ERROR: Failure to close sort run. " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * k-way merge of sorted runs.
+     */
+    private static final class MergeIterator implements Iterator<Object[]> {
+
+        private final PriorityQueue<RunSource> queue;
+
+        MergeIterator(final List<RunSource> sources, final Comparator<? super Object[]> comparator)
+                throws IOException {
+            final Comparator<RunSource> heads = (left, right) -> {
+                final int compare = comparator.compare(left.head, right.head);
+                return (compare == 0) ? Integer.compare(left.order, right.order) : compare;
+            };
+            queue = new PriorityQueue<RunSource>(Math.max(1, sources.size()), heads);
+            for (RunSource source : sources) {
+                source.head = source.read();
+                if (source.head != null) {
+                    queue.add(source);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public Object[] next() {
+            final RunSource source = queue.poll();
+            if (source == null) {
+                throw new NoSuchElementException();
+            }
+            final Object[] row = source.head;
+            try {
+                source.head = source.read();
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+            if (source.head != null) {
+                queue.add(source);
+            }
+            return row;
+        }
+    }
+}
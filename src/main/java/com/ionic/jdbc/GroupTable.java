@@ -0,0 +1,210 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+/**
+ * Partial aggregate of a set of rows: the number of rows in each group and, optionally, the
+ * distinct values of a column in each group.
+ *
+ * <p>Groups are held in an open-addressing table keyed by a 64-bit hash of the group key, with
+ * the counts in a parallel <code>long</code> array, so that counting a row in an existing group
+ * allocates nothing.  Distinct values are tracked as 64-bit hashes in a {@link LongHashSet} per
+ * group; two distinct values are counted once only if their hashes collide, which is negligibly
+ * unlikely below billions of values per group.
+ *
+ * <p>Instances are not thread-safe; each thread aggregates into its own table, and the tables are
+ * merged when all rows have been counted.
+ */
+final class GroupTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The hash of the null group key.
+     */
+    private static final long NULL_HASH = 0x9e3779b97f4a7c15L;
+
+    private final boolean distinct;
+
+    private boolean[] used = new boolean[INITIAL_CAPACITY];
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private long[] counts = new long[INITIAL_CAPACITY];
+    private LongHashSet[] values;
+    private int size = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param distinct true to track the distinct values of a column in each group
+     */
+    GroupTable(final boolean distinct) {
+        this.distinct = distinct;
+        this.values = distinct ? new LongHashSet[INITIAL_CAPACITY] : null;
+    }
+
+    /**
+     * Count a row.
+     *
+     * @param key the group key of the row, or null
+     * @param value the value of the distinct column in the row; ignored if null, or if distinct
+     *        values are not tracked
+     */
+    void add(final CharSequence key, final CharSequence value) {
+        final int slot = slotOf(key, hash(key));
+        ++counts[slot];
+        if (distinct && (value != null)) {
+            values[slot].add(hash(value));
+        }
+    }
+
+    /**
+     * Add the counts of another table to this one.
+     *
+     * @param other the table to add
+     */
+    void merge(final GroupTable other) {
+        for (int i = 0; i < other.used.length; ++i) {
+            if (other.used[i]) {
+                final int slot = slotOf(other.keys[i], other.hashes[i]);
+                counts[slot] += other.counts[i];
+                if (distinct) {
+                    values[slot].addAll(other.values[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of groups
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of slots; groups are found at the slots for which
+     *         {@link #isUsed(int)} is true
+     */
+    int capacity() {
+        return used.length;
+    }
+
+    boolean isUsed(final int slot) {
+        return used[slot];
+    }
+
+    String getKey(final int slot) {
+        return keys[slot];
+    }
+
+    long getCount(final int slot) {
+        return counts[slot];
+    }
+
+    /**
+     * @param slot a used slot
+     * @return the number of distinct values in the group, or -1 if distinct values are not
+     *         tracked
+     */
+    long getDistinct(final int slot) {
+        return distinct ? values[slot].size() : -1L;
+    }
+
+    /**
+     * Find the slot of a group, adding the group if needed.
+     *
+     * @param key the group key
+     * @param hash the hash of the key
+     * @return the slot of the group
+     */
+    private int slotOf(final CharSequence key, final long hash) {
+        final int mask = used.length - 1;
+        int slot = spread(hash) & mask;
+        while (used[slot]) {
+            if ((hashes[slot] == hash) && sameKey(keys[slot], key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        hashes[slot] = hash;
+        keys[slot] = (key == null) ? null : key.toString();
+        if (distinct) {
+            values[slot] = new LongHashSet();
+        }
+        if (++size * 2 > used.length) {
+            grow();
+            return slotOf(key, hash);
+        }
+        return slot;
+    }
+
+    /**
+     * Double the table, keeping it at most half full.
+     */
+    private void grow() {
+        final boolean[] previousUsed = used;
+        final long[] previousHashes = hashes;
+        final String[] previousKeys = keys;
+        final long[] previousCounts = counts;
+        final LongHashSet[] previousValues = values;
+        final int capacity = previousUsed.length * 2;
+        used = new boolean[capacity];
+        hashes = new long[capacity];
+        keys = new String[capacity];
+        counts = new long[capacity];
+        values = distinct ? new LongHashSet[capacity] : null;
+        final int mask = capacity - 1;
+        for (int i = 0; i < previousUsed.length; ++i) {
+            if (previousUsed[i]) {
+                int slot = spread(previousHashes[i]) & mask;
+                while (used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                used[slot] = true;
+                hashes[slot] = previousHashes[i];
+                keys[slot] = previousKeys[i];
+                counts[slot] = previousCounts[i];
+                if (distinct) {
+                    values[slot] = previousValues[i];
+                }
+            }
+        }
+    }
+
+    private static boolean sameKey(final String stored, final CharSequence key) {
+        return (stored == null) ? (key == null) : ((key != null) && stored.contentEquals(key));
+    }
+
+    /**
+     * @param text a group key or a value
+     * @return a 64-bit hash of the characters (FNV-1a, with a final mix)
+     */
+    static long hash(final CharSequence text) {
+        if (text == null) {
+            return NULL_HASH;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); ++i) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * @param hash a 64-bit hash
+     * @return the bits of the hash folded into an int, for use as a table index
+     */
+    static int spread(final long hash) {
+        final long mixed = hash * 0x9e3779b97f4a7c15L;
+        return (int) (mixed >>> 32) ^ (int) mixed;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import com.ionic.key.KeyCache;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import org.apache.commons.dbutils.ResultSetHandler;
+
+/**
+ * Implementation of commons-dbutils interface {@link ResultSetHandler}, aggregating the decrypted
+ * rows of a {@link ResultSet} into an {@link Aggregation}, without holding the rows.
+ *
+ * <p>The calling thread reads the {@link ResultSet} in chunks, fetching the keys referenced by
+ * each chunk as in {@link IonicResultSetHandler}.  Each chunk is decrypted and counted by a pool
+ * thread, into a partial aggregate owned by that thread, so that counting needs no locking; the
+ * partial aggregates are merged once all chunks are counted.  At most two chunks per pool thread
+ * are held at once, so memory use tracks the number of groups, rather than the number of rows.
+ * Row filtering and {@link IonicResultSetHandler#RESTRICTED} substitution follow the rules of
+ * {@link IonicResultSetHandler#handle(ResultSet)}.
+ *
+ * <p>For the result to be streamed from the database, rather than loaded by the driver, the
+ * statement must be given a fetch size (on PostgreSQL, inside a transaction).
+ */
+public class IonicAggregatingResultSetHandler implements ResultSetHandler<Aggregation> {
+
+    /**
+     * Source of the Machina keys used to unprotect data on fetch from database.
+     */
+    private final KeyCache keyCache;
+
+    /**
+     * Pool used to decrypt and count rows in parallel, or null to count rows on the calling
+     * thread.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The number of rows read from the {@link ResultSet} before being handed to the pool.
+     */
+    private final int chunkRows;
+
+    /**
+     * The group key of a row.
+     */
+    private final Function<Object[], ? extends CharSequence> groupKey;
+
+    /**
+     * The index of the column whose distinct values are counted in each group, or -1.
+     */
+    private final int distinctColumn;
+
+    /**
+     * Constructor.
+     *
+     * @param keyCache source of the Machina keys used to unprotect data on fetch from database;
+     *        may be shared with other handlers
+     * @param pool the pool used to decrypt and count rows, or null to count rows on the calling
+     *        thread
+     * @param chunkRows the number of rows read from the {@link ResultSet} per parallel task
+     * @param groupKey the group key of a row (see {@link Aggregation#column(int)} and
+     *        {@link Aggregation#prefix(int, int)}); called concurrently from pool threads
+     * @param distinctColumn the index of the column whose distinct values are counted in each
+     *        group, or -1 to count rows only
+     */
+    public IonicAggregatingResultSetHandler(final KeyCache keyCache, final ForkJoinPool pool,
+            final int chunkRows, final Function<Object[], ? extends CharSequence> groupKey,
+            final int distinctColumn) {
+        super();
+        this.keyCache = keyCache;
+        this.pool = pool;
+        this.chunkRows = Math.max(1, chunkRows);
+        this.groupKey = groupKey;
+        this.distinctColumn = distinctColumn;
+    }
+
+    /**
+     * Aggregate the decrypted rows of the ResultSet.
+     *
+     * @param resultSet the JDBC {@link ResultSet} from the database
+     * @return the aggregation of the rows that are not filtered out
+     * @throws SQLException on errors reading from the {@link ResultSet}
+     */
+    @Override
+    public Aggregation handle(final ResultSet resultSet) throws SQLException {
+        return (pool == null) ? handleSerial(resultSet) : handleParallel(resultSet);
+    }
+
+    /**
+     * Read, decrypt and count rows on the calling thread.
+     *
+     * @param resultSet the JDBC {@link ResultSet} from the database
+     * @return the aggregation of the rows
+     * @throws SQLException on errors reading from the {@link ResultSet}
+     */
+    private Aggregation handleSerial(final ResultSet resultSet) throws SQLException {
+        final int columnCount = resultSet.getMetaData().getColumnCount();
+        final GroupTable table = new GroupTable(distinctColumn >= 0);
+        final Set<String> keyIds = new LinkedHashSet<String>();
+        final Set<String> keyIdsRequested = new LinkedHashSet<String>();
+        final Map<String, KeyedChunkCipher> ciphers = new HashMap<String, KeyedChunkCipher>();
+        while (resultSet.next()) {
+            final String[] rowText = RowDecryption.readRow(resultSet, columnCount, keyIds);
+            if (keyIdsRequested.size() < keyIds.size()) {
+                final Set<String> newKeyIds = new LinkedHashSet<String>(keyIds);
+                newKeyIds.removeAll(keyIdsRequested);
+                keyIdsRequested.addAll(newKeyIds);
+                ciphers.putAll(RowDecryption.toCiphers(
+                        RowDecryption.getKeys(keyCache, newKeyIds).values()));
+            }
+            final Object[] row = RowDecryption.decryptRow(rowText, ciphers);
+            if (row != null) {
+                Aggregation.add(table, row, groupKey, distinctColumn);
+            }
+        }
+        return Aggregation.merge(Collections.singletonList(table), distinctColumn >= 0);
+    }
+
+    /**
+     * Read rows on the calling thread, handing each chunk to the pool to be decrypted and
+     * counted.
+     *
+     * @param resultSet the JDBC {@link ResultSet} from the database
+     * @return the aggregation of the rows
+     * @throws SQLException on errors reading from the {@link ResultSet}
+     */
+    private Aggregation handleParallel(final ResultSet resultSet) throws SQLException {
+        final int columnCount = resultSet.getMetaData().getColumnCount();
+        final Map<String, GetKeysResponse.Key> keys = new HashMap<String, GetKeysResponse.Key>();
+        final Set<String> chunkKeyIds = new LinkedHashSet<String>();
+        final Map<Thread, GroupTable> partials = new ConcurrentHashMap<Thread, GroupTable>();
+        final List<AggregateTask> tasks = new ArrayList<AggregateTask>();
+        // bound the chunks read but not yet counted
+        final Semaphore inFlight = new Semaphore(2 * pool.getParallelism());
+
+        try {
+            String[][] chunk = new String[chunkRows][];
+            int count = 0;
+            boolean more = resultSet.next();
+            while (more) {
+                chunk[count++] = RowDecryption.readRow(resultSet, columnCount, chunkKeyIds);
+                more = resultSet.next();
+                if ((count == chunkRows) || (!more && (count > 0))) {
+                    // the task only gets the keys referenced by its own chunk
+                    final List<GetKeysResponse.Key> chunkKeys =
+                            RowDecryption.getChunkKeys(keyCache, keys, chunkKeyIds);
+                    chunkKeyIds.clear();
+                    inFlight.acquire();
+                    final AggregateTask task =
+                            new AggregateTask(chunk, count, chunkKeys, partials, inFlight);
+                    tasks.add(task);
+                    pool.execute(task);
+                    chunk = new String[chunkRows][];
+                    count = 0;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while aggregating rows", e);
+        } finally {
+            for (AggregateTask task : tasks) {
+                task.join();
+            }
+        }
+        return Aggregation.merge(partials.values(), distinctColumn >= 0);
+    }
+
+    /**
+     * Decrypts a chunk of rows, counting them in the partial aggregate of the pool thread.
+     */
+    private final class AggregateTask extends RecursiveAction {
+
+        private String[][] rowsText;
+        private final int count;
+        private final List<GetKeysResponse.Key> keys;
+        private final Map<Thread, GroupTable> partials;
+        private final Semaphore inFlight;
+
+        private AggregateTask(final String[][] rowsText, final int count,
+                final List<GetKeysResponse.Key> keys, final Map<Thread, GroupTable> partials,
+                final Semaphore inFlight) {
+            this.rowsText = rowsText;
+            this.count = count;
+            this.keys = keys;
+            this.partials = partials;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                final GroupTable table = partials.computeIfAbsent(
+                        Thread.currentThread(), thread -> new GroupTable(distinctColumn >= 0));
+                final Map<String, KeyedChunkCipher> ciphers = RowDecryption.toCiphers(keys);
+                for (int i = 0; i < count; ++i) {
+                    final Object[] row = RowDecryption.decryptRow(rowsText[i], ciphers);
+                    if (row != null) {
+                        Aggregation.add(table, row, groupKey, distinctColumn);
+                    }
+                }
+            } finally {
+                // the task is held until all chunks are counted; release the rows now
+                rowsText = null;
+                inFlight.release();
+            }
+        }
+    }
+}
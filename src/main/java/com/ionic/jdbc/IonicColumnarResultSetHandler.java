@@ -0,0 +1,110 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import com.ionic.key.KeyCache;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.dbutils.ResultSetHandler;
+
+/**
+ * Implementation of commons-dbutils interface {@link ResultSetHandler}, loading a
+ * {@link ColumnarRowSet}.
+ *
+ * <p>Numeric columns are loaded into primitive vectors without conversion to text.  Text columns
+ * are decrypted (where Ionic-protected) as in {@link IonicResultSetHandler}, with the same row
+ * filtering and {@link IonicResultSetHandler#RESTRICTED} substitution.  Keys are requested from
+ * Machina the first time a row references them.
+ */
+public class IonicColumnarResultSetHandler implements ResultSetHandler<ColumnarRowSet> {
+
+    /**
+     * Source of the Machina keys used to unprotect data on fetch from database.
+     */
+    private final KeyCache keyCache;
+
+    /**
+     * Constructor.
+     *
+     * @param keyCache source of the Machina keys used to unprotect data on fetch from database;
+     *        may be shared with other handlers
+     */
+    public IonicColumnarResultSetHandler(final KeyCache keyCache) {
+        super();
+        this.keyCache = keyCache;
+    }
+
+    /**
+     * Turn the ResultSet into a {@link ColumnarRowSet}.
+     *
+     * @param resultSet the JDBC {@link ResultSet} from the database
+     * @return the Ionic-filtered representation of the input {@link ResultSet}
+     * @throws SQLException on errors reading from the {@link ResultSet}
+     */
+    @Override
+    public ColumnarRowSet handle(final ResultSet resultSet) throws SQLException {
+        final ResultSetMetaData metaData = resultSet.getMetaData();
+        final int columnCount = metaData.getColumnCount();
+        final ColumnMetadata[] metadata = new ColumnMetadata[columnCount];
+        for (int i = 0; i < columnCount; ++i) {
+            metadata[i] = new ColumnMetadata(metaData, i + 1);
+        }
+        final ColumnarRowSet rowSet = new ColumnarRowSet(metadata);
+
+        // only text columns may hold protected values; note their positions
+        int textColumnCount = 0;
+        final int[] textColumns = new int[columnCount];
+        for (int i = 0; i < columnCount; ++i) {
+            if (rowSet.getColumn(i) instanceof ColumnVector.StringVector) {
+                textColumns[textColumnCount++] = i;
+            }
+        }
+
+        final Set<String> keyIds = new LinkedHashSet<String>();
+        final Set<String> keyIdsRequested = new LinkedHashSet<String>();
+        final Map<String, KeyedChunkCipher> ciphers = new HashMap<String, KeyedChunkCipher>();
+        final String[] rowText = new String[textColumnCount];
+        while (resultSet.next()) {
+            for (int i = 0; i < textColumnCount; ++i) {
+                final String valueText = resultSet.getString(textColumns[i] + 1);
+                final String keyId = KeyedChunkCipher.getKeyId(valueText);
+                if (keyId != null) {
+                    keyIds.add(keyId);
+                }
+                rowText[i] = valueText;
+            }
+            if (keyIdsRequested.size() < keyIds.size()) {
+                final Set<String> newKeyIds = new LinkedHashSet<String>(keyIds);
+                newKeyIds.removeAll(keyIdsRequested);
+                keyIdsRequested.addAll(newKeyIds);
+                ciphers.putAll(RowDecryption.toCiphers(
+                        RowDecryption.getKeys(keyCache, newKeyIds).values()));
+            }
+            final Object[] decrypted = RowDecryption.decryptRow(rowText, ciphers);
+            if (decrypted == null) {
+                continue;
+            }
+
+            // append the row
+            int textColumn = 0;
+            for (int i = 0; i < columnCount; ++i) {
+                final ColumnVector column = rowSet.getColumn(i);
+                if ((textColumn < textColumnCount) && (textColumns[textColumn] == i)) {
+                    ((ColumnVector.StringVector) column).add((String) decrypted[textColumn++]);
+                } else {
+                    column.read(resultSet, i + 1);
+                }
+            }
+            rowSet.endRow();
+        }
+        return rowSet;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import com.ionic.sdk.agent.key.AgentKey;
+import com.ionic.sdk.error.IonicException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.apache.commons.dbutils.QueryRunner;
+
+/**
+ * Extension of commons-dbutils {@link QueryRunner}, adding an encrypt-on-write batch insert path.
+ * This is the write-side counterpart of {@link IonicResultSetHandler}.
+ *
+ * <p>Protected columns are encrypted with the Machina key assigned to each column (for example,
+ * the column keys recorded in the <code>access</code> table), using the ChunkCipherV2 format read
+ * by {@link IonicResultSetHandler}.  Rows are sent to the database using JDBC batching, within a
+ * single transaction.  Protected columns may also be given a {@link BlindIndex}, written to a
+ * companion column, for equality search.
+ */
+public class IonicQueryRunner extends QueryRunner {
+
+    /**
+     * The number of rows sent to the database per JDBC batch.
+     */
+    private final int batchSize;
+
+    /**
+     * Constructor.
+     *
+     * @param batchSize the number of rows sent to the database per JDBC batch
+     */
+    public IonicQueryRunner(final int batchSize) {
+        super();
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Insert (or update) many rows, encrypting the protected columns of each row.  All rows are
+     * written in a single transaction; on failure, the transaction is rolled back.
+     *
+     * @param connection the database connection to use; its auto-commit setting is restored on
+     *        return
+     * @param sql the SQL statement to execute for each row
+     * @param rows the statement parameters for each row
+     * @param columnKeys for each statement parameter, the Machina key used to protect it, or null
+     *        if the parameter is not protected
+     * @return the number of rows written
+     * @throws SQLException on failure to protect a value, or to write to the database
+     */
+    public int insertProtected(final Connection connection, final String sql,
+            final Iterable<Object[]> rows, final AgentKey[] columnKeys) throws SQLException {
+        return insertProtected(connection, sql, rows, columnKeys, new boolean[0]);
+    }
+
+    /**
+     * Insert (or update) many rows, encrypting the protected columns of each row, and writing the
+     * {@link BlindIndex} of the selected columns.  All rows are written in a single transaction;
+     * on failure, the transaction is rolled back.
+     *
+     * <p>The statement takes the parameters of each row, followed by the blind index of each
+     * indexed column, in column order; for example,
+     * <code>INSERT INTO personnel (first, last, zip, department, last_bidx, zip_bidx)
+     * VALUES (?, ?, ?, ?, ?, ?)</code>.
+     *
+     * @param connection the database connection to use; its auto-commit setting is restored on
+     *        return
+     * @param sql the SQL statement to execute for each row
+     * @param rows the statement parameters for each row
+     * @param columnKeys for each statement parameter, the Machina key used to protect it, or null
+     *        if the parameter is not protected
+     * @param indexedColumns for each statement parameter, true if its blind index is written;
+     *        only protected parameters may be indexed
+     * @return the number of rows written
+     * @throws SQLException on failure to protect a value, or to write to the database
+     */
+    public int insertProtected(final Connection connection, final String sql,
+            final Iterable<Object[]> rows, final AgentKey[] columnKeys,
+            final boolean[] indexedColumns) throws SQLException {
+        final KeyedChunkCipher[] ciphers = new KeyedChunkCipher[columnKeys.length];
+        final BlindIndex[] indexes = new BlindIndex[columnKeys.length];
+        try {
+            for (int i = 0; i < columnKeys.length; ++i) {
+                ciphers[i] = (columnKeys[i] == null) ? null : new KeyedChunkCipher(columnKeys[i]);
+                if ((i < indexedColumns.length) && indexedColumns[i]) {
+                    if (columnKeys[i] == null) {
+                        throw new SQLException("Blind index requested for unprotected column.");
+                    }
+                    indexes[i] = new BlindIndex(columnKeys[i]);
+                }
+            }
+        } catch (IonicException e) {
+            throw new SQLException("Failure to initialize column cipher.", e);
+        }
+
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        int written = 0;
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            int batched = 0;
+            for (Object[] row : rows) {
+                for (int i = 0; i < row.length; ++i) {
+                    statement.setObject(i + 1, protect(row[i], (i < ciphers.length)
+                            ? ciphers[i] : null));
+                }
+                // blind indexes follow the row parameters
+                int parameter = row.length;
+                for (int i = 0; i < indexes.length; ++i) {
+                    if (indexes[i] != null) {
+                        statement.setObject(++parameter, (i < row.length) && (row[i] != null)
+                                ? indexes[i].compute(row[i].toString()) : null);
+                    }
+                }
+                statement.addBatch();
+                if (++batched == batchSize) {
+                    written += count(statement.executeBatch());
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                written += count(statement.executeBatch());
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return written;
+    }
+
+    /**
+     * Protect a statement parameter.
+     *
+     * @param value the parameter value
+     * @param cipher the cipher for the parameter's column, or null if the column is not protected
+     * @return the value to bind to the statement
+     * @throws SQLException on failure to protect the value
+     */
+    private static Object protect(final Object value, final KeyedChunkCipher cipher)
+            throws SQLException {
+        if ((cipher == null) || (value == null)) {
+            return value;
+        }
+        try {
+            return cipher.encrypt(value.toString());
+        } catch (IonicException e) {
+            throw new SQLException("Failure to protect value.", e);
+        }
+    }
+
+    /**
+     * @param updateCounts the result of {@link PreparedStatement#executeBatch()}
+     * @return the number of rows written by the batch
+     */
+    private static int count(final int[] updateCounts) {
+        int count = 0;
+        for (int updateCount : updateCounts) {
+            count += (updateCount == Statement.SUCCESS_NO_INFO) ? 1 : updateCount;
+        }
+        return count;
+    }
+}
@@ -5,16 +5,27 @@
 
 package com.ionic.jdbc;
 
+import com.ionic.key.KeyCache;
 import com.ionic.sdk.agent.Agent;
-import com.ionic.sdk.agent.cipher.chunk.ChunkCipherV2;
-import com.ionic.sdk.agent.cipher.chunk.data.ChunkCrypto;
 import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
-import com.ionic.sdk.crypto.CryptoUtils;
-import com.ionic.sdk.error.IonicException;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.Collection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
 import org.apache.commons.dbutils.ResultSetHandler;
 
 /**
@@ -25,20 +36,97 @@ import org.apache.commons.dbutils.ResultSetHandler;
 public class IonicResultSetHandler implements ResultSetHandler<RowSet> {
 
     /**
-     * Test Ionic agent, used to protect data on insert into database, and unprotect data on fetch
-     * from database.
+     * Value substituted for protected cells whose key was not released by Machina.
      */
-    private final Agent agent;
+    public static final String RESTRICTED = "RESTRICTED";
 
     /**
-     * Constructor.
+     * Source of the Machina keys used to unprotect data on fetch from database.
+     */
+    private final KeyCache keyCache;
+
+    /**
+     * Pool used to decrypt rows in parallel, or null to decrypt rows on the calling thread.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The number of rows read from the {@link ResultSet} before being handed to the pool.
+     */
+    private final int chunkRows;
+
+    /**
+     * True if parallel decryption must preserve the row order of the {@link ResultSet}.
+     */
+    private final boolean ordered;
+
+    /**
+     * Creates the row set returned by each call, or null to return a {@link RowSet}.
+     */
+    private final Supplier<? extends RowSet> rowSets;
+
+    /**
+     * Constructor.  Keys are requested from Machina on each call to {@link #handle(ResultSet)}.
      *
      * @param agent Ionic agent, used to protect data on insert into database, and unprotect data on
      *        fetch from database
      */
     public IonicResultSetHandler(final Agent agent) {
+        this(new KeyCache(agent::getKeys, 0, 0L, 0L));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param keyCache source of the Machina keys used to unprotect data on fetch from database;
+     *        may be shared with other handlers
+     */
+    public IonicResultSetHandler(final KeyCache keyCache) {
+        this(keyCache, null, 0, true);
+    }
+
+    /**
+     * Constructor.  The calling thread reads the {@link ResultSet} in chunks, which are decrypted
+     * in parallel using <code>pool</code>.
+     *
+     * @param keyCache source of the Machina keys used to unprotect data on fetch from database;
+     *        may be shared with other handlers
+     * @param pool the pool used to decrypt rows, or null to decrypt rows on the calling thread
+     * @param chunkRows the number of rows read from the {@link ResultSet} per parallel task
+     * @param ordered true to preserve the row order of the {@link ResultSet} (for example, when
+     *        the query contains an ORDER BY clause); false to add rows in completion order
+     */
+    public IonicResultSetHandler(final KeyCache keyCache, final ForkJoinPool pool,
+            final int chunkRows, final boolean ordered) {
+        this(keyCache, pool, chunkRows, ordered, null);
+    }
+
+    /**
+     * Constructor, for results that may not fit on the heap.  Rows are added to the row set as
+     * they are decrypted, a chunk at a time, so that the rows read but not yet added are bounded
+     * by <code>chunkRows</code> (times twice the parallelism of <code>pool</code>), rather than by
+     * the size of the query result.  A Machina key request is made only for chunks that reference
+     * keys not seen in previous chunks.
+     *
+     * @param keyCache source of the Machina keys used to unprotect data on fetch from database;
+     *        may be shared with other handlers
+     * @param pool the pool used to decrypt rows, or null to decrypt rows on the calling thread
+     * @param chunkRows the number of rows read from the {@link ResultSet} per chunk
+     * @param ordered true to preserve the row order of the {@link ResultSet}; false to add rows in
+     *        completion order
+     * @param rowSets creates the row set returned by each call (for example, a
+     *        {@link SpillingRowSet}, or an {@link OffHeapRowSet}, whose decrypted values are held
+     *        in its {@link OffHeapCellStore}), or null to read the whole result before decryption,
+     *        and return a {@link RowSet}
+     */
+    public IonicResultSetHandler(final KeyCache keyCache, final ForkJoinPool pool,
+            final int chunkRows, final boolean ordered, final Supplier<? extends RowSet> rowSets) {
         super();
-        this.agent = agent;
+        this.keyCache = keyCache;
+        this.pool = pool;
+        this.chunkRows = Math.max(1, chunkRows);
+        this.ordered = ordered;
+        this.rowSets = rowSets;
     }
 
     /**
@@ -48,28 +136,267 @@ public class IonicResultSetHandler implements ResultSetHandler<RowSet> {
      * {@link ResultSet}. If all Machina key operations for a given record fail, the row is
      * filtered out of the data returned by the function.
      *
+     * <p>The {@link ResultSet} is read in a single pass, gathering the distinct key ids of all
+     * protected cells.  The keys are fetched in batched Machina requests (keys held in the
+     * {@link KeyCache} are not requested again), and each protected cell is decrypted with the
+     * fetched key for its column.  Protected cells whose key is denied are given the value
+     * {@link #RESTRICTED}.
+     *
      * @param resultSet the JDBC {@link ResultSet} from the database
      * @return the Ionic-filtered representation of the input {@link ResultSet}
      * @throws SQLException on errors reading from the {@link ResultSet}
      */
     @Override
     public RowSet handle(final ResultSet resultSet) throws SQLException {
+        return (pool == null) ? handleSerial(resultSet) : handleParallel(resultSet);
+    }
+
+    /**
+     * Read and decrypt all rows on the calling thread, making a single Machina key request (or,
+     * given a row set factory, one request per chunk of rows referencing new keys).
+     *
+     * @param resultSet the JDBC {@link ResultSet} from the database
+     * @return the Ionic-filtered representation of the input {@link ResultSet}
+     * @throws SQLException on errors reading from the {@link ResultSet}
+     */
+    private RowSet handleSerial(final ResultSet resultSet) throws SQLException {
 
-        final RowSet rowSet = new RowSet();
         final ResultSetMetaData metaData = resultSet.getMetaData();
         final int columnCount = metaData.getColumnCount();
+        final int batchRows = (rowSets == null) ? Integer.MAX_VALUE : chunkRows;
+
+        final RowSet rowSet = newRowSet();
+        final OffHeapCellStore cells = getCellStore(rowSet);
+        final Map<String, GetKeysResponse.Key> keys = new HashMap<String, GetKeysResponse.Key>();
+        final Set<String> batchKeyIds = new LinkedHashSet<String>();
+        final List<String[]> rowsText = new ArrayList<String[]>();
+        try {
+            boolean more = resultSet.next();
+            while (more) {
+                // first pass; load cell text, and gather the key ids of the protected cells
+                rowsText.add(RowDecryption.readRow(resultSet, columnCount, batchKeyIds));
+                more = resultSet.next();
+                if (more && (rowsText.size() < batchRows)) {
+                    continue;
+                }
 
-        while (resultSet.next()) {
-            final Object[] row = new Object[columnCount];
+                // a single Machina request for all keys newly referenced by the rows read, and a
+                // cipher for each key referenced by them
+                final Map<String, KeyedChunkCipher> ciphers = RowDecryption.toCiphers(
+                        RowDecryption.getChunkKeys(keyCache, keys, batchKeyIds));
+                batchKeyIds.clear();
+
+                // second pass; decrypt protected cells
+                for (String[] rowText : rowsText) {
+                    final Object[] row = RowDecryption.decryptRow(rowText, ciphers, cells);
+                    if (row != null) {
+                        rowSet.add(row);
+                    }
+                }
+                rowsText.clear();
+            }
+            return rowSet;
+        } catch (SQLException | RuntimeException e) {
+            discard(rowSet, e);
+            throw e;
+        }
+    }
 
-            for (int i = 0; i < columnCount; ++i) {
-                final String columnName = metaData.getColumnName(i + 1);
-                final Object value = resultSet.getObject(i + 1);
-                final String valueText = (value == null) ? null : value.toString();
-                row[i] = valueText;
+    /**
+     * Read rows on the calling thread, handing each chunk of rows to the pool for decryption as
+     * soon as it has been read.  A Machina key request is made only for chunks that reference keys
+     * not seen in previous chunks.
+     *
+     * @param resultSet the JDBC {@link ResultSet} from the database
+     * @return the Ionic-filtered representation of the input {@link ResultSet}
+     * @throws SQLException on errors reading from the {@link ResultSet}
+     */
+    private RowSet handleParallel(final ResultSet resultSet) throws SQLException {
+
+        final ResultSetMetaData metaData = resultSet.getMetaData();
+        final int columnCount = metaData.getColumnCount();
+
+        final Map<String, GetKeysResponse.Key> keys = new HashMap<String, GetKeysResponse.Key>();
+        final Set<String> chunkKeyIds = new LinkedHashSet<String>();
+        final Queue<Object[]> completed = ordered ? null : new ConcurrentLinkedQueue<Object[]>();
+        final Deque<DecryptTask> tasks = new ArrayDeque<DecryptTask>();
+        // given a row set factory, decrypted chunks are added while the next ones are read
+        final int maxTasks = (rowSets == null) ? Integer.MAX_VALUE : 2 * pool.getParallelism();
+        final RowSet rowSet = newRowSet();
+        final OffHeapCellStore cells = getCellStore(rowSet);
+
+        String[][] chunk = new String[chunkRows][];
+        int count = 0;
+        try {
+            while (resultSet.next()) {
+                chunk[count++] = RowDecryption.readRow(resultSet, columnCount, chunkKeyIds);
+                if (count == chunkRows) {
+                    tasks.add(submitChunk(chunk, count, keys, chunkKeyIds, completed, cells));
+                    chunk = new String[chunkRows][];
+                    count = 0;
+                    while (tasks.size() >= maxTasks) {
+                        addRows(tasks.poll(), completed, rowSet);
+                    }
+                }
+            }
+            if (count > 0) {
+                tasks.add(submitChunk(chunk, count, keys, chunkKeyIds, completed, cells));
+            }
+            while (!tasks.isEmpty()) {
+                addRows(tasks.poll(), completed, rowSet);
+            }
+            return rowSet;
+        } catch (SQLException | RuntimeException e) {
+            // tasks still running may add to the row set (and write decrypted values to its cell
+            // store); wait for them before discarding it
+            for (DecryptTask task : tasks) {
+                task.quietlyJoin();
+            }
+            discard(rowSet, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for a chunk to be decrypted, and add the decrypted rows to the row set.
+     *
+     * @param task the task decrypting the chunk (the oldest one not yet added)
+     * @param completed the decrypted rows in completion order, or null if row order is preserved
+     * @param rowSet the destination of the rows
+     */
+    private void addRows(final DecryptTask task, final Queue<Object[]> completed,
+            final RowSet rowSet) {
+        task.join();
+        if (completed == null) {
+            for (Object[] row : task.rows) {
+                if (row != null) {
+                    rowSet.add(row);
+                }
+            }
+        } else {
+            // rows of other chunks may also be ready
+            for (Object[] row = completed.poll(); row != null; row = completed.poll()) {
+                rowSet.add(row);
+            }
+        }
+    }
+
+    /**
+     * Release the resources of a row set that will not be returned to the caller (for example,
+     * the file of a {@link SpillingRowSet}), as the caller cannot close it.  The decrypted values
+     * of an {@link OffHeapRowSet} are zeroed, and their blocks returned to the pool, even if
+     * closing the row set fails.  No task may still be adding to the row set.
+     *
+     * @param rowSet the row set
+     * @param cause the failure preventing the row set from being returned; any failure to close
+     *        the row set is added to it
+     */
+    private static void discard(final RowSet rowSet, final Exception cause) {
+        final OffHeapCellStore cells = getCellStore(rowSet);
+        try {
+            if (rowSet instanceof AutoCloseable) {
+                ((AutoCloseable) rowSet).close();
+            }
+        } catch (Exception e) {
+            cause.addSuppressed(e);
+        } finally {
+            if (cells != null) {
+                cells.release();
+            }
+        }
+    }
+
+    /**
+     * @return a new, empty, row set
+     */
+    private RowSet newRowSet() {
+        return (rowSets == null) ? new RowSet() : rowSets.get();
+    }
+
+    /**
+     * @param rowSet a row set returned by {@link #newRowSet()}
+     * @return the store of the decrypted values of the row set, or null if values are decrypted
+     *         to strings
+     */
+    private static OffHeapCellStore getCellStore(final RowSet rowSet) {
+        return (rowSet instanceof OffHeapRowSet) ? ((OffHeapRowSet) rowSet).getStore() : null;
+    }
+
+    /**
+     * Fetch any keys newly referenced by a chunk of rows, and submit the chunk to the pool.
+     *
+     * @param chunk the rows read from the {@link ResultSet}
+     * @param count the number of rows in <code>chunk</code>
+     * @param keys the keys requested so far during this call; updated with new keys
+     * @param chunkKeyIds the key ids referenced by the chunk; cleared, for the next chunk
+     * @param completed the destination for decrypted rows in completion order, or null if row
+     *        order is preserved
+     * @param cells the store of the decrypted values, or null to decrypt values to strings
+     * @return the task decrypting the chunk
+     */
+    private DecryptTask submitChunk(final String[][] chunk, final int count,
+            final Map<String, GetKeysResponse.Key> keys, final Set<String> chunkKeyIds,
+            final Queue<Object[]> completed, final OffHeapCellStore cells) {
+        // denied keys are not requested again during this call; the task only gets the keys of
+        // its own chunk
+        final List<GetKeysResponse.Key> chunkKeys =
+                RowDecryption.getChunkKeys(keyCache, keys, chunkKeyIds);
+        chunkKeyIds.clear();
+        final String[][] rowsText = (count == chunk.length) ? chunk : Arrays.copyOf(chunk, count);
+        final DecryptTask task = new DecryptTask(rowsText, 0, count,
+                (completed == null) ? new Object[count][] : null, chunkKeys, completed, cells);
+        pool.execute(task);
+        return task;
+    }
+
+    /**
+     * Decrypts a range of rows, splitting the range across pool threads.
+     */
+    private static final class DecryptTask extends RecursiveAction {
+
+        /**
+         * Ranges of at most this many rows are decrypted without further splitting.
+         */
+        private static final int SPLIT_THRESHOLD = 128;
+
+        private final String[][] rowsText;
+        private final int start;
+        private final int end;
+        private final Object[][] rows;
+        private final List<GetKeysResponse.Key> keys;
+        private final Queue<Object[]> completed;
+        private final OffHeapCellStore cells;
+
+        private DecryptTask(final String[][] rowsText, final int start, final int end,
+                final Object[][] rows, final List<GetKeysResponse.Key> keys,
+                final Queue<Object[]> completed, final OffHeapCellStore cells) {
+            this.rowsText = rowsText;
+            this.start = start;
+            this.end = end;
+            this.rows = rows;
+            this.keys = keys;
+            this.completed = completed;
+            this.cells = cells;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > SPLIT_THRESHOLD) {
+                final int middle = (start + end) >>> 1;
+                ForkJoinTask.invokeAll(
+                        new DecryptTask(rowsText, start, middle, rows, keys, completed, cells),
+                        new DecryptTask(rowsText, middle, end, rows, keys, completed, cells));
+                return;
+            }
+            final Map<String, KeyedChunkCipher> ciphers = RowDecryption.toCiphers(keys);
+            for (int i = start; i < end; ++i) {
+                final Object[] row = RowDecryption.decryptRow(rowsText[i], ciphers, cells);
+                if (completed == null) {
+                    rows[i] = row;
+                } else if (row != null) {
+                    completed.add(row);
+                }
             }
-            rowSet.add(row);
         }
-        return rowSet;
     }
 }
@@ -0,0 +1,242 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import com.ionic.key.KeyCache;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streaming alternative to {@link IonicResultSetHandler}.
+ *
+ * <p>Rows are fetched from the database in batches of the configured fetch size, using a
+ * forward-only, read-only cursor, and each row is decrypted only as it is consumed.  Memory use is
+ * bounded by the fetch size, rather than by the size of the query result.  Keys are requested from
+ * Machina the first time a row references them.  Row filtering and {@link
+ * IonicResultSetHandler#RESTRICTED} substitution follow the rules of
+ * {@link IonicResultSetHandler#handle(ResultSet)}.
+ *
+ * <p>Some drivers (PostgreSQL among them) only honor the fetch size inside a transaction, so the
+ * cursor disables auto-commit on the connection while open, and restores it on {@link #close()}.
+ * The connection itself remains owned by the caller, and must stay open while the cursor is used.
+ *
+ * <p>Errors reading from the database during iteration are rethrown as
+ * {@link IllegalStateException}, with the {@link SQLException} as the cause.
+ */
+public final class IonicRowCursor implements Iterator<Object[]>, AutoCloseable {
+
+    /**
+     * The connection on which the query is running.
+     */
+    private final Connection connection;
+
+    /**
+     * The auto-commit setting of the connection when the cursor was opened.
+     */
+    private final boolean autoCommit;
+
+    /**
+     * The statement executing the query.
+     */
+    private final PreparedStatement statement;
+
+    /**
+     * The query result.
+     */
+    private final ResultSet resultSet;
+
+    /**
+     * The number of columns in the query result.
+     */
+    private final int columnCount;
+
+    /**
+     * Source of the Machina keys used to unprotect data.
+     */
+    private final KeyCache keyCache;
+
+    /**
+     * The key ids referenced by rows read so far.
+     */
+    private final Set<String> keyIds = new LinkedHashSet<String>();
+
+    /**
+     * The key ids already requested from the {@link KeyCache}.
+     */
+    private final Set<String> keyIdsRequested = new LinkedHashSet<String>();
+
+    /**
+     * Ciphers for the keys released so far, keyed by key id.
+     */
+    private final Map<String, KeyedChunkCipher> ciphers = new HashMap<String, KeyedChunkCipher>();
+
+    /**
+     * The next row to be returned, or null if it has not yet been read.
+     */
+    private Object[] next = null;
+
+    /**
+     * True once the end of the query result has been reached.
+     */
+    private boolean exhausted = false;
+
+    private IonicRowCursor(final Connection connection, final boolean autoCommit,
+            final PreparedStatement statement, final ResultSet resultSet, final KeyCache keyCache)
+            throws SQLException {
+        this.connection = connection;
+        this.autoCommit = autoCommit;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.columnCount = resultSet.getMetaData().getColumnCount();
+        this.keyCache = keyCache;
+    }
+
+    /**
+     * Run a query, returning a cursor over its decrypted rows.
+     *
+     * @param connection the database connection on which to run the query
+     * @param sql the SQL query
+     * @param keyCache source of the Machina keys used to unprotect data
+     * @param fetchSize the number of rows fetched from the database per round trip
+     * @param params the query parameters
+     * @return a cursor over the rows of the query result, which must be closed by the caller
+     * @throws SQLException on failure to run the query
+     */
+    public static IonicRowCursor open(final Connection connection, final String sql,
+            final KeyCache keyCache, final int fetchSize, final Object... params)
+            throws SQLException {
+        final boolean autoCommit = connection.getAutoCommit();
+        if (autoCommit) {
+            connection.setAutoCommit(false);
+        }
+        PreparedStatement statement = null;
+        try {
+            statement = connection.prepareStatement(
+                    sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            for (int i = 0; i < params.length; ++i) {
+                statement.setObject(i + 1, params[i]);
+            }
+            return new IonicRowCursor(
+                    connection, autoCommit, statement, statement.executeQuery(), keyCache);
+        } catch (SQLException e) {
+            if (statement != null) {
+                statement.close();
+            }
+            if (autoCommit) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if ((next == null) && !exhausted) {
+            try {
+                next = readNext();
+            } catch (SQLException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+            exhausted = (next == null);
+        }
+        return (next != null);
+    }
+
+    @Override
+    public Object[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Object[] row = next;
+        next = null;
+        return row;
+    }
+
+    /**
+     * @return a sequential {@link Stream} over the remaining rows; closing the stream closes the
+     *         cursor
+     */
+    public Stream<Object[]> stream() {
+        final Spliterator<Object[]> spliterator = Spliterators.spliteratorUnknownSize(
+                this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                close();
+            } catch (SQLException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Read rows until one is found that is not filtered out.
+     *
+     * @return the next decrypted row, or null at the end of the query result
+     * @throws SQLException on errors reading from the {@link ResultSet}
+     */
+    private Object[] readNext() throws SQLException {
+        while (resultSet.next()) {
+            final String[] rowText = RowDecryption.readRow(resultSet, columnCount, keyIds);
+            if (keyIdsRequested.size() < keyIds.size()) {
+                final Set<String> newKeyIds = new LinkedHashSet<String>(keyIds);
+                newKeyIds.removeAll(keyIdsRequested);
+                keyIdsRequested.addAll(newKeyIds);
+                final Map<String, GetKeysResponse.Key> keys =
+                        RowDecryption.getKeys(keyCache, newKeyIds);
+                ciphers.putAll(RowDecryption.toCiphers(keys.values()));
+            }
+            final Object[] row = RowDecryption.decryptRow(rowText, ciphers);
+            if (row != null) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Release the database resources held by the cursor, and restore the auto-commit setting of
+     * the connection.  Each step is attempted even if an earlier one fails.  The connection is
+     * not closed.
+     *
+     * @throws SQLException on failure to release the database resources
+     */
+    @Override
+    public void close() throws SQLException {
+        exhausted = true;
+        next = null;
+        try {
+            try {
+                resultSet.close();
+            } finally {
+                statement.close();
+            }
+        } finally {
+            if (autoCommit) {
+                // the cursor only reads, so there is nothing to commit
+                try {
+                    connection.rollback();
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
+        }
+    }
+}
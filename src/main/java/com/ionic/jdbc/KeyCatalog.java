@@ -0,0 +1,136 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+
+/**
+ * In-memory copy of the <code>access</code> table, which records the Machina key id protecting
+ * each data column of a table.
+ *
+ * <p>Each column of the access record (other than <code>id</code>) is named for the data column it
+ * describes, and holds the id of the key protecting that column.  The number and names of the
+ * protected columns are therefore taken from the access table itself.  If the query returns
+ * several access records, the last one is used, as the latest written.
+ *
+ * <p>The table is read on first use, and again once the refresh interval has elapsed, so that most
+ * lookups cost no database round trip.  Changes made by this process should be followed by
+ * {@link #invalidate()}; changes made elsewhere are seen within the refresh interval.
+ */
+public class KeyCatalog {
+
+    /**
+     * Name of the access table column that does not describe a data column.
+     */
+    private static final String ID_COLUMN = "id";
+
+    /**
+     * Source of database connections.
+     */
+    private final DataSource dataSource;
+
+    /**
+     * The SQL query returning the access record.
+     */
+    private final String selectSql;
+
+    /**
+     * The interval after which the access table is read again, in nanoseconds.
+     */
+    private final long refreshNanos;
+
+    /**
+     * The key id of each data column, in access table column order.  Guarded by
+     * <code>this</code>.
+     */
+    private Map<String, String> keyIds = null;
+
+    /**
+     * The {@link System#nanoTime()} value at which <code>keyIds</code> was read.  Guarded by
+     * <code>this</code>.
+     */
+    private long loaded = 0L;
+
+    /**
+     * Constructor.
+     *
+     * @param dataSource source of database connections
+     * @param selectSql the SQL query returning the access record
+     * @param refreshMillis the interval after which the access table is read again, in
+     *        milliseconds
+     */
+    public KeyCatalog(final DataSource dataSource, final String selectSql,
+            final long refreshMillis) {
+        this.dataSource = dataSource;
+        this.selectSql = selectSql;
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+    }
+
+    /**
+     * Get the key id of each protected data column.
+     *
+     * @return the key ids, keyed by data column name; empty if there is no access record
+     * @throws SQLException on failure to read the access table
+     */
+    public synchronized Map<String, String> getKeyIds() throws SQLException {
+        if ((keyIds == null) || (System.nanoTime() - loaded > refreshNanos)) {
+            keyIds = load();
+            loaded = System.nanoTime();
+        }
+        return keyIds;
+    }
+
+    /**
+     * @param column the name of a data column
+     * @return the id of the key protecting the column, or null if the column is not protected
+     * @throws SQLException on failure to read the access table
+     */
+    public String getKeyId(final String column) throws SQLException {
+        return getKeyIds().get(column);
+    }
+
+    /**
+     * Discard the in-memory copy; the next lookup reads the access table.
+     */
+    public synchronized void invalidate() {
+        keyIds = null;
+    }
+
+    /**
+     * Read the access record (the last row returned by the query).
+     *
+     * @return the key ids, keyed by data column name
+     * @throws SQLException on failure to read the access table
+     */
+    private Map<String, String> load() throws SQLException {
+        final Map<String, String> columnKeyIds = new LinkedHashMap<String, String>();
+        try (Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery(selectSql)) {
+            final ResultSetMetaData metaData = resultSet.getMetaData();
+            while (resultSet.next()) {
+                columnKeyIds.clear();
+                for (int i = 1; i <= metaData.getColumnCount(); ++i) {
+                    final String column = metaData.getColumnLabel(i);
+                    final String keyId = resultSet.getString(i);
+                    if (!ID_COLUMN.equalsIgnoreCase(column) && (keyId != null)) {
+                        columnKeyIds.put(column, keyId);
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableMap(columnKeyIds);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import com.ionic.sdk.agent.cipher.chunk.ChunkCipherV2;
+import com.ionic.sdk.agent.cipher.chunk.data.ChunkCrypto;
+import com.ionic.sdk.agent.cipher.chunk.data.ChunkCryptoChunkInfo;
+import com.ionic.sdk.agent.key.AgentKey;
+import com.ionic.sdk.cipher.aes.AesGcmCipher;
+import com.ionic.sdk.core.codec.Transcoder;
+import com.ionic.sdk.error.IonicException;
+import com.ionic.sdk.error.SdkData;
+import com.ionic.sdk.error.SdkError;
+import java.util.Arrays;
+
+/**
+ * {@link ChunkCipherV2} compatible cipher, bound to a single key that has already been fetched
+ * from Machina.
+ *
+ * <p>{@link ChunkCipherV2} makes a Machina key request on every call.  When many cells share a
+ * small set of keys, the keys are instead fetched in a single batch, and each cell is transformed
+ * locally using an instance of this class.  Output is in the ChunkCipherV2 format
+ * <code>~!2!{keyId}!{base64 ciphertext}!</code>, and is readable by {@link ChunkCipherV2}.
+ *
+ * <p>Instances are not thread-safe; each thread should use its own instance.
+ */
+public final class KeyedChunkCipher {
+
+    /**
+     * The Machina key used by this cipher.
+     */
+    private final String keyId;
+
+    /**
+     * The prefix of each ciphertext chunk produced with the key.
+     */
+    private final String chunkPrefix;
+
+    /**
+     * The underlying cipher, initialized with the key bytes.
+     */
+    private final AesGcmCipher cipher;
+
+    /**
+     * Constructor.
+     *
+     * @param key the Machina key to use for encrypt and decrypt operations
+     * @throws IonicException on failure to initialize the underlying cipher
+     */
+    public KeyedChunkCipher(final AgentKey key) throws IonicException {
+        this.keyId = key.getId();
+        this.chunkPrefix = CHUNK_PREFIX + keyId + CHUNK_DELIMITER;
+        this.cipher = new AesGcmCipher();
+        cipher.setKey(key.getKey());
+        cipher.setAuthData(Transcoder.utf8().decode(keyId));
+    }
+
+    /**
+     * @return the identifier of the Machina key used by this cipher
+     */
+    public String getKeyId() {
+        return keyId;
+    }
+
+    /**
+     * Protect a text value.
+     *
+     * @param plainText the text to protect
+     * @return the ChunkCipherV2 representation of the protected text
+     * @throws IonicException on cipher failure
+     */
+    public String encrypt(final String plainText) throws IonicException {
+        final byte[] cipherText = cipher.encrypt(Transcoder.utf8().decode(plainText));
+        return chunkPrefix + Transcoder.base64().encode(cipherText) + CHUNK_DELIMITER;
+    }
+
+    /**
+     * Recover a text value protected by this cipher (or by {@link ChunkCipherV2}).
+     *
+     * @param chunk the ChunkCipherV2 representation of the protected text
+     * @return the original text
+     * @throws IonicException on malformed input, input protected with another key, or cipher
+     *         failure
+     */
+    public String decrypt(final String chunk) throws IonicException {
+        final byte[] plainText = decryptBytes(chunk);
+        try {
+            return Transcoder.utf8().encode(plainText);
+        } finally {
+            Arrays.fill(plainText, (byte) 0);
+        }
+    }
+
+    /**
+     * Recover the UTF-8 bytes of a text value protected by this cipher (or by
+     * {@link ChunkCipherV2}), without making a {@link String} of it.
+     *
+     * @param chunk the ChunkCipherV2 representation of the protected text
+     * @return the UTF-8 encoding of the original text, which the caller should zero once used
+     * @throws IonicException on malformed input, input protected with another key, or cipher
+     *         failure
+     */
+    public byte[] decryptBytes(final String chunk) throws IonicException {
+        SdkData.checkTrue(chunk.startsWith(chunkPrefix) && chunk.endsWith(CHUNK_DELIMITER)
+                && (chunk.length() > chunkPrefix.length()), SdkError.ISCHUNKCRYPTO_PARSEFAILED);
+        final String payload = chunk.substring(chunkPrefix.length(), chunk.length() - 1);
+        return cipher.decrypt(Transcoder.base64().decode(payload));
+    }
+
+    /**
+     * Determine whether a value is Ionic-protected.
+     *
+     * @param valueText the text of a database cell
+     * @return the identifier of the key protecting the value, or null if it is not protected
+     */
+    public static String getKeyId(final String valueText) {
+        if (valueText == null) {
+            return null;
+        }
+        final ChunkCryptoChunkInfo chunkInfo = ChunkCrypto.getChunkInfo(valueText);
+        return chunkInfo.isEncrypted() ? chunkInfo.getKeyId() : null;
+    }
+
+    private static final String CHUNK_PREFIX = "~!2!";
+    private static final String CHUNK_DELIMITER = "!";
+}
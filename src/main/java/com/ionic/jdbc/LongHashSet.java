@@ -0,0 +1,92 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+/**
+ * Set of <code>long</code> values, stored unboxed in an open-addressing table (linear probing).
+ *
+ * <p>Instances are not thread-safe.
+ */
+final class LongHashSet {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * The table of values; 0 marks an empty slot, so the value 0 is tracked separately.
+     */
+    private long[] values = new long[INITIAL_CAPACITY];
+    private boolean containsZero = false;
+    private int size = 0;
+
+    /**
+     * Add a value.
+     *
+     * @param value the value to add
+     * @return true if the value was not already in the set
+     */
+    boolean add(final long value) {
+        if (value == 0L) {
+            final boolean added = !containsZero;
+            containsZero = true;
+            size += added ? 1 : 0;
+            return added;
+        }
+        final int mask = values.length - 1;
+        int slot = GroupTable.spread(value) & mask;
+        while (values[slot] != 0L) {
+            if (values[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        values[slot] = value;
+        if (++size * 2 > values.length) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * Add all the values of another set.
+     *
+     * @param other the set to add
+     */
+    void addAll(final LongHashSet other) {
+        if (other.containsZero) {
+            add(0L);
+        }
+        for (long value : other.values) {
+            if (value != 0L) {
+                add(value);
+            }
+        }
+    }
+
+    /**
+     * @return the number of values in the set
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Double the table, keeping it at most half full.
+     */
+    private void grow() {
+        final long[] previous = values;
+        values = new long[previous.length * 2];
+        final int mask = values.length - 1;
+        for (long value : previous) {
+            if (value != 0L) {
+                int slot = GroupTable.spread(value) & mask;
+                while (values[slot] != 0L) {
+                    slot = (slot + 1) & mask;
+                }
+                values[slot] = value;
+            }
+        }
+    }
+}
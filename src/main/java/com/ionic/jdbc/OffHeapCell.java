@@ -0,0 +1,100 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.nio.CharBuffer;
+
+/**
+ * View of a decrypted value held in an {@link OffHeapCellStore}.
+ *
+ * <p>Reading the view reads the chars of the store directly, under the read lock of the
+ * store, and throws {@link IllegalStateException} once the store is released.
+ * {@link #toString()} copies the value onto the heap, as a {@link String}, and so should be
+ * avoided for sensitive values that need not be displayed.  The view compares with other char
+ * sequences by content, and its hash code is that of the equal {@link String}, although (as for
+ * any {@link CharSequence}) a {@link String} is never equal to it.
+ */
+final class OffHeapCell implements CharSequence, Comparable<CharSequence> {
+
+    private final OffHeapCellStore store;
+    private final CharBuffer chars;
+    private final int offset;
+    private final int length;
+
+    /**
+     * Constructor.
+     *
+     * @param store the store holding the value
+     * @param chars the block holding the value
+     * @param offset the index of the first char of the value in the block
+     * @param length the number of chars of the value
+     */
+    OffHeapCell(final OffHeapCellStore store, final CharBuffer chars, final int offset,
+            final int length) {
+        this.store = store;
+        this.chars = chars;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(final int index) {
+        if ((index < 0) || (index >= length)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length);
+        }
+        return store.get(chars, offset + index);
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+        if ((start < 0) || (start > end) || (end > length)) {
+            throw new IndexOutOfBoundsException(
+                    "Start: " + start + ", End: " + end + ", Length: " + length);
+        }
+        return new OffHeapCell(store, chars, offset + start, end - start);
+    }
+
+    @Override
+    public int compareTo(final CharSequence other) {
+        final int common = Math.min(length, other.length());
+        for (int i = 0; i < common; ++i) {
+            final int compare = Character.compare(charAt(i), other.charAt(i));
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return Integer.compare(length, other.length());
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return (o instanceof OffHeapCell) && (compareTo((OffHeapCell) o) == 0);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = 0; i < length; ++i) {
+            hash = 31 * hash + charAt(i);
+        }
+        return hash;
+    }
+
+    /**
+     * @return a heap copy of the value
+     */
+    @Override
+    public String toString() {
+        final char[] copy = new char[length];
+        store.get(chars, offset, copy);
+        return new String(copy);
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Holds decrypted cell values outside the Java heap, in direct buffers taken from a
+ * {@link DirectBufferPool}.
+ *
+ * <p>Each value is decoded from its decrypted UTF-8 bytes straight into a block, as UTF-16 chars,
+ * and the bytes are zeroed; the value never becomes a {@link String}, unless the caller asks for
+ * one with {@link Object#toString()}.  Values are returned as {@link CharSequence} views of their
+ * block, so that reading a value copies nothing.  Values too large for a block get a direct buffer
+ * of their own.
+ *
+ * <p>{@link #release()} zeroes every block and returns it to the pool, at a point chosen by the
+ * caller rather than by the garbage collector.  Views of released values throw
+ * {@link IllegalStateException} when read.
+ *
+ * <p>Instances are thread-safe; values may be added and read concurrently.  Adds and reads hold
+ * the read lock of the store, and release holds its write lock, so a release waits for the reads
+ * in progress, and a block is never read (or decoded into) once it is back in the pool, where
+ * another store may take it.  Space is reserved under a short exclusive lock, and values are
+ * decoded outside of it.
+ */
+public final class OffHeapCellStore implements AutoCloseable {
+
+    /**
+     * Decodes malformed UTF-8 input.
+     */
+    private static final char REPLACEMENT = '\ufffd';
+
+    private final DirectBufferPool pool;
+
+    /**
+     * The blocks holding values; each is also viewed as chars.
+     */
+    private final List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+    private CharBuffer current = null;
+
+    /**
+     * Blocks allocated for single large values, not taken from the pool.
+     */
+    private final List<ByteBuffer> oversized = new ArrayList<ByteBuffer>();
+
+    /**
+     * The index of the next free char of the current block.
+     */
+    private int next = 0;
+
+    /**
+     * Held to add or read values, and exclusively to release the store.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile boolean released = false;
+
+    /**
+     * Constructor.  No block is taken from the pool until a value is added.
+     *
+     * @param pool the source of the blocks
+     */
+    public OffHeapCellStore(final DirectBufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Store a decrypted value.
+     *
+     * @param utf8 the UTF-8 encoding of the value; zeroed once copied
+     * @return a view of the stored value, valid until the store is released
+     */
+    public CharSequence add(final byte[] utf8) {
+        lock.readLock().lock();
+        try {
+            // a UTF-8 encoding holds at least one byte per char
+            final CharBuffer chars;
+            final int offset;
+            checkReleased();
+            synchronized (this) {
+                if (utf8.length > pool.getBlockBytes() / Character.BYTES) {
+                    final ByteBuffer block =
+                            ByteBuffer.allocateDirect(utf8.length * Character.BYTES);
+                    oversized.add(block);
+                    chars = block.asCharBuffer();
+                    offset = 0;
+                } else {
+                    if ((current == null) || (current.capacity() - next < utf8.length)) {
+                        final ByteBuffer block = pool.acquire();
+                        blocks.add(block);
+                        current = block.asCharBuffer();
+                        next = 0;
+                    }
+                    chars = current;
+                    offset = next;
+                    next += utf8.length;
+                }
+            }
+            return new OffHeapCell(this, chars, offset, decode(utf8, chars, offset));
+        } finally {
+            lock.readLock().unlock();
+            Arrays.fill(utf8, (byte) 0);
+        }
+    }
+
+    /**
+     * Read a char of a stored value.
+     *
+     * @param chars the block holding the value
+     * @param index the index of the char in the block
+     * @return the char
+     * @throws IllegalStateException if the store has been released
+     */
+    char get(final CharBuffer chars, final int index) {
+        lock.readLock().lock();
+        try {
+            checkReleased();
+            return chars.get(index);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Read the chars of a stored value.
+     *
+     * @param chars the block holding the value
+     * @param offset the index of the first char of the value in the block
+     * @param copy receives the value, from its first char
+     * @throws IllegalStateException if the store has been released
+     */
+    void get(final CharBuffer chars, final int offset, final char[] copy) {
+        lock.readLock().lock();
+        try {
+            checkReleased();
+            for (int i = 0; i < copy.length; ++i) {
+                copy[i] = chars.get(offset + i);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true once the store has been released
+     */
+    public boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * Zero all stored values, and return their blocks to the pool, once the adds and reads in
+     * progress are done.  The store may not be used afterwards.
+     */
+    public void release() {
+        lock.writeLock().lock();
+        try {
+            if (released) {
+                return;
+            }
+            released = true;
+            for (ByteBuffer block : blocks) {
+                pool.release(block);
+            }
+            for (ByteBuffer block : oversized) {
+                DirectBufferPool.zero(block);
+            }
+            blocks.clear();
+            oversized.clear();
+            current = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Same as {@link #release()}.
+     */
+    @Override
+    public void close() {
+        release();
+    }
+
+    /**
+     * @throws IllegalStateException if the store has been released
+     */
+    private void checkReleased() {
+        if (released) {
+            throw new IllegalStateException("Cell store released");
+        }
+    }
+
+    /**
+     * Decode UTF-8 bytes into a range of chars.  Malformed input decodes as U+FFFD.
+     *
+     * @param utf8 the encoded value
+     * @param chars the destination; written with absolute puts only, so it may be shared
+     * @param offset the index of the first destination char
+     * @return the number of chars written (at most the number of bytes)
+     */
+    private static int decode(final byte[] utf8, final CharBuffer chars, final int offset) {
+        int out = offset;
+        int i = 0;
+        while (i < utf8.length) {
+            final int b = utf8[i] & 0xff;
+            final int length = (b < 0x80) ? 1
+                    : (b >= 0xf8) ? 0 : (b >= 0xf0) ? 4 : (b >= 0xe0) ? 3 : (b >= 0xc0) ? 2 : 0;
+            int codePoint = (length == 1) ? b : (b & (0x3f >> (length - 1)));
+            boolean valid = (length > 0) && (i + length <= utf8.length);
+            for (int k = 1; valid && (k < length); ++k) {
+                final int continuation = utf8[i + k] & 0xff;
+                valid = (continuation & 0xc0) == 0x80;
+                codePoint = (codePoint << 6) | (continuation & 0x3f);
+            }
+            if (!valid || (codePoint > Character.MAX_CODE_POINT)) {
+                chars.put(out++, REPLACEMENT);
+                ++i;
+            } else if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                chars.put(out++, Character.highSurrogate(codePoint));
+                chars.put(out++, Character.lowSurrogate(codePoint));
+                i += length;
+            } else {
+                chars.put(out++, (char) codePoint);
+                i += length;
+            }
+        }
+        return out - offset;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+/**
+ * {@link RowSet} whose decrypted cells are held outside the Java heap.
+ *
+ * <p>When an {@link IonicResultSetHandler} fills a row set of this class (see
+ * {@link IonicResultSetHandler#IonicResultSetHandler(com.ionic.key.KeyCache,
+ * java.util.concurrent.ForkJoinPool, int, boolean, java.util.function.Supplier)}), each
+ * decrypted cell is stored in the {@link OffHeapCellStore} of the row set, and the row holds a
+ * {@link CharSequence} view of it, in place of a {@link String}.  Unprotected cells, and
+ * {@link IonicResultSetHandler#RESTRICTED} cells, remain strings.
+ *
+ * <p>{@link #close()} zeroes the decrypted values and returns their memory to the pool, after
+ * which the views may no longer be read; it must be called once the row set is no longer used.
+ * If the handler fails, it releases the row set itself, after its decryption tasks complete.
+ */
+public class OffHeapRowSet extends RowSet implements AutoCloseable {
+
+    private final OffHeapCellStore store;
+
+    /**
+     * Constructor.
+     *
+     * @param pool the source of the direct buffers holding the decrypted values
+     */
+    public OffHeapRowSet(final DirectBufferPool pool) {
+        super();
+        this.store = new OffHeapCellStore(pool);
+    }
+
+    /**
+     * @return the store holding the decrypted values of the rows
+     */
+    public OffHeapCellStore getStore() {
+        return store;
+    }
+
+    /**
+     * Remove the rows, zero their decrypted values, and return the memory of the values to the
+     * pool.
+     */
+    @Override
+    public void close() {
+        try {
+            clear();
+        } finally {
+            store.release();
+        }
+    }
+}
@@ -0,0 +1,689 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Minimal pool of physical database connections, exposed as a {@link DataSource}.
+ *
+ * <p>Connections handed out by {@link #getConnection()} are returned to the pool when closed.  On
+ * return, an open transaction is rolled back and auto-commit is restored.  Idle connections are
+ * reused most recently used first; a connection idle for longer than
+ * {@link #VALIDATION_BYPASS_MILLIS} is validated with {@link Connection#isValid(int)} before being
+ * handed out, and discarded if the check fails.
+ *
+ * <p>At most <code>maxTotal</code> connections are borrowed at once: each borrower holds a permit
+ * from {@link #getConnection()} until it closes the connection, and callers wait up to
+ * <code>maxWaitMillis</code> for a permit.  Idle connections hold no permit; at most
+ * <code>maxIdle</code> of them are retained, and borrowers take an idle connection before opening
+ * a new one.
+ *
+ * <p>Nothing is opened until the first call to {@link #getConnection()}.  From then on, a
+ * background thread keeps at least <code>minIdle</code> connections open (retrying with a growing
+ * delay while the database is unreachable), and reports connections borrowed for longer than the
+ * leak detection threshold, along with the caller that borrowed them.
+ */
+public class PooledDataSource implements DataSource, AutoCloseable {
+
+    /**
+     * Connections returned to the pool within this interval are handed out without validation.
+     */
+    public static final long VALIDATION_BYPASS_MILLIS = 500L;
+
+    /**
+     * Timeout applied to {@link Connection#isValid(int)}, in seconds.
+     */
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    /**
+     * Interval between runs of the housekeeping task (idle top up and leak detection).
+     */
+    private static final long HOUSEKEEPING_MILLIS = 1000L;
+
+    /**
+     * The longest delay between attempts of the housekeeping task to open idle connections, while
+     * the database is unreachable.
+     */
+    private static final long MAX_OPEN_RETRY_MILLIS = 60000L;
+
+    /**
+     * The JDBC driver used to open physical connections.
+     */
+    private final Driver driver;
+
+    /**
+     * The database url.
+     */
+    private final String url;
+
+    /**
+     * The connection properties (user, password).
+     */
+    private final Properties properties;
+
+    /**
+     * The number of idle connections maintained by the pool.
+     */
+    private final int minIdle;
+
+    /**
+     * The maximum number of idle connections retained by the pool.
+     */
+    private final int maxIdle;
+
+    /**
+     * The maximum time to wait for a connection, in milliseconds.
+     */
+    private final long maxWaitMillis;
+
+    /**
+     * Connections borrowed for longer than this are reported as leaked (0: no leak detection).
+     */
+    private final long leakThresholdMillis;
+
+    /**
+     * Permits to borrow a connection; a permit is held by each borrowed connection, and by the
+     * housekeeping task while it opens an idle connection.
+     */
+    private final Semaphore permits;
+
+    /**
+     * Idle connections, most recently returned first.  Guarded by <code>idle</code>.
+     */
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+
+    /**
+     * Borrowed connections.
+     */
+    private final Set<PooledConnection> borrowed =
+            ConcurrentHashMap.<PooledConnection>newKeySet();
+
+    /**
+     * Runs the housekeeping task.
+     */
+    private final ScheduledExecutorService housekeeper;
+
+    /**
+     * True once the housekeeping task has been scheduled, on first use of the pool.  Guarded by
+     * <code>this</code>.
+     */
+    private boolean housekeepingStarted = false;
+
+    /**
+     * The current delay between attempts to open idle connections after a failure (0: the last
+     * attempt succeeded), and the time of the next attempt.  Used by the housekeeping task only.
+     */
+    private long openRetryMillis = 0L;
+    private long nextOpenMillis = 0L;
+
+    /**
+     * Pool activity counters.
+     */
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong validations = new AtomicLong();
+    private final AtomicLong invalidated = new AtomicLong();
+    private final AtomicLong waitTimeouts = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+
+    /**
+     * True once the pool has been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param driver the JDBC driver used to open physical connections
+     * @param url the database url
+     * @param properties the connection properties (user, password)
+     * @param minIdle the number of idle connections maintained by the pool
+     * @param maxIdle the maximum number of idle connections retained by the pool
+     * @param maxTotal the maximum number of connections (idle and borrowed)
+     * @param maxWaitMillis the maximum time to wait for a connection, in milliseconds
+     * @param leakThresholdMillis connections borrowed for longer than this are reported as leaked
+     *        (0: no leak detection)
+     */
+    public PooledDataSource(final Driver driver, final String url, final Properties properties,
+            final int minIdle, final int maxIdle, final int maxTotal, final long maxWaitMillis,
+            final long leakThresholdMillis) {
+        this.driver = driver;
+        this.url = url;
+        this.properties = (Properties) properties.clone();
+        this.maxIdle = Math.max(1, Math.min(maxIdle, maxTotal));
+        this.minIdle = Math.max(0, Math.min(minIdle, this.maxIdle));
+        this.maxWaitMillis = Math.max(0L, maxWaitMillis);
+        this.leakThresholdMillis = Math.max(0L, leakThresholdMillis);
+        this.permits = new Semaphore(Math.max(1, maxTotal), true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "PooledDataSource-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+        startHousekeeping();
+        final long waitStart = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                waitTimeouts.incrementAndGet();
+                throw new SQLException(
+                        "Timeout waiting " + maxWaitMillis + "ms for a pooled connection.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a pooled connection.", e);
+        }
+        waitNanos.addAndGet(System.nanoTime() - waitStart);
+        try {
+            final PooledConnection pooled = borrowIdle();
+            pooled.borrowed(leakThresholdMillis > 0L ? new Throwable("Connection borrowed") : null);
+            borrowed.add(pooled);
+            borrows.incrementAndGet();
+            return pooled.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Schedule the housekeeping task, if not yet done.
+     */
+    private synchronized void startHousekeeping() {
+        if (!housekeepingStarted && !closed) {
+            housekeepingStarted = true;
+            housekeeper.scheduleWithFixedDelay(
+                    this::housekeeping, 0L, HOUSEKEEPING_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Take a valid connection from the idle connections, opening a new connection if none is
+     * available.  The caller holds a permit.
+     *
+     * @return a connection ready to be handed out
+     * @throws SQLException on failure to open a new connection
+     */
+    private PooledConnection borrowIdle() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = pollIdle()) != null) {
+            if (System.currentTimeMillis() - pooled.lastUsedMillis < VALIDATION_BYPASS_MILLIS) {
+                return pooled;
+            }
+            validations.incrementAndGet();
+            if (isValid(pooled.physical)) {
+                return pooled;
+            }
+            invalidated.incrementAndGet();
+            closeQuietly(pooled.physical);
+        }
+        return open();
+    }
+
+    /**
+     * @return the most recently returned idle connection, or null if none is idle
+     */
+    private PooledConnection pollIdle() {
+        synchronized (idle) {
+            return idle.pollFirst();
+        }
+    }
+
+    /**
+     * Open a new physical connection.
+     *
+     * @return the new connection, wrapped for the pool
+     * @throws SQLException on failure to connect to the database
+     */
+    private PooledConnection open() throws SQLException {
+        final Connection physical = driver.connect(url, properties);
+        if (physical == null) {
+            throw new SQLException("Driver does not accept url " + url);
+        }
+        created.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    /**
+     * Take back a connection closed by its borrower.
+     *
+     * @param pooled the connection being returned
+     */
+    private void release(final PooledConnection pooled) {
+        borrowed.remove(pooled);
+        try {
+            boolean reusable = !closed && !pooled.physical.isClosed();
+            if (reusable && !pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            if (reusable) {
+                pooled.lastUsedMillis = System.currentTimeMillis();
+                synchronized (idle) {
+                    reusable = (idle.size() < maxIdle);
+                    if (reusable) {
+                        idle.addFirst(pooled);
+                    }
+                }
+            }
+            if (!reusable) {
+                closeQuietly(pooled.physical);
+            }
+        } catch (SQLException e) {
+            invalidated.incrementAndGet();
+            closeQuietly(pooled.physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Periodic maintenance: report leaked connections, and keep the idle connection count at
+     * <code>minIdle</code>.
+     */
+    private void housekeeping() {
+        if (leakThresholdMillis > 0L) {
+            final long now = System.currentTimeMillis();
+            for (PooledConnection pooled : borrowed) {
+                final Throwable borrower = pooled.borrower;
+                if ((borrower != null) && !pooled.leakReported
+                        && (now - pooled.borrowedMillis > leakThresholdMillis)) {
+                    pooled.leakReported = true;
+                    leaks.incrementAndGet();
+                    System.err.println("WARNING: Pooled connection borrowed for more than "
+                            + leakThresholdMillis + "ms, possible leak, by "
+                            + getBorrowerFrame(borrower));
+                }
+            }
+        }
+        if (System.currentTimeMillis() < nextOpenMillis) {
+            return;
+        }
+        while (!closed && (getIdleCount() < minIdle) && permits.tryAcquire()) {
+            try {
+                final PooledConnection pooled = open();
+                pooled.lastUsedMillis = System.currentTimeMillis();
+                synchronized (idle) {
+                    idle.addLast(pooled);
+                }
+                openRetryMillis = 0L;
+            } catch (SQLException e) {
+                // report the first failure only, and retry less often while failures repeat
+                if (openRetryMillis == 0L) {
+                    System.err.println("ERROR: Failure to open pooled connection. "
+                            + e.getMessage());
+                }
+                openRetryMillis = Math.min(MAX_OPEN_RETRY_MILLIS,
+                        Math.max(HOUSEKEEPING_MILLIS, openRetryMillis * 2));
+                nextOpenMillis = System.currentTimeMillis() + openRetryMillis;
+                break;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * @param borrower the stack trace recorded when a connection was borrowed
+     * @return the frame of the borrower's call to {@link #getConnection()}
+     */
+    private static String getBorrowerFrame(final Throwable borrower) {
+        for (StackTraceElement frame : borrower.getStackTrace()) {
+            final String className = frame.getClassName();
+            if (!className.equals(PooledDataSource.class.getName())
+                    && !className.startsWith(PooledDataSource.class.getName() + "$")) {
+                return frame.toString();
+            }
+        }
+        return "unknown caller";
+    }
+
+    /**
+     * @param connection a physical connection
+     * @return true if the connection is usable
+     */
+    private static boolean isValid(final Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param connection a physical connection to close, ignoring errors
+     */
+    private static void closeQuietly(final Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("ERROR: Failure to close pooled connection. " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of idle connections
+     */
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * @return the number of borrowed connections
+     */
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * @return a snapshot of the pool activity counters
+     */
+    public Metrics getMetrics() {
+        return new Metrics(getActiveCount(), getIdleCount(), created.get(), borrows.get(),
+                validations.get(), invalidated.get(), waitTimeouts.get(),
+                TimeUnit.NANOSECONDS.toMicros(waitNanos.get()), leaks.get());
+    }
+
+    /**
+     * Close the pool, and its idle connections.  Borrowed connections are closed when returned.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        housekeeper.shutdownNow();
+        final List<PooledConnection> connections;
+        synchronized (idle) {
+            connections = new ArrayList<PooledConnection>(idle);
+            idle.clear();
+        }
+        for (PooledConnection pooled : connections) {
+            closeQuietly(pooled.physical);
+        }
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password)
+            throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pool credentials are fixed at construction.");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(final PrintWriter out) {
+    }
+
+    @Override
+    public void setLoginTimeout(final int seconds) {
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger() {
+        return Logger.getLogger(PooledDataSource.class.getName());
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * A physical connection held by the pool, and the proxy handed out to its borrowers.
+     */
+    private final class PooledConnection {
+
+        /**
+         * The physical connection.
+         */
+        private final Connection physical;
+
+        /**
+         * The connection handed out to borrowers.
+         */
+        private Connection proxy;
+
+        /**
+         * Time of return to the pool.
+         */
+        private volatile long lastUsedMillis;
+
+        /**
+         * Time of the current borrow.
+         */
+        private volatile long borrowedMillis;
+
+        /**
+         * Stack trace of the current borrow, locating the borrower (null when leak detection is
+         * disabled).
+         */
+        private volatile Throwable borrower;
+
+        /**
+         * True once a leak has been reported for the current borrow.
+         */
+        private volatile boolean leakReported;
+
+        private PooledConnection(final Connection physical) {
+            this.physical = physical;
+        }
+
+        /**
+         * Record a borrow, handing out a new proxy so that a stale reference held by a previous
+         * borrower cannot use (or return) the connection.
+         *
+         * @param borrowerTrace the stack trace of the borrower, or null
+         */
+        private void borrowed(final Throwable borrowerTrace) {
+            this.borrowedMillis = System.currentTimeMillis();
+            this.borrower = borrowerTrace;
+            this.leakReported = false;
+            this.proxy = (Connection) Proxy.newProxyInstance(
+                    PooledDataSource.class.getClassLoader(), new Class<?>[] {Connection.class},
+                    new Handler(this));
+        }
+    }
+
+    /**
+     * Delegates calls on a borrowed connection to the physical connection; {@link
+     * Connection#close()} returns the connection to the pool.
+     */
+    private final class Handler implements InvocationHandler {
+
+        /**
+         * The pooled connection, or null once the borrower has closed it.
+         */
+        private PooledConnection pooled;
+
+        private Handler(final PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args)
+                throws Throwable {
+            final String name = method.getName();
+            final PooledConnection current;
+            synchronized (this) {
+                current = pooled;
+                if ("close".equals(name)) {
+                    pooled = null;
+                }
+            }
+            if ("close".equals(name)) {
+                if (current != null) {
+                    release(current);
+                }
+                return null;
+            } else if ("isClosed".equals(name)) {
+                return (current == null) || current.physical.isClosed();
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("toString".equals(name)) {
+                return "PooledConnection["
+                        + ((current == null) ? "closed" : current.physical) + "]";
+            } else if (current == null) {
+                throw new SQLException("Connection is closed.");
+            }
+            try {
+                return method.invoke(current.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the pool activity counters.
+     */
+    public static final class Metrics {
+
+        private final int active;
+        private final int idle;
+        private final long created;
+        private final long borrows;
+        private final long validations;
+        private final long invalidated;
+        private final long waitTimeouts;
+        private final long waitMicros;
+        private final long leaks;
+
+        private Metrics(final int active, final int idle, final long created, final long borrows,
+                final long validations, final long invalidated, final long waitTimeouts,
+                final long waitMicros, final long leaks) {
+            this.active = active;
+            this.idle = idle;
+            this.created = created;
+            this.borrows = borrows;
+            this.validations = validations;
+            this.invalidated = invalidated;
+            this.waitTimeouts = waitTimeouts;
+            this.waitMicros = waitMicros;
+            this.leaks = leaks;
+        }
+
+        /**
+         * @return the number of borrowed connections
+         */
+        public int getActive() {
+            return active;
+        }
+
+        /**
+         * @return the number of idle connections
+         */
+        public int getIdle() {
+            return idle;
+        }
+
+        /**
+         * @return the number of physical connections opened
+         */
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * @return the number of connections handed out
+         */
+        public long getBorrows() {
+            return borrows;
+        }
+
+        /**
+         * @return the number of idle connections validated before being handed out
+         */
+        public long getValidations() {
+            return validations;
+        }
+
+        /**
+         * @return the number of connections discarded as unusable
+         */
+        public long getInvalidated() {
+            return invalidated;
+        }
+
+        /**
+         * @return the number of requests that timed out waiting for a connection
+         */
+        public long getWaitTimeouts() {
+            return waitTimeouts;
+        }
+
+        /**
+         * @return the total time spent waiting for a connection, in microseconds
+         */
+        public long getWaitMicros() {
+            return waitMicros;
+        }
+
+        /**
+         * @return the number of borrowed connections reported as leaked
+         */
+        public long getLeaks() {
+            return leaks;
+        }
+
+        @Override
+        public String toString() {
+            return "active=" + active + ", idle=" + idle + ", created=" + created
+                    + ", borrows=" + borrows + ", validations=" + validations
+                    + ", invalidated=" + invalidated + ", waitTimeouts=" + waitTimeouts
+                    + ", waitMicros=" + waitMicros + ", leaks=" + leaks;
+        }
+    }
+}
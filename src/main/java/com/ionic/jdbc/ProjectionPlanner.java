@@ -0,0 +1,176 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds (and caches) the SELECT statement for a table whose columns are each protected by a
+ * Machina key.  Columns whose key was denied are replaced in the projection by the
+ * {@link IonicResultSetHandler#RESTRICTED} literal, so that the shape of the result does not
+ * depend on the policy applied to the user.
+ *
+ * <p>The set of readable columns is given as a bitmask, bit <code>i</code> being set when the
+ * column at index <code>i</code> may be read.  Statements are built once per bitmask.  Reusing the
+ * identical SQL text also allows the JDBC driver to reuse its server-side prepared statement on a
+ * pooled connection, skipping parsing and planning on repeated reads.
+ *
+ * <p>Cached statements are discarded when the version passed to {@link #getSql(int, long)}
+ * changes (for example, {@link com.ionic.key.KeyCache#getGeneration()}, which changes when the
+ * key cache is invalidated after a policy update).
+ */
+public class ProjectionPlanner {
+
+    /**
+     * The maximum number of columns described by a bitmask.
+     */
+    public static final int MAX_COLUMNS = Integer.SIZE - 1;
+
+    /**
+     * The table queried.
+     */
+    private final String table;
+
+    /**
+     * The protected columns of the table, in projection order.
+     */
+    private final List<String> columns;
+
+    /**
+     * Statements built so far, keyed by readable column bitmask.  Guarded by <code>this</code>.
+     */
+    private final Map<Integer, String> plans = new HashMap<Integer, String>();
+
+    /**
+     * Point lookup statements built so far, keyed by readable column bitmask and searched
+     * columns.  Guarded by <code>this</code>.
+     */
+    private final Map<String, String> lookupPlans = new HashMap<String, String>();
+
+    /**
+     * The version for which the cached statements were built.  Guarded by <code>this</code>.
+     */
+    private long version = Long.MIN_VALUE;
+
+    /**
+     * Constructor.
+     *
+     * @param table the table queried
+     * @param columns the protected columns of the table, in projection order
+     */
+    public ProjectionPlanner(final String table, final List<String> columns) {
+        if (columns.size() > MAX_COLUMNS) {
+            throw new IllegalArgumentException("At most " + MAX_COLUMNS + " columns supported.");
+        }
+        this.table = table;
+        this.columns = Collections.unmodifiableList(new ArrayList<String>(columns));
+    }
+
+    /**
+     * @return the protected columns of the table, in projection order
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @param column a column name
+     * @return the bitmask bit of the column, or 0 if the column is not known to the planner
+     */
+    public int getColumnBit(final String column) {
+        final int index = columns.indexOf(column);
+        return (index < 0) ? 0 : (1 << index);
+    }
+
+    /**
+     * Get the SELECT statement for a set of readable columns.
+     *
+     * @param allowedColumns bitmask of the readable columns
+     * @param currentVersion the version of the data used to compute <code>allowedColumns</code>;
+     *        a change of version discards all cached statements
+     * @return the SQL statement
+     */
+    public synchronized String getSql(final int allowedColumns, final long currentVersion) {
+        checkVersion(currentVersion);
+        String sql = plans.get(allowedColumns);
+        if (sql == null) {
+            sql = buildSql(allowedColumns);
+            plans.put(allowedColumns, sql);
+        }
+        return sql;
+    }
+
+    /**
+     * Get the SELECT statement for a set of readable columns, restricted to the rows whose
+     * searched columns equal given values.  Each equality predicate is made on the
+     * {@link BlindIndex} companion column of the searched column, so that it may be answered by a
+     * database index; the statement takes the blind index of each search value as a parameter,
+     * in the order of <code>searchColumns</code>.
+     *
+     * @param allowedColumns bitmask of the readable columns
+     * @param currentVersion the version of the data used to compute <code>allowedColumns</code>;
+     *        a change of version discards all cached statements
+     * @param searchColumns the searched columns (each must be known to the planner)
+     * @return the SQL statement
+     */
+    public synchronized String getSql(final int allowedColumns, final long currentVersion,
+            final List<String> searchColumns) {
+        checkVersion(currentVersion);
+        final String key = allowedColumns + ":" + searchColumns;
+        String sql = lookupPlans.get(key);
+        if (sql == null) {
+            final StringBuilder buffer = new StringBuilder(buildSql(allowedColumns));
+            String separator = " WHERE ";
+            for (String column : searchColumns) {
+                if (!columns.contains(column)) {
+                    throw new IllegalArgumentException("Unknown column: " + column);
+                }
+                buffer.append(separator).append(BlindIndex.getColumn(column)).append(" = ?");
+                separator = " AND ";
+            }
+            sql = buffer.toString();
+            lookupPlans.put(key, sql);
+        }
+        return sql;
+    }
+
+    /**
+     * Discard the cached statements if the version has changed.  Called holding the lock.
+     *
+     * @param currentVersion the version of the data used to compute the readable columns
+     */
+    private void checkVersion(final long currentVersion) {
+        if (currentVersion != version) {
+            plans.clear();
+            lookupPlans.clear();
+            version = currentVersion;
+        }
+    }
+
+    /**
+     * @param allowedColumns bitmask of the readable columns
+     * @return the SQL statement
+     */
+    private String buildSql(final int allowedColumns) {
+        final StringBuilder buffer = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.size(); ++i) {
+            if (i > 0) {
+                buffer.append(", ");
+            }
+            if ((allowedColumns & (1 << i)) != 0) {
+                buffer.append(columns.get(i));
+            } else {
+                buffer.append('\'').append(IonicResultSetHandler.RESTRICTED).append("' as ")
+                        .append(columns.get(i));
+            }
+        }
+        return buffer.append(" FROM ").append(table).toString();
+    }
+}
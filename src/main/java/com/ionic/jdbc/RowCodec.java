@@ -0,0 +1,146 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of decrypted rows, used to spill rows to temporary files.
+ *
+ * <p>Each record is laid out as:
+ * <pre>
+ *   int    length of the rest of the record, in bytes
+ *   int    number of cells
+ *   per cell:
+ *     int  length of the cell value, in UTF-8 bytes, or -1 for null
+ *     byte UTF-8 encoded cell value
+ * </pre>
+ *
+ * <p>The rows read by this package hold only strings (or null); any other cell value is encoded
+ * as its {@link Object#toString()}, and decodes as a string.  Integers are big-endian, whatever
+ * the byte order of the buffers used.
+ *
+ * <p>Instances reuse their encoding buffers, and are not thread-safe.
+ */
+final class RowCodec {
+
+    /**
+     * The size of the length prefix of each record, in bytes.
+     */
+    static final int PREFIX_BYTES = Integer.BYTES;
+
+    /**
+     * Marks a null cell.
+     */
+    private static final int NULL_LENGTH = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * Holds the last encoded record.
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    /**
+     * Holds the UTF-8 bytes of a cell being decoded from a buffer without an accessible array.
+     */
+    private byte[] scratch = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Encode a row.
+     *
+     * @param row the row to encode
+     * @return a buffer holding the encoded record (length prefix included) between its position
+     *         and limit; the buffer is reused by the next call
+     */
+    ByteBuffer encode(final Object[] row) {
+        buffer.clear();
+        buffer.position(PREFIX_BYTES);
+        ensureRemaining(Integer.BYTES);
+        buffer.putInt(row.length);
+        for (Object cell : row) {
+            if (cell == null) {
+                ensureRemaining(Integer.BYTES);
+                buffer.putInt(NULL_LENGTH);
+                continue;
+            }
+            final String value = cell.toString();
+            // the encoder writes at most 3 bytes per char (surrogate pairs write 4 for 2)
+            ensureRemaining(Integer.BYTES + value.length() * 3);
+            final int lengthPosition = buffer.position();
+            buffer.position(lengthPosition + Integer.BYTES);
+            encoder.reset();
+            encoder.encode(CharBuffer.wrap(value), buffer, true);
+            encoder.flush(buffer);
+            buffer.putInt(lengthPosition, buffer.position() - lengthPosition - Integer.BYTES);
+        }
+        buffer.putInt(0, buffer.position() - PREFIX_BYTES);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decode the record at the position of a buffer, advancing the position past it.
+     *
+     * @param source a buffer holding a whole record at its position
+     * @return the decoded row
+     */
+    Object[] decode(final ByteBuffer source) {
+        source.getInt();
+        final Object[] row = new Object[source.getInt()];
+        for (int i = 0; i < row.length; ++i) {
+            final int length = source.getInt();
+            if (length == NULL_LENGTH) {
+                continue;
+            }
+            if (source.hasArray()) {
+                row[i] = new String(source.array(), source.arrayOffset() + source.position(),
+                        length, StandardCharsets.UTF_8);
+                source.position(source.position() + length);
+            } else {
+                if (scratch.length < length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                source.get(scratch, 0, length);
+                row[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * @param source a buffer holding (the start of) a record at its position
+     * @return the size of the record (length prefix included), or -1 if the buffer does not hold
+     *         the whole length prefix
+     */
+    static int recordLength(final ByteBuffer source) {
+        return (source.remaining() < PREFIX_BYTES)
+                ? -1 : (PREFIX_BYTES + source.getInt(source.position()));
+    }
+
+    /**
+     * Grow the encoding buffer, if needed, to hold more bytes after its position.
+     *
+     * @param bytes the number of bytes to be written
+     */
+    private void ensureRemaining(final int bytes) {
+        if (buffer.remaining() < bytes) {
+            final ByteBuffer larger = ByteBuffer.allocate(
+                    Math.max(buffer.position() + bytes, buffer.capacity() * 2));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+}
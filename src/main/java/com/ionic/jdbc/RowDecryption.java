@@ -0,0 +1,185 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import com.ionic.key.KeyCache;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Row-level decryption steps shared by the {@link java.sql.ResultSet} readers in this package.
+ */
+final class RowDecryption {
+
+    /**
+     * Value substituted for protected cells whose key was not released by Machina.
+     */
+    private static final String RESTRICTED = IonicResultSetHandler.RESTRICTED;
+
+    private RowDecryption() {
+    }
+
+    /**
+     * Load the text of each cell of the current row, gathering the key ids of protected cells.
+     *
+     * @param resultSet the JDBC {@link ResultSet} from the database, positioned on a row
+     * @param columnCount the number of columns in the {@link ResultSet}
+     * @param keyIds the destination for the key ids of protected cells
+     * @return the text of each cell in the row
+     * @throws SQLException on errors reading from the {@link ResultSet}
+     */
+    static String[] readRow(final ResultSet resultSet, final int columnCount,
+            final Set<String> keyIds) throws SQLException {
+        final String[] rowText = new String[columnCount];
+        for (int i = 0; i < columnCount; ++i) {
+            final Object value = resultSet.getObject(i + 1);
+            final String valueText = (value == null) ? null : value.toString();
+            final String keyId = KeyedChunkCipher.getKeyId(valueText);
+            if (keyId != null) {
+                keyIds.add(keyId);
+            }
+            rowText[i] = valueText;
+        }
+        return rowText;
+    }
+
+    /**
+     * Decrypt the protected cells of a row.
+     *
+     * @param rowText the text of each cell in the row
+     * @param ciphers the ciphers available to decrypt protected cells, keyed by key id
+     * @return the row content, or null if the row contains protected cells, and none of them may
+     *         be decrypted
+     */
+    static Object[] decryptRow(final String[] rowText,
+            final Map<String, KeyedChunkCipher> ciphers) {
+        return decryptRow(rowText, ciphers, null);
+    }
+
+    /**
+     * Decrypt the protected cells of a row, optionally holding the decrypted values off the heap.
+     *
+     * @param rowText the text of each cell in the row
+     * @param ciphers the ciphers available to decrypt protected cells, keyed by key id
+     * @param store the store of the decrypted values, or null to decrypt values to strings
+     * @return the row content, or null if the row contains protected cells, and none of them may
+     *         be decrypted
+     */
+    static Object[] decryptRow(final String[] rowText,
+            final Map<String, KeyedChunkCipher> ciphers, final OffHeapCellStore store) {
+        final Object[] row = new Object[rowText.length];
+        int protectedCells = 0;
+        int deniedCells = 0;
+        for (int i = 0; i < rowText.length; ++i) {
+            final String valueText = rowText[i];
+            final String keyId = KeyedChunkCipher.getKeyId(valueText);
+            if (keyId == null) {
+                row[i] = valueText;
+                continue;
+            }
+            ++protectedCells;
+            final KeyedChunkCipher cipher = ciphers.get(keyId);
+            try {
+                if (cipher == null) {
+                    row[i] = RESTRICTED;
+                } else {
+                    row[i] = (store == null)
+                            ? cipher.decrypt(valueText) : store.add(cipher.decryptBytes(valueText));
+                }
+            } catch (IonicException e) {
+                row[i] = RESTRICTED;
+            }
+            if (row[i] == RESTRICTED) {
+                ++deniedCells;
+            }
+        }
+        return ((protectedCells > 0) && (deniedCells == protectedCells)) ? null : row;
+    }
+
+    /**
+     * Get the requested keys, making at most one Machina request.
+     *
+     * @param keyCache the source of the keys
+     * @param keyIds the distinct key ids referenced by protected cells
+     * @return the keys released by Machina, keyed by key id; denied keys are absent
+     */
+    static Map<String, GetKeysResponse.Key> getKeys(final KeyCache keyCache,
+            final Collection<String> keyIds) {
+        if (keyIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        try {
+            return keyCache.getKeys(keyIds);
+        } catch (IonicException e) {
+            // failed key operations are handled as denials; affected cells are RESTRICTED
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Get the keys referenced by a chunk of rows, for a reader handing chunks of rows to other
+     * threads.  Keys not requested by previous chunks are fetched in a single Machina request.
+     *
+     * <p>Only the keys of the chunk are returned, so that the ciphers prepared for the chunk do
+     * not grow with the number of keys referenced by the whole query.
+     *
+     * @param keyCache the source of the keys
+     * @param keys the keys requested so far (denied keys map to null); updated with new keys
+     * @param chunkKeyIds the key ids referenced by the chunk of rows
+     * @return the released keys referenced by the chunk of rows
+     */
+    static List<GetKeysResponse.Key> getChunkKeys(final KeyCache keyCache,
+            final Map<String, GetKeysResponse.Key> keys, final Set<String> chunkKeyIds) {
+        final Set<String> newKeyIds = new LinkedHashSet<String>(chunkKeyIds);
+        newKeyIds.removeAll(keys.keySet());
+        if (!newKeyIds.isEmpty()) {
+            keys.putAll(getKeys(keyCache, newKeyIds));
+            // denied keys are not requested again
+            for (String keyId : newKeyIds) {
+                if (!keys.containsKey(keyId)) {
+                    keys.put(keyId, null);
+                }
+            }
+        }
+        final List<GetKeysResponse.Key> chunkKeys = new ArrayList<GetKeysResponse.Key>();
+        for (String keyId : chunkKeyIds) {
+            final GetKeysResponse.Key key = keys.get(keyId);
+            if (key != null) {
+                chunkKeys.add(key);
+            }
+        }
+        return Collections.unmodifiableList(chunkKeys);
+    }
+
+    /**
+     * Prepare a cipher for each key.  Ciphers are not thread-safe, so each thread makes its own.
+     *
+     * @param keys the keys released by Machina
+     * @return a cipher for each usable key, keyed by key id
+     */
+    static Map<String, KeyedChunkCipher> toCiphers(final Collection<GetKeysResponse.Key> keys) {
+        final Map<String, KeyedChunkCipher> ciphers = new HashMap<String, KeyedChunkCipher>();
+        for (GetKeysResponse.Key key : keys) {
+            try {
+                ciphers.put(key.getId(), new KeyedChunkCipher(key));
+            } catch (IonicException e) {
+                // an unusable key is handled as a denial; affected cells are RESTRICTED
+                continue;
+            }
+        }
+        return ciphers;
+    }
+}
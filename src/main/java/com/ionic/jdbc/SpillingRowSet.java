@@ -0,0 +1,461 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@link RowSet} holding a bounded number of rows on the heap.
+ *
+ * <p>The first rows added are held on the heap, as in a plain {@link RowSet}.  Past that bound,
+ * rows are gathered in batches, and each full batch is appended to a temporary file in the
+ * encoding of {@link RowCodec}, through regions of the file mapped into memory.  The operating
+ * system pages the mapped regions in and out as needed, so a result much larger than the heap
+ * costs disk space and page cache, rather than an {@link OutOfMemoryError}.
+ *
+ * <p>The row set may be iterated and indexed as any list.  Sequential iteration decodes each
+ * spilled row once; indexed access to a spilled row walks the record lengths of its batch from the
+ * start of the batch.  Rows may only be appended (or the row set cleared); other modifications
+ * throw {@link UnsupportedOperationException}.  Spilled rows hold only strings (see
+ * {@link RowCodec}), and each access to a spilled row returns a new copy of it.
+ *
+ * <p>Spilled values are decrypted plaintext; the temporary file is deleted on {@link #close()},
+ * which must be called once the row set is no longer used, and should be placed on storage
+ * trusted with that data.  Instances are not thread-safe.
+ */
+public class SpillingRowSet extends RowSet implements AutoCloseable {
+
+    /**
+     * The size of each region of the file mapped into memory.
+     */
+    static final int REGION_BYTES = 32 * 1024 * 1024;
+
+    private static final String FILE_PREFIX = "ionic-rowset-";
+    private static final String FILE_SUFFIX = ".rows";
+
+    private final int heapRows;
+    private final int batchRows;
+    private final Path directory;
+
+    /**
+     * Rows past the heap bound, not yet written to the file.
+     */
+    private final List<Object[]> pending = new ArrayList<Object[]>();
+
+    /**
+     * Encodes rows written to the file, and decodes rows read by {@link #get(int)}.
+     */
+    private final RowCodec codec = new RowCodec();
+
+    private Path file = null;
+    private FileChannel channel = null;
+
+    /**
+     * The mapped regions of the file, and the number of bytes written to each.
+     */
+    private List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+    private int[] regionLimits = new int[0];
+
+    /**
+     * The location of the first row of each batch written: the region index in the high 32 bits,
+     * and the offset in the region in the low 32 bits.
+     */
+    private long[] batches = new long[0];
+    private int spilledRows = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param heapRows the number of rows held on the heap before rows are spilled to disk
+     * @param batchRows the number of rows gathered before each write to disk
+     * @param directory the directory of the temporary file, or null for the default temporary
+     *        file directory
+     */
+    public SpillingRowSet(final int heapRows, final int batchRows, final Path directory) {
+        super();
+        this.heapRows = Math.max(0, heapRows);
+        this.batchRows = Math.max(1, batchRows);
+        this.directory = directory;
+    }
+
+    /**
+     * @return the number of rows written to disk
+     */
+    public int getSpilledRows() {
+        return spilledRows;
+    }
+
+    @Override
+    public boolean add(final Object[] row) {
+        if ((super.size() < heapRows) && (spilledRows == 0) && pending.isEmpty()) {
+            return super.add(row);
+        }
+        pending.add(row);
+        if (pending.size() == batchRows) {
+            try {
+                spill();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failure to spill rows. " + e.getMessage(), e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean addAll(final Collection<? extends Object[]> rows) {
+        for (Object[] row : rows) {
+            add(row);
+        }
+        return !rows.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        return super.size() + spilledRows + pending.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Object[] get(final int index) {
+        if ((index < 0) || (index >= size())) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        final int heap = super.size();
+        if (index < heap) {
+            return super.get(index);
+        }
+        final int spilled = index - heap;
+        if (spilled >= spilledRows) {
+            return pending.get(spilled - spilledRows);
+        }
+        // walk the record lengths from the start of the batch
+        final long location = batches[spilled / batchRows];
+        int region = (int) (location >>> Integer.SIZE);
+        int offset = (int) location;
+        for (int i = spilled % batchRows; i > 0; --i) {
+            offset += RowCodec.PREFIX_BYTES + regions.get(region).getInt(offset);
+            if (offset >= regionLimits[region]) {
+                ++region;
+                offset = 0;
+            }
+        }
+        final ByteBuffer buffer = regions.get(region).duplicate();
+        buffer.position(offset);
+        return codec.decode(buffer);
+    }
+
+    @Override
+    public Iterator<Object[]> iterator() {
+        return new RowIterator();
+    }
+
+    @Override
+    public void forEach(final Consumer<? super Object[]> action) {
+        final Iterator<Object[]> rows = iterator();
+        while (rows.hasNext()) {
+            action.accept(rows.next());
+        }
+    }
+
+    @Override
+    public Spliterator<Object[]> spliterator() {
+        return Spliterators.spliterator(iterator(), size(), Spliterator.ORDERED);
+    }
+
+    @Override
+    public ListIterator<Object[]> listIterator() {
+        return view().listIterator();
+    }
+
+    @Override
+    public ListIterator<Object[]> listIterator(final int index) {
+        return view().listIterator(index);
+    }
+
+    @Override
+    public List<Object[]> subList(final int fromIndex, final int toIndex) {
+        return view().subList(fromIndex, toIndex);
+    }
+
+    @Override
+    public int indexOf(final Object o) {
+        return view().indexOf(o);
+    }
+
+    @Override
+    public int lastIndexOf(final Object o) {
+        return view().lastIndexOf(o);
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public Object[] toArray() {
+        return toArray(new Object[0]);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(final T[] a) {
+        final T[] array = (a.length >= size())
+                ? a : (T[]) Array.newInstance(a.getClass().getComponentType(), size());
+        int i = 0;
+        for (Object[] row : this) {
+            array[i++] = (T) row;
+        }
+        if (array.length > i) {
+            array[i] = null;
+        }
+        return array;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return view().equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return view().hashCode();
+    }
+
+    /**
+     * Remove all rows, deleting the temporary file.
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        close();
+    }
+
+    /**
+     * Release the mapped regions, and delete the temporary file.  The spilled rows are discarded.
+     */
+    @Override
+    public void close() {
+        pending.clear();
+        spilledRows = 0;
+        batches = new long[0];
+        regionLimits = new int[0];
+        // a mapped region is unmapped when it is garbage collected
+        regions = new ArrayList<MappedByteBuffer>();
+        if (channel != null) {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.err.println("ERROR: Failure to delete row set file " + file + ". "
+                        + e.getMessage());
+            }
+            channel = null;
+            file = null;
+        }
+    }
+
+    /**
+     * Not supported; the rows of the row set would be copied to the heap.
+     *
+     * @return never
+     */
+    @Override
+    public Object clone() {
+        throw new UnsupportedOperationException("SpillingRowSet cannot be cloned");
+    }
+
+    @Override
+    public Object[] set(final int index, final Object[] element) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void add(final int index, final Object[] element) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(final int index, final Collection<? extends Object[]> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object[] remove(final int index) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(final Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(final Collection<?> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeIf(final Predicate<? super Object[]> filter) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void replaceAll(final UnaryOperator<Object[]> operator) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sort(final Comparator<? super Object[]> c) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Append the pending rows to the file, as one batch.
+     *
+     * @throws IOException on failure to extend or map the file
+     */
+    private void spill() throws IOException {
+        if (channel == null) {
+            file = (directory == null)
+                    ? Files.createTempFile(FILE_PREFIX, FILE_SUFFIX)
+                    : Files.createTempFile(directory, FILE_PREFIX, FILE_SUFFIX);
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        final int batch = spilledRows / batchRows;
+        if (batch == batches.length) {
+            batches = Arrays.copyOf(batches, Math.max(16, batch * 2));
+        }
+        boolean first = true;
+        for (Object[] row : pending) {
+            final ByteBuffer record = codec.encode(row);
+            MappedByteBuffer region = regions.isEmpty() ? null : regions.get(regions.size() - 1);
+            if ((region == null) || (region.remaining() < record.remaining())) {
+                region = map(record.remaining());
+            }
+            if (first) {
+                batches[batch] = ((long) (regions.size() - 1) << Integer.SIZE) | region.position();
+                first = false;
+            }
+            region.put(record);
+            regionLimits[regions.size() - 1] = region.position();
+        }
+        spilledRows += pending.size();
+        pending.clear();
+    }
+
+    /**
+     * Map a new region at the end of the file.
+     *
+     * @param minimumBytes the size of the record to be written to the region
+     * @return the region
+     * @throws IOException on failure to extend or map the file
+     */
+    private MappedByteBuffer map(final int minimumBytes) throws IOException {
+        long position = 0L;
+        for (MappedByteBuffer region : regions) {
+            position += region.capacity();
+        }
+        final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                Math.max(REGION_BYTES, minimumBytes));
+        regions.add(region);
+        regionLimits = Arrays.copyOf(regionLimits, regions.size());
+        return region;
+    }
+
+    /**
+     * @return a read-only list view of the rows, for the list operations inherited from
+     *         {@link AbstractList}
+     */
+    private List<Object[]> view() {
+        return new AbstractList<Object[]>() {
+            @Override
+            public Object[] get(final int index) {
+                return SpillingRowSet.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return SpillingRowSet.this.size();
+            }
+
+            @Override
+            public Iterator<Object[]> iterator() {
+                return SpillingRowSet.this.iterator();
+            }
+        };
+    }
+
+    /**
+     * Iterates the heap rows, then decodes the spilled rows in file order, then the pending rows.
+     */
+    private final class RowIterator implements Iterator<Object[]> {
+
+        private final RowCodec reader = new RowCodec();
+        private int index = 0;
+        private int region = 0;
+        private ByteBuffer buffer = null;
+
+        @Override
+        public boolean hasNext() {
+            return index < size();
+        }
+
+        @Override
+        public Object[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final int heap = SpillingRowSet.super.size();
+            final int spilled = index++ - heap;
+            if (spilled < 0) {
+                return SpillingRowSet.super.get(spilled + heap);
+            }
+            if (spilled >= spilledRows) {
+                return pending.get(spilled - spilledRows);
+            }
+            if (buffer == null) {
+                buffer = regions.get(region).duplicate();
+                buffer.position(0);
+            }
+            while (buffer.position() >= regionLimits[region]) {
+                buffer = regions.get(++region).duplicate();
+                buffer.position(0);
+            }
+            return reader.decode(buffer);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.key;
+
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe cache of Machina key request results.
+ *
+ * <p>Keys released by Machina are retained for a configured time to live.  Keys denied by Machina
+ * are also remembered (with their own, typically shorter, time to live), so that repeated requests
+ * for a denied key do not each pay a server round trip.  The number of cached entries is bounded;
+ * the least recently used entry is evicted first.
+ *
+ * <p>Cached results do not reflect policy changes made on the server until the relevant entries
+ * expire, or are removed with {@link #invalidate(String)} or {@link #invalidateAll()}.
+ */
+public class KeyCache {
+
+    /**
+     * The source of keys not found in the cache (typically <code>agent::getKeys</code>).
+     */
+    public interface KeyFetcher {
+
+        /**
+         * Fetch a batch of keys from Machina.
+         *
+         * @param request the key ids to fetch
+         * @return the server response; keys not released are absent from the response
+         * @throws IonicException on failure of the key request
+         */
+        GetKeysResponse getKeys(GetKeysRequest request) throws IonicException;
+    }
+
+    /**
+     * Receives the outcome of each key lookup made through the cache (for example, for auditing).
+     */
+    public interface AccessListener {
+
+        /**
+         * Called once for each key id looked up, after the lookup completes.
+         *
+         * @param keyId the key id looked up
+         * @param released true if the key was released, false if it was denied
+         */
+        void keyAccessed(String keyId, boolean released);
+    }
+
+    /**
+     * The source of keys not found in the cache.
+     */
+    private final KeyFetcher fetcher;
+
+    /**
+     * Receives the outcome of each key lookup, or null.
+     */
+    private final AccessListener listener;
+
+    /**
+     * The maximum number of entries (released and denied) retained by the cache.
+     */
+    private final int maxEntries;
+
+    /**
+     * Time to live of a released key, in nanoseconds.
+     */
+    private final long ttlNanos;
+
+    /**
+     * Time to live of a denied key, in nanoseconds.
+     */
+    private final long deniedTtlNanos;
+
+    /**
+     * Cache entries, in least recently used order.  Guarded by <code>this</code>.
+     */
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Incremented on each invalidation.  Guarded by <code>this</code>.
+     */
+    private long generation = 0L;
+
+    /**
+     * Constructor.
+     *
+     * @param fetcher the source of keys not found in the cache
+     * @param maxEntries the maximum number of entries retained by the cache
+     * @param ttlMillis the time to live of a released key, in milliseconds
+     * @param deniedTtlMillis the time to live of a denied key, in milliseconds
+     */
+    public KeyCache(final KeyFetcher fetcher, final int maxEntries, final long ttlMillis,
+            final long deniedTtlMillis) {
+        this(fetcher, maxEntries, ttlMillis, deniedTtlMillis, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fetcher the source of keys not found in the cache
+     * @param maxEntries the maximum number of entries retained by the cache
+     * @param ttlMillis the time to live of a released key, in milliseconds
+     * @param deniedTtlMillis the time to live of a denied key, in milliseconds
+     * @param listener receives the outcome of each key lookup, or null
+     */
+    public KeyCache(final KeyFetcher fetcher, final int maxEntries, final long ttlMillis,
+            final long deniedTtlMillis, final AccessListener listener) {
+        this.fetcher = fetcher;
+        this.listener = listener;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.deniedTtlNanos = TimeUnit.MILLISECONDS.toNanos(deniedTtlMillis);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return size() > KeyCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get a set of keys.  Keys not in the cache (or expired) are fetched from Machina in a single
+     * request.
+     *
+     * @param keyIds the key ids to get
+     * @return the released keys, keyed by key id, in request order; denied keys are absent
+     * @throws IonicException on failure of the Machina key request (reported to the listener as
+     *         a denial of each key id)
+     */
+    public Map<String, GetKeysResponse.Key> getKeys(final Collection<String> keyIds)
+            throws IonicException {
+        final Map<String, GetKeysResponse.Key> keys =
+                new LinkedHashMap<String, GetKeysResponse.Key>();
+        final List<String> misses = new ArrayList<String>();
+        final long now = System.nanoTime();
+        final long requestGeneration;
+        synchronized (this) {
+            requestGeneration = generation;
+            for (String keyId : keyIds) {
+                final Entry entry = entries.get(keyId);
+                if ((entry == null) || (now - entry.expires > 0)) {
+                    misses.add(keyId);
+                } else if (entry.key != null) {
+                    keys.put(keyId, entry.key);
+                }
+            }
+        }
+        if (misses.isEmpty()) {
+            return notifyListener(keyIds, Collections.unmodifiableMap(keys));
+        }
+
+        // the server request is made outside of the lock
+        final GetKeysRequest request = new GetKeysRequest();
+        for (String keyId : misses) {
+            request.add(keyId);
+        }
+        final GetKeysResponse response;
+        try {
+            response = fetcher.getKeys(request);
+        } catch (IonicException | RuntimeException e) {
+            // no key is returned to the caller
+            notifyListener(keyIds, Collections.<String, GetKeysResponse.Key>emptyMap());
+            throw e;
+        }
+        final Map<String, GetKeysResponse.Key> released =
+                new LinkedHashMap<String, GetKeysResponse.Key>();
+        for (GetKeysResponse.Key key : response.getKeys()) {
+            released.put(key.getId(), key);
+        }
+
+        final long fetched = System.nanoTime();
+        synchronized (this) {
+            // results fetched before an invalidation (for example, a policy change) are returned,
+            // but not cached
+            if (generation == requestGeneration) {
+                for (String keyId : misses) {
+                    final GetKeysResponse.Key key = released.get(keyId);
+                    final long ttl = (key == null) ? deniedTtlNanos : ttlNanos;
+                    entries.put(keyId, new Entry(key, fetched + ttl));
+                }
+            }
+        }
+        // preserve request order in the result
+        final Map<String, GetKeysResponse.Key> ordered =
+                new LinkedHashMap<String, GetKeysResponse.Key>();
+        for (String keyId : keyIds) {
+            final GetKeysResponse.Key key = keys.containsKey(keyId)
+                    ? keys.get(keyId) : released.get(keyId);
+            if (key != null) {
+                ordered.put(keyId, key);
+            }
+        }
+        return notifyListener(keyIds, Collections.unmodifiableMap(ordered));
+    }
+
+    /**
+     * Report the outcome of a lookup to the listener, if any.
+     *
+     * @param keyIds the key ids looked up
+     * @param keys the released keys, keyed by key id
+     * @return the released keys
+     */
+    private Map<String, GetKeysResponse.Key> notifyListener(final Collection<String> keyIds,
+            final Map<String, GetKeysResponse.Key> keys) {
+        if (listener != null) {
+            for (String keyId : keyIds) {
+                listener.keyAccessed(keyId, keys.containsKey(keyId));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Remove a key from the cache; the next request for the key goes to Machina.
+     *
+     * @param keyId the key id to remove
+     */
+    public synchronized void invalidate(final String keyId) {
+        entries.remove(keyId);
+        ++generation;
+    }
+
+    /**
+     * Remove all keys from the cache (for example, after a change to the tenant policies).
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        ++generation;
+    }
+
+    /**
+     * Get the invalidation count of the cache.  Data derived from key request results (such as
+     * the set of columns a user may read) should be recomputed when this value changes.
+     *
+     * @return a value that changes each time entries are invalidated
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the number of entries (released and denied) currently held by the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * A cached key request result.
+     */
+    private static final class Entry {
+
+        /**
+         * The released key, or null if the key was denied.
+         */
+        private final GetKeysResponse.Key key;
+
+        /**
+         * The {@link System#nanoTime()} value after which the entry is stale.
+         */
+        private final long expires;
+
+        private Entry(final GetKeysResponse.Key key, final long expires) {
+            this.key = key;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.mock;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Injects latency, errors and throttling into the requests served by the mock Machina services.
+ *
+ * <p>Each request is first checked against the throttling limit (a maximum number of requests per
+ * one second window); throttled requests are rejected immediately.  Other requests are delayed by
+ * the configured latency plus a random jitter, then fail at the configured error rate.
+ */
+public class FaultInjector {
+
+    /**
+     * Status of a throttled request.
+     */
+    public static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * The fixed delay applied to each request, in milliseconds.
+     */
+    private final long latencyMillis;
+
+    /**
+     * The maximum random delay added to the fixed delay, in milliseconds.
+     */
+    private final long jitterMillis;
+
+    /**
+     * The fraction of requests that fail, from 0 to 1.
+     */
+    private final double errorRate;
+
+    /**
+     * The maximum number of requests accepted per second (0: no limit).
+     */
+    private final int maxRequestsPerSecond;
+
+    /**
+     * The start of the current throttling window, in milliseconds.  Guarded by <code>this</code>.
+     */
+    private long windowStart = 0L;
+
+    /**
+     * The number of requests accepted in the current throttling window.  Guarded by
+     * <code>this</code>.
+     */
+    private int windowRequests = 0;
+
+    /**
+     * Counters of requests seen, throttled and failed.
+     */
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param latencyMillis the fixed delay applied to each request, in milliseconds
+     * @param jitterMillis the maximum random delay added to the fixed delay, in milliseconds
+     * @param errorRate the fraction of requests that fail, from 0 to 1
+     * @param maxRequestsPerSecond the maximum number of requests accepted per second (0: no limit)
+     */
+    public FaultInjector(final long latencyMillis, final long jitterMillis, final double errorRate,
+            final int maxRequestsPerSecond) {
+        this.latencyMillis = Math.max(0L, latencyMillis);
+        this.jitterMillis = Math.max(0L, jitterMillis);
+        this.errorRate = errorRate;
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    /**
+     * @return a fault injector that lets every request through, without delay
+     */
+    public static FaultInjector none() {
+        return new FaultInjector(0L, 0L, 0.0, 0);
+    }
+
+    /**
+     * Apply the configured faults to a request, delaying the calling thread as configured.
+     *
+     * @return the HTTP status with which the request should complete:
+     *         {@link HttpURLConnection#HTTP_OK} to serve the request,
+     *         {@link #HTTP_TOO_MANY_REQUESTS} if throttled, or
+     *         {@link HttpURLConnection#HTTP_UNAVAILABLE} for an injected error
+     */
+    public int apply() {
+        requests.incrementAndGet();
+        if (!acquire()) {
+            throttled.incrementAndGet();
+            return HTTP_TOO_MANY_REQUESTS;
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final long jitter = (jitterMillis > 0L) ? random.nextLong(jitterMillis + 1) : 0L;
+        final long delay = latencyMillis + jitter;
+        if (delay > 0L) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if ((errorRate > 0.0) && (random.nextDouble() < errorRate)) {
+            errors.incrementAndGet();
+            return HttpURLConnection.HTTP_UNAVAILABLE;
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    /**
+     * @return true if the request fits in the current throttling window
+     */
+    private synchronized boolean acquire() {
+        if (maxRequestsPerSecond <= 0) {
+            return true;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - windowStart >= 1000L) {
+            windowStart = now;
+            windowRequests = 0;
+        }
+        return (++windowRequests <= maxRequestsPerSecond);
+    }
+
+    /**
+     * @return the number of requests seen
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests rejected by throttling
+     */
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    /**
+     * @return the number of requests failed by error injection
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+}
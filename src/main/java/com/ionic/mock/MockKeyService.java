@@ -0,0 +1,440 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.mock;
+
+import com.ionic.key.KeyCache;
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import com.ionic.sdk.error.SdkError;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+/**
+ * In-process stand-in for the Machina key create and get operations, for offline load and latency
+ * testing.
+ *
+ * <p>Key bytes are derived from the key id (HMAC-SHA256 of the id, keyed with a seed), so any
+ * <code>MOCK</code> key id is released with the same bytes by every instance sharing the seed,
+ * including instances in later processes.  The fixed attributes of created keys are held in
+ * memory and, given a key file, appended to it, so that policy decisions also survive the
+ * process; the key file holds no key material.
+ *
+ * <p>A key is denied when one of its attributes matches a rule added with
+ * {@link #deny(String, String)}, or matches the target of a policy stored by the
+ * {@link MockMachinaServer}, which stands in for server policy evaluation.  Each request passes
+ * through a {@link FaultInjector}; injected errors and throttling surface as
+ * {@link IonicException}, as a failed server request would.
+ *
+ * <p>Used as a {@link KeyCache.KeyFetcher} (<code>mockKeyService::getKeys</code>) in place of
+ * <code>agent::getKeys</code>.
+ */
+public class MockKeyService implements KeyCache.KeyFetcher {
+
+    /**
+     * Prefix of generated key ids.
+     */
+    private static final String KEY_ID_PREFIX = "MOCK";
+
+    /**
+     * The keyed hash deriving key bytes from key ids (32 bytes, for AES-256).
+     */
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /**
+     * Number of random bytes in a generated key id.
+     */
+    private static final int KEY_ID_RANDOM_BYTES = 8;
+
+    /**
+     * Faults applied to each request.
+     */
+    private final FaultInjector faults;
+
+    /**
+     * The key of the keyed hash deriving key bytes from key ids.
+     */
+    private final SecretKeySpec seed;
+
+    /**
+     * The file recording the attributes of created keys, or null to hold them in memory only.
+     */
+    private final Path keyFile;
+
+    /**
+     * The server whose stored policies deny keys, or null.
+     */
+    private final MockMachinaServer policyServer;
+
+    /**
+     * The fixed attributes of the keys created so far, keyed by key id.
+     */
+    private final Map<String, KeyAttributesMap> attributes =
+            new ConcurrentHashMap<String, KeyAttributesMap>();
+
+    /**
+     * Attribute name and value pairs for which keys are denied.
+     */
+    private final List<String[]> denials = new CopyOnWriteArrayList<String[]>();
+
+    /**
+     * Source of key ids.
+     */
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Constructor.  Keys are derived from a fixed seed, and their attributes are held in memory
+     * only.
+     *
+     * @param faults faults applied to each request
+     */
+    public MockKeyService(final FaultInjector faults) {
+        this.faults = faults;
+        this.seed = new SecretKeySpec(
+                KEY_ID_PREFIX.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.keyFile = null;
+        this.policyServer = null;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param faults faults applied to each request
+     * @param seed the seed from which key bytes are derived; keys are released with the same
+     *        bytes by all services using the same seed
+     * @param keyFile the file recording the attributes of created keys (read now, and appended to
+     *        as keys are created), or null to hold them in memory only
+     * @param policyServer the server whose stored policies deny keys, or null
+     * @throws IOException on failure to read the key file
+     */
+    public MockKeyService(final FaultInjector faults, final String seed, final Path keyFile,
+            final MockMachinaServer policyServer) throws IOException {
+        this.faults = faults;
+        this.seed = new SecretKeySpec(seed.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.keyFile = keyFile;
+        this.policyServer = policyServer;
+        if ((keyFile != null) && Files.exists(keyFile)) {
+            readKeyFile(keyFile);
+        }
+    }
+
+    /**
+     * Create the keys described by a request.
+     *
+     * @param request the keys to create
+     * @return the created keys, in request order
+     * @throws IonicException on an injected error, or throttling
+     */
+    public List<GetKeysResponse.Key> createKeys(final CreateKeysRequest request)
+            throws IonicException {
+        checkStatus(faults.apply());
+        final List<GetKeysResponse.Key> created = new ArrayList<GetKeysResponse.Key>();
+        for (CreateKeysRequest.Key requestKey : request.getKeys()) {
+            for (int i = 0; i < requestKey.getQuantity(); ++i) {
+                created.add(newKey(requestKey.getAttributesMap()));
+            }
+        }
+        try {
+            writeKeyFile(created);
+        } catch (IOException e) {
+            throw new IonicException(SdkError.ISAGENT_ERROR, e);
+        }
+        return created;
+    }
+
+    /**
+     * Create a single key, without fault injection (for example, to seed test data).
+     *
+     * @param attributes the fixed attributes of the key
+     * @return the new key
+     * @throws IonicException on failure to record the key in the key file
+     */
+    public GetKeysResponse.Key createKey(final KeyAttributesMap attributes)
+            throws IonicException {
+        final GetKeysResponse.Key key = newKey(attributes);
+        try {
+            writeKeyFile(Collections.singletonList(key));
+        } catch (IOException e) {
+            throw new IonicException(SdkError.ISAGENT_ERROR, e);
+        }
+        return key;
+    }
+
+    /**
+     * Release the requested keys.  Any <code>MOCK</code> key id is known, including those created
+     * by other processes; keys whose attributes were not recorded have no attributes.
+     *
+     * @param request the key ids to fetch
+     * @return the keys that are not denied
+     * @throws IonicException on an injected error, or throttling
+     */
+    @Override
+    public GetKeysResponse getKeys(final GetKeysRequest request) throws IonicException {
+        checkStatus(faults.apply());
+        final List<String[]> rules = getDenials();
+        final GetKeysResponse response = new GetKeysResponse();
+        for (String keyId : request.getKeyIds()) {
+            if (!keyId.startsWith(KEY_ID_PREFIX)) {
+                continue;
+            }
+            final KeyAttributesMap keyAttributes = attributes.get(keyId);
+            if ((keyAttributes == null) || !isDenied(keyAttributes, rules)) {
+                response.add(toKey(keyId,
+                        (keyAttributes == null) ? new KeyAttributesMap() : keyAttributes));
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Deny keys having an attribute value.
+     *
+     * @param attribute the attribute name
+     * @param value the attribute value
+     */
+    public void deny(final String attribute, final String value) {
+        denials.add(new String[] {attribute, value});
+    }
+
+    /**
+     * Remove all denial rules.
+     */
+    public void allowAll() {
+        denials.clear();
+    }
+
+    /**
+     * @return the faults applied to each request
+     */
+    public FaultInjector getFaults() {
+        return faults;
+    }
+
+    /**
+     * @return the denial rules added with {@link #deny(String, String)}, followed by those of the
+     *         policies stored by the policy server
+     */
+    private List<String[]> getDenials() {
+        if (policyServer == null) {
+            return denials;
+        }
+        final List<String[]> rules = new ArrayList<String[]>(denials);
+        for (JsonObject policy : policyServer.getPolicies()) {
+            addDenials(policy, rules);
+        }
+        return rules;
+    }
+
+    /**
+     * Add the denial rules of a policy of the form used by the demo: a target condition
+     * <code>string-at-least-one-member-of</code> on a resource attribute, and rules evaluated in
+     * order.  The mock caller has no subject attributes, so rules with a condition never apply;
+     * the policy denies if its first rule without a condition is a Deny.
+     *
+     * @param policy the policy
+     * @param rules the destination of the denial rules
+     */
+    private static void addDenials(final JsonObject policy, final List<String[]> rules) {
+        if (!policy.getBoolean("enabled", true)) {
+            return;
+        }
+        String effect = null;
+        for (JsonValue rule : getArray(policy, "rules")) {
+            if ((rule instanceof JsonObject) && !((JsonObject) rule).containsKey("condition")) {
+                effect = ((JsonObject) rule).getString("effect", null);
+                break;
+            }
+        }
+        final JsonObject target = policy.getJsonObject("target");
+        final JsonObject condition = (target == null) ? null : target.getJsonObject("condition");
+        if (!"Deny".equals(effect) || (condition == null) || !"string-at-least-one-member-of"
+                .equals(condition.getString("functionId", null))) {
+            return;
+        }
+        String attribute = null;
+        final List<String> values = new ArrayList<String>();
+        for (JsonValue arg : getArray(condition, "args")) {
+            if (!(arg instanceof JsonObject)) {
+                continue;
+            }
+            final JsonObject argObject = (JsonObject) arg;
+            if ("resource".equals(argObject.getString("category", null))) {
+                attribute = argObject.getString("id", null);
+            }
+            for (JsonValue value : getArray(argObject, "value")) {
+                if (value instanceof JsonString) {
+                    values.add(((JsonString) value).getString());
+                }
+            }
+        }
+        for (int i = 0; (attribute != null) && (i < values.size()); ++i) {
+            rules.add(new String[] {attribute, values.get(i)});
+        }
+    }
+
+    /**
+     * @param object a JSON object
+     * @param name the name of an array member
+     * @return the array, or an empty array if the member is missing or not an array
+     */
+    private static List<JsonValue> getArray(final JsonObject object, final String name) {
+        final JsonValue value = object.get(name);
+        return (value instanceof JsonArray) ? (JsonArray) value
+                : Collections.<JsonValue>emptyList();
+    }
+
+    /**
+     * @param keyAttributes the fixed attributes of a key
+     * @param rules the denial rules
+     * @return true if a denial rule matches the attributes
+     */
+    private static boolean isDenied(final KeyAttributesMap keyAttributes,
+            final List<String[]> rules) {
+        for (String[] denial : rules) {
+            final List<String> values = keyAttributes.get(denial[0]);
+            if ((values != null) && values.contains(denial[1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param keyAttributes the fixed attributes of the key
+     * @return a new key, registered with the service
+     */
+    private GetKeysResponse.Key newKey(final KeyAttributesMap keyAttributes) {
+        final byte[] idBytes = new byte[KEY_ID_RANDOM_BYTES];
+        random.nextBytes(idBytes);
+        final StringBuilder keyId = new StringBuilder(KEY_ID_PREFIX);
+        for (byte b : idBytes) {
+            keyId.append(String.format("%02x", b & 0xff));
+        }
+        final KeyAttributesMap copy = new KeyAttributesMap();
+        copy.putAll(keyAttributes);
+        attributes.put(keyId.toString(), copy);
+        return toKey(keyId.toString(), copy);
+    }
+
+    /**
+     * @param keyId the key id
+     * @param keyAttributes the fixed attributes of the key
+     * @return the key, with the bytes derived from its id
+     * @throws IllegalStateException if the keyed hash is not available
+     */
+    private GetKeysResponse.Key toKey(final String keyId, final KeyAttributesMap keyAttributes) {
+        final byte[] keyBytes;
+        try {
+            final Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(seed);
+            keyBytes = mac.doFinal(keyId.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        final GetKeysResponse.Key key = new GetKeysResponse.Key();
+        key.setId(keyId);
+        key.setKey(keyBytes);
+        key.setAttributesMap(keyAttributes);
+        return key;
+    }
+
+    /**
+     * Load the attributes of the keys recorded in a key file: one line per key, holding the key
+     * id, a tab, and the attributes as a JSON object of string arrays.
+     *
+     * @param file the key file
+     * @throws IOException on failure to read the file
+     */
+    private void readKeyFile(final Path file) throws IOException {
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            final int tab = line.indexOf('\t');
+            if (tab < 0) {
+                continue;
+            }
+            final JsonObject object;
+            try (JsonReader reader = Json.createReader(new StringReader(line.substring(tab + 1)))) {
+                object = reader.readObject();
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed mock key file entry: " + line, e);
+            }
+            final KeyAttributesMap keyAttributes = new KeyAttributesMap();
+            for (String name : object.keySet()) {
+                final List<String> values = new ArrayList<String>();
+                for (JsonValue value : getArray(object, name)) {
+                    if (value instanceof JsonString) {
+                        values.add(((JsonString) value).getString());
+                    }
+                }
+                keyAttributes.put(name, values);
+            }
+            attributes.put(line.substring(0, tab), keyAttributes);
+        }
+    }
+
+    /**
+     * Append created keys to the key file, if any.
+     *
+     * @param keys the created keys
+     * @throws IOException on failure to write the file
+     */
+    private void writeKeyFile(final List<GetKeysResponse.Key> keys) throws IOException {
+        if (keyFile == null) {
+            return;
+        }
+        final StringBuilder lines = new StringBuilder();
+        for (GetKeysResponse.Key key : keys) {
+            final JsonObjectBuilder object = Json.createObjectBuilder();
+            for (Map.Entry<String, List<String>> entry : key.getAttributesMap().entrySet()) {
+                final JsonArrayBuilder values = Json.createArrayBuilder();
+                for (String value : entry.getValue()) {
+                    values.add(value);
+                }
+                object.add(entry.getKey(), values);
+            }
+            lines.append(key.getId()).append('\t').append(object.build()).append('\n');
+        }
+        synchronized (this) {
+            Files.write(keyFile, lines.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * @param status the status chosen by the {@link FaultInjector}
+     * @throws IonicException if the status is not success
+     */
+    private static void checkStatus(final int status) throws IonicException {
+        if (status != HttpURLConnection.HTTP_OK) {
+            throw new IonicException(SdkError.ISAGENT_REQUESTFAILED,
+                    "Mock key service returned status " + status);
+        }
+    }
+}
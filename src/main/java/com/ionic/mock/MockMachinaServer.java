@@ -0,0 +1,283 @@
+/*
+ * (c) 2019-2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.mock;
+
+import com.ionic.sdk.core.codec.Transcoder;
+import com.ionic.sdk.device.DeviceUtils;
+import com.ionic.sdk.error.IonicException;
+import com.ionic.sdk.json.JsonIO;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+
+/**
+ * Embeddable, local stand-in for the Machina policy endpoints used by
+ * {@link com.ionic.policy.PolicyService}, for offline load and latency testing.
+ *
+ * <p>The server listens on the loopback interface, over plain HTTP, and serves:
+ * <ul>
+ * <li><code>GET /v2/{tenant}/policies</code>: list the stored policies (paged with
+ *     <code>startIndex</code> and <code>count</code>)</li>
+ * <li><code>POST /v2/{tenant}/policies</code>: store a policy, returning its generated id</li>
+ * <li><code>DELETE /v2/{tenant}/policies/{id}</code>: remove a stored policy</li>
+ * </ul>
+ * Policies are stored per tenant; a {@link MockKeyService} given this server denies keys matching
+ * the targets of its stored policies (see {@link #getPolicies()}).  Requests without an
+ * <code>Authorization</code> header are rejected.  Each request passes through a
+ * {@link FaultInjector}.
+ */
+public class MockMachinaServer implements AutoCloseable {
+
+    /**
+     * Path prefix of the policy endpoints.
+     */
+    private static final String CONTEXT = "/v2/";
+
+    /**
+     * Path segment of the policy endpoints.
+     */
+    private static final String POLICIES = "policies";
+
+    /**
+     * Content type of the responses.
+     */
+    private static final String CONTENT_TYPE = "application/json";
+
+    /**
+     * Faults applied to each request.
+     */
+    private final FaultInjector faults;
+
+    /**
+     * The HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Threads serving requests.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Stored policies, keyed by tenant, then by policy id.
+     */
+    private final Map<String, Map<String, JsonObject>> tenants =
+            new ConcurrentSkipListMap<String, Map<String, JsonObject>>();
+
+    /**
+     * Constructor.  The server does not accept requests until {@link #start()} is called.
+     *
+     * @param port the port to listen on (0: any free port)
+     * @param threads the number of threads serving requests
+     * @param faults faults applied to each request
+     * @throws IOException on failure to bind the port
+     */
+    public MockMachinaServer(final int port, final int threads, final FaultInjector faults)
+            throws IOException {
+        this.faults = faults;
+        this.server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            final Thread thread = new Thread(runnable, "MockMachinaServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(CONTEXT, this::handle);
+    }
+
+    /**
+     * Start accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return the base URL of the server (the equivalent of the Machina API URL)
+     */
+    public URL getUrl() {
+        final InetSocketAddress address = server.getAddress();
+        try {
+            return new URL("http", address.getHostString(), address.getPort(), "/");
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the faults applied to each request
+     */
+    public FaultInjector getFaults() {
+        return faults;
+    }
+
+    /**
+     * @return the policies stored for all tenants
+     */
+    public List<JsonObject> getPolicies() {
+        final List<JsonObject> policies = new ArrayList<JsonObject>();
+        for (Map<String, JsonObject> tenantPolicies : tenants.values()) {
+            policies.addAll(tenantPolicies.values());
+        }
+        return policies;
+    }
+
+    /**
+     * Stop the server.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Serve a request.
+     *
+     * @param exchange the request and response
+     * @throws IOException on failure to read the request or write the response
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            final int status = faults.apply();
+            if (status != HttpURLConnection.HTTP_OK) {
+                send(exchange, status, null);
+                return;
+            }
+            if (exchange.getRequestHeaders().getFirst("Authorization") == null) {
+                send(exchange, HttpURLConnection.HTTP_UNAUTHORIZED, null);
+                return;
+            }
+            // path: /v2/{tenant}/policies[/{id}]
+            final String[] path = exchange.getRequestURI().getPath().substring(
+                    CONTEXT.length()).split("/");
+            if ((path.length < 2) || (path.length > 3) || !POLICIES.equals(path[1])) {
+                send(exchange, HttpURLConnection.HTTP_NOT_FOUND, null);
+                return;
+            }
+            final Map<String, JsonObject> policies = tenants.computeIfAbsent(
+                    path[0], tenant -> new ConcurrentSkipListMap<String, JsonObject>());
+            final String method = exchange.getRequestMethod();
+            if ((path.length == 2) && "GET".equals(method)) {
+                listPolicies(exchange, policies);
+            } else if ((path.length == 2) && "POST".equals(method)) {
+                addPolicy(exchange, policies);
+            } else if ((path.length == 3) && "DELETE".equals(method)) {
+                final boolean removed = (policies.remove(path[2]) != null);
+                send(exchange, removed ? HttpURLConnection.HTTP_NO_CONTENT
+                        : HttpURLConnection.HTTP_NOT_FOUND, null);
+            } else {
+                send(exchange, HttpURLConnection.HTTP_BAD_METHOD, null);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * List a page of the policies, as selected by the SCIM <code>startIndex</code> (1-based) and
+     * <code>count</code> query parameters; without them, all policies are listed.
+     *
+     * @param exchange the request and response
+     * @param policies the policies of the tenant
+     * @throws IOException on failure to write the response
+     */
+    private void listPolicies(final HttpExchange exchange, final Map<String, JsonObject> policies)
+            throws IOException {
+        int startIndex = 1;
+        int count = Integer.MAX_VALUE;
+        final String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                final String[] nameValue = parameter.split("=", 2);
+                try {
+                    if ((nameValue.length == 2) && "startIndex".equals(nameValue[0])) {
+                        startIndex = Math.max(1, Integer.parseInt(nameValue[1]));
+                    } else if ((nameValue.length == 2) && "count".equals(nameValue[0])) {
+                        count = Math.max(0, Integer.parseInt(nameValue[1]));
+                    }
+                } catch (NumberFormatException e) {
+                    send(exchange, HttpURLConnection.HTTP_BAD_REQUEST, null);
+                    return;
+                }
+            }
+        }
+        final JsonArrayBuilder resources = Json.createArrayBuilder();
+        int index = 0;
+        int listed = 0;
+        for (Map.Entry<String, JsonObject> entry : policies.entrySet()) {
+            if ((++index >= startIndex) && (listed < count)) {
+                resources.add(Json.createObjectBuilder(entry.getValue()).add("id", entry.getKey()));
+                ++listed;
+            }
+        }
+        send(exchange, HttpURLConnection.HTTP_OK, Json.createObjectBuilder()
+                .add("totalResults", index)
+                .add("startIndex", startIndex)
+                .add("itemsPerPage", listed)
+                .add("Resources", resources)
+                .build());
+    }
+
+    /**
+     * @param exchange the request and response
+     * @param policies the policies of the tenant
+     * @throws IOException on failure to read the request or write the response
+     */
+    private void addPolicy(final HttpExchange exchange, final Map<String, JsonObject> policies)
+            throws IOException {
+        final JsonObject policy;
+        try {
+            policy = JsonIO.readObject(
+                    new ByteArrayInputStream(DeviceUtils.read(exchange.getRequestBody())));
+        } catch (IonicException e) {
+            send(exchange, HttpURLConnection.HTTP_BAD_REQUEST, null);
+            return;
+        }
+        final String id = UUID.randomUUID().toString();
+        policies.put(id, policy);
+        send(exchange, HttpURLConnection.HTTP_CREATED,
+                Json.createObjectBuilder(policy).add("id", id).build());
+    }
+
+    /**
+     * @param exchange the request and response
+     * @param status the response status
+     * @param body the response body, or null for an empty body
+     * @throws IOException on failure to write the response
+     */
+    private static void send(final HttpExchange exchange, final int status, final JsonObject body)
+            throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1L);
+            return;
+        }
+        final byte[] entity = Transcoder.utf8().decode(body.toString());
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, entity.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(entity);
+        }
+    }
+}
@@ -5,6 +5,7 @@
 
 package com.ionic.policy;
 
+import com.ionic.http.PagedIterator;
 import com.ionic.sdk.agent.config.AgentConfig;
 import com.ionic.sdk.agent.service.IDC;
 import com.ionic.sdk.core.codec.Transcoder;
@@ -24,20 +25,41 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import javax.json.JsonArray;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import javax.json.JsonObject;
 import org.owasp.encoder.Encode;
 
 /**
  * PolicyService is used to manipulate Machina server policies for your tenant.
  *
+ * <p>An instance is long-lived, and thread-safe: it holds one HTTP client, whose connections are
+ * kept alive between requests, and the request headers (with the encoded credentials), which are
+ * built once and never modified.  Share a single instance rather than creating one per request.
  */
 public class PolicyService {
 
+    /**
+     * Default number of policies requested per page.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
     private final URL urlIonicApi;
     private final String tenantId;
-    private final String user;
-    private final String password;
+    private final int pageSize;
+
+    /**
+     * The HTTP client used for all requests.
+     */
+    private final HttpClient httpClient;
+
+    /**
+     * Headers of requests without an entity (GET, DELETE), and of requests with a JSON entity.
+     */
+    private final HttpHeaders httpHeaders;
+    private final HttpHeaders httpHeadersEntity;
 
     /**
      * constructor for PolicyService.
@@ -48,10 +70,32 @@ public class PolicyService {
      * @param password - Password for tenant user
      */
     public PolicyService(URL urlIonicApi, String tenantId, String user, String password) {
+        this(urlIonicApi, tenantId, user, password, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * constructor for PolicyService, with the number of policies requested per page.
+     *
+     * @param urlIonicApi - URL for API REST requests
+     * @param tenantId - Tenant ID for your tenant
+     * @param user - Name of tenant user for demo
+     * @param password - Password for tenant user
+     * @param pageSize - Number of policies requested per page when listing policies
+     */
+    public PolicyService(URL urlIonicApi, String tenantId, String user, String password,
+            int pageSize) {
         this.urlIonicApi = urlIonicApi;
         this.tenantId = tenantId;
-        this.user = user;
-        this.password = password;
+        this.pageSize = pageSize;
+        this.httpClient = new HttpClientDefault(new AgentConfig(), urlIonicApi.getProtocol());
+        final String authorizationValue = String.format("%s:%s", user, password);
+        final HttpHeader authorization = new HttpHeader(HEADER_AUTHORIZATION,
+                String.format(PATTERN_AUTHORIZATION_VALUE, Transcoder.base64().encode(
+                        Transcoder.utf8().decode(authorizationValue))));
+        final HttpHeader accepts = new HttpHeader(HEADER_ACCEPTS, Http.Header.CONTENT_TYPE_SERVER);
+        this.httpHeaders = new HttpHeaders(authorization, accepts);
+        this.httpHeadersEntity = new HttpHeaders(authorization,
+                new HttpHeader(Http.Header.CONTENT_TYPE, Http.Header.CONTENT_TYPE_SERVER), accepts);
     }
 
     /**
@@ -60,34 +104,60 @@ public class PolicyService {
      * @throws IonicException on server request failure; unrecognized response
      */
     public void listPolicies() throws IonicException {
-        final String file = String.format(RESOURCE_POLICY_LIST, tenantId);
-        final HttpClient httpClient =
-                new HttpClientDefault(new AgentConfig(), urlIonicApi.getProtocol());
-        final String authorizationValue = String.format("%s:%s", user, password);
-        final String authorization = String.format(PATTERN_AUTHORIZATION_VALUE,
-                Transcoder.base64().encode(Transcoder.utf8().decode(authorizationValue)));
-        final HttpHeaders httpHeaders =
-                new HttpHeaders(new HttpHeader(HEADER_AUTHORIZATION, authorization),
-                        new HttpHeader(HEADER_ACCEPTS, Http.Header.CONTENT_TYPE_SERVER));
+        try (PagedIterator policies = iteratePolicies()) {
+            System.out.println("\tPolicy Id                : Policy");
+            while (policies.hasNext()) {
+                final JsonObject policy = policies.next();
+                System.out.println("\t" + Encode.forHtml(policy.getString("id")) + " : "
+                        + Encode.forHtml(policy.getString("policyId")));
+            }
+            System.out.println("\t" + policies.getTotalResults() + " Policies");
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof IonicException) {
+                throw (IonicException) e.getCause();
+            }
+            throw new IonicException(SdkError.ISAGENT_REQUESTFAILED, e);
+        }
+    }
 
+    /**
+     * Iterate over the server policies associated with the tenant, a page at a time.  Each page
+     * is requested in the background while the caller processes the previous one.
+     *
+     * <p>Failure to fetch a page surfaces as an {@link IllegalStateException} (from
+     * <code>hasNext()</code>), caused by the {@link IonicException} of the failed request.
+     *
+     * @return a lazy iterator over the policies; no request is made until the iteration starts
+     */
+    public PagedIterator iteratePolicies() {
+        return new PagedIterator((startIndex, count) -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return requestPolicies(startIndex, count);
+            } catch (IonicException e) {
+                throw new CompletionException(e);
+            }
+        }, FetchHolder.EXECUTOR), pageSize);
+    }
+
+    /**
+     * Request one page of the server policies associated with the tenant.
+     *
+     * @param startIndex the 1-based index of the first policy of the page
+     * @param count the maximum number of policies in the page
+     * @return the SCIM list response holding the page
+     * @throws IonicException on server request failure; unrecognized response
+     */
+    private JsonObject requestPolicies(int startIndex, int count) throws IonicException {
+        final String file = String.format(RESOURCE_POLICY_PAGE, tenantId, startIndex, count);
         final HttpRequest httpRequest =
                 new HttpRequest(urlIonicApi, Http.Method.GET, file, httpHeaders, null);
         try {
             final HttpResponse httpResponse = httpClient.execute(httpRequest);
+            // the response is read in full, so that the connection may be reused
+            final byte[] entityOut = DeviceUtils.read(httpResponse.getEntity());
             SdkData.checkTrue(HttpURLConnection.HTTP_OK == httpResponse.getStatusCode(),
                     SdkError.ISAGENT_REQUESTFAILED);
-            final byte[] entityOut = DeviceUtils.read(httpResponse.getEntity());
-            final JsonObject jsonResponse = JsonIO.readObject(new ByteArrayInputStream(entityOut));
-
-            JsonArray policyList = jsonResponse.getJsonArray("Resources");
-            System.out.println("\t" + jsonResponse.getInt("totalResults") + " Policies:");
-            System.out.println("\tPolicy Id                : Policy");
-            for (Object policyObj : policyList) {
-                JsonObject policy = (JsonObject) policyObj;
-                System.out.println(
-                        "\t" + Encode.forHtml(policy.getString("id")) + " : " + Encode.forHtml(policy.getString("policyId")));
-            }
-            return;
+            return JsonIO.readObject(new ByteArrayInputStream(entityOut));
         } catch (IOException e) {
             throw new IonicException(SdkError.ISAGENT_REQUESTFAILED, e);
         }
@@ -102,23 +172,15 @@ public class PolicyService {
      */
     public String addPolicy(final byte[] policyJson) throws IonicException {
         final String file = String.format(RESOURCE_POLICY_CREATE, tenantId);
-        final HttpClient httpClient =
-                new HttpClientDefault(new AgentConfig(), urlIonicApi.getProtocol());
-        final String authorizationValue = String.format("%s:%s", user, password);
-        final String authorization = String.format(PATTERN_AUTHORIZATION_VALUE,
-                Transcoder.base64().encode(Transcoder.utf8().decode(authorizationValue)));
-        final HttpHeaders httpHeaders =
-                new HttpHeaders(new HttpHeader(HEADER_AUTHORIZATION, authorization),
-                        new HttpHeader(Http.Header.CONTENT_TYPE, Http.Header.CONTENT_TYPE_SERVER),
-                        new HttpHeader(HEADER_ACCEPTS, Http.Header.CONTENT_TYPE_SERVER));
         final ByteArrayInputStream entityIn = new ByteArrayInputStream(policyJson);
         final HttpRequest httpRequest =
-                new HttpRequest(urlIonicApi, Http.Method.POST, file, httpHeaders, entityIn);
+                new HttpRequest(urlIonicApi, Http.Method.POST, file, httpHeadersEntity, entityIn);
         try {
             final HttpResponse httpResponse = httpClient.execute(httpRequest);
+            // the response is read in full, so that the connection may be reused
+            final byte[] entityOut = DeviceUtils.read(httpResponse.getEntity());
             SdkData.checkTrue(HttpURLConnection.HTTP_CREATED == httpResponse.getStatusCode(),
                     SdkError.ISAGENT_REQUESTFAILED);
-            final byte[] entityOut = DeviceUtils.read(httpResponse.getEntity());
             final JsonObject jsonResponse = JsonIO.readObject(new ByteArrayInputStream(entityOut));
             return jsonResponse.getString(IDC.Payload.ID);
         } catch (IOException e) {
@@ -134,14 +196,6 @@ public class PolicyService {
      */
     public void deletePolicy(final String policyId) throws IonicException {
         final String file = String.format(RESOURCE_POLICY_DELETE, tenantId, policyId);
-        final HttpClient httpClient =
-                new HttpClientDefault(new AgentConfig(), urlIonicApi.getProtocol());
-        final String authorizationValue = String.format("%s:%s", user, password);
-        final String authorization = String.format(PATTERN_AUTHORIZATION_VALUE,
-                Transcoder.base64().encode(Transcoder.utf8().decode(authorizationValue)));
-        final HttpHeaders httpHeaders =
-                new HttpHeaders(new HttpHeader(HEADER_AUTHORIZATION, authorization),
-                        new HttpHeader(HEADER_ACCEPTS, Http.Header.CONTENT_TYPE_SERVER));
         final HttpRequest httpRequest =
                 new HttpRequest(urlIonicApi, METHOD_DELETE, file, httpHeaders, null);
         try {
@@ -153,11 +207,23 @@ public class PolicyService {
         }
     }
 
-    private static final String RESOURCE_POLICY_LIST = "/v2/%s/policies";
+    private static final String RESOURCE_POLICY_PAGE = "/v2/%s/policies?startIndex=%d&count=%d";
     private static final String RESOURCE_POLICY_CREATE = "/v2/%s/policies";
     private static final String RESOURCE_POLICY_DELETE = "/v2/%s/policies/%s";
     private static final String METHOD_DELETE = "DELETE";
     private static final String HEADER_ACCEPTS = "Accepts";
     private static final String HEADER_AUTHORIZATION = "Authorization";
     private static final String PATTERN_AUTHORIZATION_VALUE = "Basic %s";
+
+    /**
+     * Requests pages of policies in the background.
+     */
+    private static final class FetchHolder {
+
+        private static final Executor EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "PolicyService");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 }
@@ -27,24 +27,106 @@ final public class AppProperties extends Properties {
     public static final String IONIC_BASIC_USER = "ionic.basic.user";
     public static final String IONIC_BASIC_PASSWORD = "ionic.basic.password";
     public static final String IONIC_BEARER_API_TOKEN = "ionic.bearer.apitoken";
+    public static final String IONIC_API_PAGE_SIZE = "ionic.api.pagesize";
+
+    // Ionic SCIM directory cache properties
+    public static final String IONIC_SCIM_CACHE_MAX_ENTRIES = "ionic.scim.cache.maxentries";
+    public static final String IONIC_SCIM_CACHE_TTL_MILLIS = "ionic.scim.cache.ttl.ms";
+    public static final String IONIC_SCIM_CACHE_MAX_AGE_MILLIS = "ionic.scim.cache.maxage.ms";
+
+    // Ionic API HTTP transport properties
+    public static final String IONIC_HTTP_CONNECT_TIMEOUT_MILLIS = "ionic.http.connecttimeout.ms";
+    public static final String IONIC_HTTP_READ_TIMEOUT_MILLIS = "ionic.http.readtimeout.ms";
+    public static final String IONIC_HTTP_MAX_CONNECTIONS_PER_HOST = "ionic.http.maxconnections";
+    public static final String IONIC_HTTP_ASYNC_THREADS = "ionic.http.asyncthreads";
+
+    // Ionic key cache properties
+    public static final String IONIC_KEYCACHE_MAX_ENTRIES = "ionic.keycache.maxentries";
+    public static final String IONIC_KEYCACHE_TTL_MILLIS = "ionic.keycache.ttl.ms";
+    public static final String IONIC_KEYCACHE_DENIED_TTL_MILLIS = "ionic.keycache.denied.ttl.ms";
 
     // Ionic JDBC demo app sample data properties
     public static final String IONIC_SAMPLE_DATA_USER_ID = "ionic.sampledata.userid";
     public static final String IONIC_SAMPLE_DATA_GROUP_ID = "ionic.sampledata.groupid";
     public static final String IONIC_SAMPLE_DATA_ROLE_ID = "ionic.sampledata.roleid";
 
+    // Local mock Machina services (offline load and latency testing)
+    public static final String IONIC_MOCK_ENABLED = "ionic.mock.enabled";
+    public static final String IONIC_MOCK_LATENCY_MILLIS = "ionic.mock.latency.ms";
+    public static final String IONIC_MOCK_JITTER_MILLIS = "ionic.mock.jitter.ms";
+    public static final String IONIC_MOCK_ERROR_RATE = "ionic.mock.errorrate";
+    public static final String IONIC_MOCK_MAX_REQUESTS_PER_SECOND = "ionic.mock.maxrps";
+    public static final String IONIC_MOCK_SEED = "ionic.mock.seed";
+    public static final String IONIC_MOCK_KEY_FILE = "ionic.mock.keyfile";
+    public static final String IONIC_MOCK_DENY = "ionic.mock.deny";
+
     // Ionic JDBC demo app SQL statements properties
     public static final String DRIVER_CLASS_NAME = "driverClassName";
     public static final String JDBC_URL = "jdbc.url";
     public static final String JDBC_USER = "jdbc.user";
     public static final String JDBC_PASSWORD = "jdbc.password";
 
+    // Ionic JDBC demo app server-side prepared statement reuse (PostgreSQL driver)
+    public static final String JDBC_PREPARE_THRESHOLD = "jdbc.preparethreshold";
+
+    // Ionic JDBC demo app connection pool properties
+    public static final String JDBC_POOL_MIN_IDLE = "jdbc.pool.minidle";
+    public static final String JDBC_POOL_MAX_IDLE = "jdbc.pool.maxidle";
+    public static final String JDBC_POOL_MAX_TOTAL = "jdbc.pool.maxtotal";
+    public static final String JDBC_POOL_MAX_WAIT_MILLIS = "jdbc.pool.maxwait.ms";
+    public static final String JDBC_POOL_LEAK_THRESHOLD_MILLIS = "jdbc.pool.leakthreshold.ms";
+
+    // Ionic JDBC demo app streaming read properties
+    public static final String JDBC_FETCH_SIZE = "jdbc.fetchsize";
+
+    // Ionic JDBC demo app parallel decryption properties
+    public static final String JDBC_DECRYPT_PARALLELISM = "jdbc.decrypt.parallelism";
+    public static final String JDBC_DECRYPT_CHUNK_ROWS = "jdbc.decrypt.chunkrows";
+
+    // Ionic JDBC demo app external sort (of decrypted records) properties
+    public static final String JDBC_SORT_MEMORY_BYTES = "jdbc.sort.memory.bytes";
+    public static final String JDBC_SORT_DIRECTORY = "jdbc.sort.directory";
+
+    // Ionic JDBC demo app bounded (spill-to-disk) row set properties
+    public static final String JDBC_ROWSET_HEAP_ROWS = "jdbc.rowset.heaprows";
+    public static final String JDBC_ROWSET_BATCH_ROWS = "jdbc.rowset.batchrows";
+    public static final String JDBC_ROWSET_DIRECTORY = "jdbc.rowset.directory";
+
+    // Ionic JDBC demo app off-heap decrypted value properties
+    public static final String JDBC_OFFHEAP_BLOCK_BYTES = "jdbc.offheap.blockbytes";
+    public static final String JDBC_OFFHEAP_MAX_POOLED = "jdbc.offheap.maxpooled";
+
+    // Ionic JDBC demo app batched encrypt-on-write properties
+    public static final String JDBC_BATCH_SIZE = "jdbc.batchsize";
+
     public static final String JDBC_SQL_INSERT_PERSONNEL = "jdbc.sql.insert.personnel";
     public static final String JDBC_SQL_SELECT_PERSONNEL = "jdbc.sql.select.personnel";
     public static final String JDBC_SQL_INSERT_ACCESS = "jdbc.sql.insert.access";
     public static final String JDBC_SQL_SELECT_ACCESS = "jdbc.sql.select.access";
     public static final String JDBC_SQL_UPDATE_ACCESS = "jdbc.sql.update.access";
 
+    // Ionic JDBC demo app blind index (equality search on protected columns) properties
+    public static final String JDBC_BLIND_INDEX_COLUMNS = "jdbc.blindindex.columns";
+
+    // Ionic JDBC demo app key access audit properties
+    public static final String JDBC_SQL_INSERT_ACTIVITY = "jdbc.sql.insert.activity";
+    public static final String JDBC_AUDIT_ENABLED = "jdbc.audit.enabled";
+    public static final String JDBC_AUDIT_CAPACITY = "jdbc.audit.capacity";
+    public static final String JDBC_AUDIT_BATCH_SIZE = "jdbc.audit.batchsize";
+    public static final String JDBC_AUDIT_FLUSH_MILLIS = "jdbc.audit.flush.ms";
+    public static final String JDBC_AUDIT_BLOCK_WHEN_FULL = "jdbc.audit.blockwhenfull";
+
+    // Ionic JDBC demo app access table refresh interval
+    public static final String JDBC_ACCESS_REFRESH_MILLIS = "jdbc.access.refresh.ms";
+
+    // Ionic JDBC demo app load test properties
+    public static final String LOADTEST_WORKERS = "loadtest.workers";
+    public static final String LOADTEST_DURATION_SECONDS = "loadtest.duration.s";
+    public static final String LOADTEST_RATE = "loadtest.rate";
+    public static final String LOADTEST_READ_RATIO = "loadtest.readratio";
+    public static final String LOADTEST_READ_ROWS = "loadtest.readrows";
+    public static final String LOADTEST_SUMMARY_FILE = "loadtest.summaryfile";
+
     // AppProperties loaded flag
     boolean appPropertiesLoaded = false;
 
@@ -0,0 +1,114 @@
+/*
+ * (c) 2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.audit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Capacity, wraparound and concurrent producers of a {@link RingBuffer}.
+ */
+public class RingBufferTest {
+
+    @Test
+    public void testCapacity() {
+        Assert.assertEquals(2, new RingBuffer<String>(0).capacity());
+        Assert.assertEquals(2, new RingBuffer<String>(2).capacity());
+        Assert.assertEquals(8, new RingBuffer<String>(5).capacity());
+        Assert.assertEquals(8, new RingBuffer<String>(8).capacity());
+        Assert.assertEquals(1024, new RingBuffer<String>(1000).capacity());
+    }
+
+    @Test
+    public void testFull() {
+        final RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+        Assert.assertNull(buffer.poll());
+        for (int i = 0; i < 4; ++i) {
+            Assert.assertTrue(buffer.offer(i));
+        }
+        Assert.assertEquals(4, buffer.size());
+        Assert.assertFalse(buffer.offer(4));
+        Assert.assertEquals(Integer.valueOf(0), buffer.poll());
+        Assert.assertTrue(buffer.offer(4));
+        for (int i = 1; i <= 4; ++i) {
+            Assert.assertEquals(Integer.valueOf(i), buffer.poll());
+        }
+        Assert.assertNull(buffer.poll());
+        Assert.assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testWraparound() {
+        final RingBuffer<Integer> buffer = new RingBuffer<Integer>(8);
+        int offered = 0;
+        int polled = 0;
+        // many laps of the ring, at every fill level
+        for (int lap = 0; lap < 1000; ++lap) {
+            final int burst = 1 + lap % 4;
+            for (int i = 0; i < burst; ++i) {
+                Assert.assertTrue(buffer.offer(offered++));
+            }
+            for (int i = 0; i < burst - (lap % 2); ++i) {
+                Assert.assertEquals(Integer.valueOf(polled++), buffer.poll());
+            }
+            while (buffer.size() > 4) {
+                Assert.assertEquals(Integer.valueOf(polled++), buffer.poll());
+            }
+        }
+        while (polled < offered) {
+            Assert.assertEquals(Integer.valueOf(polled++), buffer.poll());
+        }
+        Assert.assertNull(buffer.poll());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 50000;
+        final RingBuffer<int[]> buffer = new RingBuffer<int[]>(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; ++p) {
+            final int producer = p;
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; ++i) {
+                    while (!buffer.offer(new int[] { producer, i })) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        // each producer's elements are taken in the order it offered them, and none is lost
+        final int[] next = new int[producers];
+        for (int taken = 0; taken < producers * perProducer;) {
+            final int[] element = buffer.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            Assert.assertEquals(next[element[0]]++, element[1]);
+            ++taken;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(buffer.poll());
+        for (int count : next) {
+            Assert.assertEquals(perProducer, count);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * (c) 2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Dispatch of requests under the per-host connection limit of {@link HttpPorter}, against a
+ * local HTTP server.
+ */
+public class HttpPorterTest {
+
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ExecutorService executor;
+
+    /**
+     * The paths of the requests received, in order.
+     */
+    private final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+    private final AtomicInteger inProgress = new AtomicInteger();
+    private final AtomicInteger maxInProgress = new AtomicInteger();
+
+    /**
+     * Requests to paths starting with "/wait" are answered once this latch is released.
+     */
+    private final CountDownLatch answer = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        answer.countDown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testAsyncRequestsLimitedPerHost() throws Exception {
+        final HttpPorter porter = new HttpPorter(TIMEOUT_MILLIS, TIMEOUT_MILLIS, 2, executor);
+        final List<CompletableFuture<JsonObject>> futures =
+                new ArrayList<CompletableFuture<JsonObject>>();
+        for (int i = 0; i < 10; ++i) {
+            futures.add(porter.sendAsync(HttpPorter.HTTP_GET, url("/slow/" + i), null));
+        }
+        for (CompletableFuture<JsonObject> future : futures) {
+            Assert.assertEquals(HttpURLConnection.HTTP_OK, statusCode(future));
+        }
+        Assert.assertEquals(10, received.size());
+        Assert.assertEquals(2, maxInProgress.get());
+    }
+
+    @Test
+    public void testQueuedRequestsStartInOrder() throws Exception {
+        final HttpPorter porter = new HttpPorter(TIMEOUT_MILLIS, TIMEOUT_MILLIS, 1, executor);
+        final List<CompletableFuture<JsonObject>> futures =
+                new ArrayList<CompletableFuture<JsonObject>>();
+        final List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 20; ++i) {
+            futures.add(porter.sendAsync(HttpPorter.HTTP_GET, url("/" + i), null));
+            expected.add("/" + i);
+        }
+        for (CompletableFuture<JsonObject> future : futures) {
+            Assert.assertEquals(HttpURLConnection.HTTP_OK, statusCode(future));
+        }
+        Assert.assertEquals(expected, received);
+        Assert.assertEquals(1, maxInProgress.get());
+    }
+
+    @Test
+    public void testSynchronousRequestWaitsForPermit() throws Exception {
+        final HttpPorter porter = new HttpPorter(200, TIMEOUT_MILLIS, 1, executor);
+        final CompletableFuture<JsonObject> waiting =
+                porter.sendAsync(HttpPorter.HTTP_GET, url("/wait"), null);
+        awaitReceived(1);
+        // the asynchronous request holds the only permit for the host
+        final JsonObject timedOut = porter.request(HttpPorter.HTTP_GET, url("/sync"), null);
+        Assert.assertEquals(-1, statusCode(timedOut));
+        answer.countDown();
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, statusCode(waiting));
+        final JsonObject response = porter.request(HttpPorter.HTTP_GET, url("/sync"), null);
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, statusCode(response));
+    }
+
+    @Test
+    public void testHostsLimitedSeparately() throws Exception {
+        final HttpPorter porter = new HttpPorter(200, TIMEOUT_MILLIS, 1, executor);
+        final CompletableFuture<JsonObject> waiting =
+                porter.sendAsync(HttpPorter.HTTP_GET, url("/wait"), null);
+        awaitReceived(1);
+        final String otherHost = "http://localhost:" + server.getAddress().getPort() + "/other";
+        final JsonObject response = porter.request(HttpPorter.HTTP_GET, otherHost, null);
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, statusCode(response));
+        Assert.assertFalse(waiting.isDone());
+        answer.countDown();
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, statusCode(waiting));
+    }
+
+    @Test
+    public void testRejectedRequestReleasesPermit() throws Exception {
+        final HttpPorter porter = new HttpPorter(200, TIMEOUT_MILLIS, 1, task -> {
+            throw new RejectedExecutionException("shut down");
+        });
+        final CompletableFuture<JsonObject> rejected =
+                porter.sendAsync(HttpPorter.HTTP_GET, url("/rejected"), null);
+        try {
+            rejected.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            Assert.fail("the rejected request should fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        final JsonObject response = porter.request(HttpPorter.HTTP_GET, url("/sync"), null);
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, statusCode(response));
+        Assert.assertEquals(Collections.singletonList("/sync"), received);
+    }
+
+    @Test
+    public void testReadTimeoutIsAnError() throws Exception {
+        final HttpPorter porter = new HttpPorter(TIMEOUT_MILLIS, 200, 1, executor);
+        final JsonObject response = porter.request(HttpPorter.HTTP_GET, url("/stall"), null);
+        Assert.assertEquals(-1, statusCode(response));
+    }
+
+    /**
+     * Answer a request with an empty 200 response.  Requests to paths starting with "/stall" get
+     * the response headers at once, and no body until the {@link #answer} latch is released.
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        final String path = exchange.getRequestURI().getPath();
+        if (path.startsWith("/stall")) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+            exchange.getResponseBody().flush();
+            try {
+                answer.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+            return;
+        }
+        final int concurrent = inProgress.incrementAndGet();
+        maxInProgress.accumulateAndGet(concurrent, Math::max);
+        received.add(path);
+        try {
+            if (path.startsWith("/wait")) {
+                answer.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } else if (path.startsWith("/slow")) {
+                Thread.sleep(50L);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inProgress.decrementAndGet();
+        }
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+        exchange.close();
+    }
+
+    private String url(final String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private void awaitReceived(final int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while ((received.size() < count) && (System.nanoTime() < deadline)) {
+            Thread.sleep(10L);
+        }
+        Assert.assertEquals(count, received.size());
+    }
+
+    private static int statusCode(final CompletableFuture<JsonObject> future) throws Exception {
+        return statusCode(future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private static int statusCode(final JsonObject response) {
+        return response.getInt(HttpPorter.HTTP_STATUS_CODE);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * (c) 2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Grouping of rows by {@link Aggregation}, on one thread and merged from partial aggregates.
+ */
+public class AggregationTest {
+
+    private static final List<Object[]> ROWS = Arrays.asList(
+            new Object[] { "30301", "Sales", "Smith" },
+            new Object[] { "30302", "Sales", "Jones" },
+            new Object[] { "30301", "Sales", "Smith" },
+            new Object[] { "1001", "Legal", null },
+            new Object[] { null, "Legal", "Brown" },
+            new Object[] { "94105", null, "Smith" });
+
+    @Test
+    public void testGroupByColumn() {
+        final Aggregation aggregation = Aggregation.of(ROWS.iterator(), Aggregation.column(1), 2);
+        Assert.assertEquals(6L, aggregation.getRows());
+        final List<Aggregation.Group> groups = aggregation.getGroups();
+        Assert.assertEquals(3, groups.size());
+        assertGroup(groups.get(0), null, 1L, 1L);
+        assertGroup(groups.get(1), "Legal", 2L, 1L);
+        assertGroup(groups.get(2), "Sales", 3L, 2L);
+    }
+
+    @Test
+    public void testGroupByPrefix() {
+        final Aggregation aggregation = Aggregation.of(
+                ROWS.iterator(), Aggregation.prefix(0, 3), -1);
+        final List<Aggregation.Group> groups = aggregation.getGroups();
+        Assert.assertEquals(4, groups.size());
+        assertGroup(groups.get(0), null, 1L, -1L);
+        assertGroup(groups.get(1), "100", 1L, -1L);
+        assertGroup(groups.get(2), "303", 3L, -1L);
+        assertGroup(groups.get(3), "941", 1L, -1L);
+    }
+
+    @Test
+    public void testMergePartials() {
+        final List<GroupTable> partials = new ArrayList<GroupTable>();
+        for (int i = 0; i < ROWS.size(); i += 2) {
+            final GroupTable partial = new GroupTable(true);
+            Aggregation.add(partial, ROWS.get(i), Aggregation.column(1), 2);
+            Aggregation.add(partial, ROWS.get(i + 1), Aggregation.column(1), 2);
+            partials.add(partial);
+        }
+        final Aggregation merged = Aggregation.merge(partials, true);
+        final Aggregation serial = Aggregation.of(ROWS.iterator(), Aggregation.column(1), 2);
+        Assert.assertEquals(serial.getRows(), merged.getRows());
+        Assert.assertEquals(serial.getGroups().size(), merged.getGroups().size());
+        for (int i = 0; i < serial.getGroups().size(); ++i) {
+            final Aggregation.Group expected = serial.getGroups().get(i);
+            assertGroup(merged.getGroups().get(i),
+                    expected.getKey(), expected.getCount(), expected.getDistinct());
+        }
+    }
+
+    @Test
+    public void testNoRows() {
+        final Aggregation aggregation = Aggregation.merge(new ArrayList<GroupTable>(), false);
+        Assert.assertEquals(0L, aggregation.getRows());
+        Assert.assertTrue(aggregation.getGroups().isEmpty());
+    }
+
+    private static void assertGroup(final Aggregation.Group group, final String key,
+            final long count, final long distinct) {
+        Assert.assertEquals(key, group.getKey());
+        Assert.assertEquals(count, group.getCount());
+        Assert.assertEquals(distinct, group.getDistinct());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * (c) 2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.nio.ByteBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Reuse and zeroing of the blocks of a {@link DirectBufferPool}.
+ */
+public class DirectBufferPoolTest {
+
+    @Test
+    public void testBlockBytes() {
+        Assert.assertEquals(64, new DirectBufferPool(70, 1).getBlockBytes());
+        Assert.assertEquals(Long.BYTES, new DirectBufferPool(1, 1).getBlockBytes());
+    }
+
+    @Test
+    public void testReleaseZeroes() {
+        final DirectBufferPool pool = new DirectBufferPool(64, 1);
+        final ByteBuffer block = pool.acquire();
+        Assert.assertTrue(block.isDirect());
+        Assert.assertEquals(64, block.capacity());
+        fill(block);
+        block.position(10);
+        pool.release(block);
+        Assert.assertEquals(1, pool.getPooled());
+
+        final ByteBuffer reused = pool.acquire();
+        Assert.assertSame(block, reused);
+        Assert.assertEquals(0, pool.getPooled());
+        Assert.assertEquals(0, reused.position());
+        Assert.assertEquals(64, reused.limit());
+        assertZero(reused);
+    }
+
+    @Test
+    public void testMaxPooled() {
+        final DirectBufferPool pool = new DirectBufferPool(64, 2);
+        final ByteBuffer[] blocks = new ByteBuffer[3];
+        for (int i = 0; i < blocks.length; ++i) {
+            blocks[i] = pool.acquire();
+            fill(blocks[i]);
+        }
+        for (ByteBuffer block : blocks) {
+            pool.release(block);
+            // dropped blocks are zeroed too
+            assertZero(block);
+        }
+        Assert.assertEquals(2, pool.getPooled());
+        pool.acquire();
+        pool.acquire();
+        Assert.assertEquals(0, pool.getPooled());
+        Assert.assertNotSame(blocks[2], pool.acquire());
+    }
+
+    @Test
+    public void testForeignBlock() {
+        final DirectBufferPool pool = new DirectBufferPool(64, 2);
+        final ByteBuffer block = ByteBuffer.allocateDirect(128);
+        fill(block);
+        pool.release(block);
+        assertZero(block);
+        Assert.assertEquals(0, pool.getPooled());
+    }
+
+    private static void fill(final ByteBuffer block) {
+        for (int i = 0; i < block.capacity(); ++i) {
+            block.put(i, (byte) (i | 1));
+        }
+    }
+
+    private static void assertZero(final ByteBuffer block) {
+        for (int i = 0; i < block.capacity(); ++i) {
+            Assert.assertEquals(0, block.get(i));
+        }
+    }
+}
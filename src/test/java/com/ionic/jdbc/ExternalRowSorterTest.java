@@ -0,0 +1,200 @@
+/*
+ * (c) 2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * In-memory and spilled sorts by {@link ExternalRowSorter}.  Rows are {key, sequence}, where the
+ * sequence is the position of the row in the input.
+ */
+public class ExternalRowSorterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSortInMemory() throws IOException {
+        final List<Object[]> input = rows(1000, 50, new Random(1L));
+        final ExternalRowSorter sorter = new ExternalRowSorter(
+                ExternalRowSorter.byColumn(0), Long.MAX_VALUE, folder.getRoot().toPath());
+        try (ExternalRowSorter.SortedRows sorted = sorter.sort(input.iterator())) {
+            Assert.assertEquals(0, sorted.getSpilledRuns());
+            assertSorted(input, drain(sorted));
+        }
+        Assert.assertEquals(0, runFiles().length);
+    }
+
+    @Test
+    public void testSortSpilled() throws IOException {
+        final List<Object[]> input = rows(5000, 50, new Random(2L));
+        final ExternalRowSorter sorter = new ExternalRowSorter(
+                ExternalRowSorter.byColumn(0), 16 * 1024L, folder.getRoot().toPath());
+        try (ExternalRowSorter.SortedRows sorted = sorter.sort(input.iterator())) {
+            Assert.assertTrue(sorted.getSpilledRuns() > 1);
+            Assert.assertEquals(sorted.getSpilledRuns(), runFiles().length);
+            assertSorted(input, drain(sorted));
+        }
+        Assert.assertEquals(0, runFiles().length);
+    }
+
+    @Test
+    public void testMergePasses() throws IOException {
+        final List<Object[]> input = rows(500, 20, new Random(3L));
+        // every row reaches the budget, and is written as a run of its own
+        final ExternalRowSorter sorter = new ExternalRowSorter(
+                ExternalRowSorter.byColumn(0), 1L, folder.getRoot().toPath());
+        try (ExternalRowSorter.SortedRows sorted = sorter.sort(input.iterator())) {
+            Assert.assertTrue(sorted.getSpilledRuns() < ExternalRowSorter.MAX_FAN_IN);
+            Assert.assertEquals(sorted.getSpilledRuns(), runFiles().length);
+            assertSorted(input, drain(sorted));
+        }
+        Assert.assertEquals(0, runFiles().length);
+    }
+
+    @Test
+    public void testRecordsLargerThanBlock() throws IOException {
+        final List<Object[]> input = new ArrayList<Object[]>();
+        for (int i = 0; i < 6; ++i) {
+            final char[] chars = new char[ExternalRowSorter.BLOCK_BYTES + 1000 * i];
+            Arrays.fill(chars, (char) ('f' - i));
+            input.add(new Object[] { new String(chars), Integer.toString(i) });
+            input.add(new Object[] { Integer.toString(i), Integer.toString(i) });
+        }
+        final ExternalRowSorter sorter = new ExternalRowSorter(
+                ExternalRowSorter.byColumn(0), 256 * 1024L, folder.getRoot().toPath());
+        try (ExternalRowSorter.SortedRows sorted = sorter.sort(input.iterator())) {
+            Assert.assertTrue(sorted.getSpilledRuns() > 0);
+            final List<Object[]> output = drain(sorted);
+            Assert.assertEquals(input.size(), output.size());
+            for (int i = 0; i < 6; ++i) {
+                Assert.assertEquals(Integer.toString(i), output.get(i)[0]);
+                final String large = (String) output.get(6 + i)[0];
+                Assert.assertEquals(ExternalRowSorter.BLOCK_BYTES + 1000 * (5 - i),
+                        large.length());
+                Assert.assertEquals((char) ('a' + i), large.charAt(0));
+            }
+        }
+    }
+
+    @Test
+    public void testNullsLast() throws IOException {
+        final List<Object[]> input = new ArrayList<Object[]>();
+        for (int i = 0; i < 300; ++i) {
+            final String key = (i % 3 == 0) ? null : Integer.toString(i % 7);
+            input.add(new Object[] { key, Integer.toString(i) });
+        }
+        final ExternalRowSorter sorter = new ExternalRowSorter(
+                ExternalRowSorter.byColumn(0), 2048L, folder.getRoot().toPath());
+        try (ExternalRowSorter.SortedRows sorted = sorter.sort(input.iterator())) {
+            Assert.assertTrue(sorted.getSpilledRuns() > 0);
+            final List<Object[]> output = drain(sorted);
+            Assert.assertEquals(input.size(), output.size());
+            for (int i = 0; i < 200; ++i) {
+                Assert.assertNotNull(output.get(i)[0]);
+            }
+            for (int i = 200; i < 300; ++i) {
+                Assert.assertNull(output.get(i)[0]);
+            }
+            assertStable(output);
+        }
+    }
+
+    @Test
+    public void testTruncatedRun() throws IOException {
+        final char[] chars = new char[ExternalRowSorter.BLOCK_BYTES + 100];
+        Arrays.fill(chars, 'x');
+        final String large = new String(chars);
+        final List<Object[]> input = new ArrayList<Object[]>();
+        for (int i = 0; i < 4; ++i) {
+            input.add(new Object[] { large, Integer.toString(i) });
+        }
+        // two rows to a run; the first row of each run is read before the files are truncated
+        final ExternalRowSorter sorter = new ExternalRowSorter(
+                ExternalRowSorter.byColumn(0), 3L * ExternalRowSorter.BLOCK_BYTES,
+                folder.getRoot().toPath());
+        try (ExternalRowSorter.SortedRows sorted = sorter.sort(input.iterator())) {
+            Assert.assertEquals(2, sorted.getSpilledRuns());
+            for (File run : runFiles()) {
+                try (FileChannel channel = FileChannel.open(run.toPath(),
+                        StandardOpenOption.WRITE)) {
+                    channel.truncate(channel.size() - 10);
+                }
+            }
+            sorted.next();
+            sorted.next();
+            Assert.fail("a truncated run should fail");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertEquals(0, runFiles().length);
+    }
+
+    /**
+     * @param count the number of rows
+     * @param keys the number of distinct keys
+     * @param random the source of keys
+     * @return rows of {key, sequence}, with many equal keys
+     */
+    private static List<Object[]> rows(final int count, final int keys, final Random random) {
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        for (int i = 0; i < count; ++i) {
+            rows.add(new Object[] { "key" + random.nextInt(keys), Integer.toString(i) });
+        }
+        return rows;
+    }
+
+    private static List<Object[]> drain(final ExternalRowSorter.SortedRows sorted) {
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        while (sorted.hasNext()) {
+            rows.add(sorted.next());
+        }
+        return rows;
+    }
+
+    /**
+     * Check the output against a stable in-memory sort of the input.
+     */
+    private static void assertSorted(final List<Object[]> input, final List<Object[]> output) {
+        final List<Object[]> expected = new ArrayList<Object[]>(input);
+        Collections.sort(expected, ExternalRowSorter.byColumn(0));
+        Assert.assertEquals(expected.size(), output.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            Assert.assertArrayEquals(expected.get(i), output.get(i));
+        }
+        assertStable(output);
+    }
+
+    /**
+     * Check that rows with equal keys keep the order of their sequence numbers.
+     */
+    private static void assertStable(final List<Object[]> output) {
+        for (int i = 1; i < output.size(); ++i) {
+            final Object[] previous = output.get(i - 1);
+            final Object[] row = output.get(i);
+            if ((previous[0] == null) ? (row[0] == null) : previous[0].equals(row[0])) {
+                Assert.assertTrue(Integer.parseInt((String) previous[1])
+                        < Integer.parseInt((String) row[1]));
+            }
+        }
+    }
+
+    private File[] runFiles() {
+        return folder.getRoot().listFiles((dir, name) -> name.endsWith(".run"));
+    }
+}
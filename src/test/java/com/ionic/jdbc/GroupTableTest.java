@@ -0,0 +1,124 @@
+/*
+ * (c) 2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.nio.CharBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Counts, distinct counts, growth and merge of a {@link GroupTable}.
+ */
+public class GroupTableTest {
+
+    @Test
+    public void testCounts() {
+        final GroupTable table = new GroupTable(false);
+        table.add("a", "x");
+        table.add("b", null);
+        table.add("a", "y");
+        table.add(null, "z");
+        table.add(CharBuffer.wrap("a"), "x");
+        final Map<String, Long> counts = counts(table);
+        Assert.assertEquals(3, table.size());
+        Assert.assertEquals(Long.valueOf(3L), counts.get("a"));
+        Assert.assertEquals(Long.valueOf(1L), counts.get("b"));
+        Assert.assertEquals(Long.valueOf(1L), counts.get(null));
+        for (int i = 0; i < table.capacity(); ++i) {
+            if (table.isUsed(i)) {
+                Assert.assertEquals(-1L, table.getDistinct(i));
+            }
+        }
+    }
+
+    @Test
+    public void testDistinct() {
+        final GroupTable table = new GroupTable(true);
+        table.add("a", "x");
+        table.add("a", "x");
+        table.add("a", CharBuffer.wrap("y"));
+        table.add("a", null);
+        table.add("b", null);
+        table.add(null, "x");
+        Assert.assertEquals(2L, distinct(table, "a"));
+        Assert.assertEquals(0L, distinct(table, "b"));
+        Assert.assertEquals(1L, distinct(table, null));
+        Assert.assertEquals(Long.valueOf(4L), counts(table).get("a"));
+    }
+
+    @Test
+    public void testGrowth() {
+        final Random random = new Random(1L);
+        final GroupTable table = new GroupTable(true);
+        final Map<String, Long> counts = new HashMap<String, Long>();
+        final Map<String, Set<String>> values = new HashMap<String, Set<String>>();
+        for (int i = 0; i < 200000; ++i) {
+            final String key = "group" + random.nextInt(5000);
+            final String value = "value" + random.nextInt(100);
+            table.add(key, value);
+            counts.merge(key, 1L, Long::sum);
+            values.computeIfAbsent(key, k -> new HashSet<String>()).add(value);
+        }
+        Assert.assertEquals(counts.size(), table.size());
+        Assert.assertEquals(counts, counts(table));
+        for (Map.Entry<String, Set<String>> entry : values.entrySet()) {
+            Assert.assertEquals(entry.getValue().size(), distinct(table, entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        final GroupTable left = new GroupTable(true);
+        final GroupTable right = new GroupTable(true);
+        for (int i = 0; i < 1000; ++i) {
+            left.add("group" + (i % 10), "value" + (i % 30));
+            right.add("group" + (i % 40), "value" + (i % 60));
+        }
+        right.add(null, "value");
+        left.merge(right);
+        Assert.assertEquals(41, left.size());
+        final Map<String, Long> counts = counts(left);
+        // groups 0-9 hold 100 rows of the left table and 25 of the right
+        Assert.assertEquals(Long.valueOf(125L), counts.get("group0"));
+        Assert.assertEquals(Long.valueOf(25L), counts.get("group39"));
+        Assert.assertEquals(Long.valueOf(1L), counts.get(null));
+        // group0 holds values 0, 10 and 20 on the left, and 0, 20 and 40 on the right
+        Assert.assertEquals(4L, distinct(left, "group0"));
+        Assert.assertEquals(3L, distinct(left, "group39"));
+    }
+
+    @Test
+    public void testHash() {
+        Assert.assertEquals(GroupTable.hash("abc"), GroupTable.hash(CharBuffer.wrap("xabc", 1, 4)));
+        Assert.assertNotEquals(GroupTable.hash("abc"), GroupTable.hash("abd"));
+        Assert.assertNotEquals(GroupTable.hash(""), GroupTable.hash(null));
+    }
+
+    private static Map<String, Long> counts(final GroupTable table) {
+        final Map<String, Long> counts = new HashMap<String, Long>();
+        for (int i = 0; i < table.capacity(); ++i) {
+            if (table.isUsed(i)) {
+                Assert.assertNull(counts.put(table.getKey(i), table.getCount(i)));
+            }
+        }
+        return counts;
+    }
+
+    private static long distinct(final GroupTable table, final String key) {
+        for (int i = 0; i < table.capacity(); ++i) {
+            if (table.isUsed(i) && ((key == null) ? (table.getKey(i) == null)
+                    : key.equals(table.getKey(i)))) {
+                return table.getDistinct(i);
+            }
+        }
+        throw new AssertionError("no group " + key);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * (c) 2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import com.ionic.key.KeyCache;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Column access to a {@link ColumnarRowSet} loaded by {@link IonicColumnarResultSetHandler},
+ * checked against the rows loaded by {@link IonicResultSetHandler} from the same input: the same
+ * rows are filtered, the same cells are decrypted or {@link IonicResultSetHandler#RESTRICTED},
+ * and numeric columns hold the values that the row-oriented handler returns as text.
+ */
+public class IonicColumnarResultSetHandlerTest {
+
+    private static final String[] NAMES = {"id", "visits", "balance", "first", "last", "zip"};
+    private static final int[] TYPES = {
+        Types.INTEGER, Types.BIGINT, Types.DOUBLE, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+    };
+
+    /**
+     * Releases the key ids starting with "K", and denies the others.
+     */
+    private final KeyCache keyCache = new KeyCache(request -> {
+        final GetKeysResponse response = new GetKeysResponse();
+        for (String keyId : request.getKeyIds()) {
+            if (keyId.startsWith("K")) {
+                response.add(newKey(keyId));
+            }
+        }
+        return response;
+    }, 100, 60000L, 60000L);
+
+    @Test
+    public void testSameContent() throws Exception {
+        final Object[][] rows = {
+            {1, 10L, 1.5, "John", "Smith", "27513"},
+            // one cell released, one denied
+            {2, 20L, -2.25, protect("K1", "Mary"), protect("D1", "Jones"), "27514"},
+            // all protected cells denied; the row is filtered
+            {3, 30L, 0.0, "Ann", protect("D1", "Brown"), protect("D2", "27515")},
+            {4, null, null, protect("K2", "Zo\u00eb"), null, protect("K1", "27516")},
+            {null, Long.MAX_VALUE, 1e10, "", "O'Neil", null},
+        };
+
+        final RowSet expected = new IonicResultSetHandler(keyCache).handle(newResultSet(rows));
+        final ColumnarRowSet actual =
+                new IonicColumnarResultSetHandler(keyCache).handle(newResultSet(rows));
+        Assert.assertEquals(4, expected.size());
+        Assert.assertEquals(expected.size(), actual.getRowCount());
+        Assert.assertEquals(NAMES.length, actual.getColumnCount());
+
+        final ColumnVector.IntVector id = (ColumnVector.IntVector) actual.getColumn(0);
+        final ColumnVector.LongVector visits = (ColumnVector.LongVector) actual.getColumn(1);
+        final ColumnVector.DoubleVector balance = (ColumnVector.DoubleVector) actual.getColumn(2);
+        for (int row = 0; row < expected.size(); ++row) {
+            final Object[] expectedRow = expected.get(row);
+            // the row-oriented handler holds every value as text
+            assertNumber(expectedRow[0], id, row, id.isNull(row) ? null : id.getInt(row));
+            assertNumber(expectedRow[1], visits, row,
+                    visits.isNull(row) ? null : visits.getLong(row));
+            assertNumber(expectedRow[2], balance, row,
+                    balance.isNull(row) ? null : balance.getDouble(row));
+            for (int column = 3; column < NAMES.length; ++column) {
+                final ColumnVector.StringVector text =
+                        (ColumnVector.StringVector) actual.getColumn(column);
+                Assert.assertEquals(expectedRow[column], text.getString(row));
+                Assert.assertEquals((expectedRow[column] == null) ? 0
+                        : expectedRow[column].toString().length(), text.getLength(row));
+            }
+        }
+
+        Assert.assertEquals(Arrays.asList("Mary", IonicResultSetHandler.RESTRICTED),
+                Arrays.asList(actual.getRow(1)[3], actual.getRow(1)[4]));
+        Assert.assertEquals("Zo\u00eb", actual.getRow(2)[3]);
+        final List<Object[]> view = actual.asRows();
+        Assert.assertEquals(expected.size(), view.size());
+        Assert.assertArrayEquals(actual.getRow(3), view.get(3));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        final ColumnarRowSet rowSet =
+                new IonicColumnarResultSetHandler(keyCache).handle(newResultSet(new Object[0][]));
+        Assert.assertEquals(0, rowSet.getRowCount());
+        Assert.assertEquals(NAMES.length, rowSet.getColumnCount());
+        Assert.assertEquals("zip", rowSet.getMetadata(5).getName());
+        Assert.assertTrue(rowSet.asRows().isEmpty());
+    }
+
+    private static void assertNumber(final Object expected, final ColumnVector column,
+            final int row, final Object value) {
+        Assert.assertEquals(expected == null, column.isNull(row));
+        Assert.assertEquals(expected, (value == null) ? null : value.toString());
+        Assert.assertEquals(value, column.get(row));
+    }
+
+    private static GetKeysResponse.Key newKey(final String keyId) {
+        final GetKeysResponse.Key key = new GetKeysResponse.Key();
+        key.setId(keyId);
+        final byte[] bytes = new byte[32];
+        Arrays.fill(bytes, (byte) keyId.hashCode());
+        key.setKey(bytes);
+        return key;
+    }
+
+    private static String protect(final String keyId, final String value) throws IonicException {
+        return new KeyedChunkCipher(newKey(keyId)).encrypt(value);
+    }
+
+    /**
+     * @param rows the values of each row, in the columns of {@link #NAMES}
+     * @return a forward-only result set over the rows
+     */
+    private static ResultSet newResultSet(final Object[][] rows) {
+        final ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(
+                IonicColumnarResultSetHandlerTest.class.getClassLoader(),
+                new Class<?>[] {ResultSetMetaData.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return NAMES.length;
+                        case "getColumnName":
+                        case "getColumnLabel":
+                            return NAMES[(Integer) args[0] - 1];
+                        case "getColumnType":
+                            return TYPES[(Integer) args[0] - 1];
+                        case "getColumnTypeName":
+                            return "type" + TYPES[(Integer) args[0] - 1];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        final int[] position = {-1};
+        final boolean[] wasNull = {false};
+        return (ResultSet) Proxy.newProxyInstance(
+                IonicColumnarResultSetHandlerTest.class.getClassLoader(),
+                new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getMetaData":
+                            return metaData;
+                        case "next":
+                            return ++position[0] < rows.length;
+                        case "wasNull":
+                            return wasNull[0];
+                        case "close":
+                            return null;
+                        default:
+                            break;
+                    }
+                    if (!method.getName().startsWith("get") || (args == null)
+                            || !(args[0] instanceof Integer)) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    if ((position[0] < 0) || (position[0] >= rows.length)) {
+                        throw new SQLException("Not on a row");
+                    }
+                    final Object value = rows[position[0]][(Integer) args[0] - 1];
+                    wasNull[0] = (value == null);
+                    switch (method.getName()) {
+                        case "getObject":
+                            return value;
+                        case "getString":
+                            return (value == null) ? null : value.toString();
+                        case "getInt":
+                            return (value == null) ? 0 : ((Number) value).intValue();
+                        case "getLong":
+                            return (value == null) ? 0L : ((Number) value).longValue();
+                        case "getDouble":
+                            return (value == null) ? 0.0 : ((Number) value).doubleValue();
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
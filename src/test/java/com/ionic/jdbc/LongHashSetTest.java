@@ -0,0 +1,74 @@
+/*
+ * (c) 2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Growth and merge of a {@link LongHashSet}, checked against a {@link HashSet}.
+ */
+public class LongHashSetTest {
+
+    @Test
+    public void testAdd() {
+        final LongHashSet set = new LongHashSet();
+        Assert.assertTrue(set.add(1L));
+        Assert.assertFalse(set.add(1L));
+        Assert.assertTrue(set.add(-1L));
+        Assert.assertTrue(set.add(Long.MIN_VALUE));
+        Assert.assertEquals(3, set.size());
+    }
+
+    @Test
+    public void testZero() {
+        final LongHashSet set = new LongHashSet();
+        Assert.assertTrue(set.add(0L));
+        Assert.assertFalse(set.add(0L));
+        Assert.assertEquals(1, set.size());
+        Assert.assertTrue(set.add(7L));
+        Assert.assertEquals(2, set.size());
+    }
+
+    @Test
+    public void testGrowth() {
+        final Random random = new Random(1L);
+        final LongHashSet set = new LongHashSet();
+        final Set<Long> expected = new HashSet<Long>();
+        for (int i = 0; i < 100000; ++i) {
+            // few enough values that many are repeated
+            final long value = random.nextInt(50000) * 0x100000000L;
+            Assert.assertEquals(expected.add(value), set.add(value));
+        }
+        Assert.assertEquals(expected.size(), set.size());
+        for (long value : expected) {
+            Assert.assertFalse(set.add(value));
+        }
+        Assert.assertEquals(expected.size(), set.size());
+    }
+
+    @Test
+    public void testAddAll() {
+        final LongHashSet left = new LongHashSet();
+        final LongHashSet right = new LongHashSet();
+        for (long value = 0L; value < 1000L; ++value) {
+            left.add(value);
+        }
+        for (long value = 500L; value < 3000L; ++value) {
+            right.add(value);
+        }
+        right.add(0L);
+        left.addAll(right);
+        Assert.assertEquals(3000, left.size());
+        Assert.assertEquals(2501, right.size());
+        final LongHashSet empty = new LongHashSet();
+        empty.addAll(new LongHashSet());
+        Assert.assertEquals(0, empty.size());
+    }
+}
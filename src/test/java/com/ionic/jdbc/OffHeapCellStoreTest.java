@@ -0,0 +1,152 @@
+/*
+ * (c) 2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Decoding, release and views of the values of an {@link OffHeapCellStore}.
+ */
+public class OffHeapCellStoreTest {
+
+    private static final int BLOCK_BYTES = 64;
+
+    private final DirectBufferPool pool = new DirectBufferPool(BLOCK_BYTES, 4);
+
+    @Test
+    public void testRoundTrip() {
+        final String[] values = {
+            "", "Smith", "Zo\u00eb", "\u20ac100", "\ud83d\ude00 smile", "\u00e5\u00e4\u00f6",
+        };
+        try (OffHeapCellStore store = new OffHeapCellStore(pool)) {
+            final List<CharSequence> cells = new ArrayList<CharSequence>();
+            for (String value : values) {
+                cells.add(store.add(value.getBytes(StandardCharsets.UTF_8)));
+            }
+            for (int i = 0; i < values.length; ++i) {
+                final CharSequence cell = cells.get(i);
+                Assert.assertEquals(values[i], cell.toString());
+                Assert.assertEquals(values[i].length(), cell.length());
+                Assert.assertEquals(values[i].hashCode(), cell.hashCode());
+            }
+            Assert.assertEquals("mit", cells.get(1).subSequence(1, 4).toString());
+            Assert.assertEquals(cells.get(1),
+                    store.add("Smith".getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Test
+    public void testMalformed() {
+        try (OffHeapCellStore store = new OffHeapCellStore(pool)) {
+            // a lone continuation byte, a truncated sequence, and an invalid lead byte
+            final byte[] utf8 = {'a', (byte) 0x80, 'b', (byte) 0xe2, (byte) 0x82, (byte) 0xff};
+            Assert.assertEquals("a\ufffdb\ufffd\ufffd\ufffd", store.add(utf8).toString());
+        }
+    }
+
+    @Test
+    public void testInputZeroed() {
+        try (OffHeapCellStore store = new OffHeapCellStore(pool)) {
+            final byte[] utf8 = "secret".getBytes(StandardCharsets.UTF_8);
+            store.add(utf8);
+            Assert.assertArrayEquals(new byte[utf8.length], utf8);
+        }
+    }
+
+    @Test
+    public void testOversized() {
+        final StringBuilder value = new StringBuilder();
+        while (value.length() <= BLOCK_BYTES) {
+            value.append("\u00e9x");
+        }
+        final CharSequence cell;
+        try (OffHeapCellStore store = new OffHeapCellStore(pool)) {
+            cell = store.add(value.toString().getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(value.toString(), cell.toString());
+        }
+        // the value had a buffer of its own, not a block of the pool
+        Assert.assertEquals(0, pool.getPooled());
+    }
+
+    @Test
+    public void testReleaseZeroes() {
+        final OffHeapCellStore store = new OffHeapCellStore(pool);
+        store.add("123-45-6789".getBytes(StandardCharsets.UTF_8));
+        store.add("987-65-4321".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(0, pool.getPooled());
+        store.release();
+        Assert.assertTrue(store.isReleased());
+        Assert.assertEquals(1, pool.getPooled());
+        final ByteBuffer block = pool.acquire();
+        for (int i = 0; i < block.capacity(); ++i) {
+            Assert.assertEquals(0, block.get(i));
+        }
+        // released twice, pooled once
+        store.release();
+        Assert.assertEquals(0, pool.getPooled());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCharAtAfterRelease() {
+        final OffHeapCellStore store = new OffHeapCellStore(pool);
+        final CharSequence cell = store.add("Smith".getBytes(StandardCharsets.UTF_8));
+        store.release();
+        cell.charAt(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testToStringAfterRelease() {
+        final OffHeapCellStore store = new OffHeapCellStore(pool);
+        final CharSequence cell = store.add("Smith".getBytes(StandardCharsets.UTF_8));
+        store.close();
+        cell.toString();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddAfterRelease() {
+        final OffHeapCellStore store = new OffHeapCellStore(pool);
+        store.release();
+        store.add("Smith".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReleaseWhileReading() throws Exception {
+        // a read racing with release sees either the value or the release, never zeroed chars
+        for (int round = 0; round < 50; ++round) {
+            final OffHeapCellStore store = new OffHeapCellStore(pool);
+            final CharSequence cell = store.add("Smith".getBytes(StandardCharsets.UTF_8));
+            final CountDownLatch started = new CountDownLatch(1);
+            final AtomicReference<String> failure = new AtomicReference<String>();
+            final Thread reader = new Thread(() -> {
+                started.countDown();
+                try {
+                    while (true) {
+                        final String value = cell.toString();
+                        if (!"Smith".equals(value)) {
+                            failure.set(value);
+                            return;
+                        }
+                    }
+                } catch (IllegalStateException e) {
+                    // released
+                }
+            });
+            reader.start();
+            started.await();
+            store.release();
+            reader.join(5000L);
+            Assert.assertFalse(reader.isAlive());
+            Assert.assertNull(failure.get());
+        }
+    }
+}
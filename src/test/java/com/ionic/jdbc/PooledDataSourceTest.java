@@ -0,0 +1,282 @@
+/*
+ * (c) 2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Borrowing, returning, limits, leak detection and closing of a {@link PooledDataSource}, over
+ * connections of an in-memory driver.
+ */
+public class PooledDataSourceTest {
+
+    private static final long WAIT_MILLIS = 100L;
+
+    private final FakeDriver driver = new FakeDriver();
+    private PooledDataSource pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testBorrowAndReturn() throws SQLException {
+        pool = newPool(0, 2, 2, 0L);
+        final Connection first = pool.getConnection();
+        Assert.assertEquals(1, pool.getActiveCount());
+        first.close();
+        Assert.assertTrue(first.isClosed());
+        Assert.assertEquals(0, pool.getActiveCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+        final Connection second = pool.getConnection();
+        Assert.assertNotSame(first, second);
+        second.close();
+        // a stale reference cannot use the connection again
+        try {
+            first.setAutoCommit(false);
+            Assert.fail("a returned connection should not be usable");
+        } catch (SQLException e) {
+            Assert.assertNotNull(e);
+        }
+        Assert.assertEquals(1, driver.connections.size());
+        Assert.assertEquals(2L, pool.getMetrics().getBorrows());
+        Assert.assertEquals(1L, pool.getMetrics().getCreated());
+    }
+
+    @Test
+    public void testReturnRollsBack() throws SQLException {
+        pool = newPool(0, 2, 2, 0L);
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+        }
+        final FakeConnection physical = driver.connections.get(0);
+        Assert.assertEquals(1, physical.rollbacks);
+        Assert.assertTrue(physical.autoCommit);
+    }
+
+    @Test
+    public void testMaxTotal() throws SQLException {
+        pool = newPool(0, 2, 2, 0L);
+        final Connection first = pool.getConnection();
+        final Connection second = pool.getConnection();
+        final long start = System.nanoTime();
+        try {
+            pool.getConnection();
+            Assert.fail("a third connection should not be handed out");
+        } catch (SQLException e) {
+            Assert.assertTrue((System.nanoTime() - start) / 1000000L >= WAIT_MILLIS - 10L);
+        }
+        Assert.assertEquals(1L, pool.getMetrics().getWaitTimeouts());
+        first.close();
+        pool.getConnection().close();
+        second.close();
+        Assert.assertEquals(2, driver.connections.size());
+    }
+
+    @Test
+    public void testConnectFailureReleasesPermit() throws SQLException {
+        pool = newPool(0, 1, 1, 0L);
+        driver.failing = true;
+        try {
+            pool.getConnection();
+            Assert.fail("the connection failure should be thrown");
+        } catch (SQLException e) {
+            Assert.assertEquals("unreachable", e.getMessage());
+        }
+        driver.failing = false;
+        pool.getConnection().close();
+        Assert.assertEquals(1, driver.connections.size());
+    }
+
+    @Test
+    public void testOpenFailureReportedOnce() throws InterruptedException {
+        pool = newPool(2, 2, 2, 0L);
+        driver.failing = true;
+        final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        final PrintStream err = System.err;
+        System.setErr(new PrintStream(errors, true));
+        try {
+            pool.getConnection();
+            Assert.fail("the connection failure should be thrown");
+        } catch (SQLException e) {
+            // the housekeeping task keeps retrying in the background
+            Thread.sleep(2500L);
+        } finally {
+            System.setErr(err);
+        }
+        final String report = new String(errors.toByteArray(), StandardCharsets.UTF_8).trim();
+        Assert.assertTrue(report.startsWith("ERROR: Failure to open pooled connection."));
+        Assert.assertEquals(-1, report.indexOf('\n'));
+        driver.failing = false;
+        Assert.assertEquals(0, driver.connections.size());
+    }
+
+    @Test
+    public void testNothingOpenedBeforeFirstUse() throws SQLException, InterruptedException {
+        pool = newPool(2, 2, 4, 0L);
+        Thread.sleep(200L);
+        Assert.assertEquals(0, driver.connections.size());
+        pool.getConnection().close();
+        awaitCondition(() -> pool.getIdleCount() == 2);
+    }
+
+    @Test
+    public void testLeakDetection() throws SQLException, InterruptedException {
+        pool = newPool(0, 1, 1, 50L);
+        final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        final PrintStream err = System.err;
+        System.setErr(new PrintStream(errors, true));
+        try (Connection connection = pool.getConnection()) {
+            awaitCondition(() -> pool.getMetrics().getLeaks() == 1L);
+        } finally {
+            System.setErr(err);
+        }
+        final String report = new String(errors.toByteArray(), StandardCharsets.UTF_8).trim();
+        Assert.assertTrue(report.startsWith("WARNING: Pooled connection borrowed"));
+        Assert.assertTrue(report.contains(PooledDataSourceTest.class.getName()
+                + ".testLeakDetection"));
+        Assert.assertEquals(-1, report.indexOf('\n'));
+    }
+
+    @Test
+    public void testClose() throws SQLException {
+        pool = newPool(0, 2, 2, 0L);
+        final Connection borrowed = pool.getConnection();
+        pool.getConnection().close();
+        pool.close();
+        Assert.assertTrue(driver.connections.get(1).closed);
+        Assert.assertFalse(driver.connections.get(0).closed);
+        try {
+            pool.getConnection();
+            Assert.fail("a closed pool should not hand out connections");
+        } catch (SQLException e) {
+            Assert.assertNotNull(e);
+        }
+        borrowed.close();
+        Assert.assertTrue(driver.connections.get(0).closed);
+        Assert.assertEquals(0, pool.getIdleCount());
+    }
+
+    private PooledDataSource newPool(final int minIdle, final int maxIdle, final int maxTotal,
+            final long leakThresholdMillis) {
+        return new PooledDataSource(driver, "jdbc:fake:test", new Properties(),
+                minIdle, maxIdle, maxTotal, WAIT_MILLIS, leakThresholdMillis);
+    }
+
+    private static void awaitCondition(final Condition condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000L;
+        while (!condition.holds() && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(20L);
+        }
+        Assert.assertTrue(condition.holds());
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    /**
+     * The state of a physical connection.
+     */
+    private static final class FakeConnection {
+
+        private volatile boolean closed = false;
+        private volatile boolean autoCommit = true;
+        private volatile int rollbacks = 0;
+
+        private Connection proxy() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                closed = true;
+                                return null;
+                            case "isClosed":
+                                return closed;
+                            case "isValid":
+                                return !closed;
+                            case "getAutoCommit":
+                                return autoCommit;
+                            case "setAutoCommit":
+                                autoCommit = (Boolean) args[0];
+                                return null;
+                            case "rollback":
+                                ++rollbacks;
+                                return null;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Opens fake connections, recording them.
+     */
+    private static final class FakeDriver implements Driver {
+
+        private final List<FakeConnection> connections =
+                new CopyOnWriteArrayList<FakeConnection>();
+        private volatile boolean failing = false;
+
+        @Override
+        public Connection connect(final String url, final Properties info) throws SQLException {
+            if (failing) {
+                throw new SQLException("unreachable");
+            }
+            final FakeConnection connection = new FakeConnection();
+            connections.add(connection);
+            return connection.proxy();
+        }
+
+        @Override
+        public boolean acceptsURL(final String url) {
+            return true;
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(final String url, final Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return Logger.getLogger(FakeDriver.class.getName());
+        }
+    }
+}
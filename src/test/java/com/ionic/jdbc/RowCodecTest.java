@@ -0,0 +1,97 @@
+/*
+ * (c) 2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Round trips of rows through {@link RowCodec}.
+ */
+public class RowCodecTest {
+
+    @Test
+    public void testRoundTrip() {
+        final RowCodec codec = new RowCodec();
+        final Object[] row = { "Alice", "", null, "Z\u00fcrich \u2603 \ud83d\ude00", null };
+        final ByteBuffer record = copy(codec.encode(row));
+        Assert.assertEquals(record.remaining(), RowCodec.recordLength(record));
+        Assert.assertArrayEquals(row, codec.decode(record));
+        Assert.assertFalse(record.hasRemaining());
+    }
+
+    @Test
+    public void testEmptyRow() {
+        final RowCodec codec = new RowCodec();
+        final ByteBuffer record = copy(codec.encode(new Object[0]));
+        Assert.assertEquals(2 * Integer.BYTES, RowCodec.recordLength(record));
+        Assert.assertEquals(0, codec.decode(record).length);
+    }
+
+    @Test
+    public void testNonStringCell() {
+        final RowCodec codec = new RowCodec();
+        final Object[] decoded = codec.decode(copy(codec.encode(new Object[] { 42L })));
+        Assert.assertEquals("42", decoded[0]);
+    }
+
+    @Test
+    public void testLargeCellGrowsBuffer() {
+        final RowCodec codec = new RowCodec();
+        final char[] chars = new char[100000];
+        Arrays.fill(chars, '\u00e9');
+        final Object[] row = { "a", new String(chars), "b" };
+        final ByteBuffer record = copy(codec.encode(row));
+        Assert.assertEquals(record.remaining(), RowCodec.recordLength(record));
+        Assert.assertArrayEquals(row, codec.decode(record));
+    }
+
+    @Test
+    public void testDecodeDirectBuffer() {
+        final RowCodec codec = new RowCodec();
+        final char[] chars = new char[5000];
+        Arrays.fill(chars, 'x');
+        final Object[] first = { "one", null, new String(chars) };
+        final Object[] second = { "two", "2" };
+        final ByteBuffer records = ByteBuffer.allocateDirect(16 * 1024);
+        records.put(codec.encode(first));
+        records.put(codec.encode(second));
+        records.flip();
+        Assert.assertArrayEquals(first, codec.decode(records));
+        Assert.assertArrayEquals(second, codec.decode(records));
+        Assert.assertFalse(records.hasRemaining());
+    }
+
+    @Test
+    public void testRecordLengthOfIncompletePrefix() {
+        final ByteBuffer record = copy(new RowCodec().encode(new Object[] { "value" }));
+        record.limit(RowCodec.PREFIX_BYTES - 1);
+        Assert.assertEquals(-1, RowCodec.recordLength(record));
+        record.limit(RowCodec.PREFIX_BYTES);
+        Assert.assertTrue(RowCodec.recordLength(record) > RowCodec.PREFIX_BYTES);
+    }
+
+    @Test
+    public void testEncodeReusesBuffer() {
+        final RowCodec codec = new RowCodec();
+        final ByteBuffer first = copy(codec.encode(new Object[] { "first" }));
+        codec.encode(new Object[] { "second", "row" });
+        Assert.assertArrayEquals(new Object[] { "first" }, codec.decode(first));
+    }
+
+    /**
+     * @param record an encoded record
+     * @return a copy of the record, as the encoding buffer is reused
+     */
+    private static ByteBuffer copy(final ByteBuffer record) {
+        final ByteBuffer copy = ByteBuffer.allocate(record.remaining());
+        copy.put(record.duplicate());
+        copy.flip();
+        return copy;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * (c) 2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.jdbc;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Heap, spilled and pending rows of a {@link SpillingRowSet}.
+ */
+public class SpillingRowSetTest {
+
+    /**
+     * The size of the value of each large row, about a megabyte.
+     */
+    private static final int LARGE_CHARS = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testHeapOnly() {
+        try (SpillingRowSet rowSet = new SpillingRowSet(100, 10, folder.getRoot().toPath())) {
+            for (int i = 0; i < 100; ++i) {
+                rowSet.add(row(i));
+            }
+            Assert.assertEquals(100, rowSet.size());
+            Assert.assertEquals(0, rowSet.getSpilledRows());
+            Assert.assertEquals(0, rowFiles().length);
+        }
+    }
+
+    @Test
+    public void testGetAndIterate() {
+        try (SpillingRowSet rowSet = new SpillingRowSet(10, 7, folder.getRoot().toPath())) {
+            for (int i = 0; i < 100; ++i) {
+                rowSet.add(row(i));
+            }
+            // 90 rows past the heap bound: 12 batches of 7 written, 6 pending
+            Assert.assertEquals(100, rowSet.size());
+            Assert.assertEquals(84, rowSet.getSpilledRows());
+            Assert.assertEquals(1, rowFiles().length);
+            for (int i = 99; i >= 0; --i) {
+                Assert.assertArrayEquals(row(i), rowSet.get(i));
+            }
+            int i = 0;
+            for (Object[] row : rowSet) {
+                Assert.assertArrayEquals(row(i++), row);
+            }
+            Assert.assertEquals(100, i);
+            Assert.assertArrayEquals(row(42), rowSet.subList(40, 50).get(2));
+            Assert.assertEquals(100, rowSet.toArray().length);
+        }
+        Assert.assertEquals(0, rowFiles().length);
+    }
+
+    @Test
+    public void testNullCells() {
+        try (SpillingRowSet rowSet = new SpillingRowSet(0, 2, folder.getRoot().toPath())) {
+            rowSet.add(new Object[] { null, "a" });
+            rowSet.add(new Object[] { "b", null });
+            rowSet.add(new Object[0]);
+            Assert.assertEquals(2, rowSet.getSpilledRows());
+            Assert.assertArrayEquals(new Object[] { null, "a" }, rowSet.get(0));
+            Assert.assertArrayEquals(new Object[] { "b", null }, rowSet.get(1));
+            Assert.assertArrayEquals(new Object[0], rowSet.get(2));
+        }
+    }
+
+    @Test
+    public void testGetAcrossRegions() {
+        // rows of about 1 MB, in batches that straddle the end of the first mapped region
+        final int rows = SpillingRowSet.REGION_BYTES / LARGE_CHARS + 8;
+        try (SpillingRowSet rowSet = new SpillingRowSet(2, 3, folder.getRoot().toPath())) {
+            for (int i = 0; i < rows; ++i) {
+                rowSet.add(largeRow(i));
+            }
+            Assert.assertEquals(rows, rowSet.size());
+            Assert.assertTrue(folder.getRoot().listFiles()[0].length()
+                    > SpillingRowSet.REGION_BYTES);
+            for (int i = rows - 1; i >= 0; --i) {
+                assertLargeRow(i, rowSet.get(i));
+            }
+            final Iterator<Object[]> iterator = rowSet.iterator();
+            for (int i = 0; i < rows; ++i) {
+                assertLargeRow(i, iterator.next());
+            }
+            Assert.assertFalse(iterator.hasNext());
+            try {
+                iterator.next();
+                Assert.fail("the iterator should be exhausted");
+            } catch (NoSuchElementException e) {
+                Assert.assertNotNull(e);
+            }
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds() {
+        try (SpillingRowSet rowSet = new SpillingRowSet(1, 1, folder.getRoot().toPath())) {
+            rowSet.add(row(0));
+            rowSet.add(row(1));
+            rowSet.get(2);
+        }
+    }
+
+    @Test
+    public void testCloseDeletesFile() {
+        final SpillingRowSet rowSet = new SpillingRowSet(5, 5, folder.getRoot().toPath());
+        for (int i = 0; i < 20; ++i) {
+            rowSet.add(row(i));
+        }
+        Assert.assertEquals(1, rowFiles().length);
+        rowSet.close();
+        Assert.assertEquals(0, rowFiles().length);
+        Assert.assertEquals(5, rowSet.size());
+        Assert.assertEquals(0, rowSet.getSpilledRows());
+        // the row set may be reused once closed
+        for (int i = 5; i < 20; ++i) {
+            rowSet.add(row(i));
+        }
+        Assert.assertEquals(20, rowSet.size());
+        Assert.assertArrayEquals(row(12), rowSet.get(12));
+        rowSet.clear();
+        Assert.assertTrue(rowSet.isEmpty());
+        Assert.assertEquals(0, rowFiles().length);
+    }
+
+    @Test
+    public void testMutatorsUnsupported() {
+        try (SpillingRowSet rowSet = new SpillingRowSet(1, 1, folder.getRoot().toPath())) {
+            rowSet.add(row(0));
+            rowSet.add(row(1));
+            assertUnsupported(() -> rowSet.set(0, row(2)));
+            assertUnsupported(() -> rowSet.add(0, row(2)));
+            assertUnsupported(() -> rowSet.addAll(0, Collections.singletonList(row(2))));
+            assertUnsupported(() -> rowSet.remove(0));
+            assertUnsupported(() -> rowSet.remove(rowSet.get(0)));
+            assertUnsupported(() -> rowSet.removeAll(Collections.emptyList()));
+            assertUnsupported(() -> rowSet.retainAll(Collections.emptyList()));
+            assertUnsupported(() -> rowSet.removeIf(row -> true));
+            assertUnsupported(() -> rowSet.replaceAll(row -> row));
+            assertUnsupported(() -> rowSet.sort(null));
+            assertUnsupported(() -> rowSet.clone());
+            assertUnsupported(() -> rowSet.subList(0, 1).clear());
+            Assert.assertEquals(2, rowSet.size());
+        }
+    }
+
+    private static Object[] row(final int i) {
+        return new Object[] { Integer.toString(i), "row " + i, (i % 2 == 0) ? null : "odd" };
+    }
+
+    private static Object[] largeRow(final int i) {
+        final char[] chars = new char[LARGE_CHARS - i];
+        Arrays.fill(chars, (char) ('a' + i % 26));
+        return new Object[] { Integer.toString(i), new String(chars) };
+    }
+
+    private static void assertLargeRow(final int i, final Object[] row) {
+        Assert.assertEquals(Integer.toString(i), row[0]);
+        final String large = (String) row[1];
+        Assert.assertEquals(LARGE_CHARS - i, large.length());
+        Assert.assertEquals((char) ('a' + i % 26), large.charAt(0));
+        Assert.assertEquals((char) ('a' + i % 26), large.charAt(large.length() - 1));
+    }
+
+    private static void assertUnsupported(final Runnable mutator) {
+        try {
+            mutator.run();
+            Assert.fail("the row set should not be modified");
+        } catch (UnsupportedOperationException e) {
+            Assert.assertNotNull(e);
+        }
+    }
+
+    private File[] rowFiles() {
+        return folder.getRoot().listFiles((dir, name) -> name.endsWith(".rows"));
+    }
+}
@@ -7,6 +7,7 @@ package com.ionic.jdbc.test;
 
 import com.ionic.jdbc.IonicResultSetHandler;
 import com.ionic.jdbc.RowSet;
+import com.ionic.key.KeyCache;
 import com.ionic.policy.PolicyService;
 import com.ionic.properties.AppProperties;
 import com.ionic.sdk.agent.Agent;
@@ -14,7 +15,6 @@ import com.ionic.sdk.agent.AgentSdk;
 import com.ionic.sdk.agent.key.KeyAttributesMap;
 import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
 import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
-import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
 import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
 import com.ionic.sdk.agent.request.updatekey.UpdateKeysRequest;
 import com.ionic.sdk.agent.request.updatekey.UpdateKeysResponse;
@@ -75,6 +75,12 @@ public class ITCreateReadJdbc {
      */
     private final Agent agent = new Agent();
 
+    /**
+     * Process-wide cache of Machina key request results, shared by the access record and personnel
+     * table reads.
+     */
+    private static KeyCache keyCache = null;
+
     private static String keyId = null;
 
     // database properties
@@ -133,6 +139,17 @@ public class ITCreateReadJdbc {
             }
         }
 
+        // key cache, shared by all key requests made in this process
+        if (keyCache == null) {
+            keyCache = new KeyCache(agent::getKeys,
+                    Integer.parseInt(appProperties.getProperty(
+                            AppProperties.IONIC_KEYCACHE_MAX_ENTRIES, "1024")),
+                    Long.parseLong(appProperties.getProperty(
+                            AppProperties.IONIC_KEYCACHE_TTL_MILLIS, "300000")),
+                    Long.parseLong(appProperties.getProperty(
+                            AppProperties.IONIC_KEYCACHE_DENIED_TTL_MILLIS, "30000")));
+        }
+
         dbUrl = appProperties.getProperty("jdbc.url");
         dbUser = appProperties.getProperty("jdbc.user");
         dbPassword = appProperties.getProperty("jdbc.password");
@@ -176,7 +193,7 @@ public class ITCreateReadJdbc {
         // establish database connection
         try (Connection connection = driver.connect(dbUrl, dbProperties)) {
             final QueryRunner queryRunnerAccess = new QueryRunner();
-            final ResultSetHandler<RowSet> handler = new IonicResultSetHandler(agent);
+            final ResultSetHandler<RowSet> handler = new IonicResultSetHandler(keyCache);
             rowSet = queryRunnerAccess.query(connection, dbSqlSelectAccess, handler);
         } catch (SQLException e) {
             System.err.println("ERROR: Failure to access database. " + e.getMessage());
@@ -368,6 +385,7 @@ public class ITCreateReadJdbc {
             logger.info("APPLY POLICY 'RESTRICT PII'");
             final String policyIdPii = policyService
                     .addPolicy(DeviceUtils.read(Resource.resolve(RESOURCE_POLICY_PII)));
+            keyCache.invalidateAll();
             try {
                 TimeUnit.SECONDS.sleep(30);
             } catch (InterruptedException e) {
@@ -378,6 +396,7 @@ public class ITCreateReadJdbc {
             logger.info("APPLY POLICY 'RESTRICT HR'");
             final String policyIdDept = policyService
                     .addPolicy(DeviceUtils.read(Resource.resolve(RESOURCE_POLICY_DEPT)));
+            keyCache.invalidateAll();
             try {
                 TimeUnit.SECONDS.sleep(30);
             } catch (InterruptedException e) {
@@ -387,6 +406,7 @@ public class ITCreateReadJdbc {
 
             logger.info("REMOVE POLICY 'RESTRICT PII'");
             policyService.deletePolicy(policyIdPii);
+            keyCache.invalidateAll();
             try {
                 TimeUnit.SECONDS.sleep(30);
             } catch (InterruptedException e) {
@@ -396,6 +416,7 @@ public class ITCreateReadJdbc {
 
             logger.info("REMOVE POLICY 'RESTRICT HR'");
             policyService.deletePolicy(policyIdDept);
+            keyCache.invalidateAll();
             try {
                 TimeUnit.SECONDS.sleep(30);
             } catch (InterruptedException e) {
@@ -426,15 +447,10 @@ public class ITCreateReadJdbc {
                 }
             }
 
-            // build the request with the set of keyids
-            GetKeysRequest request = new GetKeysRequest();
-            for (int i = 0; i < numKeyidColumns; i++) {
-                request.add(keyIds[i]);
-            }
-
-            // make the multiple keys request
+            // make the multiple keys request (keys already in the cache are not requested)
             try {
-                keys = agent.getKeys(request).getKeys();
+                keys = new ArrayList<GetKeysResponse.Key>(
+                        keyCache.getKeys(Arrays.asList(keyIds)).values());
             } catch (IonicException e) {
                 System.err.println(e.getMessage());
                 keys = null;
@@ -463,7 +479,7 @@ public class ITCreateReadJdbc {
     private boolean readRecords(final String dbSqlSelectPersonnel) {
         boolean readSuccess = false;
         final QueryRunner queryRunner = new QueryRunner();
-        final ResultSetHandler<RowSet> handler = new IonicResultSetHandler(agent);
+        final ResultSetHandler<RowSet> handler = new IonicResultSetHandler(keyCache);
         // establish database connection and read data from personnel table
         try (Connection connection = driver.connect(dbUrl, dbProperties)) {
             final RowSet rowSet = queryRunner.query(connection, dbSqlSelectPersonnel, handler);
@@ -0,0 +1,177 @@
+/*
+ * (c) 2020 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use.html) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.key;
+
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import com.ionic.sdk.error.SdkError;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Caching, expiry, eviction and invalidation of {@link KeyCache} entries, with a fetcher that
+ * releases the key ids starting with "K" and denies the others.
+ */
+public class KeyCacheTest {
+
+    private static final long LONG_TTL_MILLIS = 60000L;
+    private static final long SHORT_TTL_MILLIS = 50L;
+
+    /**
+     * The key ids of each request made to the fetcher.
+     */
+    private final List<List<String>> requests = new ArrayList<List<String>>();
+
+    private final KeyCache.KeyFetcher fetcher = request -> {
+        requests.add(new ArrayList<String>(request.getKeyIds()));
+        final GetKeysResponse response = new GetKeysResponse();
+        for (String keyId : request.getKeyIds()) {
+            if (keyId.startsWith("K")) {
+                final GetKeysResponse.Key key = new GetKeysResponse.Key();
+                key.setId(keyId);
+                response.add(key);
+            }
+        }
+        return response;
+    };
+
+    @Test
+    public void testCached() throws IonicException {
+        final KeyCache cache = new KeyCache(fetcher, 100, LONG_TTL_MILLIS, LONG_TTL_MILLIS);
+        final Map<String, GetKeysResponse.Key> keys =
+                cache.getKeys(Arrays.asList("K2", "D1", "K1"));
+        Assert.assertEquals(Arrays.asList("K2", "K1"), new ArrayList<String>(keys.keySet()));
+        Assert.assertEquals(3, cache.size());
+        final Map<String, GetKeysResponse.Key> cached = cache.getKeys(Arrays.asList("K1", "D1"));
+        Assert.assertEquals(1, requests.size());
+        Assert.assertSame(keys.get("K1"), cached.get("K1"));
+        Assert.assertFalse(cached.containsKey("D1"));
+        cache.getKeys(Arrays.asList("K1", "K3", "D2"));
+        Assert.assertEquals(Arrays.asList("K3", "D2"), requests.get(1));
+    }
+
+    @Test
+    public void testReleasedTtl() throws IonicException, InterruptedException {
+        final KeyCache cache = new KeyCache(fetcher, 100, SHORT_TTL_MILLIS, LONG_TTL_MILLIS);
+        cache.getKeys(Arrays.asList("K1", "D1"));
+        Thread.sleep(2 * SHORT_TTL_MILLIS);
+        Assert.assertTrue(cache.getKeys(Arrays.asList("K1", "D1")).containsKey("K1"));
+        Assert.assertEquals(2, requests.size());
+        Assert.assertEquals(Arrays.asList("K1"), requests.get(1));
+    }
+
+    @Test
+    public void testDeniedTtl() throws IonicException, InterruptedException {
+        final KeyCache cache = new KeyCache(fetcher, 100, LONG_TTL_MILLIS, SHORT_TTL_MILLIS);
+        cache.getKeys(Arrays.asList("K1", "D1"));
+        Thread.sleep(2 * SHORT_TTL_MILLIS);
+        Assert.assertTrue(cache.getKeys(Arrays.asList("K1", "D1")).containsKey("K1"));
+        Assert.assertEquals(2, requests.size());
+        Assert.assertEquals(Arrays.asList("D1"), requests.get(1));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws IonicException {
+        final KeyCache cache = new KeyCache(fetcher, 2, LONG_TTL_MILLIS, LONG_TTL_MILLIS);
+        cache.getKeys(Arrays.asList("K1"));
+        cache.getKeys(Arrays.asList("D1"));
+        cache.getKeys(Arrays.asList("K1"));
+        cache.getKeys(Arrays.asList("K2"));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(3, requests.size());
+        // D1 was the least recently used entry
+        cache.getKeys(Arrays.asList("K1", "K2"));
+        Assert.assertEquals(3, requests.size());
+        cache.getKeys(Arrays.asList("D1"));
+        Assert.assertEquals(Arrays.asList("D1"), requests.get(3));
+    }
+
+    @Test
+    public void testInvalidate() throws IonicException {
+        final KeyCache cache = new KeyCache(fetcher, 100, LONG_TTL_MILLIS, LONG_TTL_MILLIS);
+        cache.getKeys(Arrays.asList("K1", "K2", "D1"));
+        final long generation = cache.getGeneration();
+        cache.invalidate("K1");
+        Assert.assertNotEquals(generation, cache.getGeneration());
+        Assert.assertEquals(2, cache.size());
+        cache.getKeys(Arrays.asList("K1", "K2", "D1"));
+        Assert.assertEquals(Arrays.asList("K1"), requests.get(1));
+        cache.invalidateAll();
+        Assert.assertEquals(0, cache.size());
+        cache.getKeys(Arrays.asList("K2"));
+        Assert.assertEquals(3, requests.size());
+    }
+
+    @Test
+    public void testInvalidationDuringFetch() throws IonicException {
+        final KeyCache[] cache = new KeyCache[1];
+        cache[0] = new KeyCache(request -> {
+            final GetKeysResponse response = fetcher.getKeys(request);
+            // a policy change while the request is in flight
+            cache[0].invalidateAll();
+            return response;
+        }, 100, LONG_TTL_MILLIS, LONG_TTL_MILLIS);
+        final Map<String, GetKeysResponse.Key> keys = cache[0].getKeys(Arrays.asList("K1", "D1"));
+        Assert.assertTrue(keys.containsKey("K1"));
+        Assert.assertEquals(0, cache[0].size());
+        cache[0].getKeys(Arrays.asList("K1", "D1"));
+        Assert.assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void testListener() throws IonicException {
+        final List<String> accesses = new ArrayList<String>();
+        final KeyCache cache = new KeyCache(fetcher, 100, LONG_TTL_MILLIS, LONG_TTL_MILLIS,
+                (keyId, released) -> accesses.add(keyId + "=" + released));
+        cache.getKeys(Arrays.asList("K1", "D1"));
+        cache.getKeys(Arrays.asList("D1", "K1"));
+        Assert.assertEquals(Arrays.asList("K1=true", "D1=false", "D1=false", "K1=true"),
+                accesses);
+    }
+
+    @Test
+    public void testFetchFailure() throws IonicException {
+        final boolean[] fail = { true };
+        final KeyCache cache = new KeyCache(request -> {
+            if (fail[0]) {
+                throw new IonicException(SdkError.ISAGENT_REQUESTFAILED,
+                        new IOException("Connection refused"));
+            }
+            return fetcher.getKeys(request);
+        }, 100, LONG_TTL_MILLIS, LONG_TTL_MILLIS);
+        try {
+            cache.getKeys(Arrays.asList("K1", "D1"));
+            Assert.fail("the fetch failure should be thrown");
+        } catch (IonicException e) {
+            Assert.assertEquals(0, cache.size());
+        }
+        // the failure is not cached
+        fail[0] = false;
+        Assert.assertTrue(cache.getKeys(Arrays.asList("K1", "D1")).containsKey("K1"));
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testFetchFailureNotifiesListener() {
+        final List<String> accesses = new ArrayList<String>();
+        final KeyCache cache = new KeyCache(request -> {
+            throw new IllegalStateException("Malformed response");
+        }, 100, LONG_TTL_MILLIS, LONG_TTL_MILLIS,
+                (keyId, released) -> accesses.add(keyId + "=" + released));
+        try {
+            cache.getKeys(Arrays.asList("K1", "D1"));
+            Assert.fail("the fetch failure should be thrown");
+        } catch (IllegalStateException | IonicException e) {
+            Assert.assertEquals(Arrays.asList("K1=false", "D1=false"), accesses);
+        }
+    }
+}